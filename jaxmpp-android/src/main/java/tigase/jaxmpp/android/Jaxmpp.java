@@ -23,14 +23,16 @@ import tigase.jaxmpp.core.client.factory.UniversalFactory.FactorySpi;
 import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.DnsResolver;
 
 public class Jaxmpp extends tigase.jaxmpp.j2se.Jaxmpp {
+	private static final AndroidDNSResolver dnsResolver = new AndroidDNSResolver();
+
 	static {
 		UniversalFactory.setSpi(DnsResolver.class.getName(), new FactorySpi<DnsResolver>() {
 
 			@Override
 			public DnsResolver create() {
-				return new AndroidDNSResolver();
+				return dnsResolver;
 			}
-		});
+		}, true);
 	}
 
 	public Jaxmpp() {
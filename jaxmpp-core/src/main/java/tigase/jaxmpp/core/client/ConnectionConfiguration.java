@@ -17,6 +17,7 @@
  */
 package tigase.jaxmpp.core.client;
 
+import tigase.jaxmpp.core.client.connector.AbstractSocketXmppSessionLogic;
 import tigase.jaxmpp.core.client.xmpp.modules.auth.AuthModule;
 import tigase.jaxmpp.core.client.xmpp.modules.auth.CredentialsCallback;
 
@@ -55,6 +56,32 @@ public abstract class ConnectionConfiguration {
 		sessionObject.setUserProperty(SessionObject.DOMAIN_NAME, domainName);
 	}
 
+	/**
+	 * Enable or disable caching of serialized form of sent stanzas. If
+	 * enabled, stanza sent more than once (for example resent after stream
+	 * resumption) is serialized only once, at cost of memory used by cached
+	 * data.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> if serialized stanzas should be cached.
+	 */
+	public void setSerializationCacheEnabled(boolean enabled) {
+		sessionObject.setUserProperty(Connector.SERIALIZATION_CACHE_KEY, enabled);
+	}
+
+	/**
+	 * Enable or disable pipelined stream negotiation. If enabled, resource
+	 * binding and session establishment requests are sent right after SASL
+	 * success, without waiting for stream features. It is used only if
+	 * features received during previous login to the same server allow it.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> if negotiation should be pipelined.
+	 */
+	public void setPipeliningEnabled(boolean enabled) {
+		sessionObject.setUserProperty(AbstractSocketXmppSessionLogic.PIPELINING_ENABLED_KEY, enabled);
+	}
+
 	/**
 	 * Set XMPP resource.
 	 * 
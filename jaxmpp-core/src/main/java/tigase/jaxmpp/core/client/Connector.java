@@ -71,6 +71,16 @@ public interface Connector {
 	 */
 	String SEE_OTHER_HOST_KEY = "BOSH#SEE_OTHER_HOST_KEY";
 
+	/**
+	 * Name of property that enables keeping serialized form of sent stanzas
+	 * in stanzas itself (see
+	 * {@linkplain tigase.jaxmpp.core.client.xml.CachingElement
+	 * CachingElement}), so stanza sent again is not serialized again.
+	 * Disabled by default. <br/>
+	 * Type: {@linkplain Boolean Boolean}.
+	 */
+	String SERIALIZATION_CACHE_KEY = "CONNECTOR#SERIALIZATION_CACHE_KEY";
+
 	// public final static String DISABLE_SOCKET_TIMEOUT_KEY =
 	// "CONNECTOR#DISABLE_SOCKET_TIMEOUT_KEY";
 	/**
@@ -511,4 +521,49 @@ public interface Connector {
 		}
 	}
 
+	/**
+	 * Implemented by handlers of {@linkplain WritabilityChangedEvent
+	 * WritabilityChangedEvent}.
+	 */
+	interface WritabilityChangedHandler extends EventHandler {
+
+		/**
+		 * Called when {@linkplain WritabilityChangedEvent
+		 * WritabilityChangedEvent} is fired.
+		 *
+		 * @param sessionObject
+		 *            session object related to connection.
+		 * @param writable
+		 *            <code>false</code> if amount of data waiting to be sent
+		 *            exceeded high watermark, <code>true</code> if it dropped
+		 *            below low watermark.
+		 */
+		void onWritabilityChanged(SessionObject sessionObject, boolean writable) throws JaxmppException;
+
+		/**
+		 * Fired when connection becomes writable or unwritable. Producers may
+		 * use it to stop sending stanzas when peer is not able to receive
+		 * them fast enough.
+		 */
+		class WritabilityChangedEvent extends JaxmppEvent<WritabilityChangedHandler> {
+
+			private boolean writable;
+
+			public WritabilityChangedEvent(SessionObject sessionObject, boolean writable) {
+				super(sessionObject);
+				this.writable = writable;
+			}
+
+			@Override
+			protected void dispatch(WritabilityChangedHandler handler) throws JaxmppException {
+				handler.onWritabilityChanged(sessionObject, writable);
+			}
+
+			public boolean isWritable() {
+				return writable;
+			}
+
+		}
+	}
+
 }
\ No newline at end of file
@@ -441,9 +441,11 @@ public abstract class JaxmppCore {
 	protected abstract void onStreamTerminated() throws JaxmppException;
 
 	protected void onUnacknowledged(List<Element> elements) throws JaxmppException {
-		for (Element e : elements) {
-			if (e == null)
+		for (Element unacknowledged : elements) {
+			if (unacknowledged == null)
 				continue;
+			// sent element may be frozen or still referenced by application
+			final Element e = ElementFactory.create(unacknowledged);
 			String to = e.getAttribute("to");
 			String from = e.getAttribute("from");
 
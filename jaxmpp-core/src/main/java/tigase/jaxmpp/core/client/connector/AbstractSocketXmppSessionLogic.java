@@ -17,11 +17,16 @@
  */
 package tigase.jaxmpp.core.client.connector;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import tigase.jaxmpp.core.client.*;
+import tigase.jaxmpp.core.client.SessionObject.Scope;
 import tigase.jaxmpp.core.client.XMPPException.ErrorCondition;
 import tigase.jaxmpp.core.client.exceptions.JaxmppException;
 import tigase.jaxmpp.core.client.xml.Element;
 import tigase.jaxmpp.core.client.xmpp.modules.ResourceBinderModule;
+import tigase.jaxmpp.core.client.xmpp.modules.ResourceBinderModule.ResourceBindErrorHandler;
 import tigase.jaxmpp.core.client.xmpp.modules.ResourceBinderModule.ResourceBindSuccessHandler;
 import tigase.jaxmpp.core.client.xmpp.modules.SessionEstablishmentModule;
 import tigase.jaxmpp.core.client.xmpp.modules.StreamFeaturesModule;
@@ -35,6 +40,41 @@ import tigase.jaxmpp.core.client.xmpp.modules.streammng.StreamManagementModule;
 
 public class AbstractSocketXmppSessionLogic<T extends Connector> implements XmppSessionLogic {
 
+	/**
+	 * Name of user property used to keep stream features received after
+	 * authentication, per domain. Cache survives between logins.
+	 */
+	public static final String CACHED_STREAM_FEATURES_KEY = "jaxmpp#cachedStreamFeatures";
+
+	/**
+	 * Name of user property used to enable pipelined stream negotiation. If
+	 * enabled, resource bind (and session establishment, if required) requests
+	 * are sent immediately after stream restart, without waiting for stream
+	 * features, provided that features cached during previous login to the
+	 * same domain show them available.
+	 */
+	public static final String PIPELINING_ENABLED_KEY = "PIPELINING_ENABLED_KEY";
+
+	/**
+	 * Returns stream features received after authentication during previous
+	 * login to given domain.
+	 *
+	 * @param sessionObject
+	 *            session object.
+	 * @param domain
+	 *            domain name.
+	 * @return cached features or <code>null</code>.
+	 */
+	public static Element getCachedStreamFeatures(SessionObject sessionObject, String domain) {
+		Map<String, Element> cache = sessionObject.getProperty(CACHED_STREAM_FEATURES_KEY);
+		return cache == null || domain == null ? null : cache.get(domain);
+	}
+
+	public static boolean isPipeliningEnabled(SessionObject sessionObject) {
+		Boolean enabled = sessionObject.getProperty(PIPELINING_ENABLED_KEY);
+		return enabled != null && enabled.booleanValue();
+	}
+
 	protected final T connector;
 	protected final Context context;
 	private final StreamManagementModule.StreamManagementFailedHandler streamResumeFailedHandler;
@@ -49,10 +89,18 @@ public class AbstractSocketXmppSessionLogic<T extends Connector> implements Xmpp
 	private AuthModule authModule;
 	private StreamFeaturesModule featuresModule;
 	private ResourceBinderModule resourceBinder;
+	private final ResourceBindErrorHandler resourceBindErrorListener;
 	private ResourceBindSuccessHandler resourceBindListener;
 	private SessionEstablishmentModule sessionEstablishmentModule;
 	private SessionListener sessionListener;
 	private StreamManagementModule streamManaegmentModule;
+	private boolean pipelinedBind;
+	private boolean pipelinedSession;
+	/**
+	 * <code>true</code> if result of pipelined session establishment request
+	 * should be ignored, because pipelined resource bind failed.
+	 */
+	private boolean pipelinedSessionDiscarded;
 
 	protected AbstractSocketXmppSessionLogic(T connector, XmppModulesManager modulesManager, Context context) {
 		this.connector = connector;
@@ -100,6 +148,17 @@ public class AbstractSocketXmppSessionLogic<T extends Connector> implements Xmpp
 				AbstractSocketXmppSessionLogic.this.processResourceBindEvent(sessionObject, bindedJid);
 			}
 		};
+		this.resourceBindErrorListener = new ResourceBindErrorHandler() {
+
+			@Override
+			public void onResourceBindError(SessionObject sessionObject, ErrorCondition errorCondition) {
+				try {
+					AbstractSocketXmppSessionLogic.this.processResourceBindError(errorCondition);
+				} catch (JaxmppException e) {
+					e.printStackTrace();
+				}
+			}
+		};
 		this.streamResumeFailedHandler = new StreamManagementModule.StreamManagementFailedHandler() {
 			@Override
 			public void onStreamManagementFailed(SessionObject sessionObject, ErrorCondition condition) {
@@ -115,6 +174,8 @@ public class AbstractSocketXmppSessionLogic<T extends Connector> implements Xmpp
 
 			@Override
 			public void onSessionEstablishmentError(SessionObject sessionObject, ErrorCondition error) throws JaxmppException {
+				if (isPipelinedSessionDiscarded())
+					return;
 				// FIXME
 				sessionBindedAndEstablished(sessionObject);
 			}
@@ -123,6 +184,8 @@ public class AbstractSocketXmppSessionLogic<T extends Connector> implements Xmpp
 
 			@Override
 			public void onSessionEstablishmentSuccess(SessionObject sessionObject) throws JaxmppException {
+				if (isPipelinedSessionDiscarded())
+					return;
 				sessionBindedAndEstablished(sessionObject);
 			}
 		};
@@ -163,14 +226,51 @@ public class AbstractSocketXmppSessionLogic<T extends Connector> implements Xmpp
 		if (context.getSessionObject().getProperty(SessionObject.DOMAIN_NAME) == null)
 			context.getSessionObject().setProperty(SessionObject.DOMAIN_NAME,
 					((BareJID) context.getSessionObject().getProperty(SessionObject.USER_BARE_JID)).getDomain());
+
+		pipelinedBind = false;
+		pipelinedSession = false;
+		pipelinedSessionDiscarded = false;
+	}
+
+	private void cacheStreamFeatures(Element featuresElement) {
+		final SessionObject sessionObject = context.getSessionObject();
+		final String domain = sessionObject.getProperty(SessionObject.DOMAIN_NAME);
+		if (domain == null || featuresElement == null)
+			return;
+		Map<String, Element> cache = sessionObject.getProperty(CACHED_STREAM_FEATURES_KEY);
+		if (cache == null) {
+			cache = new HashMap<String, Element>();
+			sessionObject.setProperty(Scope.user, CACHED_STREAM_FEATURES_KEY, cache);
+		}
+		cache.put(domain, featuresElement);
+	}
+
+	private static boolean isSessionEstablishingRequired(Element features) throws JaxmppException {
+		Element session = features.getChildrenNS("session", "urn:ietf:params:xml:ns:xmpp-session");
+		return session != null && session.getFirstChild("optional") == null;
 	}
 
 	protected void processAuthFailed(SaslError error) throws JaxmppException {
 		throw new JaxmppException("Unauthorized with condition=" + error);
 	}
 
+	private boolean isPipelinedSessionDiscarded() {
+		if (!pipelinedSessionDiscarded)
+			return false;
+		pipelinedSessionDiscarded = false;
+		return true;
+	}
+
 	protected void processAuthSuccess() throws JaxmppException {
+		pipelinedBind = false;
+		pipelinedSession = false;
+		pipelinedSessionDiscarded = false;
 		connector.restartStream();
+
+		if (isPipeliningEnabled(context.getSessionObject())
+				&& !StreamManagementModule.isResumptionEnabled(context.getSessionObject())) {
+			pipelineSessionNegotiation();
+		}
 	}
 
 	protected void processConnectorErrors(StreamError condition, Throwable caught) throws JaxmppException {
@@ -186,7 +286,47 @@ public class AbstractSocketXmppSessionLogic<T extends Connector> implements Xmpp
 			sessionListener.onException(e);
 	}
 
+	/**
+	 * Sends resource bind and session establishment requests right after
+	 * restarted stream header, if features cached during previous login show
+	 * they will be available. Server processes them after sending stream
+	 * features, so two round trips are saved.
+	 */
+	protected void pipelineSessionNegotiation() throws JaxmppException {
+		final SessionObject sessionObject = context.getSessionObject();
+		final Element features = getCachedStreamFeatures(sessionObject,
+				(String) sessionObject.getProperty(SessionObject.DOMAIN_NAME));
+		if (features == null || features.getChildrenNS("bind", "urn:ietf:params:xml:ns:xmpp-bind") == null)
+			return;
+
+		pipelinedBind = true;
+		resourceBinder.bind();
+		if (isSessionEstablishingRequired(features)) {
+			pipelinedSession = true;
+			sessionEstablishmentModule.establish();
+		}
+	}
+
+	/**
+	 * Falls back to regular resource bind if pipelined bind failed, for
+	 * example because features cached during previous login are out of date.
+	 * Response to pipelined session establishment request, which fails
+	 * without bound resource, is ignored.
+	 */
+	protected void processResourceBindError(ErrorCondition errorCondition) throws JaxmppException {
+		if (!pipelinedBind)
+			return;
+		pipelinedBind = false;
+		pipelinedSessionDiscarded = pipelinedSession;
+		pipelinedSession = false;
+		resourceBinder.bind();
+	}
+
 	protected void processResourceBindEvent(SessionObject sessionObject, JID bindedJid) throws JaxmppException {
+		if (pipelinedSession) {
+			// session establishment request is already sent
+			return;
+		}
 		if (SessionEstablishmentModule.isSessionEstablishingAvailable(context.getSessionObject())) {
 			modulesManager.getModule(SessionEstablishmentModule.class).establish();
 		} else
@@ -222,7 +362,10 @@ public class AbstractSocketXmppSessionLogic<T extends Connector> implements Xmpp
 			authModule.login();
 		} else if (isAuthorized && resumption) {
 			streamManaegmentModule.resume();
+		} else if (isAuthorized && pipelinedBind) {
+			cacheStreamFeatures(featuresElement);
 		} else if (isAuthorized) {
+			cacheStreamFeatures(featuresElement);
 			resourceBinder.bind();
 		}
 	}
@@ -259,6 +402,7 @@ public class AbstractSocketXmppSessionLogic<T extends Connector> implements Xmpp
 		authModule.addAuthSuccessHandler(authSuccessHandler);
 		authModule.addAuthFailedHandler(authFailedHandler);
 		resourceBinder.addResourceBindSuccessHandler(resourceBindListener);
+		resourceBinder.addResourceBindErrorHandler(resourceBindErrorListener);
 
 		this.sessionEstablishmentModule.addSessionEstablishmentErrorHandler(sessionEstablishmentErrorHandler);
 		this.sessionEstablishmentModule.addSessionEstablishmentSuccessHandler(sessionEstablishmentSuccessHandler);
@@ -276,6 +420,7 @@ public class AbstractSocketXmppSessionLogic<T extends Connector> implements Xmpp
 		authModule.removeAuthSuccessHandler(authSuccessHandler);
 		authModule.removeAuthFailedHandler(authFailedHandler);
 		resourceBinder.removeResourceBindSuccessHandler(resourceBindListener);
+		resourceBinder.removeResourceBindErrorHandler(resourceBindErrorListener);
 
 		this.sessionEstablishmentModule.removeSessionEstablishmentErrorHandler(sessionEstablishmentErrorHandler);
 		this.sessionEstablishmentModule.removeSessionEstablishmentSuccessHandler(sessionEstablishmentSuccessHandler);
@@ -17,19 +17,64 @@
  */
 package tigase.jaxmpp.core.client.criteria.tpath;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.RandomAccess;
 
 import tigase.jaxmpp.core.client.criteria.Criteria;
+import tigase.jaxmpp.core.client.criteria.ElementCriteria;
 import tigase.jaxmpp.core.client.xml.Element;
 import tigase.jaxmpp.core.client.xml.XMLException;
 
 public class Node {
 
+	/**
+	 * List of results of expression which has more than one result.
+	 */
+	static final class Results extends ArrayList<Object> {
+
+		private static final long serialVersionUID = 1L;
+
+		Results(Object first, Object second) {
+			add(first);
+			add(second);
+		}
+	}
+
+	private static boolean equal(final String expected, final String actual) {
+		return expected == actual || (expected != null && expected.equals(actual));
+	}
+
+	/**
+	 * Names of required attributes of node created by {@link TPath}, or
+	 * <code>null</code> if attributes are not checked.
+	 */
+	private String[] attNames;
+
+	/**
+	 * Required values of attributes. <code>null</code> value means that
+	 * attribute must exist and may have any value.
+	 */
+	private String[] attValues;
+
+	/**
+	 * <code>true</code> if node is checked by name and attributes instead of
+	 * criteria.
+	 */
+	private boolean compiled;
+
 	private Criteria criteria;
 
 	private Function function;
 
+	/**
+	 * Required name of element of node created by {@link TPath}, or
+	 * <code>null</code> if any name is accepted.
+	 */
+	private String name;
+
 	private Node subnode;
 
 	public Node(Criteria criteria, Node subnode) {
@@ -43,31 +88,116 @@ public class Node {
 		this.function = f;
 	}
 
+	/**
+	 * Creates node checking name and attributes of element without
+	 * {@link Criteria} object.
+	 */
+	Node(String name, String[] attNames, String[] attValues) {
+		this.name = name;
+		this.attNames = attNames;
+		this.attValues = attValues;
+		this.compiled = true;
+	}
+
+	/**
+	 * Adds result found in given element to results found so far.
+	 *
+	 * @param found
+	 *            <code>null</code> if nothing is found yet, single result or
+	 *            {@link Results}.
+	 * @return results found so far.
+	 */
+	Object accumulate(Object found, Element src) throws XMLException {
+		if (!match(src))
+			return found;
+
+		if (subnode == null) {
+			final Object r = function == null ? src : function.value(src);
+			if (r == null)
+				return found;
+			if (found == null)
+				return r;
+			if (found instanceof Results) {
+				((Results) found).add(r);
+				return found;
+			}
+			return new Results(found, r);
+		}
+
+		final List<Element> children = src.getChildren();
+		if (children == null)
+			return found;
+		if (children instanceof RandomAccess) {
+			for (int i = 0, size = children.size(); i < size; i++) {
+				found = subnode.accumulate(found, children.get(i));
+			}
+		} else {
+			for (Iterator<Element> it = children.iterator(); it.hasNext();) {
+				found = subnode.accumulate(found, it.next());
+			}
+		}
+		return found;
+	}
+
 	public void evaluate(final Collection<Object> result, Element src) throws XMLException {
-		if (criteria != null && !criteria.match(src))
+		if (!match(src))
 			return;
 
-		if (subnode == null && function != null) {
-			Object r = function.value(src);
-			if (r != null)
-				result.add(r);
-			return;
-		} else if (subnode == null && function == null) {
-			Object r = src;
+		if (subnode == null) {
+			final Object r = function == null ? src : function.value(src);
 			if (r != null)
 				result.add(r);
 			return;
 		}
 
-		List<Element> children = src.getChildren();
-		for (Element element : children) {
-			subnode.evaluate(result, element);
+		final List<Element> children = src.getChildren();
+		if (children == null)
+			return;
+		if (children instanceof RandomAccess) {
+			for (int i = 0, size = children.size(); i < size; i++) {
+				subnode.evaluate(result, children.get(i));
+			}
+		} else {
+			for (Iterator<Element> it = children.iterator(); it.hasNext();) {
+				subnode.evaluate(result, it.next());
+			}
 		}
+	}
 
-		return;
+	/**
+	 * Returns first result found in given element.
+	 *
+	 * @return first result or <code>null</code> if nothing is found.
+	 */
+	Object evaluateFirst(Element src) throws XMLException {
+		if (!match(src))
+			return null;
+
+		if (subnode == null)
+			return function == null ? src : function.value(src);
+
+		final List<Element> children = src.getChildren();
+		if (children == null)
+			return null;
+		if (children instanceof RandomAccess) {
+			for (int i = 0, size = children.size(); i < size; i++) {
+				final Object r = subnode.evaluateFirst(children.get(i));
+				if (r != null)
+					return r;
+			}
+		} else {
+			for (Iterator<Element> it = children.iterator(); it.hasNext();) {
+				final Object r = subnode.evaluateFirst(it.next());
+				if (r != null)
+					return r;
+			}
+		}
+		return null;
 	}
 
 	public Criteria getCriteria() {
+		if (compiled && criteria == null)
+			criteria = ElementCriteria.name(name, attNames, attValues);
 		return criteria;
 	}
 
@@ -79,8 +209,26 @@ public class Node {
 		return subnode;
 	}
 
+	private boolean match(final Element src) throws XMLException {
+		if (!compiled)
+			return criteria == null || criteria.match(src);
+
+		if (name != null && !equal(name, src.getName()))
+			return false;
+		if (attNames != null) {
+			for (int i = 0; i < attNames.length; i++) {
+				final String value = "xmlns".equals(attNames[i]) ? src.getXMLNS() : src.getAttribute(attNames[i]);
+				// condition without value (like [@node]) only requires attribute
+				if (attValues[i] == null ? value == null : !attValues[i].equals(value))
+					return false;
+			}
+		}
+		return true;
+	}
+
 	public void setCriteria(Criteria criteria) {
 		this.criteria = criteria;
+		this.compiled = false;
 	}
 
 	public void setFunction(Function function) {
@@ -91,4 +239,4 @@ public class Node {
 		this.subnode = subnode;
 	}
 
-}
\ No newline at end of file
+}
@@ -18,77 +18,118 @@
 package tigase.jaxmpp.core.client.criteria.tpath;
 
 import java.util.ArrayList;
-
-import tigase.jaxmpp.core.client.criteria.Criteria;
-import tigase.jaxmpp.core.client.criteria.ElementCriteria;
-
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiles TPath expressions, like
+ * <code>/iq[@type='result']/query[@xmlns='jabber:iq:roster']/item/attr('jid')</code>
+ * . Compiled expressions are cached, so compiling the same path again is
+ * cheap.
+ */
 public class TPath {
 
-	public TPathExpression compile(final String path) {
-		String[] tokens = path.split("/");
-		Node rootNode = null;
-		Node lastNode = null;
-		for (String string : tokens) {
-			if (rootNode == null && string.isEmpty())
-				continue;
-			Object n = createNode(string);
-			if (n instanceof Node) {
-				if (rootNode == null)
-					rootNode = (Node) n;
+	/**
+	 * Maximal number of cached expressions.
+	 */
+	public static final int CACHE_SIZE = 256;
 
-				if (lastNode != null) {
-					lastNode.setSubnode((Node) n);
-				}
+	private static final Map<String, TPathExpression> cache = new LinkedHashMap<String, TPathExpression>(16, 0.75f,
+			true) {
 
-				lastNode = (Node) n;
-			} else if (n instanceof Function) {
-				lastNode.setFunction((Function) n);
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, TPathExpression> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Returns index of first occurrence of given character which is not
+	 * inside brackets, parentheses or quotes.
+	 */
+	private static int indexOfUnquoted(final String s, final char c, final int from) {
+		char quote = 0;
+		int depth = 0;
+		for (int i = from; i < s.length(); i++) {
+			final char x = s.charAt(i);
+			if (quote != 0) {
+				if (x == quote)
+					quote = 0;
+			} else if (x == '\'' || x == '"') {
+				quote = x;
+			} else if (x == '[' || x == '(') {
+				depth++;
+			} else if ((x == ']' || x == ')') && depth > 0) {
+				depth--;
+			} else if (x == c && depth == 0) {
+				return i;
 			}
 		}
+		return -1;
+	}
 
-		return new TPathExpression(rootNode);
+	private static String unquote(String s) {
+		s = s.trim();
+		if (s.length() >= 2 && (s.charAt(0) == '\'' || s.charAt(0) == '"') && s.charAt(s.length() - 1) == s.charAt(0))
+			return s.substring(1, s.length() - 1);
+		return s;
+	}
+
+	/**
+	 * Compiles expression or returns cached one.
+	 *
+	 * @param path
+	 *            TPath expression.
+	 * @return compiled expression.
+	 */
+	public TPathExpression compile(final String path) {
+		synchronized (cache) {
+			TPathExpression result = cache.get(path);
+			if (result != null)
+				return result;
+		}
+		final TPathExpression result = parse(path);
+		synchronized (cache) {
+			cache.put(path, result);
+		}
+		return result;
 	}
 
 	private Node createConditionNode(String item) {
-		String[] tkns = item.split("[\\[\\]]");
-		String name = null;
-		ArrayList<String> pNames = new ArrayList<String>();
-		ArrayList<String> pVals = new ArrayList<String>();
-		for (int i = 0; i < tkns.length; i++) {
-			String l = tkns[i];
-			if (i == 0) {
-				name = l;
-			} else if (l.charAt(0) == '@') {
-				String[] x = l.split("=");
-				// XXX
-				String pName = x[0].substring(1);
-				String pVal = x[1].replace('\'', ' ').trim();
-
-				pNames.add(pName);
-				pVals.add(pVal);
+		int open = item.indexOf('[');
+		final String name = open < 0 ? item : item.substring(0, open);
+		ArrayList<String> pNames = null;
+		ArrayList<String> pVals = null;
+		while (open >= 0) {
+			final int close = indexOfUnquoted(item, ']', open + 1);
+			if (close < 0)
+				throw new RuntimeException("Unclosed condition in '" + item + "'");
+			final String condition = item.substring(open + 1, close).trim();
+			if (condition.length() > 0 && condition.charAt(0) == '@') {
+				final int eq = condition.indexOf('=');
+				if (pNames == null) {
+					pNames = new ArrayList<String>();
+					pVals = new ArrayList<String>();
+				}
+				pNames.add(condition.substring(1, eq < 0 ? condition.length() : eq).trim());
+				pVals.add(eq < 0 ? null : unquote(condition.substring(eq + 1)));
 			}
-
+			open = item.indexOf('[', close + 1);
 		}
 
 		final String fName = name.equals("*") ? null : name;
-
-		Criteria criteria;
-		if (pNames.isEmpty()) {
-			criteria = ElementCriteria.name(fName);
-		} else {
-			criteria = ElementCriteria.name(fName, pNames.toArray(new String[] {}), pVals.toArray(new String[] {}));
-		}
-
-		Node n = new Node(criteria, null);
-
-		return n;
+		if (pNames == null)
+			return new Node(fName, null, null);
+		return new Node(fName, pNames.toArray(new String[pNames.size()]), pVals.toArray(new String[pVals.size()]));
 	}
 
 	private Function createFunction(final String f) {
-		String[] tk = f.split("[\\(\\)]");
-
-		final String fname = tk[0].trim();
-		final String fp = tk.length > 1 ? tk[1].replace('\'', ' ').trim() : null;
+		final int open = f.indexOf('(');
+		final String fname = f.substring(0, open).trim();
+		final String arg = f.substring(open + 1, f.length() - 1);
+		final String fp = arg.trim().length() > 0 ? unquote(arg) : null;
 
 		if ("value".equals(fname)) {
 			return new Function.Value();
@@ -104,4 +145,35 @@ public class TPath {
 		} else
 			return createConditionNode(string);
 	}
-}
\ No newline at end of file
+
+	private TPathExpression parse(final String path) {
+		Node rootNode = null;
+		Node lastNode = null;
+		int start = 0;
+		while (start <= path.length()) {
+			int end = indexOfUnquoted(path, '/', start);
+			if (end < 0)
+				end = path.length();
+			final String string = path.substring(start, end);
+			start = end + 1;
+			// leading and trailing slashes are ignored
+			if (string.length() == 0 && (rootNode == null || end == path.length()))
+				continue;
+			Object n = createNode(string);
+			if (n instanceof Node) {
+				if (rootNode == null)
+					rootNode = (Node) n;
+
+				if (lastNode != null) {
+					lastNode.setSubnode((Node) n);
+				}
+
+				lastNode = (Node) n;
+			} else if (n instanceof Function) {
+				lastNode.setFunction((Function) n);
+			}
+		}
+
+		return new TPathExpression(rootNode);
+	}
+}
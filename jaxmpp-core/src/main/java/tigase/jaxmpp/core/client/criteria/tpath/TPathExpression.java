@@ -18,34 +18,67 @@
 package tigase.jaxmpp.core.client.criteria.tpath;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import tigase.jaxmpp.core.client.xml.Element;
 import tigase.jaxmpp.core.client.xml.XMLException;
 
+/**
+ * Compiled TPath expression. Expression is immutable and may be evaluated by
+ * many threads at once.
+ */
 public class TPathExpression {
 
-	private Node node;
+	private final Node node;
 
 	TPathExpression(Node rootNode) {
 		this.node = rootNode;
 	}
 
+	/**
+	 * Evaluates expression.
+	 *
+	 * @return <code>null</code> if nothing is found, found object if there is
+	 *         only one result, or {@link List} of results.
+	 */
 	public Object evaluate(Element element) throws XMLException {
-		List<Object> r = evaluateAsArray(element);
-		if (r.isEmpty())
+		if (node == null)
 			return null;
-		else if (r.size() == 1) {
-			return r.get(0);
-		} else
-			return r;
+		return node.accumulate(null, element);
+	}
+
+	/**
+	 * Evaluates expression and adds results to given collection. It doesn't
+	 * allocate any objects, so collection may be reused to extract values from
+	 * many stanzas.
+	 *
+	 * @param element
+	 *            evaluated element.
+	 * @param result
+	 *            collection to which results are added.
+	 */
+	public void evaluate(Element element, Collection<Object> result) throws XMLException {
+		if (node != null)
+			node.evaluate(result, element);
 	}
 
 	public List<Object> evaluateAsArray(Element element) throws XMLException {
 		ArrayList<Object> x = new ArrayList<Object>();
-		this.node.evaluate(x, element);
-
+		evaluate(element, x);
 		return x;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Evaluates expression and returns first result. Evaluation stops as soon
+	 * as result is found.
+	 *
+	 * @return first result or <code>null</code> if nothing is found.
+	 */
+	public Object evaluateFirst(Element element) throws XMLException {
+		if (node == null)
+			return null;
+		return node.evaluateFirst(element);
+	}
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.core.client.xml;
+
+/**
+ * Element which may keep its own serialized form, so element sent more than
+ * once (for example resent after stream resumption) is serialized only once.
+ * Cached form is dropped when element or any of its descendants is modified
+ * with methods of {@link Element}. Changes made directly in list returned by
+ * {@link Element#getChildren()} are not tracked.
+ */
+public interface CachingElement extends Element {
+
+	/**
+	 * Returns cached serialized form of element.
+	 *
+	 * @return encoded element or <code>null</code> if nothing is cached.
+	 */
+	byte[] getCachedBytes();
+
+	/**
+	 * Stores serialized form of element. Data must not be modified after it
+	 * is stored.
+	 *
+	 * @param data
+	 *            encoded element or <code>null</code> to clear cache.
+	 */
+	void setCachedBytes(byte[] data);
+
+}
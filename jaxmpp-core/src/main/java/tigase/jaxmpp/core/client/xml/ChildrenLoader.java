@@ -0,0 +1,36 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.core.client.xml;
+
+import java.util.List;
+
+/**
+ * Builds children of {@link CompactElement} when they are accessed for the
+ * first time. It allows to keep payload of received stanza in cheaper form
+ * until it is really needed.
+ */
+public interface ChildrenLoader {
+
+	/**
+	 * Builds children of element. It is called at most once.
+	 *
+	 * @return list of new elements without parent.
+	 */
+	List<Element> loadChildren() throws XMLException;
+
+}
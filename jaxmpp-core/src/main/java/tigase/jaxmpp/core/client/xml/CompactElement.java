@@ -0,0 +1,558 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.core.client.xml;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import tigase.jaxmpp.core.client.xmpp.utils.EscapeUtils;
+
+/**
+ * Compact implementation of XML Element. Attributes are kept in single array
+ * of interleaved names and values, children in array growing on demand, and
+ * nothing is allocated for leaf element without attributes. Instances are not
+ * synchronized, so element must not be modified concurrently with reading.
+ * Use {@link ElementFactory#setCompact(boolean)} to create elements of this
+ * type.
+ * <p>
+ * Element may be {@linkplain #freeze() frozen}. Frozen element is immutable,
+ * so it may be read by many threads without locking. Each attempt to modify
+ * it throws {@link XMLException}; {@link ElementWrapper} replaces wrapped
+ * frozen element with mutable copy before first modification.
+ * </p>
+ * <p>
+ * Children may be built lazily by {@link ChildrenLoader}, on first access to
+ * them. Loading is synchronized, so it is safe also for frozen elements.
+ * </p>
+ */
+public class CompactElement implements CachingElement {
+
+	private final class ChildrenView extends AbstractList<Element> implements RandomAccess {
+
+		@Override
+		public Element get(int index) {
+			if (index < 0 || index >= childrenCount)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + childrenCount);
+			return children[index];
+		}
+
+		@Override
+		public int size() {
+			return childrenCount;
+		}
+	}
+
+	private static final Element[] NO_CHILDREN = new Element[0];
+
+	private static final String[] NO_ATTRIBUTES = new String[0];
+
+	/**
+	 * Checks if element is frozen {@link CompactElement}.
+	 */
+	static boolean isFrozen(Element element) {
+		return element instanceof CompactElement && ((CompactElement) element).frozen;
+	}
+
+	static CompactElement create(final Element src, int deep) throws XMLException {
+		final CompactElement result = new CompactElement(src.getName(), src.getValue(), src.getXMLNS());
+		result.setAttributes(src.getAttributes());
+		if (deep != 0) {
+			for (Element e : src.getChildren()) {
+				CompactElement c = create(e, deep - 1);
+				result.addChild(c);
+			}
+		}
+		return result;
+	}
+
+	private String[] attributes = NO_ATTRIBUTES;
+
+	private int attributesCount;
+
+	private volatile byte[] cachedBytes;
+
+	private Element[] children = NO_CHILDREN;
+
+	private int childrenCount;
+
+	private volatile ChildrenLoader childrenLoader;
+
+	private ChildrenView childrenView;
+
+	private boolean frozen;
+
+	private int hash;
+
+	private final String name;
+
+	private Element parent;
+
+	private String value;
+
+	private String xmlns;
+
+	protected CompactElement(String name, String value, String xmlns) {
+		this.name = name;
+		this.value = value;
+		this.xmlns = xmlns;
+	}
+
+	@Override
+	public Element addChild(Element child) throws XMLException {
+		checkMutable();
+		ensureChildren();
+		if (isFrozen(child))
+			child = ElementFactory.create(child);
+		child.setParent(this);
+		if (childrenCount == children.length) {
+			Element[] tmp = new Element[children.length == 0 ? 2 : children.length * 2];
+			System.arraycopy(children, 0, tmp, 0, childrenCount);
+			children = tmp;
+		}
+		children[childrenCount++] = child;
+		return child;
+	}
+
+	private int attributeIndex(String attName) {
+		for (int i = 0; i < attributesCount; i++) {
+			if (attributes[2 * i].equals(attName))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks if element may be modified and drops cached serialized form of
+	 * it and of its ancestors.
+	 */
+	private void checkMutable() throws XMLException {
+		if (frozen)
+			throw new XMLException("Element is frozen");
+		DefaultElement.invalidateCachedBytes(this);
+	}
+
+	private void ensureChildren() throws XMLException {
+		if (childrenLoader != null)
+			loadChildren();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Element))
+			return false;
+		return ElementComparator.equal((Element) obj, this);
+	}
+
+	/**
+	 * Makes this element and all its descendants immutable. Frozen tree must
+	 * be published to other threads with happens-before relation, for example
+	 * through concurrent queue.
+	 */
+	public void freeze() {
+		if (frozen)
+			return;
+		for (int i = 0; i < childrenCount; i++) {
+			if (children[i] instanceof CompactElement)
+				((CompactElement) children[i]).freeze();
+		}
+		frozen = true;
+	}
+
+	@Override
+	public Element findChild(String[] elemPath) throws XMLException {
+		int i = 0;
+		if (elemPath.length > 0 && elemPath[0].length() == 0)
+			i++;
+		if (i >= elemPath.length || !elemPath[i].equals(name))
+			return null;
+
+		Element child = this;
+		for (i++; i < elemPath.length && child != null; i++) {
+			child = child.getFirstChild(elemPath[i]);
+		}
+		return child;
+	}
+
+	@Override
+	public String getAsString() throws XMLException {
+		StringBuilder builder = new StringBuilder();
+		writeTo(builder);
+		return builder.toString();
+	}
+
+	@Override
+	public String getAttribute(String attName) throws XMLException {
+		if ("xmlns".equals(attName))
+			return getXMLNS();
+		int i = attributeIndex(attName);
+		return i == -1 ? null : attributes[2 * i + 1];
+	}
+
+	/**
+	 * Returns copy of attributes. Changes of returned map don't affect
+	 * element.
+	 */
+	@Override
+	public Map<String, String> getAttributes() throws XMLException {
+		Map<String, String> result = new HashMap<String, String>();
+		for (int i = 0; i < attributesCount; i++) {
+			result.put(attributes[2 * i], attributes[2 * i + 1]);
+		}
+		return result;
+	}
+
+	@Override
+	public byte[] getCachedBytes() {
+		return cachedBytes;
+	}
+
+	@Override
+	public Element getChildAfter(Element child) throws XMLException {
+		ensureChildren();
+		for (int i = 0; i < childrenCount; i++) {
+			if (children[i] == child)
+				return i + 1 < childrenCount ? children[i + 1] : null;
+		}
+		throw new XMLException("Element not part of tree");
+	}
+
+	/**
+	 * Returns read-only view of children.
+	 */
+	@Override
+	public List<Element> getChildren() throws XMLException {
+		ensureChildren();
+		if (childrenView == null)
+			childrenView = new ChildrenView();
+		return childrenView;
+	}
+
+	@Override
+	public List<Element> getChildren(String name) throws XMLException {
+		ensureChildren();
+		List<Element> result = new ArrayList<Element>();
+		for (int i = 0; i < childrenCount; i++) {
+			if (children[i].getName().equals(name))
+				result.add(children[i]);
+		}
+		return result;
+	}
+
+	@Override
+	public List<Element> getChildrenNS(String xmlns) throws XMLException {
+		ensureChildren();
+		List<Element> result = new ArrayList<Element>();
+		for (int i = 0; i < childrenCount; i++) {
+			String x = children[i].getXMLNS();
+			if (x != null && x.equals(xmlns))
+				result.add(children[i]);
+		}
+		return result;
+	}
+
+	@Override
+	public Element getChildrenNS(String name, String xmlns) throws XMLException {
+		ensureChildren();
+		for (int i = 0; i < childrenCount; i++) {
+			Element c = children[i];
+			if (c.getName().equals(name)) {
+				String x = c.getXMLNS();
+				if (x != null && x.equals(xmlns))
+					return c;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Element getFirstChild() throws XMLException {
+		ensureChildren();
+		return childrenCount == 0 ? null : children[0];
+	}
+
+	@Override
+	public Element getFirstChild(String name) throws XMLException {
+		ensureChildren();
+		for (int i = 0; i < childrenCount; i++) {
+			if (children[i].getName().equals(name))
+				return children[i];
+		}
+		return null;
+	}
+
+	@Override
+	public String getName() throws XMLException {
+		return name;
+	}
+
+	@Override
+	public Element getNextSibling() throws XMLException {
+		return parent == null ? null : parent.getChildAfter(this);
+	}
+
+	@Override
+	public Element getParent() throws XMLException {
+		return parent;
+	}
+
+	@Override
+	public String getValue() throws XMLException {
+		return value;
+	}
+
+	@Override
+	public String getXMLNS() throws XMLException {
+		if (xmlns == null && parent != null)
+			return parent.getXMLNS();
+		return xmlns;
+	}
+
+	/**
+	 * Returns number of attributes. Together with
+	 * {@link #getAttributeName(int)} and {@link #getAttributeValue(int)}
+	 * allows to iterate over attributes without creating map.
+	 */
+	public int getAttributesCount() {
+		return attributesCount;
+	}
+
+	/**
+	 * Returns name of attribute at given position.
+	 */
+	public String getAttributeName(int index) {
+		return attributes[2 * index];
+	}
+
+	/**
+	 * Returns value of attribute at given position.
+	 */
+	public String getAttributeValue(int index) {
+		return attributes[2 * index + 1];
+	}
+
+	/**
+	 * Returns structural hash code. It is cached if element is frozen.
+	 */
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h != 0)
+			return h;
+		try {
+			h = ElementComparator.hashCode(this);
+		} catch (XMLException e) {
+			throw new RuntimeException(e);
+		}
+		if (frozen)
+			hash = h;
+		return h;
+	}
+
+	/**
+	 * Checks if children of element are already built.
+	 *
+	 * @return <code>false</code> if children will be built by
+	 *         {@link ChildrenLoader} on first access.
+	 */
+	public boolean isChildrenLoaded() {
+		return childrenLoader == null;
+	}
+
+	/**
+	 * Checks if element is immutable.
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private synchronized void loadChildren() throws XMLException {
+		final ChildrenLoader loader = childrenLoader;
+		if (loader == null)
+			return;
+		final List<Element> loaded = loader.loadChildren();
+		final Element[] tmp = new Element[loaded.size()];
+		for (int i = 0; i < tmp.length; i++) {
+			final Element child = loaded.get(i);
+			child.setParent(this);
+			if (frozen && child instanceof CompactElement)
+				((CompactElement) child).freeze();
+			tmp[i] = child;
+		}
+		children = tmp;
+		childrenCount = tmp.length;
+		// volatile write publishes children to other threads
+		childrenLoader = null;
+	}
+
+	@Override
+	public void removeAttribute(String key) throws XMLException {
+		checkMutable();
+		if ("xmlns".equals(key)) {
+			setXMLNS(null);
+			return;
+		}
+		int i = attributeIndex(key);
+		if (i == -1)
+			return;
+		System.arraycopy(attributes, 2 * i + 2, attributes, 2 * i, 2 * (attributesCount - i - 1));
+		attributesCount--;
+		attributes[2 * attributesCount] = null;
+		attributes[2 * attributesCount + 1] = null;
+	}
+
+	@Override
+	public void removeChild(Element child) throws XMLException {
+		checkMutable();
+		ensureChildren();
+		int index = -1;
+		for (int i = 0; i < childrenCount && index == -1; i++) {
+			if (children[i] == child)
+				index = i;
+		}
+		for (int i = 0; i < childrenCount && index == -1; i++) {
+			if (children[i].equals(child))
+				index = i;
+		}
+		if (index == -1)
+			return;
+		System.arraycopy(children, index + 1, children, index, childrenCount - index - 1);
+		children[--childrenCount] = null;
+	}
+
+	@Override
+	public void setAttribute(String key, String value) throws XMLException {
+		checkMutable();
+		if (key == null || value == null)
+			return;
+		if (key.equals("xmlns")) {
+			setXMLNS(value);
+			return;
+		}
+		int i = attributeIndex(key);
+		if (i != -1) {
+			attributes[2 * i + 1] = value;
+			return;
+		}
+		if (2 * attributesCount == attributes.length) {
+			String[] tmp = new String[attributes.length == 0 ? 8 : attributes.length * 2];
+			System.arraycopy(attributes, 0, tmp, 0, 2 * attributesCount);
+			attributes = tmp;
+		}
+		attributes[2 * attributesCount] = key;
+		attributes[2 * attributesCount + 1] = value;
+		attributesCount++;
+	}
+
+	@Override
+	public void setAttributes(Map<String, String> attrs) throws XMLException {
+		if (attrs == null)
+			return;
+		for (Map.Entry<String, String> e : attrs.entrySet()) {
+			setAttribute(e.getKey(), e.getValue());
+		}
+	}
+
+	@Override
+	public void setCachedBytes(byte[] data) {
+		this.cachedBytes = data;
+	}
+
+	/**
+	 * Sets loader which builds children of element when they are accessed for
+	 * the first time. Element may be frozen before children are built.
+	 *
+	 * @param loader
+	 *            loader of children.
+	 */
+	public void setChildrenLoader(ChildrenLoader loader) throws XMLException {
+		checkMutable();
+		if (childrenCount != 0 || value != null)
+			throw new XMLException("Element already has content");
+		this.childrenLoader = loader;
+	}
+
+	@Override
+	public void setParent(Element parent) throws XMLException {
+		checkMutable();
+		if (this.parent != null) {
+			throw new XMLException("Illegal action, moving child from another tree");
+		}
+		this.parent = parent;
+	}
+
+	@Override
+	public void setValue(String value) throws XMLException {
+		checkMutable();
+		ensureChildren();
+		if (childrenCount != 0) {
+			throw new XMLException("Unsupported mixed Element with children and value");
+		}
+		this.value = value;
+	}
+
+	@Override
+	public void setXMLNS(String xmlns) throws XMLException {
+		checkMutable();
+		this.xmlns = xmlns;
+	}
+
+	private void writeTo(StringBuilder builder) throws XMLException {
+		ensureChildren();
+		builder.append('<');
+		builder.append(name);
+		if (xmlns != null) {
+			String parentXmlns = parent == null ? null : parent.getXMLNS();
+			if (parentXmlns == null || !parentXmlns.equals(xmlns)) {
+				builder.append(" xmlns=\"");
+				EscapeUtils.escape(xmlns, builder);
+				builder.append('"');
+			}
+		}
+		for (int i = 0; i < attributesCount; i++) {
+			builder.append(' ');
+			builder.append(attributes[2 * i]);
+			builder.append("=\"");
+			EscapeUtils.escape(attributes[2 * i + 1], builder);
+			builder.append('"');
+		}
+		if (childrenCount == 0 && value == null) {
+			builder.append("/>");
+			return;
+		}
+		builder.append('>');
+		for (int i = 0; i < childrenCount; i++) {
+			Element c = children[i];
+			if (c instanceof CompactElement)
+				((CompactElement) c).writeTo(builder);
+			else
+				builder.append(c.getAsString());
+		}
+		if (value != null)
+			EscapeUtils.escape(value, builder);
+		builder.append("</");
+		builder.append(name);
+		builder.append('>');
+	}
+
+}
@@ -28,7 +28,7 @@ import java.util.Map;
  * Default implementation of XML Element object. This class should be used every
  * time when new XML Element is created.
  */
-public class DefaultElement implements Element {
+public class DefaultElement implements CachingElement {
 
 	final static DefaultElement create(final Element src, int deep) throws XMLException {
 		final DefaultElement result = new DefaultElement(src.getName(), src.getValue(), src.getXMLNS());
@@ -43,8 +43,21 @@ public class DefaultElement implements Element {
 		return result;
 	}
 
+	/**
+	 * Drops cached serialized form of element and of all its ancestors.
+	 */
+	static void invalidateCachedBytes(Element element) throws XMLException {
+		while (element != null) {
+			if (element instanceof CachingElement)
+				((CachingElement) element).setCachedBytes(null);
+			element = element.getParent();
+		}
+	}
+
 	private Map<String, String> attributes;
 
+	private volatile byte[] cachedBytes;
+
 	private LinkedList<Element> children;
 
 	private String name;
@@ -71,6 +84,9 @@ public class DefaultElement implements Element {
 
 	@Override
 	public Element addChild(Element child) throws XMLException {
+		invalidateCachedBytes(this);
+		if (CompactElement.isFrozen(child))
+			child = ElementFactory.create(child);
 		child.setParent(this);
 		synchronized (children) {
 			children.add(child);
@@ -124,7 +140,7 @@ public class DefaultElement implements Element {
 		if (xmlns != null && (parent == null || parent.getXMLNS() == null || !parent.getXMLNS().equals(xmlns))) {
 			builder.append(' ');
 			builder.append("xmlns=\"");
-			builder.append(EscapeUtils.escape(xmlns));
+			EscapeUtils.escape(xmlns, builder);
 			builder.append('"');
 		}
 
@@ -133,7 +149,7 @@ public class DefaultElement implements Element {
 				builder.append(' ');
 				builder.append(attr.getKey());
 				builder.append("=\"");
-				builder.append(EscapeUtils.escape(attr.getValue()));
+				EscapeUtils.escape(attr.getValue(), builder);
 				builder.append('"');
 			}
 		}
@@ -146,7 +162,7 @@ public class DefaultElement implements Element {
 				builder.append(element.getAsString());
 			}
 			if (value != null)
-				builder.append(EscapeUtils.escape(value));
+				EscapeUtils.escape(value, builder);
 			if (!(children.isEmpty() && value == null)) {
 				builder.append("</");
 				builder.append(name);
@@ -171,6 +187,11 @@ public class DefaultElement implements Element {
 		return attributes;
 	}
 
+	@Override
+	public byte[] getCachedBytes() {
+		return cachedBytes;
+	}
+
 	@Override
 	public Element getChildAfter(Element child) throws XMLException {
 		synchronized (children) {
@@ -279,7 +300,7 @@ public class DefaultElement implements Element {
 	@Override
 	public int hashCode() {
 		try {
-			return getAsString().hashCode();
+			return ElementComparator.hashCode(this);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -287,6 +308,7 @@ public class DefaultElement implements Element {
 
 	@Override
 	public void removeAttribute(String key) throws XMLException {
+		invalidateCachedBytes(this);
 		if ("xmlns".equals(key)) {
 			setXMLNS(null);
 		}
@@ -297,6 +319,7 @@ public class DefaultElement implements Element {
 
 	@Override
 	public void removeChild(Element child) throws XMLException {
+		invalidateCachedBytes(this);
 		synchronized (children) {
 			children.remove(child);
 		}
@@ -304,6 +327,7 @@ public class DefaultElement implements Element {
 
 	@Override
 	public void setAttribute(String key, String value) throws XMLException {
+		invalidateCachedBytes(this);
 		if (key == null || value == null)
 			return;
 		if (key.equals("xmlns")) {
@@ -317,6 +341,7 @@ public class DefaultElement implements Element {
 
 	@Override
 	public void setAttributes(Map<String, String> attrs) throws XMLException {
+		invalidateCachedBytes(this);
 		if (attrs == null)
 			return;
 		synchronized (attributes) {
@@ -328,8 +353,14 @@ public class DefaultElement implements Element {
 		}
 	}
 
+	@Override
+	public void setCachedBytes(byte[] data) {
+		this.cachedBytes = data;
+	}
+
 	@Override
 	public void setParent(Element parent) throws XMLException {
+		invalidateCachedBytes(this);
 		// TODO This is specified in std. Should we support it?
 		if (this.parent != null) {
 			throw new XMLException("Illegal action, moving child from another tree");
@@ -340,6 +371,7 @@ public class DefaultElement implements Element {
 
 	@Override
 	public void setValue(String value) throws XMLException {
+		invalidateCachedBytes(this);
 		synchronized (children) {
 			if (!children.isEmpty()) {
 				throw new XMLException("Unsupported mixed Element with children and value");
@@ -350,6 +382,7 @@ public class DefaultElement implements Element {
 
 	@Override
 	public void setXMLNS(String xmlns) throws XMLException {
+		invalidateCachedBytes(this);
 		this.xmlns = xmlns;
 	}
 
@@ -18,11 +18,29 @@
 package tigase.jaxmpp.core.client.xml;
 
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+/**
+ * Structural comparison of elements. Elements are equal if they have the same
+ * name, namespace, value, attributes (in any order) and equal children in the
+ * same order. Neither comparison nor {@link #hashCode(Element)} serializes
+ * elements.
+ */
 public class ElementComparator implements Comparator<Element> {
 
+	private static int compare(String s1, String s2) {
+		if (s1 == s2)
+			return 0;
+		if (s1 == null)
+			return -1;
+		if (s2 == null)
+			return 1;
+		return s1.compareTo(s2);
+	}
+
 	private static final int compareInternal(final Element e1, final Element e2) {
 		try {
 			if (e1 == e2)
@@ -31,6 +49,14 @@ public class ElementComparator implements Comparator<Element> {
 			if (tmp != 0)
 				return tmp;
 
+			tmp = compare(e1.getXMLNS(), e2.getXMLNS());
+			if (tmp != 0)
+				return tmp;
+
+			tmp = compare(e1.getValue(), e2.getValue());
+			if (tmp != 0)
+				return tmp;
+
 			Map<String, String> e1Attr = e1.getAttributes();
 			Map<String, String> e2Attr = e2.getAttributes();
 			tmp = Integer.valueOf(e1Attr.size()).compareTo(Integer.valueOf(e2Attr.size()));
@@ -46,10 +72,20 @@ public class ElementComparator implements Comparator<Element> {
 					return tmp;
 			}
 
-			tmp = Integer.valueOf(e1.getChildren().size()).compareTo(e2.getChildren().size());
+			List<Element> c1 = e1.getChildren();
+			List<Element> c2 = e2.getChildren();
+			tmp = Integer.valueOf(c1.size()).compareTo(c2.size());
 			if (tmp != 0)
 				return tmp;
 
+			final Iterator<Element> it1 = c1.iterator();
+			final Iterator<Element> it2 = c2.iterator();
+			while (it1.hasNext() && it2.hasNext()) {
+				tmp = compareInternal(it1.next(), it2.next());
+				if (tmp != 0)
+					return tmp;
+			}
+
 			return 0;
 		} catch (Exception e) {
 			return -1000;
@@ -57,8 +93,89 @@ public class ElementComparator implements Comparator<Element> {
 	}
 
 	public static boolean equal(final Element e1, final Element e2) {
-		return compareInternal(e1, e2) == 0;
+		try {
+			return equalInternal(e1, e2);
+		} catch (XMLException e) {
+			return false;
+		}
+	}
+
+	private static boolean equalAttributes(final Element e1, final Element e2) throws XMLException {
+		if (e1 instanceof CompactElement && e2 instanceof CompactElement) {
+			final CompactElement c1 = (CompactElement) e1;
+			final CompactElement c2 = (CompactElement) e2;
+			final int count = c1.getAttributesCount();
+			if (count != c2.getAttributesCount())
+				return false;
+			for (int i = 0; i < count; i++) {
+				String v = c2.getAttribute(c1.getAttributeName(i));
+				if (v == null || !v.equals(c1.getAttributeValue(i)))
+					return false;
+			}
+			return true;
+		}
+		return e1.getAttributes().equals(e2.getAttributes());
+	}
+
+	private static boolean equalInternal(final Element e1, final Element e2) throws XMLException {
+		if (e1 == e2)
+			return true;
+		if (e1 == null || e2 == null)
+			return false;
+		if (!e1.getName().equals(e2.getName()))
+			return false;
+		if (CompactElement.isFrozen(e1) && CompactElement.isFrozen(e2) && e1.hashCode() != e2.hashCode())
+			return false;
+		if (!equalStrings(e1.getXMLNS(), e2.getXMLNS()) || !equalStrings(e1.getValue(), e2.getValue()))
+			return false;
+
+		final List<Element> c1 = e1.getChildren();
+		final List<Element> c2 = e2.getChildren();
+		final int size = c1.size();
+		if (size != c2.size())
+			return false;
+		if (!equalAttributes(e1, e2))
+			return false;
+		final Iterator<Element> it1 = c1.iterator();
+		final Iterator<Element> it2 = c2.iterator();
+		while (it1.hasNext() && it2.hasNext()) {
+			if (!equalInternal(it1.next(), it2.next()))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean equalStrings(String s1, String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+
+	/**
+	 * Calculates structural hash code of element, consistent with
+	 * {@link #equal(Element, Element)}.
+	 */
+	public static int hashCode(final Element element) throws XMLException {
+		int result = element.getName().hashCode();
+		String xmlns = element.getXMLNS();
+		result = 31 * result + (xmlns == null ? 0 : xmlns.hashCode());
+		String value = element.getValue();
+		result = 31 * result + (value == null ? 0 : value.hashCode());
 
+		int attributesHash = 0;
+		if (element instanceof CompactElement) {
+			CompactElement c = (CompactElement) element;
+			for (int i = 0; i < c.getAttributesCount(); i++) {
+				attributesHash += c.getAttributeName(i).hashCode() ^ c.getAttributeValue(i).hashCode();
+			}
+		} else {
+			// the same as Map.hashCode()
+			attributesHash = element.getAttributes().hashCode();
+		}
+		result = 31 * result + attributesHash;
+
+		for (Element child : element.getChildren()) {
+			result = 31 * result + child.hashCode();
+		}
+		return result;
 	}
 
 	@Override
@@ -66,4 +183,4 @@ public class ElementComparator implements Comparator<Element> {
 		return compareInternal(e1, e2);
 	}
 
-}
\ No newline at end of file
+}
@@ -2,18 +2,51 @@ package tigase.jaxmpp.core.client.xml;
 
 public class ElementFactory {
 
+	private static volatile boolean compact = false;
+
 	public static Element create(final Element src) throws XMLException {
+		if (compact)
+			return CompactElement.create(src, -1);
 		return DefaultElement.create(src, -1);
 	}
 
 	public static Element create(final String name) throws XMLException {
-		return new DefaultElement(name);
+		return create(name, null, null);
 	}
 
 	public static Element create(String name, String value, String xmlns) throws XMLException {
+		if (compact)
+			return new CompactElement(name, value, xmlns);
 		return new DefaultElement(name, value, xmlns);
 	}
 
+	/**
+	 * Creates {@link CompactElement} regardless of selected implementation.
+	 */
+	public static CompactElement createCompact(String name, String value, String xmlns) throws XMLException {
+		return new CompactElement(name, value, xmlns);
+	}
+
+	/**
+	 * Checks if factory creates {@link CompactElement} instances.
+	 */
+	public static boolean isCompact() {
+		return compact;
+	}
+
+	/**
+	 * Selects implementation of created elements. Change affects only
+	 * elements created after it, so it should be done before any connection
+	 * is started.
+	 *
+	 * @param compact
+	 *            <code>true</code> to create {@link CompactElement},
+	 *            <code>false</code> to create {@link DefaultElement}.
+	 */
+	public static void setCompact(boolean compact) {
+		ElementFactory.compact = compact;
+	}
+
 	private ElementFactory() {
 	}
 
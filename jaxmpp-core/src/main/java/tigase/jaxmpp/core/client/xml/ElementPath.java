@@ -0,0 +1,133 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.core.client.xml;
+
+import java.util.ArrayList;
+
+/**
+ * Path of element in stanza, for example
+ * <code>iq/query[jabber:iq:roster]/item</code>. Path consists of names of
+ * elements separated by <code>/</code>, starting from stanza element. Name may
+ * be followed by namespace in square brackets. Element without namespace in
+ * path matches element in any namespace.
+ */
+public final class ElementPath {
+
+	/**
+	 * Parses path.
+	 *
+	 * @param path
+	 *            string representation of path.
+	 * @return parsed path.
+	 * @throws IllegalArgumentException
+	 *             if path is malformed.
+	 */
+	public static ElementPath parse(final String path) {
+		final ArrayList<String> names = new ArrayList<String>();
+		final ArrayList<String> namespaces = new ArrayList<String>();
+		int i = 0;
+		while (i < path.length()) {
+			int end = i;
+			while (end < path.length() && path.charAt(end) != '/' && path.charAt(end) != '[')
+				end++;
+			if (end == i)
+				throw new IllegalArgumentException("Empty element name in path " + path);
+			names.add(path.substring(i, end));
+			String xmlns = null;
+			if (end < path.length() && path.charAt(end) == '[') {
+				// namespace may contain slashes
+				int close = path.indexOf(']', end);
+				if (close < 0)
+					throw new IllegalArgumentException("Unclosed namespace in path " + path);
+				xmlns = path.substring(end + 1, close);
+				end = close + 1;
+			}
+			namespaces.add(xmlns);
+			if (end < path.length() && path.charAt(end) != '/')
+				throw new IllegalArgumentException("Unexpected character at " + end + " in path " + path);
+			i = end + 1;
+			if (end == path.length() - 1)
+				throw new IllegalArgumentException("Path " + path + " ends with /");
+		}
+		if (names.isEmpty())
+			throw new IllegalArgumentException("Empty path");
+		return new ElementPath(names.toArray(new String[names.size()]),
+				namespaces.toArray(new String[namespaces.size()]));
+	}
+
+	private final String[] names;
+
+	private final String[] namespaces;
+
+	private ElementPath(String[] names, String[] namespaces) {
+		this.names = names;
+		this.namespaces = namespaces;
+	}
+
+	/**
+	 * Returns number of elements in path.
+	 */
+	public int getLength() {
+		return names.length;
+	}
+
+	/**
+	 * Returns name of element at given position of path.
+	 */
+	public String getName(int index) {
+		return names[index];
+	}
+
+	/**
+	 * Returns namespace of element at given position of path.
+	 *
+	 * @return namespace or <code>null</code> if any namespace matches.
+	 */
+	public String getXMLNS(int index) {
+		return namespaces[index];
+	}
+
+	/**
+	 * Checks if element at given position of path matches element with given
+	 * name and namespace.
+	 *
+	 * @param index
+	 *            position in path, <code>0</code> is stanza.
+	 * @param name
+	 *            name of element.
+	 * @param xmlns
+	 *            namespace of element (declared or inherited).
+	 */
+	public boolean matches(int index, String name, String xmlns) {
+		return names[index].equals(name) && (namespaces[index] == null || namespaces[index].equals(xmlns));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0)
+				sb.append('/');
+			sb.append(names[i]);
+			if (namespaces[i] != null)
+				sb.append('[').append(namespaces[i]).append(']');
+		}
+		return sb.toString();
+	}
+
+}
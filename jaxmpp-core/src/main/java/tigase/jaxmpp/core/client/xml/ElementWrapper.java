@@ -21,14 +21,16 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * Wrapper for {@linkplain Element} class.
+ * Wrapper for {@linkplain Element} class. If wrapped element is
+ * {@linkplain CompactElement#freeze() frozen}, it is replaced by mutable copy
+ * before first modification.
  * 
  * @author bmalkow
  * 
  */
 public class ElementWrapper implements Element {
 
-	private final Element element;
+	private Element element;
 
 	public ElementWrapper(Element element) {
 		this.element = element;
@@ -39,9 +41,20 @@ public class ElementWrapper implements Element {
 	 */
 	@Override
 	public Element addChild(Element child) throws XMLException {
+		ensureMutable();
 		return element.addChild(child);
 	}
 
+	/**
+	 * Replaces frozen wrapped element with its mutable copy. Subclasses which
+	 * wrap descendants of wrapped element in other wrappers should call it
+	 * first, so modifications made through them are visible in this element.
+	 */
+	protected void ensureMutable() throws XMLException {
+		if (CompactElement.isFrozen(element))
+			element = ElementFactory.create(element);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -209,6 +222,7 @@ public class ElementWrapper implements Element {
 	 */
 	@Override
 	public void removeAttribute(String key) throws XMLException {
+		ensureMutable();
 		element.removeAttribute(key);
 	}
 
@@ -217,6 +231,7 @@ public class ElementWrapper implements Element {
 	 */
 	@Override
 	public void removeChild(Element child) throws XMLException {
+		ensureMutable();
 		element.removeChild(child);
 	}
 
@@ -225,6 +240,7 @@ public class ElementWrapper implements Element {
 	 */
 	@Override
 	public void setAttribute(String key, String value) throws XMLException {
+		ensureMutable();
 		element.setAttribute(key, value);
 	}
 
@@ -233,10 +249,12 @@ public class ElementWrapper implements Element {
 	 */
 	@Override
 	public void setAttributes(Map<String, String> attrs) throws XMLException {
+		ensureMutable();
 		element.setAttributes(attrs);
 	}
 
 	protected void setChildElementValue(final String elemName, final String value) throws XMLException {
+		ensureMutable();
 		Element b = getFirstChild(elemName);
 		if (value == null && b != null)
 			removeChild(b);
@@ -250,6 +268,7 @@ public class ElementWrapper implements Element {
 	}
 
 	protected void setChildElementValue(final String elemName, final String xmlns, final String value) throws XMLException {
+		ensureMutable();
 		Element b = getChildrenNS(elemName, xmlns);
 		if (value == null && b != null)
 			removeChild(b);
@@ -267,6 +286,7 @@ public class ElementWrapper implements Element {
 	 */
 	@Override
 	public void setParent(Element parent) throws XMLException {
+		ensureMutable();
 		element.setParent(parent);
 	}
 
@@ -275,6 +295,7 @@ public class ElementWrapper implements Element {
 	 */
 	@Override
 	public void setValue(String value) throws XMLException {
+		ensureMutable();
 		element.setValue(value);
 	}
 
@@ -283,6 +304,7 @@ public class ElementWrapper implements Element {
 	 */
 	@Override
 	public void setXMLNS(String xmlns) throws XMLException {
+		ensureMutable();
 		element.setXMLNS(xmlns);
 	}
 }
\ No newline at end of file
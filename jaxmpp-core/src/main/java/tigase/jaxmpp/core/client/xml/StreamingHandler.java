@@ -0,0 +1,49 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.core.client.xml;
+
+import tigase.jaxmpp.core.client.exceptions.JaxmppException;
+
+/**
+ * Receives elements of registered {@linkplain ElementPath path} as soon as they
+ * are parsed, before whole stanza is received. It allows to process stanzas
+ * with huge number of children (like roster or archive results) without
+ * building them in memory.
+ *
+ * @see StreamingHandlers
+ */
+public interface StreamingHandler {
+
+	/**
+	 * Called by connector when element matching registered path is parsed.
+	 * Method is called in thread reading from connection, so it should not
+	 * block.
+	 *
+	 * @param stanza
+	 *            stanza element containing streamed element. Only attributes of
+	 *            stanza and children which are already parsed and not consumed
+	 *            are available.
+	 * @param element
+	 *            parsed element. It has no parent, and it is frozen if
+	 *            connector freezes received stanzas.
+	 * @return <code>true</code> if element is consumed and should be dropped,
+	 *         <code>false</code> if it should be added to stanza as usual.
+	 */
+	boolean onElement(Element stanza, Element element) throws JaxmppException;
+
+}
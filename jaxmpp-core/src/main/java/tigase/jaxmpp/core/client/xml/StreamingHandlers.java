@@ -0,0 +1,196 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.core.client.xml;
+
+import java.util.List;
+
+import tigase.jaxmpp.core.client.SessionObject;
+import tigase.jaxmpp.core.client.SessionObject.Scope;
+import tigase.jaxmpp.core.client.exceptions.JaxmppException;
+
+/**
+ * Registry of {@link StreamingHandler}s. Connectors which build elements while
+ * parsing (socket connectors) pass elements matching registered paths to
+ * handlers instead of adding them to stanza, so memory used by stanza with
+ * thousands of children doesn't depend on number of children. Other
+ * connectors (including {@code NioSocketConnector}, which shares its reader
+ * threads between connections) ignore registry and modules receive whole
+ * stanzas, so handlers must not be the only way of processing payload.
+ * <p>
+ * Registry may be modified at any time. Handlers are read without locking.
+ * </p>
+ */
+public class StreamingHandlers {
+
+	private static final class Entry {
+
+		private final StreamingHandler handler;
+
+		private final ElementPath path;
+
+		private Entry(ElementPath path, StreamingHandler handler) {
+			this.path = path;
+			this.handler = handler;
+		}
+	}
+
+	public static final String STREAMING_HANDLERS_KEY = "StreamingHandlers#STREAMING_HANDLERS";
+
+	private static final Entry[] EMPTY = new Entry[0];
+
+	/**
+	 * Returns registry of given session, creates it if needed.
+	 */
+	public static StreamingHandlers get(SessionObject sessionObject) {
+		synchronized (sessionObject) {
+			StreamingHandlers result = sessionObject.getProperty(STREAMING_HANDLERS_KEY);
+			if (result == null) {
+				result = new StreamingHandlers();
+				sessionObject.setProperty(Scope.user, STREAMING_HANDLERS_KEY, result);
+			}
+			return result;
+		}
+	}
+
+	private volatile Entry[] entries = EMPTY;
+
+	/**
+	 * Registers handler.
+	 *
+	 * @param path
+	 *            path of elements passed to handler, for example
+	 *            <code>iq/query[jabber:iq:roster]/item</code>.
+	 * @param handler
+	 *            handler.
+	 */
+	public void addHandler(String path, StreamingHandler handler) {
+		addHandler(ElementPath.parse(path), handler);
+	}
+
+	/**
+	 * Registers handler.
+	 *
+	 * @param path
+	 *            path of elements passed to handler.
+	 * @param handler
+	 *            handler.
+	 */
+	public synchronized void addHandler(ElementPath path, StreamingHandler handler) {
+		Entry[] n = new Entry[entries.length + 1];
+		System.arraycopy(entries, 0, n, 0, entries.length);
+		n[entries.length] = new Entry(path, handler);
+		entries = n;
+	}
+
+	/**
+	 * Passes element to handlers registered for its path, in order of
+	 * registration, until one of them consumes it.
+	 *
+	 * @param names
+	 *            names of elements from stanza to given element.
+	 * @param namespaces
+	 *            namespaces (declared or inherited) of elements from stanza to
+	 *            given element.
+	 * @param stanza
+	 *            stanza element.
+	 * @param element
+	 *            parsed element.
+	 * @return <code>true</code> if element is consumed.
+	 */
+	public boolean dispatch(List<String> names, List<String> namespaces, Element stanza, Element element)
+			throws JaxmppException {
+		for (Entry e : entries) {
+			if (e.path.getLength() == names.size() && matches(e.path, names, namespaces)
+					&& e.handler.onElement(stanza, element))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if any handler is registered for path of given element.
+	 *
+	 * @param names
+	 *            names of elements from stanza to given element.
+	 * @param namespaces
+	 *            namespaces (declared or inherited) of elements from stanza to
+	 *            given element.
+	 */
+	public boolean hasHandler(List<String> names, List<String> namespaces) {
+		for (Entry e : entries) {
+			if (e.path.getLength() == names.size() && matches(e.path, names, namespaces))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if given elements are beginning of any registered path, so
+	 * checked element must be built to stream its descendants or itself.
+	 *
+	 * @param names
+	 *            names of elements from stanza to checked element.
+	 * @param namespaces
+	 *            namespaces (declared or inherited) of elements from stanza to
+	 *            checked element.
+	 */
+	public boolean isPrefix(List<String> names, List<String> namespaces) {
+		for (Entry e : entries) {
+			if (e.path.getLength() >= names.size() && matches(e.path, names, namespaces))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if no handler is registered.
+	 */
+	public boolean isEmpty() {
+		return entries.length == 0;
+	}
+
+	private static boolean matches(ElementPath path, List<String> names, List<String> namespaces) {
+		for (int i = 0; i < names.size(); i++) {
+			if (!path.matches(i, names.get(i), namespaces.get(i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Unregisters handler from all paths.
+	 *
+	 * @param handler
+	 *            handler to remove.
+	 */
+	public synchronized void removeHandler(StreamingHandler handler) {
+		int count = 0;
+		for (Entry e : entries) {
+			if (e.handler != handler)
+				count++;
+		}
+		Entry[] n = new Entry[count];
+		int i = 0;
+		for (Entry e : entries) {
+			if (e.handler != handler)
+				n[i++] = e;
+		}
+		entries = n;
+	}
+
+}
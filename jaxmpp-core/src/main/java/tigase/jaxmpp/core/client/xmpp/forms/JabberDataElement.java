@@ -65,7 +65,8 @@ public class JabberDataElement extends ElementWrapper {
 	private final Map<String, AbstractField<?>> fieldsMap = new HashMap<String, AbstractField<?>>();
 
 	/**
-	 * Creates instance of JabberDataElement and parse fields.
+	 * Creates instance of JabberDataElement and parse fields. Frozen element
+	 * is copied, so fields may be modified.
 	 * 
 	 * @param x
 	 *            &lt;x xmlns='jabber:x:data'/&gt; element.
@@ -76,7 +77,8 @@ public class JabberDataElement extends ElementWrapper {
 			if (!"x".equals(x.getName()) || !"jabber:x:data".equals(x.getXMLNS()))
 				throw new JaxmppException("Invalid jabber:x:form element");
 
-			List<Element> fs = x.getChildren("field");
+			ensureMutable();
+			List<Element> fs = getChildren("field");
 			if (fs != null)
 				for (Element element : fs) {
 					AbstractField<?> af = create(element);
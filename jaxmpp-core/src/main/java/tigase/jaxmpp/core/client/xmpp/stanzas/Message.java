@@ -20,7 +20,6 @@ package tigase.jaxmpp.core.client.xmpp.stanzas;
 import tigase.jaxmpp.core.client.exceptions.JaxmppException;
 import tigase.jaxmpp.core.client.xml.Element;
 import tigase.jaxmpp.core.client.xml.XMLException;
-import tigase.jaxmpp.core.client.xmpp.utils.EscapeUtils;
 
 /**
  * Representation od Message stanza.
@@ -44,7 +43,7 @@ public class Message extends Stanza {
 	 * @return message body.
 	 */
 	public String getBody() throws XMLException {
-		return EscapeUtils.unescape(getChildElementValue("body"));
+		return getChildElementValue("body");
 	}
 
 	/**
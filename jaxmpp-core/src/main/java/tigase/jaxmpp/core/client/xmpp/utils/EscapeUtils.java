@@ -17,8 +17,12 @@
  */
 package tigase.jaxmpp.core.client.xmpp.utils;
 
+import java.io.IOException;
+
 /**
- * Util class for escaping HTML entities.
+ * Util class for escaping HTML entities. Text is processed in single pass and
+ * strings without characters to escape (or entities to unescape) are returned
+ * unchanged, without copying.
  */
 public class EscapeUtils {
 
@@ -28,25 +32,179 @@ public class EscapeUtils {
 	public static String escape(String str) {
 		if (str == null)
 			return null;
-		if (str.length() == 0)
+		final int first = indexOfEscaped(str, 0);
+		if (first == -1)
 			return str;
-		for (int i = 0; i < ENTITIES.length; i++) {
-			str = str.replace(ENTITIES[i][0], ENTITIES[i][1]);
-		}
-		return str;
+		StringBuilder sb = new StringBuilder(str.length() + 16);
+		appendEscaped(str, first, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends escaped text to given {@link Appendable}.
+	 *
+	 * @param str
+	 *            text to escape.
+	 * @param out
+	 *            destination of escaped text.
+	 */
+	public static void escape(String str, Appendable out) throws IOException {
+		if (str == null)
+			return;
+		appendEscaped(str, indexOfEscaped(str, 0), out);
+	}
+
+	/**
+	 * Appends escaped text to given {@link StringBuilder}.
+	 *
+	 * @param str
+	 *            text to escape.
+	 * @param out
+	 *            destination of escaped text.
+	 */
+	public static void escape(String str, StringBuilder out) {
+		if (str == null)
+			return;
+		appendEscaped(str, indexOfEscaped(str, 0), out);
 	}
 
 	public static String unescape(String str) {
 		if (str == null)
 			return null;
-		if (str.length() == 0)
+		final int first = str.indexOf('&');
+		if (first == -1)
 			return str;
-		for (int i = ENTITIES.length - 1; i >= 0; i--) {
-			str = str.replace(ENTITIES[i][1], ENTITIES[i][0]);
+		StringBuilder sb = new StringBuilder(str.length());
+		appendUnescaped(str, first, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends unescaped text to given {@link Appendable}.
+	 *
+	 * @param str
+	 *            text to unescape.
+	 * @param out
+	 *            destination of unescaped text.
+	 */
+	public static void unescape(String str, Appendable out) throws IOException {
+		if (str == null)
+			return;
+		appendUnescaped(str, str.indexOf('&'), out);
+	}
+
+	/**
+	 * Appends unescaped text to given {@link StringBuilder}.
+	 *
+	 * @param str
+	 *            text to unescape.
+	 * @param out
+	 *            destination of unescaped text.
+	 */
+	public static void unescape(String str, StringBuilder out) {
+		if (str == null)
+			return;
+		appendUnescaped(str, str.indexOf('&'), out);
+	}
+
+	private static void appendEscaped(final String str, final int first, final StringBuilder out) {
+		try {
+			appendEscaped(str, first, (Appendable) out);
+		} catch (IOException e) {
+			// StringBuilder doesn't throw it
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void appendEscaped(final String str, int next, final Appendable out) throws IOException {
+		int start = 0;
+		final int len = str.length();
+		while (next != -1) {
+			if (next > start)
+				out.append(str, start, next);
+			out.append(entityOf(str.charAt(next)));
+			start = next + 1;
+			next = indexOfEscaped(str, start);
+		}
+		if (start == 0)
+			out.append(str);
+		else if (start < len)
+			out.append(str, start, len);
+	}
+
+	private static void appendUnescaped(final String str, final int first, final StringBuilder out) {
+		try {
+			appendUnescaped(str, first, (Appendable) out);
+		} catch (IOException e) {
+			// StringBuilder doesn't throw it
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void appendUnescaped(final String str, int next, final Appendable out) throws IOException {
+		int start = 0;
+		final int len = str.length();
+		while (next != -1) {
+			final int entity = entityAt(str, next);
+			if (entity == -1) {
+				// unknown entity is left as it is
+				next = str.indexOf('&', next + 1);
+				continue;
+			}
+			if (next > start)
+				out.append(str, start, next);
+			out.append(ENTITIES[entity][0].charAt(0));
+			start = next + ENTITIES[entity][1].length();
+			next = str.indexOf('&', start);
+		}
+		if (start == 0)
+			out.append(str);
+		else if (start < len)
+			out.append(str, start, len);
+	}
+
+	/**
+	 * Returns index of entity in {@link #ENTITIES} which starts at given
+	 * position, or <code>-1</code>.
+	 */
+	private static int entityAt(final String str, final int index) {
+		for (int i = 0; i < ENTITIES.length; i++) {
+			if (str.startsWith(ENTITIES[i][1], index))
+				return i;
+		}
+		return -1;
+	}
+
+	private static String entityOf(final char c) {
+		switch (c) {
+		case '&':
+			return ENTITIES[0][1];
+		case '<':
+			return ENTITIES[1][1];
+		case '>':
+			return ENTITIES[2][1];
+		case '"':
+			return ENTITIES[3][1];
+		default:
+			return ENTITIES[4][1];
+		}
+	}
+
+	private static int indexOfEscaped(final String str, final int from) {
+		final int len = str.length();
+		for (int i = from; i < len; i++) {
+			switch (str.charAt(i)) {
+			case '&':
+			case '<':
+			case '>':
+			case '"':
+			case '\'':
+				return i;
+			}
 		}
-		return str;
+		return -1;
 	}
 
 	private EscapeUtils() {
 	}
-}
\ No newline at end of file
+}
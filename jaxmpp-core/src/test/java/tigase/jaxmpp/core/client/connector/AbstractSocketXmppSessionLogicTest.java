@@ -0,0 +1,294 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.core.client.connector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tigase.jaxmpp.core.client.AbstractJaxmppTest;
+import tigase.jaxmpp.core.client.ConnectionConfiguration;
+import tigase.jaxmpp.core.client.Connector;
+import tigase.jaxmpp.core.client.JID;
+import tigase.jaxmpp.core.client.JaxmppCore;
+import tigase.jaxmpp.core.client.PacketWriter;
+import tigase.jaxmpp.core.client.ResponseManager;
+import tigase.jaxmpp.core.client.SessionObject;
+import tigase.jaxmpp.core.client.SessionObject.Scope;
+import tigase.jaxmpp.core.client.XmppModulesManager;
+import tigase.jaxmpp.core.client.XmppSessionLogic;
+import tigase.jaxmpp.core.client.XmppSessionLogic.XmppSessionEstablishedHandler;
+import tigase.jaxmpp.core.client.XmppSessionLogic.XmppSessionEstablishedHandler.XmppSessionEstablishedEvent;
+import tigase.jaxmpp.core.client.eventbus.EventBus;
+import tigase.jaxmpp.core.client.exceptions.JaxmppException;
+import tigase.jaxmpp.core.client.xml.Element;
+import tigase.jaxmpp.core.client.xml.ElementFactory;
+import tigase.jaxmpp.core.client.xmpp.modules.ResourceBinderModule;
+import tigase.jaxmpp.core.client.xmpp.modules.SessionEstablishmentModule;
+import tigase.jaxmpp.core.client.xmpp.modules.StreamFeaturesModule;
+import tigase.jaxmpp.core.client.xmpp.modules.auth.AuthModule;
+import tigase.jaxmpp.core.client.xmpp.modules.streammng.StreamManagementModule;
+
+public class AbstractSocketXmppSessionLogicTest extends AbstractJaxmppTest {
+
+	private static final String BIND_XMLNS = "urn:ietf:params:xml:ns:xmpp-bind";
+
+	private static final String DOMAIN = "example.com";
+
+	private static final String SESSION_XMLNS = "urn:ietf:params:xml:ns:xmpp-session";
+
+	private final List<SessionObject> established = new ArrayList<SessionObject>();
+
+	private AbstractSocketXmppSessionLogic<Connector> logic;
+
+	private XmppModulesManager modulesManager;
+
+	private int restarts;
+
+	private static Element features() throws JaxmppException {
+		Element features = ElementFactory.create("stream:features");
+		features.addChild(ElementFactory.create("bind", null, BIND_XMLNS));
+		features.addChild(ElementFactory.create("session", null, SESSION_XMLNS));
+		return features;
+	}
+
+	private void cacheFeatures() throws JaxmppException {
+		Map<String, Element> cache = new HashMap<String, Element>();
+		cache.put(DOMAIN, features());
+		context.getSessionObject().setProperty(Scope.user, AbstractSocketXmppSessionLogic.CACHED_STREAM_FEATURES_KEY,
+				cache);
+	}
+
+	private Element pollRequest(String xmlns) throws JaxmppException {
+		Element iq = poll();
+		assertNotNull(iq);
+		assertEquals("iq", iq.getName());
+		assertNotNull(iq.getFirstChild());
+		assertEquals(xmlns, iq.getFirstChild().getXMLNS());
+		return iq;
+	}
+
+	private void receiveFeatures() throws JaxmppException {
+		context.getSessionObject().setProperty(AuthModule.AUTHORIZED, Boolean.TRUE);
+		modulesManager.getModule(StreamFeaturesModule.class).process(features());
+	}
+
+	private void respond(Element request, boolean success) throws JaxmppException {
+		Element response = ElementFactory.create("iq");
+		response.setAttribute("id", request.getAttribute("id"));
+		if (success) {
+			response.setAttribute("type", "result");
+			if (BIND_XMLNS.equals(request.getFirstChild().getXMLNS())) {
+				Element bind = ElementFactory.create("bind", null, BIND_XMLNS);
+				bind.addChild(ElementFactory.create("jid", "user@" + DOMAIN + "/res", null));
+				response.addChild(bind);
+			}
+		} else {
+			response.setAttribute("type", "error");
+			Element error = ElementFactory.create("error");
+			error.setAttribute("type", "cancel");
+			error.addChild(ElementFactory.create("conflict", null, "urn:ietf:params:xml:ns:xmpp-stanzas"));
+			response.addChild(error);
+		}
+		ResponseManager.getResponseHandler(context, response).run();
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		context.getSessionObject().setProperty(SessionObject.DOMAIN_NAME, DOMAIN);
+		context.getSessionObject().setUserProperty(AbstractSocketXmppSessionLogic.PIPELINING_ENABLED_KEY, Boolean.TRUE);
+
+		modulesManager = new XmppModulesManager(context);
+		modulesManager.register(new StreamFeaturesModule());
+		modulesManager.register(new AuthModule());
+		modulesManager.register(new ResourceBinderModule());
+		modulesManager.register(new SessionEstablishmentModule());
+		modulesManager.register(new StreamManagementModule(new JaxmppCore() {
+
+			@Override
+			public void disconnect() {
+			}
+
+			@Override
+			public void execute(Runnable runnable) {
+				runnable.run();
+			}
+
+			@Override
+			public <T extends ConnectionConfiguration> T getConnectionConfiguration() {
+				return null;
+			}
+
+			@Override
+			public EventBus getEventBus() {
+				return AbstractSocketXmppSessionLogicTest.this.context.getEventBus();
+			}
+
+			@Override
+			public void login() {
+			}
+
+			@Override
+			protected void onException(JaxmppException e) {
+			}
+
+			@Override
+			protected void onResourceBindSuccess(JID bindedJID) {
+			}
+
+			@Override
+			protected void onStreamError(StreamError condition, Throwable caught) {
+			}
+
+			@Override
+			protected void onStreamResumed(Long h, String previd) {
+			}
+
+			@Override
+			protected void onStreamTerminated() {
+			}
+		}));
+		modulesManager.initIfRequired();
+
+		logic = new AbstractSocketXmppSessionLogic<Connector>(new Connector() {
+
+			@Override
+			public XmppSessionLogic createSessionLogic(XmppModulesManager modulesManager, PacketWriter writer) {
+				return null;
+			}
+
+			@Override
+			public State getState() {
+				return State.connected;
+			}
+
+			@Override
+			public boolean isCompressed() {
+				return false;
+			}
+
+			@Override
+			public boolean isSecure() {
+				return true;
+			}
+
+			@Override
+			public void keepalive() {
+			}
+
+			@Override
+			public void restartStream() {
+				restarts++;
+			}
+
+			@Override
+			public void send(Element stanza) {
+			}
+
+			@Override
+			public void start() {
+			}
+
+			@Override
+			public void stop() {
+			}
+
+			@Override
+			public void stop(boolean terminate) {
+			}
+		}, modulesManager, context) {
+		};
+		logic.setSessionListener(new XmppSessionLogic.SessionListener() {
+
+			@Override
+			public void onException(JaxmppException e) throws JaxmppException {
+				throw e;
+			}
+		});
+		logic.beforeStart();
+		context.getEventBus().addHandler(XmppSessionEstablishedEvent.class, new XmppSessionEstablishedHandler() {
+
+			@Override
+			public void onXmppSessionEstablished(SessionObject sessionObject) {
+				established.add(sessionObject);
+			}
+		});
+	}
+
+	public void testBindSentAfterRestart() throws Exception {
+		cacheFeatures();
+		logic.processAuthSuccess();
+		assertEquals(1, restarts);
+		Element bind = pollRequest(BIND_XMLNS);
+		Element session = pollRequest(SESSION_XMLNS);
+		assertNull(poll());
+
+		// features received after pipelined requests are only cached
+		receiveFeatures();
+		assertNull(poll());
+
+		respond(bind, true);
+		assertNull("Session request sent twice", poll());
+		assertTrue(established.isEmpty());
+		respond(session, true);
+		assertEquals(1, established.size());
+	}
+
+	public void testFallbackAfterPipelinedBindError() throws Exception {
+		cacheFeatures();
+		logic.processAuthSuccess();
+		Element bind = pollRequest(BIND_XMLNS);
+		Element session = pollRequest(SESSION_XMLNS);
+		receiveFeatures();
+
+		respond(bind, false);
+		Element fallback = pollRequest(BIND_XMLNS);
+		assertNull(poll());
+
+		// pipelined session establishment fails without bound resource
+		respond(session, false);
+		assertTrue(established.isEmpty());
+
+		respond(fallback, true);
+		assertEquals(1, established.size());
+	}
+
+	public void testNothingPipelinedWithoutCachedFeatures() throws Exception {
+		logic.processAuthSuccess();
+		assertEquals(1, restarts);
+		assertNull(poll());
+
+		receiveFeatures();
+		pollRequest(BIND_XMLNS);
+		assertNotNull(AbstractSocketXmppSessionLogic.getCachedStreamFeatures(context.getSessionObject(), DOMAIN));
+	}
+
+	public void testNothingPipelinedWithResumption() throws Exception {
+		cacheFeatures();
+		context.getSessionObject().setProperty(StreamManagementModule.STREAM_MANAGEMENT_TURNED_ON_KEY, Boolean.TRUE);
+		context.getSessionObject().setProperty(StreamManagementModule.STREAM_MANAGEMENT_RESUME_KEY, Boolean.TRUE);
+		context.getSessionObject().setProperty(StreamManagementModule.STREAM_MANAGEMENT_RESUMPTION_ID_KEY, "sm-1");
+
+		logic.processAuthSuccess();
+		assertEquals(1, restarts);
+		assertNull(poll());
+	}
+
+}
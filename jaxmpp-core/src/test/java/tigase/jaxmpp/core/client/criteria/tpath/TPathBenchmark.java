@@ -0,0 +1,114 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.core.client.criteria.tpath;
+
+import java.util.ArrayList;
+
+import tigase.jaxmpp.core.client.xml.Element;
+import tigase.jaxmpp.core.client.xml.ElementFactory;
+import tigase.jaxmpp.core.client.xml.XMLException;
+
+/**
+ * Measures compiling and evaluating of TPath expressions commonly used to
+ * extract values from stanzas. It is not executed as unit test; run it
+ * manually:
+ *
+ * <pre>
+ * java -cp ... tigase.jaxmpp.core.client.criteria.tpath.TPathBenchmark [iterations]
+ * </pre>
+ */
+public class TPathBenchmark {
+
+	private static final String[] PATHS = { "/iq/attr('type')",
+			"/iq[@type='result']/query[@xmlns='jabber:iq:roster']/item/attr('jid')",
+			"/iq[@type='result']/pubsub[@xmlns='http://jabber.org/protocol/pubsub']/items/item/entry/value()",
+			"/iq/bind[@xmlns='urn:ietf:params:xml:ns:xmpp-bind']/jid/value()" };
+
+	private static Element createStanza() throws XMLException {
+		Element iq = ElementFactory.create("iq");
+		iq.setAttribute("type", "result");
+		iq.setAttribute("id", "a1");
+		Element query = iq.addChild(ElementFactory.create("query", null, "jabber:iq:roster"));
+		for (int i = 0; i < 20; i++) {
+			Element item = query.addChild(ElementFactory.create("item"));
+			item.setAttribute("jid", "contact" + i + "@example.com");
+			item.setAttribute("subscription", "both");
+		}
+		Element pubsub = iq.addChild(ElementFactory.create("pubsub", null, "http://jabber.org/protocol/pubsub"));
+		Element items = pubsub.addChild(ElementFactory.create("items"));
+		items.setAttribute("node", "princely_musings");
+		items.addChild(ElementFactory.create("item")).addChild(ElementFactory.create("entry", "Soliloquy", null));
+		Element bind = iq.addChild(ElementFactory.create("bind", null, "urn:ietf:params:xml:ns:xmpp-bind"));
+		bind.addChild(ElementFactory.create("jid", "juliet@example.com/balcony", null));
+		return iq;
+	}
+
+	public static void main(String[] args) throws XMLException {
+		final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		final TPath tpath = new TPath();
+		final TPathExpression[] compiled = new TPathExpression[PATHS.length];
+		for (int i = 0; i < PATHS.length; i++) {
+			compiled[i] = tpath.compile(PATHS[i]);
+		}
+		for (int compact = 0; compact < 2; compact++) {
+			ElementFactory.setCompact(compact == 1);
+			final Element stanza = createStanza();
+			System.out.println(compact == 1 ? "CompactElement" : "DefaultElement");
+			for (int round = 0; round < 3; round++) {
+				System.out.println("Round " + (round + 1));
+				long sum = 0;
+
+				long start = System.nanoTime();
+				for (int i = 0; i < iterations; i++) {
+					sum += tpath.compile(PATHS[i % PATHS.length]).evaluateAsArray(stanza).size();
+				}
+				print("compile+evaluate", start, iterations);
+
+				start = System.nanoTime();
+				for (int i = 0; i < iterations; i++) {
+					sum += compiled[i % compiled.length].evaluateAsArray(stanza).size();
+				}
+				print("evaluateAsArray", start, iterations);
+
+				final ArrayList<Object> result = new ArrayList<Object>();
+				start = System.nanoTime();
+				for (int i = 0; i < iterations; i++) {
+					result.clear();
+					compiled[i % compiled.length].evaluate(stanza, result);
+					sum += result.size();
+				}
+				print("evaluate to list", start, iterations);
+
+				start = System.nanoTime();
+				for (int i = 0; i < iterations; i++) {
+					sum += compiled[i % compiled.length].evaluateFirst(stanza) == null ? 0 : 1;
+				}
+				print("evaluateFirst", start, iterations);
+
+				if (sum == 0)
+					throw new IllegalStateException();
+			}
+		}
+		ElementFactory.setCompact(false);
+	}
+
+	private static void print(String name, long start, int iterations) {
+		System.out.printf("  %-20s %8.1f ns/path%n", name, (System.nanoTime() - start) / (double) iterations);
+	}
+
+}
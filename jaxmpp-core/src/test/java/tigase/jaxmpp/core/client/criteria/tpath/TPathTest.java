@@ -20,9 +20,13 @@ package tigase.jaxmpp.core.client.criteria.tpath;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 import tigase.jaxmpp.core.client.JID;
@@ -81,4 +85,51 @@ public class TPathTest {
 		}
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void testCompileIsCached() {
+		assertSame(tpath.compile("/iq/pubsub/publish/item/attr('id')"),
+				new TPath().compile("/iq/pubsub/publish/item/attr('id')"));
+	}
+
+	@Test
+	public void testConditionWithSlash() throws Exception {
+		final Element message = ElementFactory.create("message");
+		final Element event = ElementFactory.create("event", null, "http://jabber.org/protocol/pubsub#event");
+		message.addChild(event);
+		event.addChild(ElementFactory.create("items")).setAttribute("node", "urn:xmpp:avatar/metadata");
+
+		assertEquals("urn:xmpp:avatar/metadata",
+				tpath.compile("/message/event[@xmlns='http://jabber.org/protocol/pubsub#event']/items[@node=\"urn:xmpp:avatar/metadata\"]/attr('node')").evaluate(message));
+		assertNull(tpath.compile("/message/event[@xmlns='jabber:x:event']/items/attr('node')").evaluate(message));
+	}
+
+	@Test
+	public void testAttributeExists() throws Exception {
+		final Element message = ElementFactory.create("message");
+		final Element event = ElementFactory.create("event", null, "http://jabber.org/protocol/pubsub#event");
+		message.addChild(event);
+		event.addChild(ElementFactory.create("items")).setAttribute("node", "urn:xmpp:avatar/metadata");
+		event.addChild(ElementFactory.create("items"));
+
+		assertArrayEquals(new Object[] { "urn:xmpp:avatar/metadata" },
+				tpath.compile("/message/event/items[@node]/attr('node')").evaluateAsArray(message).toArray());
+		assertNull(tpath.compile("/message[@type]/event/items").evaluateFirst(message));
+		assertEquals(2, tpath.compile("/message/event[@xmlns]/items").evaluateAsArray(message).size());
+	}
+
+	@Test
+	public void testEvaluateFirstAndToCollection() throws Exception {
+		final TPathExpression expr = tpath.compile("/iq[@type='set'][@from='wojtas@wp.pl']/pubsub[@xmlns='a:b']/publish/item/attr('id')");
+		assertEquals("345", expr.evaluateFirst(iq));
+
+		final List<Object> result = new ArrayList<Object>();
+		expr.evaluate(iq, result);
+		expr.evaluate(iq, result);
+		assertEquals(6, result.size());
+		assertEquals(result.subList(0, 3), expr.evaluate(iq));
+
+		assertNull(tpath.compile("/iq[@type='get']/pubsub/publish/item").evaluateFirst(iq));
+		assertSame(iq, tpath.compile("/iq").evaluateFirst(iq));
+	}
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.core.client.xml;
+
+import java.util.List;
+
+/**
+ * Runs {@link DefaultElementTest} against {@link CompactElement}.
+ */
+public class CompactElementTest extends DefaultElementTest {
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		ElementFactory.setCompact(true);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		ElementFactory.setCompact(false);
+		super.tearDown();
+	}
+
+	public void testCreatedType() throws XMLException {
+		assertTrue(ElementFactory.create("a") instanceof CompactElement);
+	}
+
+	public void testCopy() throws XMLException {
+		Element src = ElementFactory.create("iq", null, "jabber:client");
+		src.setAttribute("type", "get");
+		src.addChild(ElementFactory.create("query", null, "jabber:iq:roster"))
+				.addChild(ElementFactory.create("item", "x < y", null));
+
+		Element copy = ElementFactory.create(src);
+		assertNotSame(src, copy);
+		assertEquals(src.getAsString(), copy.getAsString());
+		assertEquals("<iq xmlns=\"jabber:client\" type=\"get\"><query xmlns=\"jabber:iq:roster\"><item>x &lt; y</item></query></iq>",
+				copy.getAsString());
+		assertEquals("jabber:iq:roster", copy.getFirstChild().getFirstChild().getXMLNS());
+	}
+
+	public void testAttributes() throws XMLException {
+		Element e = ElementFactory.create("a");
+		for (int i = 0; i < 10; i++) {
+			e.setAttribute("k" + i, "v" + i);
+		}
+		e.setAttribute("k3", "x");
+		e.removeAttribute("k0");
+		e.removeAttribute("missing");
+
+		assertNull(e.getAttribute("k0"));
+		assertEquals("x", e.getAttribute("k3"));
+		assertEquals("v9", e.getAttribute("k9"));
+		assertEquals(9, e.getAttributes().size());
+	}
+
+	public void testRemoveChild() throws XMLException {
+		Element e = ElementFactory.create("a");
+		Element b = e.addChild(ElementFactory.create("b"));
+		Element c = e.addChild(ElementFactory.create("c"));
+		e.removeChild(b);
+
+		List<Element> children = e.getChildren();
+		assertEquals(1, children.size());
+		assertSame(c, children.get(0));
+		assertNull(c.getNextSibling());
+	}
+
+	public void testFrozen() throws XMLException {
+		CompactElement message = ElementFactory.createCompact("message", null, "jabber:client");
+		message.setAttribute("to", "a@b");
+		message.addChild(ElementFactory.createCompact("body", "x", null));
+		message.freeze();
+
+		assertTrue(message.isFrozen());
+		assertTrue(((CompactElement) message.getFirstChild()).isFrozen());
+		try {
+			message.setAttribute("to", "c@d");
+			fail("Frozen element modified");
+		} catch (XMLException e) {
+		}
+		try {
+			message.getFirstChild().setValue("y");
+			fail("Frozen element modified");
+		} catch (XMLException e) {
+		}
+		assertEquals("a@b", message.getAttribute("to"));
+		assertEquals("x", message.getFirstChild().getValue());
+	}
+
+	public void testFrozenCopyOnWrite() throws XMLException {
+		CompactElement message = ElementFactory.createCompact("message", null, null);
+		message.setAttribute("to", "a@b");
+		message.addChild(ElementFactory.createCompact("body", "x", null));
+		message.freeze();
+
+		ElementWrapper wrapper = new ElementWrapper(message);
+		wrapper.setAttribute("to", "c@d");
+		wrapper.getFirstChild().setValue("y");
+
+		assertNotSame(message, wrapper.getWrappedElement());
+		assertEquals("c@d", wrapper.getAttribute("to"));
+		assertEquals("y", wrapper.getFirstChild().getValue());
+		assertEquals("a@b", message.getAttribute("to"));
+		assertEquals("x", message.getFirstChild().getValue());
+
+		Element forwarded = ElementFactory.create("forwarded", null, "urn:xmpp:forward:0");
+		Element added = forwarded.addChild(message);
+		assertNotSame(message, added);
+		assertSame(forwarded, added.getParent());
+		assertNull(message.getParent());
+	}
+
+	public void testFrozenHashCode() throws XMLException {
+		CompactElement e1 = ElementFactory.createCompact("message", null, "jabber:client");
+		e1.setAttribute("to", "a@b");
+		e1.setAttribute("type", "chat");
+		e1.addChild(ElementFactory.createCompact("body", "x", null));
+		CompactElement e2 = ElementFactory.createCompact("message", null, "jabber:client");
+		e2.setAttribute("type", "chat");
+		e2.setAttribute("to", "a@b");
+		e2.addChild(ElementFactory.createCompact("body", "x", null));
+
+		int hash = e1.hashCode();
+		e1.freeze();
+		assertEquals(hash, e1.hashCode());
+		assertEquals(hash, e2.hashCode());
+		assertEquals(e1, e2);
+
+		e2.getFirstChild().setValue("y");
+		e2.freeze();
+		assertFalse(e1.equals(e2));
+	}
+
+}
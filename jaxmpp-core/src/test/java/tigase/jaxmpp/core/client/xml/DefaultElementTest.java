@@ -127,4 +127,22 @@ public class DefaultElementTest extends TestCase {
 
     }
 
-}
\ No newline at end of file
+    public void testEqualsAndHashCode() throws XMLException {
+        final Element e1 = createElement();
+        final Element e2 = createElement();
+
+        assertEquals(e1, e2);
+        assertEquals(e1.hashCode(), e2.hashCode());
+        assertEquals(0, new ElementComparator().compare(e1, e2));
+
+        e2.getFirstChild("body").setValue("Wherefore?");
+        assertFalse(e1.equals(e2));
+        assertFalse(e1.hashCode() == e2.hashCode());
+        assertFalse(new ElementComparator().compare(e1, e2) == 0);
+
+        e2.getFirstChild("body").setValue("Wherefore art thou, Romeo?");
+        e2.setAttribute("id", "1");
+        assertFalse(e1.equals(e2));
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.core.client.xml;
+
+/**
+ * Measures heap used by typical stanza built with {@link DefaultElement} and
+ * with {@link CompactElement}. It is not executed as unit test; run it
+ * manually:
+ *
+ * <pre>
+ * java -cp ... tigase.jaxmpp.core.client.xml.ElementMemoryBenchmark [stanzas]
+ * </pre>
+ */
+public class ElementMemoryBenchmark {
+
+	private static Element createStanza(int i) throws XMLException {
+		Element message = ElementFactory.create("message", null, "jabber:client");
+		message.setAttribute("to", "romeo@example.net/orchard");
+		message.setAttribute("from", "juliet@example.com/balcony");
+		message.setAttribute("type", "chat");
+		message.setAttribute("id", "m" + i);
+		message.addChild(ElementFactory.create("body", "Wherefore art thou, Romeo?", null));
+		message.addChild(ElementFactory.create("thread", "e0ffe42b28561960c6b12b944a092794b9683a38", null));
+		message.addChild(ElementFactory.create("active", null, "http://jabber.org/protocol/chatstates"));
+		Element delay = message.addChild(ElementFactory.create("delay", null, "urn:xmpp:delay"));
+		delay.setAttribute("stamp", "2002-09-10T23:08:25Z");
+		delay.setAttribute("from", "capulet.com");
+		return message;
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		for (int round = 0; round < 2; round++) {
+			ElementFactory.setCompact(false);
+			measure("DefaultElement", count);
+			ElementFactory.setCompact(true);
+			measure("CompactElement", count);
+		}
+		ElementFactory.setCompact(false);
+	}
+
+	private static void measure(String name, int count) throws Exception {
+		Element[] stanzas = new Element[count];
+		long before = usedHeap();
+		for (int i = 0; i < count; i++) {
+			stanzas[i] = createStanza(i);
+		}
+		long after = usedHeap();
+		System.out.printf("%-15s %6d bytes/stanza%n", name, (after - before) / count);
+		if (stanzas[count - 1].getFirstChild() == null)
+			throw new IllegalStateException();
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+}
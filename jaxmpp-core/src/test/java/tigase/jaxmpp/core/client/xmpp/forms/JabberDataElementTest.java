@@ -37,7 +37,7 @@ public class JabberDataElementTest {
 		x.addFORM_TYPE("jabber:bot");
 
 		expected = ElementBuilder.create("x").setXMLNS("jabber:x:data").setAttribute("type", "form").child("field").setAttribute(
-				"var", "FORM_TYPE").setAttribute("type", "hidden").setValue("jabber:bot");
+				"var", "FORM_TYPE").setAttribute("type", "hidden").child("value").setValue("jabber:bot").up();
 		assertEquals(expected.getElement(), x);
 	}
 
@@ -51,19 +51,19 @@ public class JabberDataElementTest {
 		x.addFORM_TYPE("jabber:bot");
 
 		expected = ElementBuilder.create("x").setXMLNS("jabber:x:data").setAttribute("type", "form").child("field").setAttribute(
-				"var", "FORM_TYPE").setAttribute("type", "hidden").setValue("jabber:bot");
+				"var", "FORM_TYPE").setAttribute("type", "hidden").child("value").setValue("jabber:bot").up();
 		assertEquals(expected.getElement(), x);
 
 		x.setInstructions("in");
 		expected = ElementBuilder.create("x").setXMLNS("jabber:x:data").setAttribute("type", "form").child("field").setAttribute(
-				"var", "FORM_TYPE").setAttribute("type", "hidden").setValue("jabber:bot").up().child("instructions").setValue(
-						"in");
+				"var", "FORM_TYPE").setAttribute("type", "hidden").child("value").setValue("jabber:bot").up().up().child(
+						"instructions").setValue("in");
 		assertEquals(expected.getElement(), x);
 
 		x.setTitle("tt");
 		expected = ElementBuilder.create("x").setXMLNS("jabber:x:data").setAttribute("type", "form").child("field").setAttribute(
-				"var", "FORM_TYPE").setAttribute("type", "hidden").setValue("jabber:bot").up().child("instructions").setValue(
-						"in").up().child("title").setValue("tt");
+				"var", "FORM_TYPE").setAttribute("type", "hidden").child("value").setValue("jabber:bot").up().up().child(
+						"instructions").setValue("in").up().child("title").setValue("tt");
 		assertEquals(expected.getElement(), x);
 	}
 
@@ -74,8 +74,8 @@ public class JabberDataElementTest {
 		assertEquals("boolean", field.getAttribute("type"));
 		assertEquals("boolean", field.getType());
 
-		ElementBuilder expected = ElementBuilder.create("field").setAttribute("type", "boolean").setAttribute("var", "public").child(
-				"value").setValue("1");
+		ElementBuilder expected = ElementBuilder.create("field", "jabber:x:data").setAttribute("type", "boolean").setAttribute(
+				"var", "public").child("value").setValue("1");
 
 		assertEquals(expected.getElement(), field);
 	}
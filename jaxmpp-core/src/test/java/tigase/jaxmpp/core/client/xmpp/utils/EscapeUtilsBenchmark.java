@@ -0,0 +1,105 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.core.client.xmpp.utils;
+
+/**
+ * Compares {@link EscapeUtils} with escaping based on repeated
+ * {@link String#replace(CharSequence, CharSequence)} calls, on values typical
+ * for stanzas. It is not executed as unit test; run it manually:
+ *
+ * <pre>
+ * java -cp ... tigase.jaxmpp.core.client.xmpp.utils.EscapeUtilsBenchmark [iterations]
+ * </pre>
+ */
+public class EscapeUtilsBenchmark {
+
+	private static final String[][] ENTITIES = { { "&", "&amp;" }, { "<", "&lt;" }, { ">", "&gt;" }, { "\"", "&quot;" },
+			{ "'", "&apos;" }, };
+
+	private static final String[] VALUES = { "juliet@example.com/balcony", "chat", "jabber:client",
+			"e0ffe42b28561960c6b12b944a092794b9683a38", "Wherefore art thou, Romeo?",
+			"Romeo & Juliet: \"<3\" isn't enough", "2002-09-10T23:08:25Z",
+			"Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore." };
+
+	private static String legacyEscape(String str) {
+		for (int i = 0; i < ENTITIES.length; i++) {
+			str = str.replace(ENTITIES[i][0], ENTITIES[i][1]);
+		}
+		return str;
+	}
+
+	private static String legacyUnescape(String str) {
+		for (int i = ENTITIES.length - 1; i >= 0; i--) {
+			str = str.replace(ENTITIES[i][1], ENTITIES[i][0]);
+		}
+		return str;
+	}
+
+	public static void main(String[] args) {
+		final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		final String[] escaped = new String[VALUES.length];
+		for (int i = 0; i < VALUES.length; i++) {
+			escaped[i] = EscapeUtils.escape(VALUES[i]);
+		}
+		for (int round = 0; round < 3; round++) {
+			System.out.println("Round " + (round + 1));
+			long sum = 0;
+
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				sum += legacyEscape(VALUES[i % VALUES.length]).length();
+			}
+			print("replace() escape", start, iterations);
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				sum += EscapeUtils.escape(VALUES[i % VALUES.length]).length();
+			}
+			print("escape", start, iterations);
+
+			final StringBuilder sb = new StringBuilder(256);
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				sb.setLength(0);
+				EscapeUtils.escape(VALUES[i % VALUES.length], sb);
+				sum += sb.length();
+			}
+			print("escape to builder", start, iterations);
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				sum += legacyUnescape(escaped[i % escaped.length]).length();
+			}
+			print("replace() unescape", start, iterations);
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				sum += EscapeUtils.unescape(escaped[i % escaped.length]).length();
+			}
+			print("unescape", start, iterations);
+
+			if (sum == 0)
+				throw new IllegalStateException();
+		}
+	}
+
+	private static void print(String name, long start, int iterations) {
+		System.out.printf("  %-20s %8.1f ns/value%n", name, (System.nanoTime() - start) / (double) iterations);
+	}
+
+}
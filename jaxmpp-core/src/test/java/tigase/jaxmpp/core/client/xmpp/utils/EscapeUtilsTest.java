@@ -18,6 +18,7 @@
 package tigase.jaxmpp.core.client.xmpp.utils;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import org.junit.Test;
 
@@ -30,6 +31,23 @@ public class EscapeUtilsTest {
 		assertEquals("&lt;a b=&quot;x&apos;x&quot;&gt;", EscapeUtils.escape("<a b=\"x'x\">"));
 	}
 
+	@Test
+	public void testEscapeToBuilder() {
+		StringBuilder sb = new StringBuilder("<x>");
+		EscapeUtils.escape("a'b", sb);
+		EscapeUtils.escape("plain", sb);
+		EscapeUtils.escape(null, sb);
+		assertEquals("<x>a&apos;bplain", sb.toString());
+	}
+
+	@Test
+	public void testNothingToEscape() {
+		String s = "Wherefore art thou, Romeo?";
+		assertSame(s, EscapeUtils.escape(s));
+		assertSame(s, EscapeUtils.unescape(s));
+		assertSame("", EscapeUtils.escape(""));
+	}
+
 	@Test
 	public void testUnescape() {
 		assertEquals("<a>", EscapeUtils.unescape("&lt;a&gt;"));
@@ -37,4 +55,14 @@ public class EscapeUtilsTest {
 		assertEquals("<a>\"&<a>", EscapeUtils.unescape("&lt;a&gt;&quot;&amp;&lt;a&gt;"));
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void testUnescapeSinglePass() {
+		assertEquals("&lt;", EscapeUtils.unescape("&amp;lt;"));
+		assertEquals("a & b &nbsp; &", EscapeUtils.unescape("a &amp; b &nbsp; &"));
+
+		StringBuilder sb = new StringBuilder();
+		EscapeUtils.unescape("&quot;x&quot;", sb);
+		assertEquals("\"x\"", sb.toString());
+	}
+
+}
@@ -242,7 +242,11 @@ public class GwtElement implements Element {
 
 	@Override
 	public int hashCode() {
-		return this.xmlElement.toString().hashCode();
+		try {
+			return ElementComparator.hashCode(this);
+		} catch (XMLException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	private int indexOf(final Element child) {
@@ -0,0 +1,374 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.DirectTlsDnsResolver;
+import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.Entry;
+
+/**
+ * Process-wide cache of SRV records. Records are kept as long as their TTL
+ * allows and each call of {@link #resolve(String)} returns targets ordered
+ * according to RFC 2782: by priority, and randomly (proportionally to weight)
+ * within the same priority, so reconnecting clients are spread over servers.
+ * Concurrent lookups of the same domain are served by single DNS query.
+ */
+public class CachingDNSResolver implements DirectTlsDnsResolver {
+
+	/**
+	 * SRV record.
+	 */
+	public static final class SrvRecord {
+
+		private final int port;
+
+		private final int priority;
+
+		private final String target;
+
+		private final long ttl;
+
+		private final int weight;
+
+		/**
+		 * Creates record.
+		 *
+		 * @param priority
+		 *            priority of target.
+		 * @param weight
+		 *            weight of target.
+		 * @param port
+		 *            port of service.
+		 * @param target
+		 *            hostname of target, without trailing dot.
+		 * @param ttl
+		 *            TTL of record in seconds, or <code>-1</code> if unknown.
+		 */
+		public SrvRecord(int priority, int weight, int port, String target, long ttl) {
+			this.priority = priority;
+			this.weight = weight;
+			this.port = port;
+			this.target = target;
+			this.ttl = ttl;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		public String getTarget() {
+			return target;
+		}
+
+		public long getTtl() {
+			return ttl;
+		}
+
+		public int getWeight() {
+			return weight;
+		}
+
+		@Override
+		public String toString() {
+			return priority + " " + weight + " " + port + " " + target;
+		}
+	}
+
+	private static final class CachedRecords {
+
+		private final long expiresAt;
+
+		private final List<SrvRecord> records;
+
+		CachedRecords(List<SrvRecord> records, long expiresAt) {
+			this.records = records;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private static final class PendingLookup {
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private volatile List<SrvRecord> records;
+	}
+
+	/**
+	 * Time (in milliseconds) for which records are cached if TTL is not known.
+	 */
+	public static final long DEFAULT_TTL = 5 * 60 * 1000;
+
+	/**
+	 * Maximal time (in milliseconds) for which resolution waits for lookup of
+	 * the same domain started by other thread.
+	 */
+	public static final long LOOKUP_WAIT_TIMEOUT = 30 * 1000;
+
+	/**
+	 * Maximal number of cached domains.
+	 */
+	public static final int MAX_ENTRIES = 1024;
+
+	/**
+	 * Time (in milliseconds) for which failed or empty lookup is cached.
+	 */
+	public static final long NEGATIVE_TTL = 60 * 1000;
+
+	private static final CachingDNSResolver instance = new CachingDNSResolver();
+
+	private static final Logger log = Logger.getLogger(CachingDNSResolver.class.getName());
+
+	private static final Comparator<SrvRecord> PRIORITY_COMPARATOR = new Comparator<SrvRecord>() {
+
+		@Override
+		public int compare(SrvRecord o1, SrvRecord o2) {
+			return o1.priority < o2.priority ? -1 : (o1.priority == o2.priority ? 0 : 1);
+		}
+	};
+
+	public static CachingDNSResolver getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Orders records according to RFC 2782. Records with target "." or
+	 * without target are skipped, as they mean that service is not
+	 * available.
+	 *
+	 * @param records
+	 *            SRV records.
+	 * @param random
+	 *            source of randomness used for weighted selection.
+	 * @param directTls
+	 *            <code>true</code> if records describe Direct TLS service.
+	 * @return targets in order in which they should be tried.
+	 */
+	static List<Entry> order(List<SrvRecord> records, Random random, boolean directTls) {
+		List<SrvRecord> sorted = new ArrayList<SrvRecord>(records.size());
+		for (SrvRecord r : records) {
+			if (r.target != null && r.target.length() > 0 && !".".equals(r.target))
+				sorted.add(r);
+		}
+		Collections.sort(sorted, PRIORITY_COMPARATOR);
+
+		List<Entry> result = new ArrayList<Entry>(sorted.size());
+		int i = 0;
+		while (i < sorted.size()) {
+			int j = i;
+			while (j < sorted.size() && sorted.get(j).priority == sorted.get(i).priority)
+				j++;
+
+			// zero-weight records go first, so they have small chance to be
+			// selected
+			List<SrvRecord> group = new ArrayList<SrvRecord>(j - i);
+			for (int k = i; k < j; k++) {
+				if (sorted.get(k).weight == 0)
+					group.add(sorted.get(k));
+			}
+			for (int k = i; k < j; k++) {
+				if (sorted.get(k).weight != 0)
+					group.add(sorted.get(k));
+			}
+
+			while (!group.isEmpty()) {
+				int sum = 0;
+				for (SrvRecord r : group) {
+					sum += r.weight;
+				}
+				int selected = random.nextInt(sum + 1);
+				int running = 0;
+				int k = 0;
+				for (; k < group.size() - 1; k++) {
+					running += group.get(k).weight;
+					if (running >= selected)
+						break;
+				}
+				SrvRecord r = group.remove(k);
+				result.add(new Entry(r.target, r.port, directTls));
+			}
+			i = j;
+		}
+		return result;
+	}
+
+	private final Map<String, CachedRecords> cache = new LinkedHashMap<String, CachedRecords>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedRecords> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final Map<String, PendingLookup> inFlight = new HashMap<String, PendingLookup>();
+
+	private final AtomicLong lookups = new AtomicLong();
+
+	private final Random random = new Random();
+
+	/**
+	 * Removes all cached records.
+	 */
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Returns number of resolutions served from cache, including resolutions
+	 * which waited for lookup started by other thread.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns number of DNS queries sent.
+	 */
+	public long getLookupCount() {
+		return lookups.get();
+	}
+
+	private List<SrvRecord> getRecords(final String service, final String hostname) {
+		final String key = service + "." + hostname.toLowerCase();
+		PendingLookup pending;
+		boolean owner = false;
+		synchronized (cache) {
+			CachedRecords cached = cache.get(key);
+			if (cached != null && cached.expiresAt > now()) {
+				hits.incrementAndGet();
+				return cached.records;
+			}
+			pending = inFlight.get(key);
+			if (pending == null) {
+				pending = new PendingLookup();
+				inFlight.put(key, pending);
+				owner = true;
+			}
+		}
+
+		if (!owner) {
+			hits.incrementAndGet();
+			try {
+				if (!pending.done.await(LOOKUP_WAIT_TIMEOUT, TimeUnit.MILLISECONDS) && log.isLoggable(Level.FINE))
+					log.fine("Timeout while waiting for SRV records " + key);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return pending.records == null ? Collections.<SrvRecord> emptyList() : pending.records;
+		}
+
+		List<SrvRecord> records = null;
+		try {
+			long ttl;
+			try {
+				lookups.incrementAndGet();
+				records = lookup(service, hostname);
+				ttl = records.isEmpty() ? NEGATIVE_TTL : ttl(records);
+			} catch (Exception e) {
+				if (log.isLoggable(Level.FINE))
+					log.fine("Can't resolve SRV records " + key + ": " + e);
+				records = Collections.emptyList();
+				ttl = NEGATIVE_TTL;
+			}
+			synchronized (cache) {
+				cache.put(key, new CachedRecords(records, now() + ttl));
+			}
+			return records;
+		} finally {
+			// waiters must be released even if lookup failed with an error
+			synchronized (cache) {
+				inFlight.remove(key);
+			}
+			pending.records = records;
+			pending.done.countDown();
+		}
+	}
+
+	/**
+	 * Queries DNS for SRV records of service of given domain.
+	 *
+	 * @param service
+	 *            {@link DNSResolver#XMPP_CLIENT_SERVICE} or
+	 *            {@link DNSResolver#XMPPS_CLIENT_SERVICE}.
+	 * @param hostname
+	 *            domain name.
+	 * @return list of SRV records, empty if domain has no records.
+	 */
+	protected List<SrvRecord> lookup(String service, String hostname) throws Exception {
+		return DNSResolver.resolveSrv(service, hostname);
+	}
+
+	/**
+	 * Returns current time in milliseconds.
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public List<Entry> resolve(final String hostname) {
+		List<SrvRecord> records = getRecords(DNSResolver.XMPP_CLIENT_SERVICE, hostname);
+		List<Entry> result;
+		synchronized (random) {
+			result = order(records, random, false);
+		}
+		if (result.isEmpty())
+			result.add(new Entry(hostname, 5222));
+		return result;
+	}
+
+	@Override
+	public List<Entry> resolveDirectTls(final String hostname) {
+		List<SrvRecord> records = getRecords(DNSResolver.XMPPS_CLIENT_SERVICE, hostname);
+		synchronized (random) {
+			return order(records, random, true);
+		}
+	}
+
+	private static long ttl(List<SrvRecord> records) {
+		long result = -1;
+		for (SrvRecord r : records) {
+			if (r.ttl >= 0 && (result < 0 || r.ttl < result))
+				result = r.ttl;
+		}
+		return result < 0 ? DEFAULT_TTL : result * 1000;
+	}
+
+}
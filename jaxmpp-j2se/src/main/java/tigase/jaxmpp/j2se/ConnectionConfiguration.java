@@ -20,6 +20,8 @@ package tigase.jaxmpp.j2se;
 import java.net.Authenticator;
 import java.net.PasswordAuthentication;
 import java.net.Proxy;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
 
 import tigase.jaxmpp.core.client.Connector;
 import tigase.jaxmpp.core.client.SessionObject;
@@ -32,6 +34,8 @@ import tigase.jaxmpp.j2se.connectors.socket.SocketConnector;
  */
 public class ConnectionConfiguration extends tigase.jaxmpp.core.client.ConnectionConfiguration {
 
+	private static final Logger log = Logger.getLogger(ConnectionConfiguration.class.getName());
+
 	ConnectionConfiguration(SessionObject sessionObject) {
 		super(sessionObject);
 	}
@@ -67,6 +71,90 @@ public class ConnectionConfiguration extends tigase.jaxmpp.core.client.Connectio
 		sessionObject.setUserProperty(SocketConnector.TLS_DISABLED_KEY, disabled);
 	}
 
+	/**
+	 * Set factory of threads used by connector and by default executor of
+	 * received stanzas.
+	 *
+	 * @param threadFactory
+	 *            thread factory or {@code null} to use platform threads.
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		sessionObject.setUserProperty(Jaxmpp.THREAD_FACTORY_KEY, threadFactory);
+	}
+
+	/**
+	 * Enable or disable use of virtual threads (Java 21 and newer) by
+	 * connector and by default executor of received stanzas. Platform threads
+	 * are used if virtual threads are not supported by JVM.
+	 *
+	 * @param enabled
+	 *            <code>true</code> if virtual threads should be used.
+	 */
+	public void setUseVirtualThreads(boolean enabled) {
+		ThreadFactory factory = null;
+		if (enabled) {
+			factory = VirtualThreads.newThreadFactory("jaxmpp-");
+			if (factory == null)
+				log.warning("Virtual threads are not supported, platform threads will be used");
+		}
+		setThreadFactory(factory);
+	}
+
+	/**
+	 * Enable or disable Direct TLS (XEP-0368). When enabled, TLS is
+	 * established immediately after connecting (default port is 5223) and
+	 * STARTTLS is used only as fallback.
+	 *
+	 * @param enabled
+	 *            <code>true</code> if Direct TLS should be used.
+	 */
+	public void setUseDirectTLS(boolean enabled) {
+		sessionObject.setUserProperty(SocketConnector.DIRECT_TLS_KEY, enabled);
+	}
+
+	/**
+	 * Enable or disable freezing of received stanzas. Frozen stanza may be
+	 * read by many threads without locking, and it is copied on first
+	 * modification made through stanza wrapper. Used only by socket
+	 * connectors. Disabled by default.
+	 *
+	 * @param enabled
+	 *            <code>true</code> if received stanzas should be frozen.
+	 */
+	public void setFreezeReceived(boolean enabled) {
+		sessionObject.setUserProperty(SocketConnector.FREEZE_RECEIVED_KEY, enabled);
+	}
+
+	/**
+	 * Enable or disable lazy building of payload of received stanzas. If
+	 * enabled, only stanza element with its attributes is built when stanza is
+	 * received, and its children are built when they are accessed for the
+	 * first time.
+	 *
+	 * @param enabled
+	 *            <code>true</code> if payload should be built lazily.
+	 */
+	public void setLazyPayload(boolean enabled) {
+		sessionObject.setUserProperty(SocketConnector.LAZY_PAYLOAD_KEY, enabled);
+	}
+
+	/**
+	 * Enable or disable streaming of received stanzas. If enabled, elements
+	 * matching paths registered by modules in
+	 * {@link tigase.jaxmpp.core.client.xml.StreamingHandlers} (for example
+	 * roster items) are processed as soon as they are parsed, in thread
+	 * reading from connection, and they are not kept in memory until whole
+	 * stanza is received. Used only by {@link SocketConnector}; it is ignored
+	 * by NIO connector, because handlers (and listeners of roster store)
+	 * would be called in selector thread shared by many connections.
+	 *
+	 * @param enabled
+	 *            <code>true</code> if elements should be streamed.
+	 */
+	public void setStreamingHandlersEnabled(boolean enabled) {
+		sessionObject.setUserProperty(SocketConnector.STREAMING_HANDLERS_ENABLED_KEY, enabled);
+	}
+
 	/**
 	 * Set server port. Default is 5222
 	 *
@@ -149,6 +237,7 @@ public class ConnectionConfiguration extends tigase.jaxmpp.core.client.Connectio
 
 	public static enum ConnectionType {
 		bosh,
+		nio,
 		socket,
 		websocket
 	}
@@ -21,31 +21,88 @@ import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
 
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.InitialDirContext;
 
+import tigase.jaxmpp.j2se.CachingDNSResolver.SrvRecord;
 import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.Entry;
 
 public class DNSResolver {
 
+	/**
+	 * SRV service name of XMPP client connections using STARTTLS.
+	 */
+	public static final String XMPP_CLIENT_SERVICE = "_xmpp-client._tcp";
+
+	/**
+	 * SRV service name of XMPP client connections using Direct TLS (XEP-0368).
+	 */
+	public static final String XMPPS_CLIENT_SERVICE = "_xmpps-client._tcp";
+
 	public static List<Entry> resolve(final String hostname) throws NamingException {
+		List<Entry> xresult = new ArrayList<Entry>();
+		try {
+			for (SrvRecord r : resolveSrv(hostname)) {
+				xresult.add(new Entry(r.getTarget(), r.getPort()));
+			}
+		} catch (Exception caught) {
+		}
+		if (xresult.isEmpty()) {
+			Entry e = new Entry(hostname, 5222);
+			xresult.add(e);
+		}
+
+		return xresult;
+	}
+
+	/**
+	 * Returns SRV records of XMPP client service of given domain.
+	 *
+	 * @param hostname
+	 *            domain name.
+	 * @return records in order returned by DNS server, empty if there are
+	 *         none.
+	 */
+	public static List<SrvRecord> resolveSrv(final String hostname) throws NamingException {
+		return resolveSrv(XMPP_CLIENT_SERVICE, hostname);
+	}
+
+	/**
+	 * Returns SRV records of service of given domain. JNDI doesn't expose TTL
+	 * so it is unknown in returned records. Records with target "." are
+	 * skipped.
+	 *
+	 * @param service
+	 *            service and protocol, for example
+	 *            {@link #XMPP_CLIENT_SERVICE}.
+	 * @param hostname
+	 *            domain name.
+	 * @return records in order returned by DNS server, empty if there are
+	 *         none.
+	 */
+	public static List<SrvRecord> resolveSrv(final String service, final String hostname) throws NamingException {
 		Hashtable<String, String> env = new Hashtable<String, String>(5);
 		env.put("java.naming.factory.initial", "com.sun.jndi.dns.DnsContextFactory");
 		DirContext ctx = new InitialDirContext(env);
-		List<Entry> xresult = new ArrayList<Entry>();
+		List<SrvRecord> xresult = new ArrayList<SrvRecord>();
 		try {
-			Attributes attrs = ctx.getAttributes("_xmpp-client._tcp." + hostname, new String[] { "SRV" });
+			Attributes attrs = ctx.getAttributes(service + "." + hostname, new String[] { "SRV" });
 			Attribute att = attrs.get("SRV");
 
 			if (att != null)
 				for (int i = 0; i < att.size(); i++) {
 					String[] dns_resp = att.get(i).toString().split(" ");
+					int priority;
+					int weight;
 					Integer port = 5222;
 					String name = dns_resp[3];
 					try {
+						priority = Integer.parseInt(dns_resp[0]);
+						weight = Integer.parseInt(dns_resp[1]);
 						port = Integer.valueOf(dns_resp[2]);
 					} catch (Exception e) {
 						continue;
@@ -58,20 +115,18 @@ public class DNSResolver {
 						name = name.substring(0, name.length() - 1);
 					}
 
-					Entry e = new Entry(name, port);
-					xresult.add(e);
-				}
-			else {
-				Entry e = new Entry(hostname, 5222);
-				xresult.add(e);
-			}
-		} catch (Exception caught) {
-			Entry e = new Entry(hostname, 5222);
-			xresult.add(e);
+					// target "." means that service is not available (RFC 2782)
+					if (name.length() == 0)
+						continue;
 
+					xresult.add(new SrvRecord(priority, weight, port, name, -1));
+				}
+		} catch (NameNotFoundException e) {
+		} finally {
+			ctx.close();
 		}
 
 		return xresult;
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,398 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Timer based on hashed timing wheel. Single thread moves over wheel of
+ * buckets, one bucket per tick, and hands expired tasks to executor. Adding
+ * and cancelling task costs O(1), so one timer may be shared by all
+ * connections in process, each one holding only lightweight {@link Timeout}
+ * handles. Tasks are executed with precision of one tick.
+ * <p>
+ * Expired tasks are executed by bounded pool, so many tasks expiring in the
+ * same tick wait in queue instead of starting thread each. Task scheduled with
+ * {@link ThreadFactory} (for example factory of virtual threads set in
+ * {@link Jaxmpp#THREAD_FACTORY_KEY}) is executed in new thread created by this
+ * factory.
+ * </p>
+ */
+public class HashedWheelTimer {
+
+	/**
+	 * Handle of scheduled task.
+	 */
+	public interface Timeout {
+
+		/**
+		 * Cancels task. Running execution is not interrupted.
+		 *
+		 * @return <code>false</code> if task was already cancelled or (if not
+		 *         periodic) already executed.
+		 */
+		boolean cancel();
+
+		boolean isCancelled();
+
+	}
+
+	private static final class Bucket {
+
+		private TimeoutImpl head;
+
+		private TimeoutImpl tail;
+
+		void add(TimeoutImpl timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void remove(TimeoutImpl timeout) {
+			if (timeout.bucket != this)
+				return;
+			if (timeout.prev != null)
+				timeout.prev.next = timeout.next;
+			else
+				head = timeout.next;
+			if (timeout.next != null)
+				timeout.next.prev = timeout.prev;
+			else
+				tail = timeout.prev;
+			timeout.prev = timeout.next = null;
+			timeout.bucket = null;
+		}
+	}
+
+	private final class TimeoutImpl implements Timeout, Runnable {
+
+		private Bucket bucket;
+
+		private long deadline;
+
+		private TimeoutImpl next;
+
+		private final long period;
+
+		private TimeoutImpl prev;
+
+		private long remainingRounds;
+
+		private final AtomicInteger state = new AtomicInteger(ST_WAITING);
+
+		private final Runnable task;
+
+		private final ThreadFactory threadFactory;
+
+		TimeoutImpl(Runnable task, long deadline, long period, ThreadFactory threadFactory) {
+			this.task = task;
+			this.deadline = deadline;
+			this.period = period;
+			this.threadFactory = threadFactory;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (!state.compareAndSet(ST_WAITING, ST_CANCELLED))
+				return false;
+			cancelled.add(this);
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state.get() == ST_CANCELLED;
+		}
+
+		@Override
+		public void run() {
+			if (state.get() == ST_CANCELLED)
+				return;
+			try {
+				task.run();
+			} catch (Throwable e) {
+				log.log(Level.WARNING, "Scheduled task " + task + " failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Default duration of tick in milliseconds.
+	 */
+	public static final long DEFAULT_TICK_DURATION = 100;
+
+	/**
+	 * Default number of buckets in wheel.
+	 */
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	/**
+	 * Maximum number of threads executing tasks of shared timer.
+	 */
+	public static final int DEFAULT_POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	private static HashedWheelTimer instance;
+
+	private static final Logger log = Logger.getLogger(HashedWheelTimer.class.getName());
+
+	private static final int ST_CANCELLED = 1;
+
+	private static final int ST_EXPIRED = 2;
+
+	private static final int ST_WAITING = 0;
+
+	/**
+	 * Returns timer shared by all instances of client in process. Tasks are
+	 * executed by pool of at most {@link #DEFAULT_POOL_SIZE} daemon threads,
+	 * which are kept only while needed.
+	 */
+	public static synchronized HashedWheelTimer getInstance() {
+		if (instance == null) {
+			ThreadFactory threadFactory = new ThreadFactory() {
+
+				private final AtomicInteger counter = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "jaxmpp-timer-task-" + counter.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			};
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_POOL_SIZE, DEFAULT_POOL_SIZE, 60,
+					TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+			executor.allowCoreThreadTimeOut(true);
+			instance = new HashedWheelTimer(DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE, executor);
+		}
+		return instance;
+	}
+
+	private final ConcurrentLinkedQueue<TimeoutImpl> cancelled = new ConcurrentLinkedQueue<TimeoutImpl>();
+
+	private final Executor executor;
+
+	private final int mask;
+
+	private final ConcurrentLinkedQueue<TimeoutImpl> pending = new ConcurrentLinkedQueue<TimeoutImpl>();
+
+	private final long startTime = System.nanoTime();
+
+	private long tick;
+
+	private final long tickDuration;
+
+	private final Bucket[] wheel;
+
+	private Thread workerThread;
+
+	/**
+	 * Creates timer. Thread of timer is started when first task is
+	 * scheduled.
+	 *
+	 * @param tickDuration
+	 *            duration of tick in milliseconds.
+	 * @param wheelSize
+	 *            number of buckets, rounded up to power of two.
+	 * @param executor
+	 *            executor of expired tasks.
+	 */
+	public HashedWheelTimer(long tickDuration, int wheelSize, Executor executor) {
+		if (tickDuration <= 0)
+			throw new IllegalArgumentException("tickDuration must be greater than 0");
+		int size = 1;
+		while (size < wheelSize)
+			size <<= 1;
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			this.wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+		this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+		this.executor = executor;
+	}
+
+	private void expire(Bucket bucket, long now) {
+		TimeoutImpl timeout = bucket.head;
+		while (timeout != null) {
+			TimeoutImpl next = timeout.next;
+			if (timeout.state.get() == ST_CANCELLED) {
+				bucket.remove(timeout);
+			} else if (timeout.remainingRounds <= 0 && timeout.deadline <= now) {
+				bucket.remove(timeout);
+				if (timeout.period > 0) {
+					timeout.deadline += timeout.period;
+					pending.add(timeout);
+				} else if (!timeout.state.compareAndSet(ST_WAITING, ST_EXPIRED)) {
+					timeout = next;
+					continue;
+				}
+				try {
+					if (timeout.threadFactory == null)
+						executor.execute(timeout);
+					else
+						timeout.threadFactory.newThread(timeout).start();
+				} catch (RuntimeException e) {
+					log.log(Level.WARNING, "Can't execute scheduled task", e);
+				}
+			} else {
+				timeout.remainingRounds--;
+			}
+			timeout = next;
+		}
+	}
+
+	/**
+	 * Returns number of scheduled tasks waiting to be added to wheel. For
+	 * tests only.
+	 */
+	int getPendingCount() {
+		return pending.size();
+	}
+
+	private void processCancelled() {
+		TimeoutImpl timeout;
+		while ((timeout = cancelled.poll()) != null) {
+			if (timeout.bucket != null)
+				timeout.bucket.remove(timeout);
+		}
+	}
+
+	/**
+	 * Schedules single execution of task.
+	 *
+	 * @param task
+	 *            task to execute.
+	 * @param delay
+	 *            delay in milliseconds.
+	 * @return handle of task.
+	 */
+	public Timeout schedule(Runnable task, long delay) {
+		return schedule(task, delay, 0);
+	}
+
+	/**
+	 * Schedules periodic execution of task.
+	 *
+	 * @param task
+	 *            task to execute.
+	 * @param delay
+	 *            delay of first execution in milliseconds.
+	 * @param period
+	 *            period in milliseconds, or <code>0</code> for single
+	 *            execution.
+	 * @return handle of task.
+	 */
+	public Timeout schedule(Runnable task, long delay, long period) {
+		return schedule(task, delay, period, null);
+	}
+
+	/**
+	 * Schedules periodic execution of task in threads created by given
+	 * factory.
+	 *
+	 * @param task
+	 *            task to execute.
+	 * @param delay
+	 *            delay of first execution in milliseconds.
+	 * @param period
+	 *            period in milliseconds, or <code>0</code> for single
+	 *            execution.
+	 * @param threadFactory
+	 *            factory of thread for each execution, or <code>null</code>
+	 *            to use executor of timer.
+	 * @return handle of task.
+	 */
+	public Timeout schedule(Runnable task, long delay, long period, ThreadFactory threadFactory) {
+		if (task == null)
+			throw new NullPointerException("Task cannot be null");
+		if (period < 0)
+			throw new IllegalArgumentException("Period cannot be negative");
+		startIfRequired();
+		long deadline = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+		TimeoutImpl timeout = new TimeoutImpl(task, deadline, TimeUnit.MILLISECONDS.toNanos(period), threadFactory);
+		pending.add(timeout);
+		return timeout;
+	}
+
+	private synchronized void startIfRequired() {
+		if (workerThread != null)
+			return;
+		workerThread = new Thread("jaxmpp-timer") {
+			@Override
+			public void run() {
+				work();
+			}
+		};
+		workerThread.setDaemon(true);
+		workerThread.start();
+	}
+
+	private void transferPending() {
+		// limit protects tick from being delayed by flood of new tasks
+		for (int i = 0; i < 100000; i++) {
+			TimeoutImpl timeout = pending.poll();
+			if (timeout == null)
+				break;
+			if (timeout.state.get() == ST_CANCELLED)
+				continue;
+			long ticks = timeout.deadline / tickDuration;
+			timeout.remainingRounds = (ticks - tick) / wheel.length;
+			wheel[(int) (Math.max(ticks, tick) & mask)].add(timeout);
+		}
+	}
+
+	private long waitForNextTick() throws InterruptedException {
+		long deadline = tickDuration * (tick + 1);
+		while (true) {
+			long now = System.nanoTime() - startTime;
+			long sleep = deadline - now;
+			if (sleep <= 0)
+				return now;
+			TimeUnit.NANOSECONDS.sleep(sleep);
+		}
+	}
+
+	private void work() {
+		try {
+			while (true) {
+				long now = waitForNextTick();
+				processCancelled();
+				transferPending();
+				expire(wheel[(int) (tick & mask)], now);
+				tick++;
+			}
+		} catch (InterruptedException e) {
+			log.fine("Timer thread interrupted");
+		}
+	}
+
+}
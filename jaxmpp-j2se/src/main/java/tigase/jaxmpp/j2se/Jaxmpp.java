@@ -24,19 +24,24 @@ import tigase.jaxmpp.core.client.XmppSessionLogic.SessionListener;
 import tigase.jaxmpp.core.client.connector.ConnectorWrapper;
 import tigase.jaxmpp.core.client.connector.StreamError;
 import tigase.jaxmpp.core.client.exceptions.JaxmppException;
+import tigase.jaxmpp.core.client.factory.UniversalFactory;
+import tigase.jaxmpp.core.client.factory.UniversalFactory.FactorySpi;
 import tigase.jaxmpp.core.client.xml.XMLException;
 import tigase.jaxmpp.core.client.xmpp.modules.auth.SaslModule;
 import tigase.jaxmpp.core.client.xmpp.modules.streammng.StreamManagementModule;
+import tigase.jaxmpp.core.client.xmpp.stanzas.Stanza;
 import tigase.jaxmpp.core.client.xmpp.utils.DateTimeFormat;
 import tigase.jaxmpp.j2se.connectors.bosh.BoshConnector;
+import tigase.jaxmpp.j2se.connectors.socket.NioSocketConnector;
+import tigase.jaxmpp.j2se.connectors.socket.SendFuture;
 import tigase.jaxmpp.j2se.connectors.socket.SocketConnector;
+import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.DnsResolver;
 import tigase.jaxmpp.j2se.connectors.websocket.WebSocketConnector;
 import tigase.jaxmpp.j2se.eventbus.ThreadSafeEventBus;
 import tigase.jaxmpp.j2se.xmpp.modules.auth.saslmechanisms.ExternalMechanism;
 
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 
 /**
@@ -49,22 +54,55 @@ public class Jaxmpp extends JaxmppCore {
 	public static final String EXCEPTION_KEY = "jaxmpp#ThrowedException";
 	public static final String LOGIN_TIMEOUT_KEY = "LOGIN_TIMEOUT_KEY";
 	public static final String SYNCHRONIZED_MODE = "jaxmpp#synchronized";
-	private static final Executor DEFAULT_EXECUTOR = new Executor() {
+	/**
+	 * Property to specify {@link ThreadFactory} used to create threads of
+	 * connector workers, keepalive and timeout checking tasks and (unless custom
+	 * {@linkplain #setExecutor(Executor) executor} is set) processing of
+	 * received stanzas. For example
+	 * {@link VirtualThreads#newThreadFactory(String)} allows to run many
+	 * sessions with blocking sockets without cost of platform threads.
+	 */
+	public static final String THREAD_FACTORY_KEY = "jaxmpp#threadFactory";
+
+	/**
+	 * Creates (not started) thread using factory set in session object with
+	 * {@link #THREAD_FACTORY_KEY}, or platform thread if factory is not set.
+	 *
+	 * @param sessionObject
+	 *            session object.
+	 * @param runnable
+	 *            task executed by thread.
+	 * @return new thread.
+	 */
+	public static Thread newThread(SessionObject sessionObject, Runnable runnable) {
+		final ThreadFactory factory = sessionObject == null ? null
+				: (ThreadFactory) sessionObject.getProperty(THREAD_FACTORY_KEY);
+		return factory == null ? new Thread(runnable) : factory.newThread(runnable);
+	}
+
+	private final Executor defaultExecutor = new Executor() {
 
 		@Override
-		public synchronized void execute(Runnable command) {
-			(new Thread(command)).start();
+		public void execute(Runnable command) {
+			newThread(sessionObject, command).start();
 		}
 	};
 
 	static {
 		DateTimeFormat.setProvider(new DateTimeFormatProviderImpl());
+		UniversalFactory.setSpi(DnsResolver.class.getName(), new FactorySpi<DnsResolver>() {
+
+			@Override
+			public DnsResolver create() {
+				return CachingDNSResolver.getInstance();
+			}
+		});
 	}
 
 	private final ConnectorWrapper connectorWrapper = new ConnectorWrapper();
 	private Executor executor;
-	private TimerTask loginTimeoutTask;
-	private Timer timer = null;
+	private HashedWheelTimer.Timeout checkTimeoutsTask;
+	private HashedWheelTimer.Timeout loginTimeoutTask;
 
 	// private FileTransferManager fileTransferManager;
 
@@ -96,6 +134,9 @@ public class Jaxmpp extends JaxmppCore {
 		} else if ("websocket".equals(sessionObject.getProperty(CONNECTOR_TYPE))) {
 			log.info("Using WebSocketConnector");
 			return new WebSocketConnector(context);
+		} else if ("nio".equals(sessionObject.getProperty(CONNECTOR_TYPE))) {
+			log.info("Using NioSocketConnector");
+			return new NioSocketConnector(context);
 		} else
 			throw new JaxmppException("Unknown connector type");
 	}
@@ -168,6 +209,33 @@ public class Jaxmpp extends JaxmppCore {
 		return executor;
 	}
 
+	/**
+	 * Sends stanza without waiting until it is written to connection. Stanza
+	 * is always written to default XMPP stream. Producers may use returned
+	 * handle and {@linkplain Connector.WritabilityChangedHandler
+	 * WritabilityChangedEvent} to limit rate of sending when server is slow.
+	 *
+	 * @param stanza
+	 *            stanza to send.
+	 * @return completion handle of sending.
+	 * @throws JaxmppException
+	 *             if client is not connected or connector doesn't support
+	 *             asynchronous sending.
+	 */
+	public SendFuture sendAsync(Stanza stanza) throws JaxmppException {
+		final Connector c = connectorWrapper.getConnector();
+		if (c == null || c.getState() != Connector.State.connected)
+			throw new JaxmppException("Not connected!");
+		if (!(c instanceof SocketConnector))
+			throw new JaxmppException("Asynchronous sending is not supported by " + c.getClass().getName());
+
+		final Boolean autoId = sessionObject.getProperty(AUTOADD_STANZA_ID_KEY);
+		if (autoId != null && autoId.booleanValue() && !stanza.getAttributes().containsKey("id")) {
+			stanza.setAttribute("id", UIDGenerator.next());
+		}
+		return ((SocketConnector) c).sendAsync(stanza);
+	}
+
 	/**
 	 * Sets custom {@linkplain Executor} for processing incoming stanzas in
 	 * modules.
@@ -177,7 +245,7 @@ public class Jaxmpp extends JaxmppCore {
 	 */
 	public void setExecutor(Executor executor) {
 		if (executor == null)
-			this.executor = DEFAULT_EXECUTOR;
+			this.executor = defaultExecutor;
 		else
 			this.executor = executor;
 	}
@@ -196,7 +264,7 @@ public class Jaxmpp extends JaxmppCore {
 
 		super.init();
 
-		setExecutor(DEFAULT_EXECUTOR);
+		setExecutor(defaultExecutor);
 
 		this.connector = this.connectorWrapper;
 
@@ -271,11 +339,11 @@ public class Jaxmpp extends JaxmppCore {
 	 */
 	public synchronized void login(boolean sync) throws JaxmppException {
 		synchronized (this) {
-			if (timer != null)
-				timer.cancel();
+			if (checkTimeoutsTask != null)
+				checkTimeoutsTask.cancel();
 
-			timer = new Timer(true);
-			timer.schedule(new CheckTimeoutsTask(), 30 * 1000, 30 * 1000);
+			checkTimeoutsTask = HashedWheelTimer.getInstance().schedule(new CheckTimeoutsTask(), 30 * 1000, 30 * 1000,
+					(ThreadFactory) sessionObject.getProperty(THREAD_FACTORY_KEY));
 		}
 		this.modulesManager.initIfRequired();
 
@@ -324,10 +392,11 @@ public class Jaxmpp extends JaxmppCore {
 			this.connector.start();
 			this.sessionObject.setProperty(SYNCHRONIZED_MODE, Boolean.valueOf(sync));
 			if (sync) {
-				loginTimeoutTask = new LoginTimeoutTask();
 				Long delay = sessionObject.getProperty(LOGIN_TIMEOUT_KEY);
 				log.finest("Starting LoginTimeoutTask");
-				timer.schedule(loginTimeoutTask, delay == null ? 1000 * 60 * 5 : delay);
+				loginTimeoutTask = HashedWheelTimer.getInstance().schedule(new LoginTimeoutTask(),
+						delay == null ? 1000 * 60 * 5 : delay, 0,
+						(ThreadFactory) sessionObject.getProperty(THREAD_FACTORY_KEY));
 				synchronized (Jaxmpp.this) {
 					Jaxmpp.this.wait();
 					log.finest("Waked up");
@@ -368,9 +437,9 @@ public class Jaxmpp extends JaxmppCore {
 	protected void onConnectorStopped() {
 		super.onConnectorStopped();
 		synchronized (this) {
-			if (timer != null)
-				timer.cancel();
-			timer = null;
+			if (checkTimeoutsTask != null)
+				checkTimeoutsTask.cancel();
+			checkTimeoutsTask = null;
 		}
 	}
 
@@ -385,9 +454,9 @@ public class Jaxmpp extends JaxmppCore {
 		}
 		synchronized (Jaxmpp.this) {
 //			Jaxmpp.this.notify();
-			if (timer != null) {
-				timer.cancel();
-				timer = null;
+			if (checkTimeoutsTask != null) {
+				checkTimeoutsTask.cancel();
+				checkTimeoutsTask = null;
 			}
 		}
 		// XXX eventBus.fire(new LoggedOutEvent(sessionObject));
@@ -431,7 +500,7 @@ public class Jaxmpp extends JaxmppCore {
 		// XXX eventBus.fire(new LoggedOutEvent(sessionObject));
 	}
 
-	private class CheckTimeoutsTask extends TimerTask {
+	private class CheckTimeoutsTask implements Runnable {
 
 		@Override
 		public void run() {
@@ -444,7 +513,7 @@ public class Jaxmpp extends JaxmppCore {
 
 	}
 
-	private class LoginTimeoutTask extends TimerTask {
+	private class LoginTimeoutTask implements Runnable {
 
 		@Override
 		public void run() {
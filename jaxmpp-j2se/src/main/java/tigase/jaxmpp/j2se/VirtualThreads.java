@@ -0,0 +1,89 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Access to virtual threads (Java 21 and newer). Library is compiled for
+ * older Java versions, so virtual threads are created by reflection.
+ */
+public class VirtualThreads {
+
+	private static final Logger log = Logger.getLogger(VirtualThreads.class.getName());
+
+	private static final Method BUILDER_FACTORY;
+
+	private static final Method BUILDER_NAME;
+
+	private static final Method OF_VIRTUAL;
+
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method factory = null;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+		} catch (Exception e) {
+			ofVirtual = null;
+			log.log(Level.FINEST, "Virtual threads are not available", e);
+		}
+		OF_VIRTUAL = ofVirtual;
+		BUILDER_NAME = name;
+		BUILDER_FACTORY = factory;
+	}
+
+	/**
+	 * Returns <code>true</code> if virtual threads are supported by JVM.
+	 */
+	public static boolean isSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Creates factory of virtual threads.
+	 *
+	 * @param prefix
+	 *            prefix of names of created threads, followed by sequence
+	 *            number.
+	 * @return thread factory or <code>null</code> if virtual threads are not
+	 *         supported.
+	 */
+	public static ThreadFactory newThreadFactory(String prefix) {
+		if (OF_VIRTUAL == null)
+			return null;
+		try {
+			Object builder = OF_VIRTUAL.invoke(null);
+			builder = BUILDER_NAME.invoke(builder, prefix, 0L);
+			return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+		} catch (Exception e) {
+			log.log(Level.WARNING, "Can't create virtual thread factory", e);
+			return null;
+		}
+	}
+
+	private VirtualThreads() {
+	}
+
+}
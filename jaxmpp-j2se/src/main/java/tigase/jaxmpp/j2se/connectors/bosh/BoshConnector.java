@@ -26,6 +26,7 @@ import tigase.jaxmpp.core.client.connector.BoshRequest;
 import tigase.jaxmpp.core.client.exceptions.JaxmppException;
 import tigase.jaxmpp.core.client.xml.Element;
 import tigase.jaxmpp.core.client.xml.XMLException;
+import tigase.jaxmpp.j2se.Jaxmpp;
 import tigase.xml.DomBuilderHandler;
 import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
@@ -69,7 +70,7 @@ public class BoshConnector extends AbstractBoshConnector {
 		if (log.isLoggable(Level.FINEST))
 			log.finest("Send: " + element.getAsString());
 
-		(new Thread(worker)).start();
+		Jaxmpp.newThread(context.getSessionObject(), worker).start();
 	}
 
 	@Override
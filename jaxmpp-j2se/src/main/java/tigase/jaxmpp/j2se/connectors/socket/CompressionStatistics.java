@@ -0,0 +1,92 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+/**
+ * Snapshot of ZLIB compression counters of connection. Counters cover all
+ * compressed streams established by connector, including reconnections.
+ */
+public class CompressionStatistics {
+
+	private final long compressedBytesReceived;
+
+	private final long compressedBytesSent;
+
+	private final long rawBytesReceived;
+
+	private final long rawBytesSent;
+
+	public CompressionStatistics(long rawBytesSent, long compressedBytesSent, long compressedBytesReceived,
+			long rawBytesReceived) {
+		this.rawBytesSent = rawBytesSent;
+		this.compressedBytesSent = compressedBytesSent;
+		this.compressedBytesReceived = compressedBytesReceived;
+		this.rawBytesReceived = rawBytesReceived;
+	}
+
+	/**
+	 * Returns number of compressed bytes read from socket.
+	 */
+	public long getCompressedBytesReceived() {
+		return compressedBytesReceived;
+	}
+
+	/**
+	 * Returns number of compressed bytes written to socket.
+	 */
+	public long getCompressedBytesSent() {
+		return compressedBytesSent;
+	}
+
+	/**
+	 * Returns number of bytes after decompression of received data.
+	 */
+	public long getRawBytesReceived() {
+		return rawBytesReceived;
+	}
+
+	/**
+	 * Returns number of bytes passed to compressor.
+	 */
+	public long getRawBytesSent() {
+		return rawBytesSent;
+	}
+
+	/**
+	 * Returns ratio of compressed to raw received data. Values close to
+	 * <code>1</code> mean that compression doesn't pay off.
+	 */
+	public double getReceiveRatio() {
+		return rawBytesReceived == 0 ? 1 : ((double) compressedBytesReceived) / rawBytesReceived;
+	}
+
+	/**
+	 * Returns ratio of compressed to raw sent data. Values close to
+	 * <code>1</code> mean that compression doesn't pay off.
+	 */
+	public double getSendRatio() {
+		return rawBytesSent == 0 ? 1 : ((double) compressedBytesSent) / rawBytesSent;
+	}
+
+	@Override
+	public String toString() {
+		return "CompressionStatistics{sent=" + rawBytesSent + "->" + compressedBytesSent + ", received="
+				+ compressedBytesReceived + "->" + rawBytesReceived + "}";
+	}
+
+}
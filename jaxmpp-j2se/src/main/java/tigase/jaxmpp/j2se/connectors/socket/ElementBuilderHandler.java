@@ -0,0 +1,480 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import tigase.jaxmpp.core.client.exceptions.JaxmppException;
+import tigase.jaxmpp.core.client.xml.CompactElement;
+import tigase.jaxmpp.core.client.xml.Element;
+import tigase.jaxmpp.core.client.xml.ElementFactory;
+import tigase.jaxmpp.core.client.xml.StreamingHandlers;
+import tigase.jaxmpp.core.client.xml.XMLException;
+import tigase.jaxmpp.core.client.xmpp.utils.EscapeUtils;
+import tigase.jaxmpp.j2se.xml.SymbolTable;
+import tigase.xml.SimpleHandler;
+
+/**
+ * Implementation of <code>SimpleHandler</code> building trees of core
+ * {@link Element} objects directly from parser callbacks. Unlike
+ * {@link XMPPDomBuilderHandler}, result doesn't have to be wrapped in
+ * <code>J2seElement</code>, so navigating in tree (children, parent) doesn't
+ * allocate new objects. Values of attributes and character data are
+ * unescaped. Built elements are {@link CompactElement}s. If
+ * {@linkplain #setFreeze(boolean) enabled}, stanzas are frozen before they
+ * are passed to listener, so they may be read by many threads without
+ * locking. Names and namespaces are taken from {@link SymbolTable}, so they
+ * are not allocated for every stanza.
+ * <p>
+ * In {@linkplain #setLazyPayload(boolean) lazy payload} mode only top level
+ * element (stanza) with its attributes is built when it is parsed. Its
+ * descendants are recorded in compact form and built on first access to
+ * children of stanza, so payload which is never read costs little.
+ * </p>
+ * <p>
+ * Elements matching paths registered in {@linkplain #setStreamingHandlers(StreamingHandlers)
+ * streaming handlers} are passed to handlers as soon as they are parsed and,
+ * if consumed, they are not added to stanza. Payload of stanza is not built
+ * lazily if its first child may contain such paths.
+ * </p>
+ */
+public class ElementBuilderHandler implements SimpleHandler {
+
+	private static final String ELEM_STREAM_STREAM = "stream:stream";
+
+	private static final Logger log = Logger.getLogger(ElementBuilderHandler.class.getName());
+
+	private static final String XMLNS_PREFIX = "xmlns:";
+
+	private final ArrayList<String> cdataStack = new ArrayList<String>();
+
+	private final ArrayList<CompactElement> elementStack = new ArrayList<CompactElement>();
+
+	private boolean error = false;
+
+	private boolean freeze = false;
+
+	private boolean lazyPayload = false;
+
+	private final ElementStreamListener listener;
+
+	private final NamespaceScopes namespaces = new NamespaceScopes();
+
+	/**
+	 * Names of built elements from stanza to currently parsed element.
+	 */
+	private final ArrayList<String> pathNames = new ArrayList<String>();
+
+	/**
+	 * Namespaces (declared or inherited) of built elements from stanza to
+	 * currently parsed element.
+	 */
+	private final ArrayList<String> pathNamespaces = new ArrayList<String>();
+
+	private Object parserState = null;
+
+	private LazyPayload payload;
+
+	/**
+	 * Depth of currently recorded element inside payload, <code>0</code> if
+	 * payload is not recorded.
+	 */
+	private int payloadDepth;
+
+	/**
+	 * <code>true</code> if currently parsed stanza contains elements of paths
+	 * registered in streaming handlers.
+	 */
+	private boolean stanzaStreamed;
+
+	/**
+	 * <code>true</code> if children of currently parsed stanza are built
+	 * during parsing, even if lazy payload is enabled.
+	 */
+	private boolean stanzaPayloadBuilt;
+
+	private volatile StreamingHandlers streamingHandlers;
+
+	private final SymbolTable symbols;
+
+	public ElementBuilderHandler(ElementStreamListener listener) {
+		this(listener, SymbolTable.getInstance());
+	}
+
+	public ElementBuilderHandler(ElementStreamListener listener, SymbolTable symbols) {
+		this.listener = listener;
+		this.symbols = symbols;
+	}
+
+	@Override
+	public void elementCData(StringBuilder cdata) {
+		if (log.isLoggable(Level.FINEST)) {
+			log.finest("Element CDATA: " + cdata);
+		}
+		if (payloadDepth > 0) {
+			payload.cdata(cdata);
+			return;
+		}
+		final int top = elementStack.size() - 1;
+		if (top < 0) {
+			// whitespaces between top level elements
+			return;
+		}
+		String prev = cdataStack.get(top);
+		cdataStack.set(top, prev == null ? cdata.toString() : prev + cdata);
+	}
+
+	@Override
+	public void endElement(StringBuilder name) {
+		if (log.isLoggable(Level.FINEST)) {
+			log.finest("End element name: " + name);
+		}
+
+		namespaces.close();
+		if (payloadDepth > 0) {
+			payload.end();
+			payloadDepth--;
+			return;
+		}
+		final int top = elementStack.size() - 1;
+		if (top < 0) {
+			if (ELEM_STREAM_STREAM.contentEquals(name)) {
+				listener.xmppStreamClosed();
+			} else {
+				log.fine("Unexpected end of element " + name);
+			}
+			return;
+		}
+
+		final CompactElement elem = elementStack.remove(top);
+		final String cdata = cdataStack.remove(top);
+		final LazyPayload elemPayload = payload;
+		payload = null;
+		try {
+			if (elem == null) {
+				// element which couldn't be created
+				return;
+			}
+			if (elemPayload != null && !elemPayload.isEmpty()) {
+				elemPayload.finish();
+				elem.setChildrenLoader(elemPayload);
+				if (cdata != null && log.isLoggable(Level.FINEST))
+					log.finest("Mixed content ignored: " + cdata);
+			} else if (cdata != null) {
+				if (elem.getFirstChild() == null) {
+					elem.setValue(EscapeUtils.unescape(cdata));
+				} else if (log.isLoggable(Level.FINEST)) {
+					log.finest("Mixed content ignored: " + cdata);
+				}
+			}
+			final StreamingHandlers handlers = stanzaStreamed && top > 0 ? streamingHandlers : null;
+			boolean consumed = false;
+			// path of stanza (like "iq") matches many elements, only
+			// elements of complete registered paths are passed to handlers
+			if (handlers != null && elementStack.get(0) != null && handlers.hasHandler(pathNames, pathNamespaces)) {
+				if (freeze)
+					elem.freeze();
+				consumed = dispatch(handlers, elementStack.get(0), elem);
+			}
+			if (top == 0) {
+				if (freeze)
+					elem.freeze();
+				listener.nextElement(elem);
+			} else if (!consumed && elementStack.get(top - 1) != null) {
+				elementStack.get(top - 1).addChild(elem);
+			}
+		} catch (XMLException e) {
+			log.log(Level.WARNING, "Can't build element " + name, e);
+			error = true;
+		} finally {
+			pathNames.remove(top);
+			pathNamespaces.remove(top);
+		}
+	}
+
+	@Override
+	public void error(String errorMessage) {
+		log.warning("XML content parse error.");
+
+		if (log.isLoggable(Level.FINE)) {
+			log.fine(errorMessage);
+		}
+
+		error = true;
+	}
+
+	@Override
+	public void otherXML(StringBuilder other) {
+		if (log.isLoggable(Level.FINEST)) {
+			log.finest("Other XML content: " + other);
+		}
+	}
+
+	public boolean parseError() {
+		return error;
+	}
+
+	@Override
+	public Object restoreParserState() {
+		return parserState;
+	}
+
+	@Override
+	public void saveParserState(Object state) {
+		parserState = state;
+	}
+
+	@Override
+	public void startElement(StringBuilder name, StringBuilder[] attr_names, StringBuilder[] attr_values) {
+		if (log.isLoggable(Level.FINEST)) {
+			log.finest("Start element name: " + name);
+		}
+
+		final boolean streamStart = elementStack.isEmpty() && ELEM_STREAM_STREAM.contentEquals(name);
+		if (streamStart) {
+			// restarted stream doesn't inherit anything from previous one
+			namespaces.clear();
+		}
+		namespaces.open();
+		if (attr_names != null) {
+			for (int i = 0; i < attr_names.length && attr_names[i] != null; ++i) {
+				if (startsWith(attr_names[i], XMLNS_PREFIX)) {
+					namespaces.declare(symbols.get(attr_names[i], XMLNS_PREFIX.length(), attr_names[i].length()),
+							symbols.get(attr_values[i]));
+				}
+			}
+		}
+
+		if (streamStart) {
+			Map<String, String> attribs = new HashMap<String, String>();
+			if (attr_names != null) {
+				for (int i = 0; i < attr_names.length && attr_names[i] != null && attr_values[i] != null; i++) {
+					attribs.put(attr_names[i].toString(), attr_values[i].toString());
+				}
+			}
+			listener.xmppStreamOpened(attribs);
+			return;
+		}
+
+		String elemName = null;
+		String prefix = null;
+		String xmlns = null;
+		int idx = name.indexOf(":");
+		if (idx > 0) {
+			String p = symbols.get(name, 0, idx);
+			String ns = namespaces.resolve(p);
+			if (ns != null) {
+				prefix = p;
+				xmlns = ns;
+				elemName = symbols.get(name, idx + 1, name.length());
+			}
+		}
+		if (elemName == null)
+			elemName = symbols.get(name);
+
+		// namespaces are needed only to match elements of streamed stanza
+		String pathXmlns = null;
+		boolean record = payloadDepth > 0;
+		if (!record && (stanzaStreamed || elementStack.isEmpty())) {
+			pathXmlns = xmlns != null ? xmlns : declaredNamespace(attr_names, attr_values);
+			if (pathXmlns == null && !pathNamespaces.isEmpty())
+				pathXmlns = pathNamespaces.get(pathNamespaces.size() - 1);
+		}
+		if (elementStack.isEmpty()) {
+			pathNames.clear();
+			pathNamespaces.clear();
+			stanzaPayloadBuilt = false;
+			stanzaStreamed = isStreamed(elemName, pathXmlns);
+		} else if (!record && lazyPayload && elementStack.size() == 1) {
+			// all children of stanza are recorded or all are built
+			record = payload != null
+					|| (!stanzaPayloadBuilt && !(stanzaStreamed && isStreamed(elemName, pathXmlns)));
+			stanzaPayloadBuilt = !record;
+		}
+
+		if (record) {
+			if (payload == null)
+				payload = new LazyPayload(symbols);
+			payload.start(elemName, xmlns);
+			if (attr_names != null) {
+				for (int i = 0; i < attr_names.length && attr_names[i] != null; i++) {
+					if (attr_values[i] != null && !isSkipped(attr_names[i], prefix, xmlns))
+						payload.attribute(attr_names[i], attr_values[i]);
+				}
+			}
+			payloadDepth++;
+			return;
+		}
+
+		CompactElement elem = null;
+		try {
+			elem = ElementFactory.createCompact(elemName, null, xmlns);
+			if (attr_names != null) {
+				for (int i = 0; i < attr_names.length && attr_names[i] != null; i++) {
+					if (isSkipped(attr_names[i], prefix, xmlns))
+						continue;
+					final String attrName = symbols.get(attr_names[i]);
+					String value = null;
+					if (attr_values[i] != null) {
+						// namespaces are repeated in many stanzas
+						value = "xmlns".equals(attrName) ? symbols.get(attr_values[i]) : attr_values[i].toString();
+						value = EscapeUtils.unescape(value);
+					}
+					elem.setAttribute(attrName, value);
+				}
+			}
+		} catch (XMLException e) {
+			log.log(Level.WARNING, "Can't create element " + name, e);
+			error = true;
+			elem = null;
+		}
+		elementStack.add(elem);
+		cdataStack.add(null);
+		pathNames.add(elemName);
+		pathNamespaces.add(pathXmlns);
+	}
+
+	/**
+	 * Returns value of <code>xmlns</code> attribute, or <code>null</code> if
+	 * element doesn't declare default namespace.
+	 */
+	private String declaredNamespace(StringBuilder[] attr_names, StringBuilder[] attr_values) {
+		if (attr_names != null) {
+			for (int i = 0; i < attr_names.length && attr_names[i] != null; i++) {
+				if (attr_values[i] != null && "xmlns".contentEquals(attr_names[i]))
+					return EscapeUtils.unescape(symbols.get(attr_values[i]));
+			}
+		}
+		return null;
+	}
+
+	private boolean dispatch(StreamingHandlers handlers, CompactElement stanza, CompactElement elem) {
+		try {
+			return handlers.dispatch(pathNames, pathNamespaces, stanza, elem);
+		} catch (JaxmppException e) {
+			log.log(Level.WARNING, "Streaming handler failed on element " + pathNames.get(pathNames.size() - 1), e);
+			return false;
+		} catch (RuntimeException e) {
+			log.log(Level.WARNING, "Streaming handler failed on element " + pathNames.get(pathNames.size() - 1), e);
+			return false;
+		}
+	}
+
+	/**
+	 * Checks if element which is going to be built may contain (or is)
+	 * element of path registered in streaming handlers.
+	 */
+	private boolean isStreamed(String elemName, String elemXmlns) {
+		final StreamingHandlers handlers = streamingHandlers;
+		if (handlers == null || handlers.isEmpty())
+			return false;
+		pathNames.add(elemName);
+		pathNamespaces.add(elemXmlns);
+		try {
+			return handlers.isPrefix(pathNames, pathNamespaces);
+		} finally {
+			pathNames.remove(pathNames.size() - 1);
+			pathNamespaces.remove(pathNamespaces.size() - 1);
+		}
+	}
+
+	/**
+	 * Checks if attribute is namespace declaration already applied to
+	 * prefixed element, so it should not be added to element.
+	 */
+	private static boolean isSkipped(StringBuilder attrName, String prefix, String xmlns) {
+		if (prefix != null && startsWith(attrName, XMLNS_PREFIX)
+				&& prefix.contentEquals(attrName.subSequence(XMLNS_PREFIX.length(), attrName.length())))
+			return true;
+		return xmlns != null && "xmlns".contentEquals(attrName);
+	}
+
+	/**
+	 * Returns registry of streaming handlers used by this builder.
+	 */
+	public StreamingHandlers getStreamingHandlers() {
+		return streamingHandlers;
+	}
+
+	/**
+	 * Checks if stanzas are frozen before they are passed to listener.
+	 */
+	public boolean isFreeze() {
+		return freeze;
+	}
+
+	/**
+	 * Checks if descendants of stanzas are built only when they are accessed.
+	 */
+	public boolean isLazyPayload() {
+		return lazyPayload;
+	}
+
+	/**
+	 * Enables or disables freezing of received stanzas. Frozen stanza may be
+	 * read by many threads without locking, but any modification of its
+	 * descendants throws {@link XMLException}. Stanza wrappers (and forms)
+	 * replace frozen element with mutable copy on first modification. Change
+	 * takes effect from next stanza.
+	 *
+	 * @param freeze
+	 *            <code>true</code> if stanzas should be frozen.
+	 */
+	public void setFreeze(boolean freeze) {
+		this.freeze = freeze;
+	}
+
+	/**
+	 * Enables or disables lazy building of stanza payload. Change takes effect
+	 * from next stanza.
+	 *
+	 * @param lazyPayload
+	 *            <code>true</code> if only top level elements should be built
+	 *            during parsing.
+	 */
+	public void setLazyPayload(boolean lazyPayload) {
+		this.lazyPayload = lazyPayload;
+	}
+
+	/**
+	 * Sets registry of streaming handlers. Change takes effect from next
+	 * stanza.
+	 *
+	 * @param streamingHandlers
+	 *            registry or <code>null</code> if elements should not be
+	 *            streamed.
+	 */
+	public void setStreamingHandlers(StreamingHandlers streamingHandlers) {
+		this.streamingHandlers = streamingHandlers;
+	}
+
+	private static boolean startsWith(StringBuilder sb, String prefix) {
+		if (sb.length() < prefix.length())
+			return false;
+		for (int i = 0; i < prefix.length(); i++) {
+			if (sb.charAt(i) != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+}
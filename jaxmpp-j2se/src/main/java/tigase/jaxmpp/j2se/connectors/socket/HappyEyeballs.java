@@ -0,0 +1,284 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.Entry;
+
+/**
+ * Opens TCP connection using staggered parallel attempts (RFC 8305 "Happy
+ * Eyeballs"). Attempts are started one after another in order of addresses,
+ * next one when previous failed or when connection attempt delay elapsed.
+ * First connected socket is returned and all other attempts are cancelled, so
+ * unreachable server or address family doesn't delay connection.
+ */
+public class HappyEyeballs {
+
+	/**
+	 * Creates unconnected sockets used by connection attempts.
+	 */
+	public interface SocketFactory {
+
+		Socket createSocket() throws IOException;
+
+	}
+
+	private final class Attempt implements Runnable {
+
+		private final InetSocketAddress address;
+
+		private volatile boolean cancelled;
+
+		private volatile IOException error;
+
+		private final Socket socket;
+
+		Attempt(InetSocketAddress address, Socket socket) {
+			this.address = address;
+			this.socket = socket;
+		}
+
+		void cancel() {
+			cancelled = true;
+			closeQuietly(socket);
+		}
+
+		@Override
+		public void run() {
+			try {
+				socket.connect(address, connectTimeout);
+				if (cancelled || !winner.compareAndSet(null, socket)) {
+					closeQuietly(socket);
+					return;
+				}
+				results.offer(this);
+			} catch (IOException e) {
+				closeQuietly(socket);
+				if (!cancelled) {
+					if (log.isLoggable(Level.FINER))
+						log.finer("Connection to " + address + " failed: " + e);
+					error = e;
+					results.offer(this);
+				}
+			}
+		}
+	}
+
+	private static final Logger log = Logger.getLogger(HappyEyeballs.class.getName());
+
+	/**
+	 * Default delay (in milliseconds) between start of consecutive connection
+	 * attempts, as recommended by RFC 8305.
+	 */
+	public static final int DEFAULT_CONNECTION_ATTEMPT_DELAY = 250;
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Resolves all addresses of given servers. Order of servers is kept, while
+	 * addresses of each server are interleaved by address family, starting
+	 * with family of first address returned by resolver.
+	 *
+	 * @param serverHosts
+	 *            servers in order of preference.
+	 * @return list of addresses to connect to.
+	 * @throws UnknownHostException
+	 *             if none of servers could be resolved.
+	 */
+	public static List<InetSocketAddress> resolve(List<Entry> serverHosts) throws UnknownHostException {
+		List<InetSocketAddress> result = new ArrayList<InetSocketAddress>();
+		UnknownHostException error = null;
+		for (Entry serverHost : serverHosts) {
+			InetAddress[] addresses;
+			try {
+				addresses = InetAddress.getAllByName(serverHost.getHostname());
+			} catch (UnknownHostException e) {
+				log.fine("Can't resolve " + serverHost.getHostname() + ": " + e);
+				error = e;
+				continue;
+			}
+			for (InetAddress address : sortByFamily(addresses)) {
+				InetSocketAddress a = new InetSocketAddress(address, serverHost.getPort());
+				if (!result.contains(a))
+					result.add(a);
+			}
+		}
+		if (result.isEmpty())
+			throw error != null ? error : new UnknownHostException("No server addresses");
+		return result;
+	}
+
+	static List<InetAddress> sortByFamily(InetAddress[] addresses) {
+		LinkedList<InetAddress> first = new LinkedList<InetAddress>();
+		LinkedList<InetAddress> second = new LinkedList<InetAddress>();
+		boolean firstIsV6 = addresses.length > 0 && addresses[0] instanceof Inet6Address;
+		for (InetAddress address : addresses) {
+			if ((address instanceof Inet6Address) == firstIsV6)
+				first.add(address);
+			else
+				second.add(address);
+		}
+		List<InetAddress> result = new ArrayList<InetAddress>(addresses.length);
+		while (!first.isEmpty() || !second.isEmpty()) {
+			if (!first.isEmpty())
+				result.add(first.removeFirst());
+			if (!second.isEmpty())
+				result.add(second.removeFirst());
+		}
+		return result;
+	}
+
+	private final long attemptDelay;
+
+	private final int connectTimeout;
+
+	private final ThreadFactory threadFactory;
+
+	private final LinkedBlockingQueue<Attempt> results = new LinkedBlockingQueue<Attempt>();
+
+	private final AtomicReference<Socket> winner = new AtomicReference<Socket>();
+
+	/**
+	 * Creates connector.
+	 *
+	 * @param attemptDelay
+	 *            delay (in milliseconds) after which next attempt is started
+	 *            if previous one is still in progress.
+	 * @param connectTimeout
+	 *            timeout (in milliseconds) of single attempt, <code>0</code>
+	 *            means system default.
+	 */
+	public HappyEyeballs(long attemptDelay, int connectTimeout) {
+		this(attemptDelay, connectTimeout, null);
+	}
+
+	/**
+	 * Creates connector.
+	 *
+	 * @param attemptDelay
+	 *            delay (in milliseconds) after which next attempt is started
+	 *            if previous one is still in progress.
+	 * @param connectTimeout
+	 *            timeout (in milliseconds) of single attempt, <code>0</code>
+	 *            means system default.
+	 * @param threadFactory
+	 *            factory of threads running connection attempts, or
+	 *            <code>null</code> to use daemon platform threads.
+	 */
+	public HappyEyeballs(long attemptDelay, int connectTimeout, ThreadFactory threadFactory) {
+		this.attemptDelay = Math.max(0, attemptDelay);
+		this.connectTimeout = Math.max(0, connectTimeout);
+		this.threadFactory = threadFactory;
+	}
+
+	private void start(Attempt attempt) {
+		final Thread t;
+		if (threadFactory == null) {
+			t = new Thread(attempt, "happy-eyeballs-" + attempt.address);
+			t.setDaemon(true);
+		} else {
+			t = threadFactory.newThread(attempt);
+		}
+		t.start();
+	}
+
+	/**
+	 * Connects to first reachable address. Instance may be used only once.
+	 *
+	 * @param addresses
+	 *            addresses in order of preference.
+	 * @param socketFactory
+	 *            factory of unconnected sockets.
+	 * @return connected socket.
+	 * @throws IOException
+	 *             if all attempts failed. Exception of last failed attempt is
+	 *             thrown.
+	 */
+	public Socket connect(List<InetSocketAddress> addresses, SocketFactory socketFactory) throws IOException {
+		if (addresses.isEmpty())
+			throw new IOException("No addresses to connect to");
+
+		final List<Attempt> attempts = new ArrayList<Attempt>(addresses.size());
+		int next = 0;
+		int pending = 0;
+		long nextAttemptTime = 0;
+		IOException lastError = null;
+		Socket connected = null;
+		try {
+			while (true) {
+				long now = System.currentTimeMillis();
+				if (next < addresses.size() && (pending == 0 || now >= nextAttemptTime)) {
+					InetSocketAddress address = addresses.get(next++);
+					if (log.isLoggable(Level.FINE))
+						log.fine("Opening connection to " + address);
+					Attempt attempt = new Attempt(address, socketFactory.createSocket());
+					attempts.add(attempt);
+					start(attempt);
+					pending++;
+					nextAttemptTime = now + attemptDelay;
+					continue;
+				}
+				if (pending == 0)
+					break;
+
+				Attempt result = next < addresses.size() ? results.poll(Math.max(1, nextAttemptTime - now),
+						TimeUnit.MILLISECONDS) : results.take();
+				if (result == null)
+					continue;
+				pending--;
+				if (result.error == null) {
+					log.info("Connected to " + result.address);
+					connected = result.socket;
+					return connected;
+				}
+				lastError = result.error;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Connecting interrupted");
+		} finally {
+			// cancels attempts which are still in progress
+			for (Attempt attempt : attempts) {
+				if (attempt.socket != connected)
+					attempt.cancel();
+			}
+		}
+		throw lastError != null ? lastError : new IOException("Can't connect");
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tigase.jaxmpp.core.client.xml.ChildrenLoader;
+import tigase.jaxmpp.core.client.xml.CompactElement;
+import tigase.jaxmpp.core.client.xml.Element;
+import tigase.jaxmpp.core.client.xml.ElementFactory;
+import tigase.jaxmpp.core.client.xml.XMLException;
+import tigase.jaxmpp.core.client.xmpp.utils.EscapeUtils;
+import tigase.jaxmpp.j2se.xml.SymbolTable;
+
+/**
+ * Payload of stanza recorded by {@link ElementBuilderHandler} in lazy mode.
+ * Names, attributes and character data of all descendants of stanza are kept
+ * in single character buffer, as ranges described by array of operations.
+ * Elements are built from it only when children of stanza are accessed.
+ */
+final class LazyPayload implements ChildrenLoader {
+
+	private static final int ATTR_NAME = 2;
+
+	private static final int ATTR_VALUE = 3;
+
+	private static final int CDATA = 4;
+
+	private static final int END = 5;
+
+	private static final int START = 0;
+
+	private static final int XMLNS = 1;
+
+	private final StringBuilder chars = new StringBuilder(256);
+
+	private int[] ops = new int[48];
+
+	private int opsCount;
+
+	private final SymbolTable symbols;
+
+	LazyPayload(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	private void add(int type, int start, int end) {
+		if (opsCount + 3 > ops.length) {
+			int[] tmp = new int[ops.length * 2];
+			System.arraycopy(ops, 0, tmp, 0, opsCount);
+			ops = tmp;
+		}
+		ops[opsCount++] = type;
+		ops[opsCount++] = start;
+		ops[opsCount++] = end;
+	}
+
+	private void add(int type, CharSequence data) {
+		final int start = chars.length();
+		chars.append(data);
+		add(type, start, chars.length());
+	}
+
+	/**
+	 * Records attribute of current element. Value is kept escaped.
+	 */
+	void attribute(CharSequence name, CharSequence value) {
+		add(ATTR_NAME, name);
+		add(ATTR_VALUE, value);
+	}
+
+	/**
+	 * Records escaped character data of current element.
+	 */
+	void cdata(CharSequence data) {
+		add(CDATA, data);
+	}
+
+	/**
+	 * Records end of element.
+	 */
+	void end() {
+		add(END, 0, 0);
+	}
+
+	/**
+	 * Releases unused space of buffers, when payload is complete.
+	 */
+	void finish() {
+		chars.trimToSize();
+		if (ops.length > opsCount) {
+			int[] tmp = new int[opsCount];
+			System.arraycopy(ops, 0, tmp, 0, opsCount);
+			ops = tmp;
+		}
+	}
+
+	boolean isEmpty() {
+		return opsCount == 0;
+	}
+
+	/**
+	 * Records start of element.
+	 *
+	 * @param name
+	 *            name of element, without prefix.
+	 * @param xmlns
+	 *            namespace resolved from prefix of element, or
+	 *            <code>null</code>.
+	 */
+	void start(String name, String xmlns) {
+		add(START, name);
+		if (xmlns != null)
+			add(XMLNS, xmlns);
+	}
+
+	@Override
+	public List<Element> loadChildren() throws XMLException {
+		final List<Element> result = new ArrayList<Element>();
+		final ArrayList<CompactElement> stack = new ArrayList<CompactElement>();
+		final ArrayList<String> cdataStack = new ArrayList<String>();
+		String attrName = null;
+		for (int i = 0; i < opsCount; i += 3) {
+			final int start = ops[i + 1];
+			final int end = ops[i + 2];
+			final int top = stack.size() - 1;
+			switch (ops[i]) {
+			case START:
+				stack.add(ElementFactory.createCompact(symbols.get(chars, start, end), null, null));
+				cdataStack.add(null);
+				break;
+			case XMLNS:
+				stack.get(top).setXMLNS(symbols.get(chars, start, end));
+				break;
+			case ATTR_NAME:
+				attrName = symbols.get(chars, start, end);
+				break;
+			case ATTR_VALUE:
+				String value = "xmlns".equals(attrName) ? symbols.get(chars, start, end) : chars.substring(start, end);
+				stack.get(top).setAttribute(attrName, EscapeUtils.unescape(value));
+				break;
+			case CDATA:
+				String prev = cdataStack.get(top);
+				String data = chars.substring(start, end);
+				cdataStack.set(top, prev == null ? data : prev + data);
+				break;
+			case END:
+				final CompactElement elem = stack.remove(top);
+				final String cdata = cdataStack.remove(top);
+				if (cdata != null && elem.getFirstChild() == null)
+					elem.setValue(EscapeUtils.unescape(cdata));
+				if (top == 0)
+					result.add(elem);
+				else
+					stack.get(top - 1).addChild(elem);
+				break;
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.util.HashMap;
+
+/**
+ * Stack of namespace prefix declarations used by parser handlers. Scope is
+ * opened for each element and closed when element ends, so prefixes declared
+ * inside stanza are not visible after it. Prefix is resolved with single map
+ * lookup; declarations which are shadowed by inner element are restored when
+ * its scope is closed.
+ */
+class NamespaceScopes {
+
+	private final HashMap<String, String> declared = new HashMap<String, String>();
+
+	private int depth;
+
+	private int[] marks = new int[16];
+
+	private int undoCount;
+
+	private String[] undoPrefixes = new String[16];
+
+	private String[] undoValues = new String[16];
+
+	/**
+	 * Removes all scopes and declarations.
+	 */
+	void clear() {
+		declared.clear();
+		depth = 0;
+		for (int i = 0; i < undoCount; i++) {
+			undoPrefixes[i] = null;
+			undoValues[i] = null;
+		}
+		undoCount = 0;
+	}
+
+	/**
+	 * Closes scope of current element and removes prefixes declared by it.
+	 */
+	void close() {
+		if (depth == 0)
+			return;
+		final int mark = marks[--depth];
+		while (undoCount > mark) {
+			--undoCount;
+			final String prefix = undoPrefixes[undoCount];
+			final String previous = undoValues[undoCount];
+			if (previous == null)
+				declared.remove(prefix);
+			else
+				declared.put(prefix, previous);
+			undoPrefixes[undoCount] = null;
+			undoValues[undoCount] = null;
+		}
+	}
+
+	/**
+	 * Declares prefix in current scope.
+	 *
+	 * @param prefix
+	 *            namespace prefix.
+	 * @param xmlns
+	 *            namespace.
+	 */
+	void declare(String prefix, String xmlns) {
+		if (undoCount == undoPrefixes.length) {
+			String[] tmp = new String[undoCount * 2];
+			System.arraycopy(undoPrefixes, 0, tmp, 0, undoCount);
+			undoPrefixes = tmp;
+			tmp = new String[undoCount * 2];
+			System.arraycopy(undoValues, 0, tmp, 0, undoCount);
+			undoValues = tmp;
+		}
+		undoPrefixes[undoCount] = prefix;
+		undoValues[undoCount] = declared.put(prefix, xmlns);
+		undoCount++;
+	}
+
+	/**
+	 * Returns number of open scopes.
+	 */
+	int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Opens scope of new element.
+	 */
+	void open() {
+		if (depth == marks.length) {
+			int[] tmp = new int[depth * 2];
+			System.arraycopy(marks, 0, tmp, 0, depth);
+			marks = tmp;
+		}
+		marks[depth++] = undoCount;
+	}
+
+	/**
+	 * Returns namespace of prefix visible in current scope.
+	 *
+	 * @param prefix
+	 *            namespace prefix.
+	 * @return namespace or <code>null</code> if prefix is not declared.
+	 */
+	String resolve(String prefix) {
+		return declared.get(prefix);
+	}
+
+	/**
+	 * Returns number of prefixes visible in current scope.
+	 */
+	int size() {
+		return declared.size();
+	}
+
+}
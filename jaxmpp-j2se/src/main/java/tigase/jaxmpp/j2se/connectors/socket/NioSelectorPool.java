@@ -0,0 +1,197 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of selector threads shared by {@link NioSocketConnector} instances.
+ * Each thread multiplexes reads and writes of many connections, so number of
+ * threads depends on number of processors instead of number of connections.
+ */
+public class NioSelectorPool {
+
+	private static NioSelectorPool instance;
+
+	private static final Logger log = Logger.getLogger(NioSelectorPool.class.getCanonicalName());
+
+	private final AtomicInteger counter = new AtomicInteger();
+
+	private final SelectorLoop[] loops;
+
+	/**
+	 * Returns default pool with one selector thread per available processor.
+	 *
+	 * @return default pool
+	 */
+	public static synchronized NioSelectorPool getInstance() throws IOException {
+		if (instance == null)
+			instance = new NioSelectorPool(Runtime.getRuntime().availableProcessors());
+		return instance;
+	}
+
+	/**
+	 * Creates new pool.
+	 *
+	 * @param size
+	 *            number of selector threads
+	 */
+	public NioSelectorPool(int size) throws IOException {
+		if (size < 1)
+			throw new IllegalArgumentException("Pool size must be greater than 0");
+		this.loops = new SelectorLoop[size];
+		for (int i = 0; i < size; i++) {
+			loops[i] = new SelectorLoop("jaxmpp-nio-selector-" + i);
+			loops[i].start();
+		}
+	}
+
+	public int getSize() {
+		return loops.length;
+	}
+
+	SelectorLoop next() {
+		return loops[(counter.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+	}
+
+	/**
+	 * Stops all selector threads. Channels registered in pool are not closed.
+	 * If this is default pool, next call of {@link #getInstance()} creates new
+	 * one.
+	 */
+	public void shutdown() {
+		synchronized (NioSelectorPool.class) {
+			if (instance == this)
+				instance = null;
+		}
+		for (SelectorLoop loop : loops) {
+			loop.shutdown();
+		}
+	}
+
+	/**
+	 * Implemented by objects which handle I/O readiness of registered channel.
+	 * All methods are called by selector thread.
+	 */
+	interface SelectionHandler {
+
+		void onReadable();
+
+		void onRegistered(SelectionKey key);
+
+		void onWritable();
+
+	}
+
+	static class SelectorLoop extends Thread {
+
+		private volatile boolean running = true;
+
+		private final Selector selector;
+
+		private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+		SelectorLoop(String name) throws IOException {
+			super(name);
+			setDaemon(true);
+			this.selector = Selector.open();
+		}
+
+		/**
+		 * Executes task in selector thread.
+		 *
+		 * @param task
+		 *            task to execute
+		 */
+		void execute(Runnable task) {
+			tasks.offer(task);
+			selector.wakeup();
+		}
+
+		void register(final SelectableChannel channel, final int ops, final SelectionHandler handler) {
+			execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						handler.onRegistered(channel.register(selector, ops, handler));
+					} catch (ClosedChannelException e) {
+						log.log(Level.FINEST, "Channel closed before registration", e);
+					}
+				}
+			});
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					selector.select();
+
+					Runnable task;
+					while ((task = tasks.poll()) != null) {
+						try {
+							task.run();
+						} catch (Exception e) {
+							log.log(Level.WARNING, "Exception in selector task", e);
+						}
+					}
+
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						SelectionHandler handler = (SelectionHandler) key.attachment();
+						try {
+							if (key.isValid() && key.isReadable())
+								handler.onReadable();
+							if (key.isValid() && key.isWritable())
+								handler.onWritable();
+						} catch (CancelledKeyException e) {
+							log.log(Level.FINEST, "Key cancelled during processing", e);
+						} catch (Exception e) {
+							log.log(Level.WARNING, "Exception in selection handler", e);
+						}
+					}
+				} catch (IOException e) {
+					log.log(Level.WARNING, "Problem with selector", e);
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				log.log(Level.FINEST, "Problem with closing selector", e);
+			}
+		}
+
+		void shutdown() {
+			running = false;
+			selector.wakeup();
+		}
+	}
+}
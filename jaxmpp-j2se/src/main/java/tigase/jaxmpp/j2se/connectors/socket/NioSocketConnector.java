@@ -0,0 +1,683 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.TrustManager;
+
+import tigase.jaxmpp.core.client.BareJID;
+import tigase.jaxmpp.core.client.Connector;
+import tigase.jaxmpp.core.client.Context;
+import tigase.jaxmpp.core.client.SessionObject;
+import tigase.jaxmpp.core.client.SessionObject.Scope;
+import tigase.jaxmpp.core.client.exceptions.JaxmppException;
+import tigase.jaxmpp.core.client.xml.Element;
+import tigase.jaxmpp.j2se.Jaxmpp;
+import tigase.jaxmpp.j2se.connectors.socket.NioSelectorPool.SelectionHandler;
+import tigase.jaxmpp.j2se.connectors.socket.NioSelectorPool.SelectorLoop;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+
+/**
+ * Socket connector which uses non-blocking {@link SocketChannel} registered in
+ * shared {@link NioSelectorPool} instead of dedicated reading thread per
+ * connection. STARTTLS is handled by {@link SSLEngine} and ZLIB compression by
+ * {@link Deflater}/{@link Inflater} working on buffers.
+ * <p>
+ * Processing of received data is done in selector thread, so stanza handlers
+ * should not block. Connection through proxy is not supported in this mode and
+ * connector falls back to blocking socket if proxy is configured.
+ * {@link SocketConnector#SSL_SOCKET_FACTORY_KEY} is ignored as socket factory
+ * cannot create {@link SSLEngine}.
+ * </p>
+ */
+public class NioSocketConnector extends SocketConnector {
+
+	/**
+	 * Property to specify custom {@link NioSelectorPool}. If not set, default
+	 * pool is used.
+	 */
+	public static final String SELECTOR_POOL_KEY = "NIO_SELECTOR_POOL_KEY";
+
+	private final static Charset UTF_CHARSET = Charset.forName("UTF-8");
+
+	private final static ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+	private boolean blocking;
+
+	private SocketChannel channel;
+
+	private final CharBuffer chars = CharBuffer.allocate(DEFAULT_SOCKET_BUFFER_SIZE);
+
+	private boolean closed;
+
+	private final CharsetDecoder decoder = UTF_CHARSET.newDecoder();
+
+	private Deflater deflater;
+
+	private ByteBuffer deflated;
+
+	private ElementBuilderHandler domHandler;
+
+	private int flushMode;
+
+	private boolean handshakeDone;
+
+	private long handshakeStartTime;
+
+	private Inflater inflater;
+
+	private ByteBuffer inflated;
+
+	private volatile SelectionKey key;
+
+	private SelectorLoop loop;
+
+	private ByteBuffer netIn;
+
+	private final Object outMutex = new Object();
+
+	private final ArrayDeque<ByteBuffer> outQueue = new ArrayDeque<ByteBuffer>();
+
+	private final SimpleParser parser = SingletonFactory.getParserInstance();
+
+	private final ArrayDeque<ByteBuffer> pendingHandshake = new ArrayDeque<ByteBuffer>();
+
+	private SSLEngine sslEngine;
+
+	private ByteBuffer tlsIn;
+
+	private ByteBuffer tlsOut;
+
+	private volatile boolean writeInterest;
+
+	private final ElementStreamListener streamListener = new ElementStreamListener() {
+
+		@Override
+		public void nextElement(Element element) {
+			try {
+				processElement(element);
+			} catch (JaxmppException e) {
+				try {
+					onErrorInThread(e);
+				} catch (JaxmppException e1) {
+					log.log(Level.SEVERE, "Error on processing element", e1);
+				}
+			}
+		}
+
+		@Override
+		public void xmppStreamClosed() {
+			try {
+				if (log.isLoggable(Level.FINEST)) {
+					log.finest("xmppStreamClosed()");
+				}
+				onStreamTerminate();
+			} catch (JaxmppException e) {
+				log.log(Level.WARNING, "Error on processing Stream Closed", e);
+			}
+		}
+
+		@Override
+		public void xmppStreamOpened(Map<String, String> attribs) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.finest("xmppStreamOpened()");
+			}
+			onStreamStart(attribs);
+		}
+	};
+
+	private final SelectionHandler selectionHandler = new SelectionHandler() {
+
+		@Override
+		public void onReadable() {
+			NioSocketConnector.this.onReadable();
+		}
+
+		@Override
+		public void onRegistered(SelectionKey key) {
+			NioSocketConnector.this.key = key;
+			updateInterestOps();
+		}
+
+		@Override
+		public void onWritable() {
+			try {
+				synchronized (outMutex) {
+					flushOutQueue();
+				}
+				updateWritability();
+			} catch (IOException e) {
+				onChannelException(e);
+			}
+		}
+	};
+
+	public NioSocketConnector(Context context) {
+		super(context);
+	}
+
+	private static ByteBuffer ensureCapacity(ByteBuffer buffer, int size) {
+		if (buffer.capacity() >= size)
+			return buffer;
+		ByteBuffer result = ByteBuffer.allocate(size);
+		buffer.flip();
+		result.put(buffer);
+		return result;
+	}
+
+	private void channelClosed() {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			if (key != null)
+				key.cancel();
+			channel.close();
+		} catch (IOException e) {
+			log.log(Level.FINEST, "Problem with closing channel (oid=" + hashCode() + ")", e);
+		}
+
+		final Context ctx = context;
+		if (ctx != null && ctx.getSessionObject().getProperty(RECONNECTING_KEY) == Boolean.TRUE) {
+			// reconnecting blocks on DNS and connect, so it can't be done in
+			// selector thread
+			Jaxmpp.newThread(ctx.getSessionObject(), new Runnable() {
+				@Override
+				public void run() {
+					workerTerminated();
+				}
+			}).start();
+		} else {
+			workerTerminated();
+		}
+	}
+
+	@Override
+	protected void closeSocket() {
+		if (blocking) {
+			super.closeSocket();
+			return;
+		}
+		if (loop == null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.log(Level.FINEST, "Problem with closing channel (oid=" + hashCode() + ")", e);
+			}
+			return;
+		}
+		loop.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				channelClosed();
+			}
+		});
+	}
+
+	@Override
+	protected Socket createSocket() throws IOException {
+		if (context.getSessionObject().getProperty(Connector.PROXY_HOST) != null) {
+			log.warning("Proxy is not supported in NIO mode, using blocking socket");
+			return super.createSocket();
+		}
+		Socket s = SocketChannel.open().socket();
+		s.setKeepAlive(false);
+		s.setTcpNoDelay(true);
+		return s;
+	}
+
+	@Override
+	protected void socketConnected(Socket s) throws IOException {
+		this.blocking = s.getChannel() == null;
+		if (blocking) {
+			super.socketConnected(s);
+			return;
+		}
+
+		synchronized (outMutex) {
+			this.sslEngine = null;
+			this.handshakeDone = false;
+			this.deflater = null;
+			this.inflater = null;
+			this.outQueue.clear();
+			this.pendingHandshake.clear();
+			this.writeInterest = false;
+		}
+		this.closed = false;
+		this.key = null;
+		this.loop = null;
+		this.netIn = ByteBuffer.allocate(DEFAULT_SOCKET_BUFFER_SIZE);
+		this.decoder.reset();
+		// state of parser can't be reused, previous connection could be
+		// closed in the middle of stanza
+		this.domHandler = new ElementBuilderHandler(streamListener);
+
+		socket = s;
+		channel = s.getChannel();
+		channel.configureBlocking(false);
+
+		writer = new ChannelOutputStream();
+	}
+
+	private void decodeAndParse(ByteBuffer src) throws IOException {
+		while (true) {
+			CoderResult cr = decoder.decode(src, chars, false);
+			chars.flip();
+			if (chars.hasRemaining()) {
+				if (log.isLoggable(Level.FINEST))
+					log.finest("Received (oid=" + hashCode() + "): " + chars.toString());
+				final WireTap tap = wireTap;
+				if (tap != null)
+					tap.onDataReceived(chars.array(), 0, chars.remaining());
+				parser.parse(domHandler, chars.array(), 0, chars.remaining());
+			}
+			chars.clear();
+			if (cr.isError())
+				cr.throwException();
+			if (cr.isUnderflow())
+				break;
+		}
+	}
+
+	private ByteBuffer deflate(ByteBuffer data) {
+		deflater.setInput(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		data.position(data.limit());
+		deflated.clear();
+		while (true) {
+			int n = deflater.deflate(deflated.array(), deflated.position(), deflated.remaining(), flushMode);
+			deflated.position(deflated.position() + n);
+			if (deflated.hasRemaining())
+				break;
+			deflated = ensureCapacity(deflated, deflated.capacity() * 2);
+		}
+		deflated.flip();
+		return deflated;
+	}
+
+	/**
+	 * Puts network data to output queue and tries to write it to channel.
+	 * Must be called with {@code outMutex} held.
+	 */
+	private void enqueue(ByteBuffer data) throws IOException {
+		if (outQueue.isEmpty())
+			channel.write(data);
+		if (data.hasRemaining()) {
+			ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+			copy.put(data);
+			copy.flip();
+			outQueue.add(copy);
+			addPendingBytes(copy.capacity());
+		}
+		flushOutQueue();
+	}
+
+	/**
+	 * Writes queued network data to channel and enables waiting for channel
+	 * writability if not everything was written. Must be called with
+	 * {@code outMutex} held.
+	 */
+	private void flushOutQueue() throws IOException {
+		while (!outQueue.isEmpty()) {
+			ByteBuffer head = outQueue.peek();
+			channel.write(head);
+			if (head.hasRemaining())
+				break;
+			outQueue.poll();
+			addPendingBytes(-head.capacity());
+		}
+		boolean wantWrite = !outQueue.isEmpty();
+		if (wantWrite != writeInterest) {
+			writeInterest = wantWrite;
+			final SelectorLoop l = loop;
+			if (l != null)
+				l.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						updateInterestOps();
+					}
+				});
+		}
+	}
+
+	private String getTlsHostname() {
+		if (context.getSessionObject().getProperty(SessionObject.USER_BARE_JID) != null) {
+			return ((BareJID) context.getSessionObject().getProperty(SessionObject.USER_BARE_JID)).getDomain();
+		} else if (context.getSessionObject().getProperty(SessionObject.DOMAIN_NAME) != null) {
+			return context.getSessionObject().getProperty(SessionObject.DOMAIN_NAME);
+		} else {
+			return null;
+		}
+	}
+
+	private void handshake(HandshakeStatus status) throws IOException {
+		while (true) {
+			switch (status) {
+			case NEED_TASK:
+				Runnable task;
+				while ((task = sslEngine.getDelegatedTask()) != null) {
+					task.run();
+				}
+				status = sslEngine.getHandshakeStatus();
+				break;
+			case NEED_WRAP:
+				synchronized (outMutex) {
+					status = wrap(EMPTY_BUFFER).getHandshakeStatus();
+				}
+				break;
+			case FINISHED:
+				handshakeCompleted();
+				return;
+			default:
+				return;
+			}
+		}
+	}
+
+	private void handshakeCompleted() throws IOException {
+		log.info("TLS completed (oid=" + hashCode() + ")");
+		if (SSLContextCache.getInstance().handshakeCompleted(sslEngine.getSession(), handshakeStartTime))
+			log.fine("TLS session resumed (oid=" + hashCode() + ")");
+
+		final String hostname = getTlsHostname();
+		final HostnameVerifier hnv = context.getSessionObject().getProperty(HOSTNAME_VERIFIER_KEY);
+		if (hnv != null && !hnv.verify(hostname, sslEngine.getSession())) {
+			throw new SSLHandshakeException("Cerificate hostname doesn't match domain name you want to connect.");
+		}
+
+		context.getSessionObject().setProperty(Scope.stream, ENCRYPTED_KEY, Boolean.TRUE);
+		context.getEventBus().fire(new EncryptionEstablishedHandler.EncryptionEstablishedEvent(context.getSessionObject()));
+
+		synchronized (outMutex) {
+			handshakeDone = true;
+			ByteBuffer data;
+			while ((data = pendingHandshake.poll()) != null) {
+				wrap(data);
+			}
+		}
+	}
+
+	private void inflateAndParse(ByteBuffer src) throws Exception {
+		if (inflater == null) {
+			decodeAndParse(src);
+			return;
+		}
+		inflater.setInput(src.array(), src.arrayOffset() + src.position(), src.remaining());
+		src.position(src.limit());
+		while (true) {
+			int n = inflater.inflate(inflated.array(), inflated.position(), inflated.remaining());
+			inflated.position(inflated.position() + n);
+			inflated.flip();
+			decodeAndParse(inflated);
+			inflated.compact();
+			if (n == 0)
+				break;
+		}
+	}
+
+	private void onChannelException(Exception e) {
+		State state = getState();
+		if (state != State.disconnecting && state != State.disconnected) {
+			log.log(Level.WARNING, "Exception in NIO connector (oid=" + hashCode() + ")", e);
+			try {
+				onErrorInThread(e);
+			} catch (JaxmppException e1) {
+				log.log(Level.WARNING, "Error on handling another exception", e);
+			}
+		}
+		channelClosed();
+	}
+
+	private void onReadable() {
+		try {
+			if (sslEngine != null)
+				netIn = ensureCapacity(netIn, sslEngine.getSession().getPacketBufferSize());
+			int r = channel.read(netIn);
+			if (r == -1) {
+				onStreamTerminate();
+				channelClosed();
+				return;
+			}
+			netIn.flip();
+			if (sslEngine != null) {
+				unwrapAndParse();
+			} else {
+				inflateAndParse(netIn);
+			}
+			netIn.compact();
+
+			if (getState() == State.disconnected) {
+				log.finest("Disconnecting: state=" + getState() + " (oid=" + hashCode() + ")");
+				channelClosed();
+			}
+		} catch (Exception e) {
+			onChannelException(e);
+		}
+	}
+
+	@Override
+	protected void proceedTLS() throws JaxmppException {
+		if (blocking) {
+			super.proceedTLS();
+			return;
+		}
+		log.fine("Proceeding TLS");
+		try {
+			context.getSessionObject().setProperty(Scope.stream, DISABLE_KEEPALIVE_KEY, Boolean.TRUE);
+			TrustManager[] trustManagers = context.getSessionObject().getProperty(TRUST_MANAGERS_KEY);
+			final SSLContext ctx;
+			if (trustManagers == null) {
+				if (context.getSessionObject().getProperty(SSL_SOCKET_FACTORY_KEY) != null)
+					log.warning("Custom SSLSocketFactory is not supported in NIO mode, using default SSLContext");
+				ctx = SSLContext.getDefault();
+			} else {
+				ctx = SSLContextCache.getInstance().getContext(getKeyManagers(), trustManagers);
+			}
+
+			final String hostname = getTlsHostname();
+			SSLEngine engine = hostname == null ? ctx.createSSLEngine() : ctx.createSSLEngine(hostname, socket.getPort());
+			engine.setUseClientMode(true);
+
+			synchronized (outMutex) {
+				this.sslEngine = engine;
+				this.handshakeDone = false;
+				this.tlsIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+				this.tlsOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+			}
+
+			log.fine("Start handshake");
+			handshakeStartTime = System.currentTimeMillis();
+			engine.beginHandshake();
+
+			// stream header is kept until handshake is completed
+			restartStream();
+			handshake(engine.getHandshakeStatus());
+		} catch (Exception e) {
+			log.log(Level.SEVERE, "Can't establish encrypted connection", e);
+			onError(null, e);
+		} finally {
+			context.getSessionObject().setProperty(Scope.stream, DISABLE_KEEPALIVE_KEY, Boolean.FALSE);
+		}
+	}
+
+	@Override
+	protected void proceedZLib() throws JaxmppException {
+		if (blocking) {
+			super.proceedZLib();
+			return;
+		}
+		log.fine("Proceeding ZLIB");
+		try {
+			context.getSessionObject().setProperty(Scope.stream, DISABLE_KEEPALIVE_KEY, Boolean.TRUE);
+
+			synchronized (outMutex) {
+				this.deflater = prepareDeflater();
+				this.flushMode = getCompressionFlushMode();
+				this.deflated = ByteBuffer.allocate(DEFAULT_SOCKET_BUFFER_SIZE);
+			}
+			this.inflater = prepareInflater();
+			this.inflated = ByteBuffer.allocate(DEFAULT_SOCKET_BUFFER_SIZE);
+
+			context.getSessionObject().setProperty(Scope.stream, Connector.COMPRESSED_KEY, true);
+			log.info("ZLIB compression started");
+
+			restartStream();
+		} catch (Exception e) {
+			log.log(Level.SEVERE, "Can't establish compressed connection", e);
+			onError(null, e);
+		} finally {
+			context.getSessionObject().setProperty(Scope.stream, DISABLE_KEEPALIVE_KEY, Boolean.FALSE);
+		}
+	}
+
+	@Override
+	protected void startWorker() {
+		if (blocking) {
+			super.startWorker();
+			return;
+		}
+		try {
+			NioSelectorPool pool = context.getSessionObject().getProperty(SELECTOR_POOL_KEY);
+			if (pool == null)
+				pool = NioSelectorPool.getInstance();
+			loop = pool.next();
+		} catch (IOException e) {
+			throw new RuntimeException("Can't create selector pool", e);
+		}
+		domHandler.setFreeze(isFreezeReceivedEnabled());
+		domHandler.setLazyPayload(isLazyPayloadEnabled());
+		// handlers would be called in selector thread shared by many
+		// connections, so slow handler would stall all of them
+		domHandler.setStreamingHandlers(null);
+		log.finest("Registering channel in selector " + loop.getName());
+		loop.register(channel, SelectionKey.OP_READ, selectionHandler);
+	}
+
+	private void unwrapAndParse() throws Exception {
+		while (true) {
+			SSLEngineResult result = sslEngine.unwrap(netIn, tlsIn);
+			switch (result.getStatus()) {
+			case BUFFER_OVERFLOW:
+				tlsIn = ensureCapacity(tlsIn, tlsIn.position() + sslEngine.getSession().getApplicationBufferSize());
+				break;
+			case CLOSED:
+				throw new EOFException("TLS connection closed by server");
+			default:
+				break;
+			}
+			handshake(result.getHandshakeStatus());
+			if (tlsIn.position() > 0) {
+				tlsIn.flip();
+				inflateAndParse(tlsIn);
+				tlsIn.compact();
+			}
+			if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW || !netIn.hasRemaining())
+				break;
+		}
+	}
+
+	private void updateInterestOps() {
+		final SelectionKey k = key;
+		if (k != null && k.isValid())
+			k.interestOps(SelectionKey.OP_READ | (writeInterest ? SelectionKey.OP_WRITE : 0));
+	}
+
+	/**
+	 * Encrypts data and puts it to output queue. Must be called with
+	 * {@code outMutex} held.
+	 */
+	private SSLEngineResult wrap(ByteBuffer data) throws IOException {
+		while (true) {
+			tlsOut.clear();
+			SSLEngineResult result = sslEngine.wrap(data, tlsOut);
+			if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+				tlsOut = ByteBuffer.allocate(tlsOut.capacity() + sslEngine.getSession().getPacketBufferSize());
+				continue;
+			} else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+				throw new EOFException("TLS connection closed");
+			}
+			tlsOut.flip();
+			if (tlsOut.hasRemaining())
+				enqueue(tlsOut);
+			if (!data.hasRemaining() || result.bytesConsumed() == 0)
+				return result;
+		}
+	}
+
+	private void write(ByteBuffer data) throws IOException {
+		synchronized (outMutex) {
+			if (closed)
+				throw new IOException("Channel is closed");
+			if (deflater != null)
+				data = deflate(data);
+			if (sslEngine == null) {
+				enqueue(data);
+			} else if (!handshakeDone) {
+				ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+				copy.put(data);
+				copy.flip();
+				pendingHandshake.add(copy);
+			} else {
+				wrap(data);
+			}
+		}
+	}
+
+	/**
+	 * Output stream passing written data through compression and encryption
+	 * to channel.
+	 */
+	private class ChannelOutputStream extends OutputStream {
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			NioSocketConnector.this.write(ByteBuffer.wrap(b, off, len));
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+	}
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import static tigase.jaxmpp.j2se.connectors.socket.SocketConnector.DEFAULT_SOCKET_BUFFER_SIZE;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of buffers used by readers of connections. Buffers are grouped in size
+ * classes being powers of two between {@link #MIN_BUFFER_SIZE} and
+ * {@link #MAX_BUFFER_SIZE}.
+ * <p>
+ * Readers start with the smallest buffer. When data fills whole buffer, next
+ * read uses buffer twice as big (see {@link #nextSize(int, int)}), so big
+ * stanzas (rosters, archives) are received in fewer read and parse rounds.
+ * When read doesn't fill the buffer connection is considered as drained and
+ * big buffer is returned to the pool, so idle connections keep only the
+ * smallest one.
+ * </p>
+ */
+public class ReadBufferPool {
+
+	/**
+	 * Size of the biggest buffer.
+	 */
+	public static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Size of the smallest buffer.
+	 */
+	public static final int MIN_BUFFER_SIZE = DEFAULT_SOCKET_BUFFER_SIZE;
+
+	private static final int MAX_POOLED_PER_CLASS = 64;
+
+	private static final ReadBufferPool instance = new ReadBufferPool();
+
+	private final AtomicLong acquired = new AtomicLong();
+
+	private final ConcurrentLinkedQueue<ByteBuffer>[] byteBuffers;
+
+	private final ConcurrentLinkedQueue<char[]>[] charBuffers;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicInteger[] pooledCounters;
+
+	private final AtomicLong released = new AtomicLong();
+
+	/**
+	 * Returns pool shared by all connectors.
+	 */
+	public static ReadBufferPool getInstance() {
+		return instance;
+	}
+
+	private static int sizeClass(int size) {
+		int cls = 0;
+		int s = MIN_BUFFER_SIZE;
+		while (s < size && s < MAX_BUFFER_SIZE) {
+			s <<= 1;
+			cls++;
+		}
+		return cls;
+	}
+
+	private static int classSize(int cls) {
+		return MIN_BUFFER_SIZE << cls;
+	}
+
+	/**
+	 * Calculates size of buffer for next read.
+	 *
+	 * @param currentSize
+	 *            size of buffer used in last read.
+	 * @param read
+	 *            number of units read to buffer.
+	 * @return bigger size if buffer was filled, {@link #MIN_BUFFER_SIZE}
+	 *         otherwise.
+	 */
+	public static int nextSize(int currentSize, int read) {
+		if (read >= currentSize)
+			return Math.min(currentSize * 2, MAX_BUFFER_SIZE);
+		return MIN_BUFFER_SIZE;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ReadBufferPool() {
+		final int classes = sizeClass(MAX_BUFFER_SIZE) + 1;
+		byteBuffers = new ConcurrentLinkedQueue[classes];
+		charBuffers = new ConcurrentLinkedQueue[classes];
+		pooledCounters = new AtomicInteger[classes * 2];
+		for (int i = 0; i < classes; i++) {
+			byteBuffers[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			charBuffers[i] = new ConcurrentLinkedQueue<char[]>();
+		}
+		for (int i = 0; i < pooledCounters.length; i++) {
+			pooledCounters[i] = new AtomicInteger();
+		}
+	}
+
+	/**
+	 * Takes cleared byte buffer with capacity at least of given size.
+	 *
+	 * @param size
+	 *            minimal capacity.
+	 * @return buffer.
+	 */
+	public ByteBuffer acquireBytes(int size) {
+		final int cls = sizeClass(size);
+		acquired.incrementAndGet();
+		ByteBuffer result = byteBuffers[cls].poll();
+		if (result != null) {
+			pooledCounters[cls].decrementAndGet();
+			hits.incrementAndGet();
+			result.clear();
+			return result;
+		}
+		return ByteBuffer.allocate(Math.max(size, classSize(cls)));
+	}
+
+	/**
+	 * Takes char array with length at least of given size.
+	 *
+	 * @param size
+	 *            minimal length.
+	 * @return array.
+	 */
+	public char[] acquireChars(int size) {
+		final int cls = sizeClass(size);
+		acquired.incrementAndGet();
+		char[] result = charBuffers[cls].poll();
+		if (result != null) {
+			pooledCounters[byteBuffers.length + cls].decrementAndGet();
+			hits.incrementAndGet();
+			return result;
+		}
+		return new char[Math.max(size, classSize(cls))];
+	}
+
+	/**
+	 * Returns number of buffers taken from pool.
+	 */
+	public long getAcquiredCount() {
+		return acquired.get();
+	}
+
+	/**
+	 * Returns number of requests served with pooled buffer instead of new one.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns ratio of requests served with pooled buffers.
+	 */
+	public double getHitRate() {
+		final long a = acquired.get();
+		return a == 0 ? 0 : ((double) hits.get()) / a;
+	}
+
+	/**
+	 * Returns number of buffers currently kept in pool.
+	 */
+	public int getPooledCount() {
+		int result = 0;
+		for (AtomicInteger c : pooledCounters) {
+			result += c.get();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns number of buffers given back to pool.
+	 */
+	public long getReleasedCount() {
+		return released.get();
+	}
+
+	/**
+	 * Gives buffer back to pool. Buffer must not be used after that.
+	 *
+	 * @param buffer
+	 *            buffer to return.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || buffer.isDirect())
+			return;
+		released.incrementAndGet();
+		final int cls = sizeClass(buffer.capacity());
+		if (classSize(cls) != buffer.capacity())
+			return;
+		if (pooledCounters[cls].incrementAndGet() > MAX_POOLED_PER_CLASS) {
+			pooledCounters[cls].decrementAndGet();
+			return;
+		}
+		byteBuffers[cls].offer(buffer);
+	}
+
+	/**
+	 * Gives char array back to pool. Array must not be used after that.
+	 *
+	 * @param buffer
+	 *            array to return.
+	 */
+	public void release(char[] buffer) {
+		if (buffer == null)
+			return;
+		released.incrementAndGet();
+		final int cls = sizeClass(buffer.length);
+		if (classSize(cls) != buffer.length)
+			return;
+		final AtomicInteger counter = pooledCounters[byteBuffers.length + cls];
+		if (counter.incrementAndGet() > MAX_POOLED_PER_CLASS) {
+			counter.decrementAndGet();
+			return;
+		}
+		charBuffers[cls].offer(buffer);
+	}
+
+	/**
+	 * Replaces byte buffer with one of given size, keeping unread data.
+	 *
+	 * @param buffer
+	 *            buffer in write mode (as after
+	 *            {@link ByteBuffer#compact()}), may be <code>null</code>.
+	 * @param size
+	 *            requested capacity.
+	 * @return buffer in write mode with the same content.
+	 */
+	public ByteBuffer resize(ByteBuffer buffer, int size) {
+		if (buffer != null && buffer.capacity() == classSize(sizeClass(size)))
+			return buffer;
+		if (buffer == null)
+			return acquireBytes(size);
+		final ByteBuffer result = acquireBytes(Math.max(size, buffer.position()));
+		buffer.flip();
+		result.put(buffer);
+		release(buffer);
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "ReadBufferPool{acquired=" + acquired.get() + ", hits=" + hits.get() + ", released=" + released.get()
+				+ ", pooled=" + getPooledCount() + "}";
+	}
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.nio.charset.Charset;
+
+/**
+ * Wire tap keeping last transferred data in fixed-size buffer. Older data is
+ * overwritten, so memory usage doesn't depend on traffic. Sent and received
+ * data are kept in order of transfer and separated by direction markers.
+ * Connector logs content of the buffer when connection fails.
+ */
+public class RingBufferWireTap implements WireTap {
+
+	/**
+	 * Default capacity of buffer (in bytes).
+	 */
+	public static final int DEFAULT_CAPACITY = 16 * 1024;
+
+	private static final Charset UTF_CHARSET = Charset.forName("UTF-8");
+
+	private static final byte[] RECEIVED_MARKER = "\n<< ".getBytes(UTF_CHARSET);
+
+	private static final byte[] SENT_MARKER = "\n>> ".getBytes(UTF_CHARSET);
+
+	private final byte[] buffer;
+
+	/**
+	 * <code>true</code> if buffer was filled at least once.
+	 */
+	private boolean full;
+
+	private byte[] lastMarker;
+
+	private int position;
+
+	public RingBufferWireTap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates tap.
+	 *
+	 * @param capacity
+	 *            number of bytes kept.
+	 */
+	public RingBufferWireTap(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive");
+		this.buffer = new byte[capacity];
+	}
+
+	/**
+	 * Removes collected data.
+	 */
+	public synchronized void clear() {
+		position = 0;
+		full = false;
+		lastMarker = null;
+	}
+
+	/**
+	 * Returns collected data. Sent data is prefixed by <code>&gt;&gt;</code>
+	 * and received data by <code>&lt;&lt;</code>. First character may be
+	 * malformed if it was partially overwritten.
+	 */
+	public synchronized String dump() {
+		if (!full)
+			return new String(buffer, 0, position, UTF_CHARSET);
+		byte[] result = new byte[buffer.length];
+		System.arraycopy(buffer, position, result, 0, buffer.length - position);
+		System.arraycopy(buffer, 0, result, buffer.length - position, position);
+		return new String(result, UTF_CHARSET);
+	}
+
+	/**
+	 * Returns number of bytes currently kept.
+	 */
+	public synchronized int size() {
+		return full ? buffer.length : position;
+	}
+
+	private void marker(byte[] marker) {
+		if (lastMarker != marker) {
+			lastMarker = marker;
+			put(marker, 0, marker.length);
+		}
+	}
+
+	@Override
+	public synchronized void onDataReceived(char[] data, int off, int len) {
+		marker(RECEIVED_MARKER);
+		final int end = off + len;
+		for (int i = off; i < end; i++) {
+			final char c = data[i];
+			if (c < 0x80) {
+				put((byte) c);
+			} else if (c < 0x800) {
+				put((byte) (0xC0 | (c >> 6)));
+				put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(data[i + 1])) {
+				final int cp = Character.toCodePoint(c, data[++i]);
+				put((byte) (0xF0 | (cp >> 18)));
+				put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+				put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+				put((byte) (0x80 | (cp & 0x3F)));
+			} else {
+				put((byte) (0xE0 | (c >> 12)));
+				put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	@Override
+	public synchronized void onDataSent(byte[] data, int off, int len) {
+		marker(SENT_MARKER);
+		put(data, off, len);
+	}
+
+	private void put(byte b) {
+		buffer[position++] = b;
+		if (position == buffer.length) {
+			position = 0;
+			full = true;
+		}
+	}
+
+	private void put(byte[] data, int off, int len) {
+		if (len >= buffer.length) {
+			// only tail fits into buffer
+			System.arraycopy(data, off + len - buffer.length, buffer, 0, buffer.length);
+			position = 0;
+			full = true;
+			return;
+		}
+		final int first = Math.min(len, buffer.length - position);
+		System.arraycopy(data, off, buffer, position, first);
+		if (first < len) {
+			System.arraycopy(data, off + first, buffer, 0, len - first);
+			position = len - first;
+			full = true;
+		} else {
+			position += first;
+			if (position == buffer.length) {
+				position = 0;
+				full = true;
+			}
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "RingBufferWireTap{size=" + size() + "}";
+	}
+
+}
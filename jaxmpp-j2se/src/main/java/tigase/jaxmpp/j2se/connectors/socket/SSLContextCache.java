@@ -0,0 +1,198 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+
+/**
+ * Cache of {@link SSLContext} instances shared by connectors. Contexts are
+ * identified by key and trust managers instances, so connections using the
+ * same managers share client session cache and reconnections may resume
+ * previous TLS session instead of doing full handshake.
+ */
+public class SSLContextCache {
+
+	/**
+	 * Maximal number of sessions kept by each context.
+	 */
+	public static final int SESSION_CACHE_SIZE = 1000;
+
+	/**
+	 * Time (in seconds) after which cached session can't be resumed.
+	 */
+	public static final int SESSION_TIMEOUT = 24 * 60 * 60;
+
+	private static final SSLContextCache instance = new SSLContextCache();
+
+	private static final int MAX_CONTEXTS = 16;
+
+	private final Map<Key, SSLContext> contexts = new LinkedHashMap<Key, SSLContext>(MAX_CONTEXTS, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, SSLContext> eldest) {
+			return size() > MAX_CONTEXTS;
+		}
+	};
+
+	private final AtomicLong fullHandshakes = new AtomicLong();
+
+	private SecureRandom random;
+
+	private final AtomicLong resumedHandshakes = new AtomicLong();
+
+	public static SSLContextCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns context initialized with given managers. Context is created only
+	 * if there is no context for the same managers instances.
+	 *
+	 * @param keyManagers
+	 *            key managers.
+	 * @param trustManagers
+	 *            trust managers.
+	 * @return shared context.
+	 */
+	public synchronized SSLContext getContext(KeyManager[] keyManagers, TrustManager[] trustManagers)
+			throws GeneralSecurityException {
+		final Key key = new Key(keyManagers, trustManagers);
+		SSLContext ctx = contexts.get(key);
+		if (ctx == null) {
+			if (random == null)
+				random = new SecureRandom();
+			ctx = SSLContext.getInstance("TLS");
+			ctx.init(keyManagers, trustManagers, random);
+			SSLSessionContext sessions = ctx.getClientSessionContext();
+			if (sessions != null) {
+				sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+				sessions.setSessionTimeout(SESSION_TIMEOUT);
+			}
+			contexts.put(key, ctx);
+		}
+		return ctx;
+	}
+
+	/**
+	 * Returns number of full handshakes.
+	 */
+	public long getFullHandshakeCount() {
+		return fullHandshakes.get();
+	}
+
+	/**
+	 * Returns number of abbreviated handshakes.
+	 */
+	public long getResumedHandshakeCount() {
+		return resumedHandshakes.get();
+	}
+
+	/**
+	 * Returns share of abbreviated handshakes in all completed handshakes.
+	 */
+	public double getResumptionRate() {
+		final long resumed = resumedHandshakes.get();
+		final long all = resumed + fullHandshakes.get();
+		return all == 0 ? 0 : ((double) resumed) / all;
+	}
+
+	/**
+	 * Records completed handshake.
+	 *
+	 * @param session
+	 *            negotiated session.
+	 * @param handshakeStartTime
+	 *            time when handshake started.
+	 * @return <code>true</code> if session was resumed.
+	 */
+	public boolean handshakeCompleted(SSLSession session, long handshakeStartTime) {
+		// resumed session was created during one of previous handshakes
+		final boolean resumed = session.getCreationTime() < handshakeStartTime;
+		if (resumed)
+			resumedHandshakes.incrementAndGet();
+		else
+			fullHandshakes.incrementAndGet();
+		return resumed;
+	}
+
+	@Override
+	public String toString() {
+		return "SSLContextCache{contexts=" + contexts.size() + ", full=" + fullHandshakes.get() + ", resumed="
+				+ resumedHandshakes.get() + "}";
+	}
+
+	private static final class Key {
+
+		private final KeyManager[] keyManagers;
+
+		private final TrustManager[] trustManagers;
+
+		Key(KeyManager[] keyManagers, TrustManager[] trustManagers) {
+			this.keyManagers = keyManagers == null ? new KeyManager[0] : keyManagers.clone();
+			this.trustManagers = trustManagers == null ? new TrustManager[0] : trustManagers.clone();
+		}
+
+		private static boolean sameInstances(Object[] a, Object[] b) {
+			if (a.length != b.length)
+				return false;
+			for (int i = 0; i < a.length; i++) {
+				if (a[i] != b[i])
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key k = (Key) obj;
+			return sameInstances(keyManagers, k.keyManagers) && sameInstances(trustManagers, k.trustManagers);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = 1;
+			for (Object o : keyManagers) {
+				result = 31 * result + System.identityHashCode(o);
+			}
+			for (Object o : trustManagers) {
+				result = 31 * result + System.identityHashCode(o);
+			}
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return "Key{" + Arrays.toString(keyManagers) + ", " + Arrays.toString(trustManagers) + "}";
+		}
+	}
+}
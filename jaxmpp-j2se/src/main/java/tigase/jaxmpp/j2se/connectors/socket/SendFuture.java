@@ -0,0 +1,153 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import tigase.jaxmpp.core.client.xml.Element;
+
+/**
+ * Completion handle of asynchronously sent stanza. It is completed when stanza
+ * is written to connection or when sending failed.
+ */
+public class SendFuture implements Future<Void> {
+
+	/**
+	 * Listener notified when sending of stanza is finished.
+	 */
+	public interface CompletionListener {
+
+		/**
+		 * Called when sending is finished.
+		 *
+		 * @param future
+		 *            finished future.
+		 */
+		void onComplete(SendFuture future);
+
+	}
+
+	private Throwable cause;
+
+	private final CountDownLatch latch = new CountDownLatch(1);
+
+	private CompletionListener listener;
+
+	private final Element stanza;
+
+	public SendFuture(Element stanza) {
+		this.stanza = stanza;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	void complete() {
+		finish(null);
+	}
+
+	void fail(Throwable cause) {
+		finish(cause);
+	}
+
+	private void finish(Throwable cause) {
+		final CompletionListener l;
+		synchronized (this) {
+			if (latch.getCount() == 0)
+				return;
+			this.cause = cause;
+			latch.countDown();
+			l = listener;
+		}
+		if (l != null)
+			l.onComplete(this);
+	}
+
+	@Override
+	public Void get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return getResult();
+	}
+
+	@Override
+	public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!latch.await(timeout, unit))
+			throw new TimeoutException();
+		return getResult();
+	}
+
+	/**
+	 * Returns reason of failure.
+	 *
+	 * @return exception or <code>null</code> if stanza is not sent yet or was
+	 *         sent successfully.
+	 */
+	public synchronized Throwable getCause() {
+		return cause;
+	}
+
+	private synchronized Void getResult() throws ExecutionException {
+		if (cause != null)
+			throw new ExecutionException(cause);
+		return null;
+	}
+
+	public Element getStanza() {
+		return stanza;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return latch.getCount() == 0;
+	}
+
+	/**
+	 * Returns <code>true</code> if stanza was written to connection.
+	 */
+	public synchronized boolean isSuccess() {
+		return isDone() && cause == null;
+	}
+
+	/**
+	 * Sets listener called when sending is finished. If it is already
+	 * finished, listener is called immediately.
+	 *
+	 * @param listener
+	 *            listener to notify.
+	 */
+	public void setCompletionListener(CompletionListener listener) {
+		synchronized (this) {
+			this.listener = listener;
+			if (!isDone())
+				return;
+		}
+		listener.onComplete(this);
+	}
+
+}
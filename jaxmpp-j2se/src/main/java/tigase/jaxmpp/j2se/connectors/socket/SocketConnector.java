@@ -17,19 +17,22 @@
  */
 package tigase.jaxmpp.j2se.connectors.socket;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
 import java.net.*;
 import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
@@ -42,6 +45,7 @@ import tigase.jaxmpp.core.client.Connector.ErrorHandler.ErrorEvent;
 import tigase.jaxmpp.core.client.Connector.StanzaReceivedHandler.StanzaReceivedEvent;
 import tigase.jaxmpp.core.client.Connector.StanzaSendingHandler.StanzaSendingEvent;
 import tigase.jaxmpp.core.client.Connector.StateChangedHandler.StateChangedEvent;
+import tigase.jaxmpp.core.client.Connector.WritabilityChangedHandler.WritabilityChangedEvent;
 import tigase.jaxmpp.core.client.SessionObject.Scope;
 import tigase.jaxmpp.core.client.connector.StreamError;
 import tigase.jaxmpp.core.client.eventbus.EventHandler;
@@ -50,14 +54,17 @@ import tigase.jaxmpp.core.client.exceptions.JaxmppException;
 import tigase.jaxmpp.core.client.factory.UniversalFactory;
 import tigase.jaxmpp.core.client.xml.Element;
 import tigase.jaxmpp.core.client.xml.ElementFactory;
+import tigase.jaxmpp.core.client.xml.StreamingHandlers;
 import tigase.jaxmpp.core.client.xml.XMLException;
 import tigase.jaxmpp.core.client.xmpp.modules.StreamFeaturesModule;
 import tigase.jaxmpp.core.client.xmpp.modules.registration.InBandRegistrationModule;
 import tigase.jaxmpp.core.client.xmpp.stanzas.Stanza;
 import tigase.jaxmpp.core.client.xmpp.stanzas.StreamPacket;
 import tigase.jaxmpp.j2se.DNSResolver;
+import tigase.jaxmpp.j2se.HashedWheelTimer;
 import tigase.jaxmpp.j2se.Jaxmpp;
 import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.HostChangedHandler.HostChangedEvent;
+import tigase.jaxmpp.j2se.xml.ElementSerializer;
 
 /**
  *
@@ -65,6 +72,22 @@ import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.HostChangedHandler.H
 public class SocketConnector implements Connector {
 
 	public final static String COMPRESSION_DISABLED_KEY = "COMPRESSION_DISABLED";
+	/**
+	 * Property to specify {@linkplain Deflater#setLevel(int) ZLIB compression
+	 * level}. Default is {@link Deflater#BEST_COMPRESSION}.
+	 */
+	public final static String COMPRESSION_LEVEL_KEY = "COMPRESSION_LEVEL_KEY";
+	/**
+	 * Property to specify {@linkplain Deflater#setStrategy(int) ZLIB
+	 * compression strategy}. Default is {@link Deflater#DEFAULT_STRATEGY}.
+	 */
+	public final static String COMPRESSION_STRATEGY_KEY = "COMPRESSION_STRATEGY_KEY";
+	/**
+	 * Property to specify flush mode used when batch of data is written to
+	 * compressed stream: {@link Deflater#SYNC_FLUSH} (default) or
+	 * {@link Deflater#FULL_FLUSH}.
+	 */
+	public final static String COMPRESSION_FLUSH_MODE_KEY = "COMPRESSION_FLUSH_MODE_KEY";
 	public final static HostnameVerifier DEFAULT_HOSTNAME_VERIFIER = new DefaultHostnameVerifier();
 	/**
 	 * Default size of buffer used to decode data before parsing
@@ -91,22 +114,135 @@ public class SocketConnector implements Connector {
 	 */
 	public static final String PLAIN_SOCKET_TIMEOUT_KEY = "PLAIN_SOCKET_TIMEOUT_KEY";
 	private final static Charset UTF_CHARSET = Charset.forName("UTF-8");
+	public static final String KEEP_ALIVE_DELAY_KEY = "KEEP_ALIVE_DELAY_KEY";
+
 	/**
-	 * Instance of empty byte array used to force flush of compressed stream
+	 * Property to enable freezing of received stanzas, so they may be shared
+	 * between threads without locking. Modules which modify descendants of
+	 * received stanza (not through wrappers) may fail if it is enabled. Read
+	 * when connection is started.
 	 */
-	private final static byte[] EMPTY_BYTEARRAY = new byte[0];
-	public static final String KEEP_ALIVE_DELAY_KEY = "KEEP_ALIVE_DELAY_KEY";
-	private final Object ioMutex = new Object();
-	private final Logger log;
+	public static final String FREEZE_RECEIVED_KEY = "FREEZE_RECEIVED_KEY";
+
+	/**
+	 * Property to enable lazy building of payload of received stanzas. Only
+	 * stanza element with its attributes is built when stanza is received,
+	 * its children are built on first access. Read when connection is started.
+	 */
+	public static final String LAZY_PAYLOAD_KEY = "LAZY_PAYLOAD_KEY";
+	/**
+	 * Property to enable passing elements of received stanzas to
+	 * {@link StreamingHandlers} registered by modules as soon as they are
+	 * parsed. Handlers are called in reader thread, so it is ignored by
+	 * {@link NioSocketConnector}, which shares reader threads between
+	 * connections. Read when connection is started.
+	 */
+	public static final String STREAMING_HANDLERS_ENABLED_KEY = "STREAMING_HANDLERS_ENABLED_KEY";
+	/**
+	 * Property to specify delay (in milliseconds) after which next parallel
+	 * connection attempt is started if previous one is not finished yet.
+	 * Default is {@link HappyEyeballs#DEFAULT_CONNECTION_ATTEMPT_DELAY 250 ms}.
+	 */
+	public static final String CONNECTION_ATTEMPT_DELAY_KEY = "CONNECTION_ATTEMPT_DELAY_KEY";
+	/**
+	 * Property to specify timeout (in milliseconds) of single connection
+	 * attempt. Default is <code>0</code> (system default).
+	 */
+	public static final String CONNECT_TIMEOUT_KEY = "CONNECT_TIMEOUT_KEY";
+	/**
+	 * Set to {@link Boolean#TRUE} to connect only to first address of first
+	 * server instead of trying all addresses in parallel.
+	 */
+	public static final String PARALLEL_CONNECT_DISABLED_KEY = "PARALLEL_CONNECT_DISABLED_KEY";
+	/**
+	 * Default port of Direct TLS connections.
+	 */
+	public static final int DEFAULT_DIRECT_TLS_PORT = 5223;
+	/**
+	 * Set to {@link Boolean#TRUE} to establish TLS immediately after connecting
+	 * to {@link #SERVER_HOST} (on {@link #SERVER_PORT}, default
+	 * {@link #DEFAULT_DIRECT_TLS_PORT 5223}) or to domain, instead of
+	 * negotiating STARTTLS (XEP-0368). If Direct TLS connection fails, client
+	 * falls back to STARTTLS on port 5222.
+	 */
+	public static final String DIRECT_TLS_KEY = "DIRECT_TLS_KEY";
+	/**
+	 * Set to {@link Boolean#TRUE} to ignore <code>_xmpps-client._tcp</code>
+	 * SRV records and always use STARTTLS.
+	 */
+	public static final String DIRECT_TLS_DISABLED_KEY = "DIRECT_TLS_DISABLED_KEY";
+	/**
+	 * ALPN protocol name offered in Direct TLS handshake (XEP-0368).
+	 */
+	public static final String XMPP_CLIENT_ALPN = "xmpp-client";
+	/**
+	 * Property to specify {@link WireTap} notified about all data transferred
+	 * by connector. Read when connection is started.
+	 */
+	public static final String WIRE_TAP_KEY = "WIRE_TAP_KEY";
+	/**
+	 * Maximal number of bytes collected from outgoing queue before they are
+	 * written to socket.
+	 */
+	private final static int MAX_OUT_BATCH_SIZE = 64 * 1024;
+	private final static ThreadLocal<ElementSerializer> SERIALIZER = new ThreadLocal<ElementSerializer>() {
+		@Override
+		protected ElementSerializer initialValue() {
+			return new ElementSerializer();
+		}
+	};
+	/**
+	 * Default value of {@link #OUTBOUND_HIGH_WATERMARK_KEY}.
+	 */
+	public final static int DEFAULT_OUTBOUND_HIGH_WATERMARK = 1024 * 1024;
+	/**
+	 * Default value of {@link #OUTBOUND_LOW_WATERMARK_KEY}.
+	 */
+	public final static int DEFAULT_OUTBOUND_LOW_WATERMARK = 256 * 1024;
+	/**
+	 * Property to specify number of bytes waiting to be sent above which
+	 * connection becomes unwritable. Default is
+	 * {@link #DEFAULT_OUTBOUND_HIGH_WATERMARK 1 MiB}.
+	 */
+	public static final String OUTBOUND_HIGH_WATERMARK_KEY = "OUTBOUND_HIGH_WATERMARK_KEY";
+	/**
+	 * Property to specify number of bytes waiting to be sent below which
+	 * unwritable connection becomes writable again. Default is
+	 * {@link #DEFAULT_OUTBOUND_LOW_WATERMARK 256 KiB}.
+	 */
+	public static final String OUTBOUND_LOW_WATERMARK_KEY = "OUTBOUND_LOW_WATERMARK_KEY";
+	/**
+	 * Property to specify maximal number of stanzas waiting to be sent. Stanzas
+	 * sent by {@link #sendAsync(Element)} above this limit are rejected. Not
+	 * limited by default.
+	 */
+	public static final String OUTBOUND_QUEUE_LIMIT_KEY = "OUTBOUND_QUEUE_LIMIT_KEY";
+	protected final Object ioMutex = new Object();
+	protected final Logger log;
 
-	private Context context;
-	private TimerTask pingTask;
+	protected Context context;
+	private HashedWheelTimer.Timeout pingTask;
 	private volatile Reader reader;
-	private Socket socket;
-	private Timer timer;
+	protected Socket socket;
 	private Worker worker;
-	private OutputStream writer;
-	private Timer closeTimer;
+	protected volatile WireTap wireTap;
+	protected OutputStream writer;
+	private final ByteArrayOutputStream outBatch = new ByteArrayOutputStream(DEFAULT_SOCKET_BUFFER_SIZE);
+	private final List<SendFuture> outBatchFutures = new ArrayList<SendFuture>();
+	private final ConcurrentLinkedQueue<OutboundItem> outQueue = new ConcurrentLinkedQueue<OutboundItem>();
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+	private final AtomicLong pendingBytes = new AtomicLong();
+	private final AtomicInteger pendingStanzas = new AtomicInteger();
+	private volatile boolean writable = true;
+	private final Object writabilityMutex = new Object();
+	private HashedWheelTimer.Timeout closeTask;
+	private long compressedBytesReceived;
+	private long compressedBytesSent;
+	private Deflater deflater;
+	private Inflater inflater;
+	private long rawBytesReceived;
+	private long rawBytesSent;
+	private final Object zlibMutex = new Object();
 
 	public SocketConnector(Context context) {
 		this.log = Logger.getLogger(this.getClass().getName());
@@ -145,7 +281,7 @@ public class SocketConnector implements Connector {
 		return false;
 	}
 
-	private void closeSocket() {
+	protected void closeSocket() {
 		if (socket.isConnected()) {
 			try {
 				socket.close();
@@ -186,6 +322,12 @@ public class SocketConnector implements Connector {
 		context.getEventBus().fire(new ErrorEvent(sessionObject, streamError, caught));
 	}
 
+	private void dumpWireTap() {
+		final WireTap tap = wireTap;
+		if (tap instanceof RingBufferWireTap && log.isLoggable(Level.WARNING))
+			log.warning("Last transferred data (oid=" + hashCode() + "):" + ((RingBufferWireTap) tap).dump());
+	}
+
 	protected void fireOnStanzaReceived(StreamPacket response, SessionObject sessionObject) throws JaxmppException {
 		context.getEventBus().fire(new StanzaReceivedEvent(sessionObject, response));
 	}
@@ -199,6 +341,8 @@ public class SocketConnector implements Connector {
 		Integer port = context.getSessionObject().getProperty(SERVER_PORT);
 		if (serverHost == null)
 			return null;
+		if (isDirectTLSRequested())
+			return new Entry(serverHost, port == null ? DEFAULT_DIRECT_TLS_PORT : port, true);
 		return new Entry(serverHost, port == null ? 5222 : port);
 
 	}
@@ -265,6 +409,7 @@ public class SocketConnector implements Connector {
 				return;
 			}
 		}
+		dumpWireTap();
 		terminateAllWorkers();
 		fireOnError(response, caught, context.getSessionObject());
 	}
@@ -272,6 +417,7 @@ public class SocketConnector implements Connector {
 	protected void onErrorInThread(Exception e) throws JaxmppException {
 		if (getState() == State.disconnected)
 			return;
+		dumpWireTap();
 		terminateAllWorkers();
 		fireOnError(null, e, context.getSessionObject());
 	}
@@ -334,71 +480,131 @@ public class SocketConnector implements Connector {
 		}
 	}
 
-	protected void proceedTLS() throws JaxmppException {
-		log.fine("Proceeding TLS");
-		try {
-			context.getSessionObject().setProperty(Scope.stream, DISABLE_KEEPALIVE_KEY, Boolean.TRUE);
-			TrustManager[] trustManagers = context.getSessionObject().getProperty(TRUST_MANAGERS_KEY);
-			final SSLSocketFactory factory;
-			if (trustManagers == null) {
-				if (context.getSessionObject().getProperty(SSL_SOCKET_FACTORY_KEY) != null) {
-					factory = context.getSessionObject().getProperty(SSL_SOCKET_FACTORY_KEY);
-				} else {
-					factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
-				}
-			} else {
-				SSLContext ctx = SSLContext.getInstance("TLS");
-				ctx.init(getKeyManagers(), trustManagers, new SecureRandom());
-				factory = ctx.getSocketFactory();
-			}
-
-			SSLSocket s1 = (SSLSocket) factory.createSocket(socket, socket.getInetAddress().getHostAddress(), socket.getPort(),
-					true);
-
-			// if
-			// (context.getSessionObject().getProperty(DISABLE_SOCKET_TIMEOUT_KEY)
-			// == null
-			// || !((Boolean)
-			// context.getSessionObject().getProperty(DISABLE_SOCKET_TIMEOUT_KEY)).booleanValue())
-			// {
-			// s1.setSoTimeout(DEFAULT_SOCKET_TIMEOUT);
-			// }
-			Integer sslSoTimeout = getTimeout(SSL_SOCKET_TIMEOUT_KEY, 0);
-			if (sslSoTimeout != null)
-				s1.setSoTimeout(sslSoTimeout);
-			s1.setKeepAlive(false);
-			s1.setTcpNoDelay(true);
-			s1.setUseClientMode(true);
-			s1.addHandshakeCompletedListener(new HandshakeCompletedListener() {
+	/**
+	 * Establishes TLS over connected socket. Hostname of server certificate is
+	 * verified with {@link #HOSTNAME_VERIFIER_KEY}.
+	 *
+	 * @param plainSocket
+	 *            connected socket.
+	 * @return socket after successful handshake.
+	 */
+	protected SSLSocket handshakeTLS(Socket plainSocket) throws IOException, GeneralSecurityException {
+		return handshakeTLS(plainSocket, false);
+	}
 
-				@Override
-				public void handshakeCompleted(HandshakeCompletedEvent arg0) {
-					log.info("TLS completed " + arg0);
-					context.getSessionObject().setProperty(Scope.stream, ENCRYPTED_KEY, Boolean.TRUE);
-					context.getEventBus().fire(new EncryptionEstablishedEvent(context.getSessionObject()));
-				}
-			});
-			writer = null;
-			reader = null;
-			log.fine("Start handshake");
+	/**
+	 * Offers ALPN protocols in handshake of socket. Does nothing if runtime
+	 * doesn't support ALPN (before Java 9 and 8u251).
+	 *
+	 * @return <code>true</code> if protocols are set.
+	 */
+	private boolean setApplicationProtocols(SSLSocket socket, String... protocols) {
+		try {
+			SSLParameters params = socket.getSSLParameters();
+			SSLParameters.class.getMethod("setApplicationProtocols", String[].class).invoke(params, (Object) protocols);
+			socket.setSSLParameters(params);
+			return true;
+		} catch (NoSuchMethodException e) {
+			log.finest("ALPN is not supported by runtime");
+			return false;
+		} catch (Exception e) {
+			log.log(Level.FINE, "Can't set ALPN protocols", e);
+			return false;
+		}
+	}
 
-			final String hostname;
-			if (context.getSessionObject().getProperty(SessionObject.USER_BARE_JID) != null) {
-				hostname = ((BareJID) context.getSessionObject().getProperty(SessionObject.USER_BARE_JID)).getDomain();
-			} else if (context.getSessionObject().getProperty(SessionObject.DOMAIN_NAME) != null) {
-				hostname = context.getSessionObject().getProperty(SessionObject.DOMAIN_NAME);
+	/**
+	 * Establishes TLS over connected socket. XMPP domain is sent as SNI, so
+	 * server may choose right certificate. Hostname of server certificate is
+	 * verified with {@link #HOSTNAME_VERIFIER_KEY}.
+	 *
+	 * @param plainSocket
+	 *            connected socket.
+	 * @param directTls
+	 *            <code>true</code> if TLS is established directly after
+	 *            connecting (XEP-0368), then ALPN protocol
+	 *            <code>xmpp-client</code> is offered if runtime supports it.
+	 * @return socket after successful handshake.
+	 */
+	protected SSLSocket handshakeTLS(Socket plainSocket, boolean directTls) throws IOException,
+			GeneralSecurityException {
+		TrustManager[] trustManagers = context.getSessionObject().getProperty(TRUST_MANAGERS_KEY);
+		final SSLSocketFactory factory;
+		if (trustManagers == null) {
+			if (context.getSessionObject().getProperty(SSL_SOCKET_FACTORY_KEY) != null) {
+				factory = context.getSessionObject().getProperty(SSL_SOCKET_FACTORY_KEY);
 			} else {
-				hostname = null;
+				factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
 			}
+		} else {
+			// shared context keeps session cache, so reconnection may
+			// resume previous TLS session
+			factory = SSLContextCache.getInstance().getContext(getKeyManagers(), trustManagers).getSocketFactory();
+		}
 
-			s1.startHandshake();
+		final String hostname;
+		if (context.getSessionObject().getProperty(SessionObject.USER_BARE_JID) != null) {
+			hostname = ((BareJID) context.getSessionObject().getProperty(SessionObject.USER_BARE_JID)).getDomain();
+		} else if (context.getSessionObject().getProperty(SessionObject.DOMAIN_NAME) != null) {
+			hostname = context.getSessionObject().getProperty(SessionObject.DOMAIN_NAME);
+		} else {
+			hostname = null;
+		}
+
+		// hostname passed to factory is sent as SNI
+		SSLSocket s1 = (SSLSocket) factory.createSocket(plainSocket,
+				hostname != null ? hostname : plainSocket.getInetAddress().getHostAddress(), plainSocket.getPort(), true);
+		if (directTls)
+			setApplicationProtocols(s1, XMPP_CLIENT_ALPN);
+
+		// if
+		// (context.getSessionObject().getProperty(DISABLE_SOCKET_TIMEOUT_KEY)
+		// == null
+		// || !((Boolean)
+		// context.getSessionObject().getProperty(DISABLE_SOCKET_TIMEOUT_KEY)).booleanValue())
+		// {
+		// s1.setSoTimeout(DEFAULT_SOCKET_TIMEOUT);
+		// }
+		Integer sslSoTimeout = getTimeout(SSL_SOCKET_TIMEOUT_KEY, 0);
+		if (sslSoTimeout != null)
+			s1.setSoTimeout(sslSoTimeout);
+		s1.setKeepAlive(false);
+		s1.setTcpNoDelay(true);
+		s1.setUseClientMode(true);
+		s1.addHandshakeCompletedListener(new HandshakeCompletedListener() {
 
-			final HostnameVerifier hnv = context.getSessionObject().getProperty(HOSTNAME_VERIFIER_KEY);
-			if (hnv != null && !hnv.verify(hostname, s1.getSession())) {
-				throw new javax.net.ssl.SSLHandshakeException(
-						"Cerificate hostname doesn't match domain name you want to connect.");
+			@Override
+			public void handshakeCompleted(HandshakeCompletedEvent arg0) {
+				log.info("TLS completed " + arg0);
+				context.getSessionObject().setProperty(Scope.stream, ENCRYPTED_KEY, Boolean.TRUE);
+				context.getEventBus().fire(new EncryptionEstablishedEvent(context.getSessionObject()));
 			}
+		});
+		log.fine("Start handshake");
+
+		final long handshakeStartTime = System.currentTimeMillis();
+		s1.startHandshake();
+		if (SSLContextCache.getInstance().handshakeCompleted(s1.getSession(), handshakeStartTime))
+			log.fine("TLS session resumed (oid=" + SocketConnector.this.hashCode() + ")");
+
+		final HostnameVerifier hnv = context.getSessionObject().getProperty(HOSTNAME_VERIFIER_KEY);
+		if (hnv != null && !hnv.verify(hostname, s1.getSession())) {
+			throw new javax.net.ssl.SSLHandshakeException(
+					"Cerificate hostname doesn't match domain name you want to connect.");
+		}
+		// set before stream is (re)started, listener is notified
+		// asynchronously
+		context.getSessionObject().setProperty(Scope.stream, ENCRYPTED_KEY, Boolean.TRUE);
+		return s1;
+	}
 
+	protected void proceedTLS() throws JaxmppException {
+		log.fine("Proceeding TLS");
+		try {
+			context.getSessionObject().setProperty(Scope.stream, DISABLE_KEEPALIVE_KEY, Boolean.TRUE);
+			writer = null;
+			reader = null;
+			SSLSocket s1 = handshakeTLS(socket);
 			socket = s1;
 			writer = socket.getOutputStream();
 			reader = new TextStreamReader(socket.getInputStream());
@@ -414,6 +620,83 @@ public class SocketConnector implements Connector {
 		}
 	}
 
+	/**
+	 * Returns flush mode used by compressor at the end of each batch of
+	 * written data.
+	 */
+	protected int getCompressionFlushMode() {
+		Integer mode = context.getSessionObject().getProperty(COMPRESSION_FLUSH_MODE_KEY);
+		return mode == null ? Deflater.SYNC_FLUSH : mode;
+	}
+
+	/**
+	 * Returns compression level used by compressor.
+	 */
+	protected int getCompressionLevel() {
+		Integer level = context.getSessionObject().getProperty(COMPRESSION_LEVEL_KEY);
+		return level == null ? Deflater.BEST_COMPRESSION : level;
+	}
+
+	/**
+	 * Returns counters of ZLIB compression used by this connector.
+	 *
+	 * @return compression counters.
+	 */
+	public CompressionStatistics getCompressionStatistics() {
+		synchronized (zlibMutex) {
+			long rawSent = this.rawBytesSent;
+			long compressedSent = this.compressedBytesSent;
+			long compressedReceived = this.compressedBytesReceived;
+			long rawReceived = this.rawBytesReceived;
+			if (deflater != null) {
+				rawSent += deflater.getBytesRead();
+				compressedSent += deflater.getBytesWritten();
+			}
+			if (inflater != null) {
+				compressedReceived += inflater.getBytesRead();
+				rawReceived += inflater.getBytesWritten();
+			}
+			return new CompressionStatistics(rawSent, compressedSent, compressedReceived, rawReceived);
+		}
+	}
+
+	/**
+	 * Returns compressor configured according to session properties. Instance
+	 * is reused between compressed streams of this connector.
+	 */
+	protected Deflater prepareDeflater() {
+		synchronized (zlibMutex) {
+			if (deflater == null) {
+				deflater = new Deflater(getCompressionLevel(), false);
+			} else {
+				rawBytesSent += deflater.getBytesRead();
+				compressedBytesSent += deflater.getBytesWritten();
+				deflater.reset();
+				deflater.setLevel(getCompressionLevel());
+			}
+			Integer strategy = context.getSessionObject().getProperty(COMPRESSION_STRATEGY_KEY);
+			deflater.setStrategy(strategy == null ? Deflater.DEFAULT_STRATEGY : strategy);
+			return deflater;
+		}
+	}
+
+	/**
+	 * Returns decompressor. Instance is reused between compressed streams of
+	 * this connector.
+	 */
+	protected Inflater prepareInflater() {
+		synchronized (zlibMutex) {
+			if (inflater == null) {
+				inflater = new Inflater(false);
+			} else {
+				compressedBytesReceived += inflater.getBytesRead();
+				rawBytesReceived += inflater.getBytesWritten();
+				inflater.reset();
+			}
+			return inflater;
+		}
+	}
+
 	/**
 	 * Method activates stream compression by replacing reader and writer fields
 	 * values and restarting XMPP stream
@@ -429,52 +712,9 @@ public class SocketConnector implements Connector {
 			reader = null;
 			log.fine("Start ZLIB compression");
 
-			Deflater compressor = new Deflater(Deflater.BEST_COMPRESSION, false);
-			try {
-				// on Android platform Deflater has field named flushParm which
-				// can force flushing data to socket for us
-				Field f = compressor.getClass().getDeclaredField("flushParm");
-				if (f != null) {
-					f.setAccessible(true);
-					f.setInt(compressor, 2); // Z_SYNC_FLUSH
-					writer = new DeflaterOutputStream(socket.getOutputStream(), compressor);
-				}
-			} catch (NoSuchFieldException ex) {
-
-				// if we do not have field we are on standard Java VM
-				try {
-					// try to create flushable DeflaterOutputStream but it
-					// exists
-					// only on Java 7 so we access it using reflection for
-					// compatibility
-					Constructor<DeflaterOutputStream> flushable = DeflaterOutputStream.class.getConstructor(OutputStream.class,
-							Deflater.class, boolean.class);
-
-					// we need wrap DeflaterOutputStream to flush it every time
-					// we are
-					// writing to it
-					writer = new OutputStreamFlushWrap(flushable.newInstance(socket.getOutputStream(), compressor, true));
-
-				} catch (NoSuchMethodException ex1) {
-					// if we do not find constructor from Java 7 we use flushing
-					// algorithm which was working fine on Java 6
-					writer = new DeflaterOutputStream(socket.getOutputStream(), compressor) {
-						@Override
-						public void write(byte[] data) throws IOException {
-							super.write(data);
-							super.write(EMPTY_BYTEARRAY);
-							super.def.setLevel(Deflater.NO_COMPRESSION);
-							super.deflate();
-							super.def.setLevel(Deflater.BEST_COMPRESSION);
-							super.deflate();
-						}
-					};
-				}
-			}
-
-			Inflater decompressor = new Inflater(false);
-			final InflaterInputStream is = new InflaterInputStream(socket.getInputStream(), decompressor);
-			reader = new TextStreamReader(is);
+			writer = new ZLibOutputStream(socket.getOutputStream(), prepareDeflater(), getCompressionLevel(),
+					getCompressionFlushMode());
+			reader = new TextStreamReader(new InflaterInputStream(socket.getInputStream(), prepareInflater()));
 
 			context.getSessionObject().setProperty(Scope.stream, Connector.COMPRESSED_KEY, true);
 			log.info("ZLIB compression started");
@@ -553,46 +793,238 @@ public class SocketConnector implements Connector {
 		send(sb.toString().getBytes(UTF_CHARSET));
 	}
 
+	/**
+	 * Sends raw data. Data is queued and written the same way as stanzas sent
+	 * by {@link #send(Element)}.
+	 *
+	 * @param buffer
+	 *            data to send.
+	 */
 	public void send(byte[] buffer) throws JaxmppException {
-		synchronized (ioMutex) {
-			if (writer != null)
-				try {
-					if (log.isLoggable(Level.FINEST))
-						log.finest("Send (oid=" + SocketConnector.this.hashCode() + "): " + new String(buffer));
-					log.info("Send:"+new String(buffer));
-
-					writer.write(buffer);
-					writer.flush();
-				} catch (IOException e) {
-					throw new JaxmppException(e);
-
-				}
+		if (writer != null) {
+			if (log.isLoggable(Level.FINEST))
+				log.finest("Send (oid=" + SocketConnector.this.hashCode() + "): " + new String(buffer));
+			enqueue(new OutboundItem(null, buffer, null));
 		}
 	}
 
+	/**
+	 * Sends stanza. Stanza is added to output queue which is written to
+	 * socket by one thread at a time, so stanzas are sent in order in which
+	 * they were queued, and stanzas queued by concurrent senders are written
+	 * and flushed in one batch.
+	 * <p>
+	 * If another thread is writing queue at the moment, this method only
+	 * queues stanza and returns before it is written. In such case:
+	 * <ul>
+	 * <li>{@link StanzaSendingEvent} is fired by writing thread, with I/O lock
+	 * held, so handler must not block,</li>
+	 * <li>error of writing is thrown to writing thread and not to caller of
+	 * this method; queued stanzas are dropped and connection is
+	 * terminated.</li>
+	 * </ul>
+	 * Use {@link #sendAsync(Element)} to be notified about result of writing
+	 * particular stanza.
+	 * </p>
+	 *
+	 * @param stanza
+	 *            stanza to send.
+	 * @throws JaxmppException
+	 *             if writing of queue by this thread failed.
+	 */
 	@Override
 	public void send(Element stanza) throws JaxmppException {
-		synchronized (ioMutex) {
-			if (writer != null)
-				try {
-					String t = stanza.getAsString();
-					if (log.isLoggable(Level.FINEST))
-						log.finest("Send (oid=" + SocketConnector.this.hashCode() + "): " + t);
+		if (writer != null)
+			enqueue(createOutboundItem(stanza, null));
+	}
 
+	/**
+	 * Sends stanza without waiting for it to be written to connection.
+	 * Returned future is failed immediately if connection is not established
+	 * or if number of stanzas waiting to be sent exceeds
+	 * {@link #OUTBOUND_QUEUE_LIMIT_KEY}. It is failed later if connection
+	 * is closed or its stream is being replaced (STARTTLS, compression)
+	 * before stanza is written.
+	 *
+	 * @param stanza
+	 *            stanza to send.
+	 * @return completion handle of sending.
+	 */
+	public SendFuture sendAsync(Element stanza) throws JaxmppException {
+		final SendFuture future = new SendFuture(stanza);
+		final Integer limit = context.getSessionObject().getProperty(OUTBOUND_QUEUE_LIMIT_KEY);
+		if (writer == null) {
+			future.fail(new JaxmppException("Not connected"));
+		} else if (limit != null && pendingStanzas.get() >= limit) {
+			future.fail(new JaxmppException("Outbound queue limit exceeded"));
+		} else {
+			try {
+				enqueue(createOutboundItem(stanza, future));
+			} catch (JaxmppException e) {
+				future.fail(e);
+			}
+		}
+		return future;
+	}
+
+	private OutboundItem createOutboundItem(Element stanza, SendFuture future) throws JaxmppException {
+		final ElementSerializer serializer = SERIALIZER.get();
+		serializer.reset();
+		serializer.append(stanza, isSerializationCacheEnabled());
+		final byte[] data = serializer.toByteArray();
+		if (log.isLoggable(Level.FINEST))
+			log.finest("Send (oid=" + SocketConnector.this.hashCode() + "): " + new String(data, UTF_CHARSET));
+		return new OutboundItem(stanza, data, future);
+	}
+
+	private void enqueue(OutboundItem item) throws JaxmppException {
+		if (item.stanza != null)
+			pendingStanzas.incrementAndGet();
+		pendingBytes.addAndGet(item.data.length);
+		outQueue.offer(item);
+		updateWritability();
+		drainOutQueue();
+	}
+
+	/**
+	 * Writes queued data to socket. Only one thread drains queue at a time,
+	 * other threads only add their data to queue and return. Data queued while
+	 * queue is drained is written in the same batch.
+	 *
+	 * @throws JaxmppException
+	 */
+	private void drainOutQueue() throws JaxmppException {
+		while (!outQueue.isEmpty()) {
+			if (!draining.compareAndSet(false, true))
+				return;
+			try {
+				synchronized (ioMutex) {
+					writeOutQueue();
+				}
+			} finally {
+				draining.set(false);
+				updateWritability();
+			}
+		}
+	}
+
+	private void writeOutQueue() throws JaxmppException {
+		final WireTap tap = wireTap;
+		boolean containsStanza = false;
+		try {
+			OutboundItem item;
+			while ((item = outQueue.poll()) != null) {
+				if (item.stanza != null) {
+					pendingStanzas.decrementAndGet();
 					try {
-						context.getEventBus().fire(new StanzaSendingEvent(context.getSessionObject(), stanza));
+						context.getEventBus().fire(new StanzaSendingEvent(context.getSessionObject(), item.stanza));
 					} catch (Exception e) {
 					}
-					writer.write(t.getBytes(UTF_CHARSET));
-				} catch (IOException e) {
-					terminateAllWorkers();
-					throw new JaxmppException(e);
+					containsStanza = true;
 				}
+				if (outBatch.size() > 0 && outBatch.size() + item.data.length > MAX_OUT_BATCH_SIZE)
+					writeOutBatch();
+				outBatch.write(item.data, 0, item.data.length);
+				if (tap != null)
+					tap.onDataSent(item.data, 0, item.data.length);
+				if (item.future != null)
+					outBatchFutures.add(item.future);
+			}
+			writeOutBatch();
+		} catch (IOException e) {
+			failOutQueue(e);
+			if (containsStanza)
+				terminateAllWorkers();
+			throw new JaxmppException(e);
 		}
-		try {
-			Thread.sleep(2);
-		} catch (InterruptedException e) {
-			log.warning("Thread can't sleep. Insomnia?");
+	}
+
+	private void failOutQueue(Exception cause) {
+		for (SendFuture f : outBatchFutures) {
+			f.fail(cause);
+		}
+		outBatchFutures.clear();
+		outBatch.reset();
+		OutboundItem item;
+		while ((item = outQueue.poll()) != null) {
+			if (item.future != null)
+				item.future.fail(cause);
+		}
+		pendingStanzas.set(0);
+		pendingBytes.set(0);
+	}
+
+	private void writeOutBatch() throws IOException {
+		final OutputStream w = writer;
+		final int size = outBatch.size();
+		if (w != null) {
+			outBatch.writeTo(w);
+			w.flush();
+		}
+		outBatch.reset();
+		pendingBytes.addAndGet(-size);
+		// there is no writer while stream is replaced (STARTTLS, compression)
+		// or after disconnection, so batch is lost
+		final IOException cause = w == null ? new IOException("Connection is not available") : null;
+		if (cause != null && log.isLoggable(Level.FINE))
+			log.fine("Dropped " + size + " bytes (oid=" + SocketConnector.this.hashCode() + "), connection is not available");
+		for (SendFuture f : outBatchFutures) {
+			if (cause == null)
+				f.complete();
+			else
+				f.fail(cause);
+		}
+		outBatchFutures.clear();
+	}
+
+	/**
+	 * Changes number of bytes waiting to be sent. Used by subclasses which
+	 * buffer data below {@link #writer}. {@link #updateWritability()} should
+	 * be called after that, without any I/O lock held.
+	 *
+	 * @param delta
+	 *            number of bytes added to (or removed from, if negative)
+	 *            buffer.
+	 */
+	protected void addPendingBytes(long delta) {
+		pendingBytes.addAndGet(delta);
+	}
+
+	/**
+	 * Returns <code>false</code> if amount of data waiting to be sent exceeded
+	 * {@link #OUTBOUND_HIGH_WATERMARK_KEY} and did not drop below
+	 * {@link #OUTBOUND_LOW_WATERMARK_KEY} yet.
+	 */
+	public boolean isWritable() {
+		return writable;
+	}
+
+	/**
+	 * Checks amount of data waiting to be sent against watermarks and fires
+	 * {@link WritabilityChangedEvent} if connection became writable or
+	 * unwritable.
+	 */
+	protected void updateWritability() {
+		synchronized (writabilityMutex) {
+			final long pending = pendingBytes.get();
+			if (writable) {
+				Integer high = context.getSessionObject().getProperty(OUTBOUND_HIGH_WATERMARK_KEY);
+				if (pending <= (high == null ? DEFAULT_OUTBOUND_HIGH_WATERMARK : high))
+					return;
+			} else {
+				Integer low = context.getSessionObject().getProperty(OUTBOUND_LOW_WATERMARK_KEY);
+				if (pending >= (low == null ? DEFAULT_OUTBOUND_LOW_WATERMARK : low))
+					return;
+			}
+			writable = !writable;
+			if (log.isLoggable(Level.FINE))
+				log.fine("Connection (oid=" + SocketConnector.this.hashCode() + ") writable=" + writable + ", pending bytes="
+						+ pending);
+			try {
+				context.getEventBus().fire(new WritabilityChangedEvent(context.getSessionObject(), writable));
+			} catch (Exception e) {
+				log.log(Level.WARNING, "Error on processing WritabilityChangedEvent", e);
+			}
 		}
 	}
 
@@ -614,13 +1046,11 @@ public class SocketConnector implements Connector {
 	@Override
 	public void start() throws JaxmppException {
 		log.fine("Start connector (oid=" + SocketConnector.this.hashCode() + ").");
-		if (timer != null) {
-			try {
-				timer.cancel();
-			} catch (Exception e) {
-			}
+
+		synchronized (ioMutex) {
+			failOutQueue(new IOException("Connection restarted"));
 		}
-		timer = new Timer(true);
+		updateWritability();
 
 		if (context.getSessionObject().getProperty(HOSTNAME_VERIFIER_DISABLED_KEY) == Boolean.TRUE) {
 			context.getSessionObject().setProperty(HOSTNAME_VERIFIER_KEY, null);
@@ -628,121 +1058,34 @@ public class SocketConnector implements Connector {
 			context.getSessionObject().setProperty(HOSTNAME_VERIFIER_KEY, DEFAULT_HOSTNAME_VERIFIER);
 		}
 
+		wireTap = context.getSessionObject().getProperty(WIRE_TAP_KEY);
+
 		setStage(State.connecting);
 
 		try {
-			Entry serverHost = getHostFromSessionObject();
-			if (serverHost == null) {
-				String x = context.getSessionObject().getProperty(SessionObject.DOMAIN_NAME);
-				log.info("Resolving SRV recrd of domain '" + x + "'");
-				List<Entry> xx;
-				DnsResolver dnsResolver = UniversalFactory.createInstance(DnsResolver.class.getName());
-				if (dnsResolver != null) {
-					xx = dnsResolver.resolve(x);
-				} else {
-					xx = DNSResolver.resolve(x);
-				}
-
-				if (xx.size() > 0) {
-					serverHost = xx.get(0);
-				}
-			}
+			List<Entry> serverHosts = resolveServerHosts();
 
 			context.getSessionObject().setProperty(Scope.stream, DISABLE_KEEPALIVE_KEY, Boolean.FALSE);
 
 			if (log.isLoggable(Level.FINER))
-				log.finer("Preparing connection to " + serverHost);
-
-			InetAddress x = InetAddress.getByName(serverHost.getHostname());
-			log.info("Opening connection to " + x + ":" + serverHost.getPort());
-
-			if (context.getSessionObject().getProperty(Connector.PROXY_HOST) != null) {
-				final String proxyHost = context.getSessionObject().getProperty(Connector.PROXY_HOST);
-				final int proxyPort = context.getSessionObject().getProperty(Connector.PROXY_PORT);
-				Proxy.Type proxyType = context.getSessionObject().getProperty(Connector.PROXY_TYPE);
-				if (proxyType == null)
-					proxyType = Proxy.Type.HTTP;
-
-				log.info("Using " + proxyType + " proxy: " + proxyHost + ":" + proxyPort);
-
-				SocketAddress addr = new InetSocketAddress(proxyHost, proxyPort);
-				Proxy proxy = new Proxy(proxyType, addr);
-				socket = new Socket(proxy);
-			} else {
-				socket = new Socket();
-			}
-
-			// if
-			// (context.getSessionObject().getProperty(DISABLE_SOCKET_TIMEOUT_KEY)
-			// == null
-			// || ((Boolean)
-			// context.getSessionObject().getProperty(DISABLE_SOCKET_TIMEOUT_KEY)).booleanValue())
-			// {
-			// socket.setSoTimeout(DEFAULT_SOCKET_TIMEOUT);
-			// }
-			Integer soTimeout = getTimeout(PLAIN_SOCKET_TIMEOUT_KEY, DEFAULT_SOCKET_TIMEOUT);
-			if (soTimeout != null)
-				socket.setSoTimeout(soTimeout);
-			socket.setKeepAlive(false);
-			socket.setTcpNoDelay(true);
-			// writer = new BufferedOutputStream(socket.getOutputStream());
-			socket.connect(new InetSocketAddress(x, serverHost.getPort()));
-			writer = socket.getOutputStream();
-			reader = new TextStreamReader(socket.getInputStream());
-			worker = new Worker(this) {
-
-				@Override
-				protected Reader getReader() {
-					return SocketConnector.this.reader;
-				}
-
-				@Override
-				protected void onErrorInThread(Exception e) throws JaxmppException {
-					SocketConnector.this.onErrorInThread(e);
-				}
-
-				@Override
-				protected void onStreamStart(Map<String, String> attribs) {
-					SocketConnector.this.onStreamStart(attribs);
-				}
-
-				@Override
-				protected void onStreamTerminate() throws JaxmppException {
-					SocketConnector.this.onStreamTerminate();
-				}
-
-				@Override
-				protected void processElement(Element elem) throws JaxmppException {
-					SocketConnector.this.processElement(elem);
-				}
-
-				@Override
-				protected void workerTerminated() {
-					SocketConnector.this.workerTerminated(this);
-				}
+				log.finer("Preparing connection to " + serverHosts);
 
-			};
-			log.finest("Starting worker...");
-			worker.start();
+			connect(serverHosts);
+			startWorker();
 
 			restartStream();
 
 			setStage(State.connected);
 
-			this.pingTask = new TimerTask() {
+			final Runnable keepaliveTask = new Runnable() {
 
 				@Override
 				public void run() {
-					new Thread() {
-						@Override
-						public void run() {
-							try {
-								keepalive();
-							} catch (JaxmppException e) {
-								log.log(Level.SEVERE, "Can't ping!", e);
-							}
-						}
-					}.start();
+					try {
+						keepalive();
+					} catch (JaxmppException e) {
+						log.log(Level.SEVERE, "Can't ping!", e);
+					}
 				}
 			};
 
@@ -757,7 +1100,8 @@ public class SocketConnector implements Connector {
 					log.config("Whitespace ping period is setted to " + delay + "ms");
 
 				if (delay != null)
-					timer.schedule(pingTask, delay, delay);
+					this.pingTask = HashedWheelTimer.getInstance().schedule(keepaliveTask, delay, delay,
+							(ThreadFactory) context.getSessionObject().getProperty(Jaxmpp.THREAD_FACTORY_KEY));
 			}
 
 			fireOnConnected(context.getSessionObject());
@@ -768,6 +1112,280 @@ public class SocketConnector implements Connector {
 		}
 	}
 
+	/**
+	 * Returns address of XMPP server to connect to. Host set in session object
+	 * is used if present, otherwise SRV records of domain are resolved.
+	 *
+	 * @return server host and port
+	 */
+	protected Entry resolveServerHost() throws Exception {
+		List<Entry> xx = resolveServerHosts();
+		return xx.isEmpty() ? null : xx.get(0);
+	}
+
+	/**
+	 * Returns addresses of XMPP server in order of preference. Host set in
+	 * session object is used if present, otherwise SRV records of domain are
+	 * resolved.
+	 *
+	 * @return list of server hosts and ports
+	 */
+	protected List<Entry> resolveServerHosts() throws Exception {
+		Entry serverHost = getHostFromSessionObject();
+		if (serverHost != null) {
+			if (!serverHost.isDirectTls())
+				return Collections.singletonList(serverHost);
+			return Arrays.asList(serverHost, new Entry(serverHost.getHostname(), 5222));
+		}
+
+		String x = context.getSessionObject().getProperty(SessionObject.DOMAIN_NAME);
+		log.info("Resolving SRV recrd of domain '" + x + "'");
+		List<Entry> xx;
+		DnsResolver dnsResolver = UniversalFactory.createInstance(DnsResolver.class.getName());
+		if (dnsResolver != null) {
+			xx = dnsResolver.resolve(x);
+		} else {
+			xx = DNSResolver.resolve(x);
+		}
+
+		if (context.getSessionObject().getProperty(DIRECT_TLS_DISABLED_KEY) == Boolean.TRUE
+				|| context.getSessionObject().getProperty(TLS_DISABLED_KEY) == Boolean.TRUE)
+			return xx;
+		List<Entry> result = new ArrayList<Entry>();
+		if (dnsResolver instanceof DirectTlsDnsResolver) {
+			for (Entry e : ((DirectTlsDnsResolver) dnsResolver).resolveDirectTls(x)) {
+				// target "." with port 0 is how domain opts out of Direct TLS
+				if (isUsable(e))
+					result.add(e);
+			}
+		}
+		if (result.isEmpty() && isDirectTLSRequested())
+			result.add(new Entry(x, DEFAULT_DIRECT_TLS_PORT, true));
+		// Direct TLS targets are tried first, STARTTLS ones are fallback
+		result.addAll(xx);
+		return result;
+	}
+
+	private static boolean isUsable(Entry e) {
+		return e.getHostname() != null && e.getHostname().length() > 0 && !".".equals(e.getHostname())
+				&& e.getPort() != null && e.getPort() > 0;
+	}
+
+	private boolean isDirectTLSRequested() {
+		return context.getSessionObject().getProperty(DIRECT_TLS_KEY) == Boolean.TRUE
+				&& context.getSessionObject().getProperty(TLS_DISABLED_KEY) != Boolean.TRUE;
+	}
+
+	protected boolean isFreezeReceivedEnabled() {
+		return context.getSessionObject().getProperty(FREEZE_RECEIVED_KEY) == Boolean.TRUE;
+	}
+
+	protected boolean isLazyPayloadEnabled() {
+		return context.getSessionObject().getProperty(LAZY_PAYLOAD_KEY) == Boolean.TRUE;
+	}
+
+	/**
+	 * Returns registry of streaming handlers which should be used by parser,
+	 * or <code>null</code> if streaming is disabled.
+	 */
+	protected StreamingHandlers getStreamingHandlers() {
+		if (context.getSessionObject().getProperty(STREAMING_HANDLERS_ENABLED_KEY) != Boolean.TRUE)
+			return null;
+		return StreamingHandlers.get(context.getSessionObject());
+	}
+
+	private boolean isSerializationCacheEnabled() {
+		return context.getSessionObject().getProperty(SERIALIZATION_CACHE_KEY) == Boolean.TRUE;
+	}
+
+	/**
+	 * Opens connection to server and prepares {@link #writer} and reader used
+	 * by worker.
+	 *
+	 * @param serverHost
+	 *            address of server
+	 */
+	protected void connect(Entry serverHost) throws IOException {
+		connect(Collections.singletonList(serverHost));
+	}
+
+	/**
+	 * Opens connection to one of servers. Direct TLS servers are tried first,
+	 * if TLS can't be established with any of them connection falls back to
+	 * remaining servers.
+	 *
+	 * @param serverHosts
+	 *            addresses of servers in order of preference
+	 */
+	protected void connect(List<Entry> serverHosts) throws IOException {
+		List<Entry> directTls = new ArrayList<Entry>();
+		List<Entry> plain = new ArrayList<Entry>();
+		for (Entry e : serverHosts) {
+			if (e.isDirectTls())
+				directTls.add(e);
+			else
+				plain.add(e);
+		}
+
+		if (!directTls.isEmpty()) {
+			Socket s = null;
+			try {
+				s = openSocket(directTls);
+				socketConnected(handshakeTLS(s, true));
+				return;
+			} catch (Exception e) {
+				if (s != null)
+					s.close();
+				if (plain.isEmpty()) {
+					throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+				}
+				log.log(Level.WARNING, "Can't establish Direct TLS connection, falling back to STARTTLS", e);
+				context.getSessionObject().setProperty(Scope.stream, ENCRYPTED_KEY, null);
+			}
+		}
+		socketConnected(openSocket(plain));
+	}
+
+	/**
+	 * Opens TCP connection to one of servers. Unless disabled by
+	 * {@link #PARALLEL_CONNECT_DISABLED_KEY} or proxy is used, connection
+	 * attempts to all addresses of all servers are started in parallel (with
+	 * {@linkplain #CONNECTION_ATTEMPT_DELAY_KEY delay} between them) and first
+	 * established connection is used.
+	 *
+	 * @param serverHosts
+	 *            addresses of servers in order of preference
+	 * @return connected socket
+	 */
+	protected Socket openSocket(List<Entry> serverHosts) throws IOException {
+		if (serverHosts.isEmpty())
+			throw new IOException("No server address");
+		final Integer connectTimeout = getTimeout(CONNECT_TIMEOUT_KEY, 0);
+		final Socket s;
+		if (context.getSessionObject().getProperty(Connector.PROXY_HOST) != null
+				|| context.getSessionObject().getProperty(PARALLEL_CONNECT_DISABLED_KEY) == Boolean.TRUE) {
+			Entry serverHost = serverHosts.get(0);
+			InetAddress x = InetAddress.getByName(serverHost.getHostname());
+			log.info("Opening connection to " + x + ":" + serverHost.getPort());
+			s = createSocket();
+			s.connect(new InetSocketAddress(x, serverHost.getPort()), connectTimeout == null ? 0 : connectTimeout);
+		} else {
+			List<InetSocketAddress> addresses = HappyEyeballs.resolve(serverHosts);
+			log.info("Opening connection to one of " + addresses);
+			Integer delay = getTimeout(CONNECTION_ATTEMPT_DELAY_KEY, HappyEyeballs.DEFAULT_CONNECTION_ATTEMPT_DELAY);
+			HappyEyeballs connector = new HappyEyeballs(delay == null ? 0 : delay,
+					connectTimeout == null ? 0 : connectTimeout,
+					(ThreadFactory) context.getSessionObject().getProperty(Jaxmpp.THREAD_FACTORY_KEY));
+			s = connector.connect(addresses, new HappyEyeballs.SocketFactory() {
+
+				@Override
+				public Socket createSocket() throws IOException {
+					return SocketConnector.this.createSocket();
+				}
+			});
+		}
+		return s;
+	}
+
+	/**
+	 * Creates unconnected socket with options set.
+	 */
+	protected Socket createSocket() throws IOException {
+		final Socket s;
+		if (context.getSessionObject().getProperty(Connector.PROXY_HOST) != null) {
+			final String proxyHost = context.getSessionObject().getProperty(Connector.PROXY_HOST);
+			final int proxyPort = context.getSessionObject().getProperty(Connector.PROXY_PORT);
+			Proxy.Type proxyType = context.getSessionObject().getProperty(Connector.PROXY_TYPE);
+			if (proxyType == null)
+				proxyType = Proxy.Type.HTTP;
+
+			log.info("Using " + proxyType + " proxy: " + proxyHost + ":" + proxyPort);
+
+			SocketAddress addr = new InetSocketAddress(proxyHost, proxyPort);
+			Proxy proxy = new Proxy(proxyType, addr);
+			s = new Socket(proxy);
+		} else {
+			s = new Socket();
+		}
+
+		// if
+		// (context.getSessionObject().getProperty(DISABLE_SOCKET_TIMEOUT_KEY)
+		// == null
+		// || ((Boolean)
+		// context.getSessionObject().getProperty(DISABLE_SOCKET_TIMEOUT_KEY)).booleanValue())
+		// {
+		// socket.setSoTimeout(DEFAULT_SOCKET_TIMEOUT);
+		// }
+		Integer soTimeout = getTimeout(PLAIN_SOCKET_TIMEOUT_KEY, DEFAULT_SOCKET_TIMEOUT);
+		if (soTimeout != null)
+			s.setSoTimeout(soTimeout);
+		s.setKeepAlive(false);
+		s.setTcpNoDelay(true);
+		return s;
+	}
+
+	/**
+	 * Called when connection to server is established.
+	 *
+	 * @param s
+	 *            connected socket
+	 */
+	protected void socketConnected(Socket s) throws IOException {
+		socket = s;
+		// writer = new BufferedOutputStream(socket.getOutputStream());
+		writer = socket.getOutputStream();
+		reader = new TextStreamReader(socket.getInputStream());
+	}
+
+	/**
+	 * Starts reading data received from server.
+	 */
+	protected void startWorker() {
+		worker = new Worker(this) {
+
+			@Override
+			protected Reader getReader() {
+				return SocketConnector.this.reader;
+			}
+
+			@Override
+			protected WireTap getWireTap() {
+				return SocketConnector.this.wireTap;
+			}
+
+			@Override
+			protected void onErrorInThread(Exception e) throws JaxmppException {
+				SocketConnector.this.onErrorInThread(e);
+			}
+
+			@Override
+			protected void onStreamStart(Map<String, String> attribs) {
+				SocketConnector.this.onStreamStart(attribs);
+			}
+
+			@Override
+			protected void onStreamTerminate() throws JaxmppException {
+				SocketConnector.this.onStreamTerminate();
+			}
+
+			@Override
+			protected void processElement(Element elem) throws JaxmppException {
+				SocketConnector.this.processElement(elem);
+			}
+
+			@Override
+			protected void workerTerminated() {
+				SocketConnector.this.workerTerminated();
+			}
+
+		};
+		worker.setFreeze(isFreezeReceivedEnabled());
+		worker.setLazyPayload(isLazyPayloadEnabled());
+		worker.setStreamingHandlers(getStreamingHandlers());
+		log.finest("Starting worker...");
+		worker.start((ThreadFactory) context.getSessionObject().getProperty(Jaxmpp.THREAD_FACTORY_KEY));
+	}
+
 	public void startTLS() throws JaxmppException {
 		if (writer != null)
 			try {
@@ -839,11 +1457,10 @@ public class SocketConnector implements Connector {
 		}
 		// setStage(State.disconnected);
 		if (socket != null && socket.isConnected()) {
-			if (closeTimer != null) {
-				closeTimer.cancel();
+			if (closeTask != null) {
+				closeTask.cancel();
 			}
-			closeTimer = new Timer();
-			closeTimer.schedule(new TimerTask() {
+			closeTask = HashedWheelTimer.getInstance().schedule(new Runnable() {
 				@Override
 				public void run() {
 					try {
@@ -852,12 +1469,9 @@ public class SocketConnector implements Connector {
 					}
 					context = null;
 					closeSocket();
-					if (closeTimer != null) {
-						closeTimer.cancel();
-						closeTimer = null;
-					}
+					closeTask = null;
 				}
-			}, 3 * 1000);
+			}, 3 * 1000, 0, (ThreadFactory) context.getSessionObject().getProperty(Jaxmpp.THREAD_FACTORY_KEY));
 		} else {
 			try {
 				setStage(State.disconnected);
@@ -872,14 +1486,6 @@ public class SocketConnector implements Connector {
 		// } catch (Exception e) {
 		// log.log(Level.FINEST, "Problem with interrupting w2", e);
 		// }
-		try {
-			if (timer != null)
-				timer.cancel();
-		} catch (Exception e) {
-			log.log(Level.FINEST, "Problem with canceling timer", e);
-		} finally {
-			timer = null;
-		}
 	}
 
 	private void terminateStream() throws JaxmppException {
@@ -893,11 +1499,11 @@ public class SocketConnector implements Connector {
 			log.fine("Stream terminate not sent, because of connection state==" + state);
 	}
 
-	private void workerTerminated(final Worker worker) {
+	protected void workerTerminated() {
 		try {
-			if (closeTimer != null) {
-				closeTimer.cancel();
-				closeTimer = null;
+			if (closeTask != null) {
+				closeTask.cancel();
+				closeTask = null;
 			}
 			setStage(State.disconnected);
 		} catch (JaxmppException e) {
@@ -917,6 +1523,23 @@ public class SocketConnector implements Connector {
 		}
 	}
 
+	/**
+	 * Resolver which also provides targets accepting Direct TLS connections
+	 * (<code>_xmpps-client._tcp</code> SRV records, XEP-0368).
+	 */
+	public interface DirectTlsDnsResolver extends DnsResolver {
+
+		/**
+		 * Returns Direct TLS targets of domain.
+		 *
+		 * @param hostname
+		 *            domain name.
+		 * @return list of targets, empty if domain doesn't provide Direct
+		 *         TLS.
+		 */
+		List<Entry> resolveDirectTls(String hostname);
+	}
+
 	public interface DnsResolver {
 
 		List<Entry> resolve(String hostname);
@@ -945,13 +1568,20 @@ public class SocketConnector implements Connector {
 
 	public final static class Entry {
 
+		private final boolean directTls;
+
 		private final String hostname;
 
 		private final Integer port;
 
 		public Entry(String host, Integer port) {
+			this(host, port, false);
+		}
+
+		public Entry(String host, Integer port, boolean directTls) {
 			this.hostname = host;
 			this.port = port;
+			this.directTls = directTls;
 		}
 
 		public String getHostname() {
@@ -962,11 +1592,34 @@ public class SocketConnector implements Connector {
 			return port;
 		}
 
+		/**
+		 * Returns <code>true</code> if TLS should be established immediately
+		 * after connecting.
+		 */
+		public boolean isDirectTls() {
+			return directTls;
+		}
+
 		@Override
 		public String toString() {
-			return hostname + ":" + port;
+			return hostname + ":" + port + (directTls ? " (Direct TLS)" : "");
 		}
 
 	}
 
+	private static final class OutboundItem {
+
+		private final byte[] data;
+
+		private final SendFuture future;
+
+		private final Element stanza;
+
+		OutboundItem(Element stanza, byte[] data, SendFuture future) {
+			this.stanza = stanza;
+			this.data = data;
+			this.future = future;
+		}
+	}
+
 }
@@ -24,30 +24,40 @@ import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 
-import static tigase.jaxmpp.j2se.connectors.socket.SocketConnector.DEFAULT_SOCKET_BUFFER_SIZE;
-
 /**
  * TextStreamReader class replaces standard InputStreamReader as it cannot read from
- * InflaterInputStream.
+ * InflaterInputStream. Byte buffer is taken from {@link ReadBufferPool} only
+ * for time of reading and decoding data.
  *
  * @author andrzej
  */
 public class TextStreamReader implements Reader {
 
-	private final ByteBuffer buf = ByteBuffer.allocate(DEFAULT_SOCKET_BUFFER_SIZE);
+	private ByteBuffer buf;
 
 	private final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder();
 
 	private final InputStream inputStream;
 
+	private final ReadBufferPool pool;
+
 	public TextStreamReader(InputStream inputStream) {
+		this(inputStream, ReadBufferPool.getInstance());
+	}
+
+	public TextStreamReader(InputStream inputStream, ReadBufferPool pool) {
 		this.inputStream = inputStream;
+		this.pool = pool;
 	}
 
 	@Override
 	public int read(char[] cbuf) throws IOException {
+		buf = pool.resize(buf, cbuf.length);
 		byte[] arr = buf.array();
-		int read = inputStream.read(arr, buf.position(), buf.remaining());
+		// number of decoded chars is never bigger than number of bytes, so
+		// we read no more than fits to cbuf and nothing is left undecoded
+		int len = Math.min(buf.remaining(), Math.max(cbuf.length - buf.position(), 0));
+		int read = inputStream.read(arr, buf.position(), len);
 		if (read >= 0) {
 			buf.position(buf.position() + read);
 		}
@@ -58,6 +68,13 @@ public class TextStreamReader implements Reader {
 		buf.compact();
 		cb.flip();
 
+		if (buf.position() == 0) {
+			// no partial character left, buffer may be used by other
+			// connection
+			pool.release(buf);
+			buf = null;
+		}
+
 		return cb.hasRemaining() ? cb.remaining() : (read < 0 ? -1 : 0);
 	}
 
@@ -0,0 +1,56 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+/**
+ * Observer of data transferred by connector. Tap is set in session object
+ * with {@link SocketConnector#WIRE_TAP_KEY} before connecting. When it is not
+ * set connector doesn't copy, decode or format any transferred data.
+ * <p>
+ * Methods are called from connector I/O threads, so implementations have to
+ * be fast and must not keep references to passed arrays.
+ * </p>
+ */
+public interface WireTap {
+
+	/**
+	 * Called with characters received from server, before they are parsed.
+	 *
+	 * @param data
+	 *            buffer with received characters.
+	 * @param off
+	 *            offset of first character.
+	 * @param len
+	 *            number of characters.
+	 */
+	void onDataReceived(char[] data, int off, int len);
+
+	/**
+	 * Called with UTF-8 encoded data before it is written to connection (and
+	 * before it is compressed or encrypted).
+	 *
+	 * @param data
+	 *            buffer with sent data.
+	 * @param off
+	 *            offset of first byte.
+	 * @param len
+	 *            number of bytes.
+	 */
+	void onDataSent(byte[] data, int off, int len);
+
+}
@@ -20,33 +20,35 @@ package tigase.jaxmpp.j2se.connectors.socket;
 import tigase.jaxmpp.core.client.Connector;
 import tigase.jaxmpp.core.client.exceptions.JaxmppException;
 import tigase.jaxmpp.core.client.xml.Element;
-import tigase.jaxmpp.j2se.xml.J2seElement;
+import tigase.jaxmpp.core.client.xml.StreamingHandlers;
 import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
 
 import java.util.Map;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static tigase.jaxmpp.j2se.connectors.socket.SocketConnector.DEFAULT_SOCKET_BUFFER_SIZE;
-
 /**
+ * Reads and parses data received from connection. Worker used to extend
+ * {@link Thread}; it is a {@link Runnable} now, so it may be run in thread
+ * created by any factory. Methods of thread which were used on workers are
+ * delegated to thread running worker, others are available through
+ * {@link #getThread()}.
  *
  * @author andrzej
  */
-public abstract class Worker extends Thread {
-
-	private final char[] buffer = new char[DEFAULT_SOCKET_BUFFER_SIZE];
+public abstract class Worker implements Runnable {
 
 	private final Connector connector;
 
-	private final XMPPDomBuilderHandler domHandler = new XMPPDomBuilderHandler(new StreamListener() {
+	private final ElementBuilderHandler domHandler = new ElementBuilderHandler(new ElementStreamListener() {
 
 		@Override
-		public void nextElement(tigase.xml.Element element) {
+		public void nextElement(Element element) {
 			try {
 				try {
-					processElement(new J2seElement(element));
+					processElement(element);
 				} catch (JaxmppException e) {
 					onErrorInThread(e);
 				}
@@ -80,18 +82,171 @@ public abstract class Worker extends Thread {
 
 	private final SimpleParser parser = SingletonFactory.getParserInstance();
 
+	private final ReadBufferPool pool = ReadBufferPool.getInstance();
+
+	private volatile boolean interrupted;
+
+	private volatile String name;
+
+	/**
+	 * Thread running worker, <code>null</code> before worker is started.
+	 */
+	private volatile Thread thread;
+
 	public Worker(Connector connector) {
 		this.connector = connector;
 	}
 
+	/**
+	 * Returns name of worker set by {@link #setName(String)}, or name of
+	 * thread running worker.
+	 */
+	public String getName() {
+		final String n = name;
+		if (n != null)
+			return n;
+		final Thread t = thread;
+		return t == null ? null : t.getName();
+	}
+
 	protected abstract Reader getReader();
 
-	@Override
+	/**
+	 * Returns thread running worker.
+	 *
+	 * @return thread or <code>null</code> if worker is not started yet.
+	 */
+	public Thread getThread() {
+		return thread;
+	}
+
+	/**
+	 * Returns tap notified about received data.
+	 *
+	 * @return tap or <code>null</code> if data is not tapped.
+	 */
+	protected WireTap getWireTap() {
+		return null;
+	}
+
+	/**
+	 * Starts worker in new platform thread.
+	 */
+	public void start() {
+		start(null);
+	}
+
+	/**
+	 * Starts worker in thread created by given factory.
+	 *
+	 * @param threadFactory
+	 *            thread factory, if <code>null</code> worker is started as
+	 *            usual platform thread.
+	 */
+	public void start(ThreadFactory threadFactory) {
+		final Thread t = threadFactory == null ? new Thread(this) : threadFactory.newThread(this);
+		thread = t;
+		if (name != null)
+			t.setName(name);
+		t.start();
+	}
+
+	/**
+	 * Checks if thread running worker is alive.
+	 */
+	public boolean isAlive() {
+		final Thread t = thread;
+		return t != null && t.isAlive();
+	}
+
+	/**
+	 * Waits until worker finishes. Returns immediately if worker is not
+	 * started.
+	 */
+	public void join() throws InterruptedException {
+		join(0);
+	}
+
+	/**
+	 * Waits at most given time until worker finishes. Returns immediately if
+	 * worker is not started.
+	 *
+	 * @param millis
+	 *            time to wait in milliseconds, <code>0</code> means forever.
+	 */
+	public void join(long millis) throws InterruptedException {
+		final Thread t = thread;
+		if (t != null)
+			t.join(millis);
+	}
+
+	/**
+	 * Sets name of worker. Name is applied to thread running worker.
+	 *
+	 * @param name
+	 *            name of worker.
+	 */
+	public void setName(String name) {
+		this.name = name;
+		final Thread t = thread;
+		if (t != null)
+			t.setName(name);
+	}
+
+	/**
+	 * Stops worker. Thread running worker is interrupted.
+	 */
 	public void interrupt() {
-		super.interrupt();
+		interrupted = true;
+		final Thread t = thread;
+		if (t != null)
+			t.interrupt();
 		log.log(Level.FINE, "Worker Interrupted");
 	}
 
+	/**
+	 * Checks if worker is stopped.
+	 */
+	public boolean isInterrupted() {
+		final Thread t = thread;
+		return interrupted || (t != null && t.isInterrupted());
+	}
+
+	/**
+	 * Enables or disables freezing of received stanzas.
+	 *
+	 * @param freeze
+	 *            <code>true</code> if stanzas should be frozen.
+	 * @see ElementBuilderHandler#setFreeze(boolean)
+	 */
+	public void setFreeze(boolean freeze) {
+		domHandler.setFreeze(freeze);
+	}
+
+	/**
+	 * Enables or disables lazy building of payload of received stanzas.
+	 *
+	 * @param lazyPayload
+	 *            <code>true</code> if children of stanzas should be built on
+	 *            first access.
+	 * @see ElementBuilderHandler#setLazyPayload(boolean)
+	 */
+	public void setLazyPayload(boolean lazyPayload) {
+		domHandler.setLazyPayload(lazyPayload);
+	}
+
+	/**
+	 * Sets registry of handlers receiving elements of stanzas as soon as they
+	 * are parsed.
+	 *
+	 * @param streamingHandlers
+	 *            registry or <code>null</code> to disable streaming.
+	 * @see ElementBuilderHandler#setStreamingHandlers(StreamingHandlers)
+	 */
+	public void setStreamingHandlers(StreamingHandlers streamingHandlers) {
+		domHandler.setStreamingHandlers(streamingHandlers);
+	}
+
 	protected abstract void onErrorInThread(Exception e) throws JaxmppException;
 
 	protected abstract void onStreamStart(Map<String, String> attribs);
@@ -102,16 +257,28 @@ public abstract class Worker extends Thread {
 
 	@Override
 	public void run() {
-		super.run();
+		// factory may wrap task, so actual thread is known only here
+		thread = Thread.currentThread();
+		if (name != null)
+			thread.setName(name);
 		log.finest(hashCode() + " Starting " + this);
 
 		int r = -2;
+		char[] buffer = pool.acquireChars(ReadBufferPool.MIN_BUFFER_SIZE);
 		try {
 			Reader reader;// = getReader();
 			while ((reader = getReader()) != null && !isInterrupted() && (r = reader.read(buffer)) != -1
 					&& connector.getState() != Connector.State.disconnected) {
-				log.info("Received:"+new String(buffer));
+				final WireTap tap = getWireTap();
+				if (tap != null)
+					tap.onDataReceived(buffer, 0, r);
 				parser.parse(domHandler, buffer, 0, r);
+
+				final int size = ReadBufferPool.nextSize(buffer.length, r);
+				if (size != buffer.length) {
+					pool.release(buffer);
+					buffer = pool.acquireChars(size);
+				}
 			}
 			// if (log.isLoggable(Level.FINEST))
 			log.finest(hashCode() + "Disconnecting: state=" + connector.getState() + "; buffer=" + r + "   " + this);
@@ -128,7 +295,9 @@ public abstract class Worker extends Thread {
 				}
 			}
 		} finally {
-			interrupt();
+			pool.release(buffer);
+			// thread itself is not interrupted, it may be reused by factory
+			interrupted = true;
 			log.finest("Worker2 is interrupted");
 			workerTerminated();
 		}
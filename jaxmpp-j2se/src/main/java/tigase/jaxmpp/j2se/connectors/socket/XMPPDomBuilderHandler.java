@@ -25,10 +25,10 @@ import java.util.EmptyStackException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Stack;
-import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import tigase.jaxmpp.j2se.xml.SymbolTable;
 import tigase.xml.DefaultElementFactory;
 import tigase.xml.Element;
 import tigase.xml.ElementFactory;
@@ -68,9 +68,10 @@ public class XMPPDomBuilderHandler implements SimpleHandler {
 	private ElementFactory customFactory = null;
 	private Stack<Element> el_stack = new Stack<Element>();
 	private boolean error = false;
-	private Map<String, String> namespaces = new TreeMap<String, String>();
+	private final NamespaceScopes namespaces = new NamespaceScopes();
 	private Object parserState = null;
 	private StreamListener service = null;
+	private final SymbolTable symbols = SymbolTable.getInstance();
 
 	// ~--- constructors
 	// ---------------------------------------------------------
@@ -134,7 +135,9 @@ public class XMPPDomBuilderHandler implements SimpleHandler {
 			log.finest("End element name: " + name);
 		}
 
-		String tmp_name = name.toString();
+		namespaces.close();
+
+		String tmp_name = symbols.get(name);
 
 		if (tmp_name.equals(ELEM_STREAM_STREAM)) {
 			service.xmppStreamClosed();
@@ -249,6 +252,12 @@ public class XMPPDomBuilderHandler implements SimpleHandler {
 			log.finest("Element attributes values: " + Arrays.toString(attr_values));
 		}
 
+		if (el_stack.isEmpty() && ELEM_STREAM_STREAM.contentEquals(name)) {
+			// restarted stream doesn't inherit anything from previous one
+			namespaces.clear();
+		}
+		namespaces.open();
+
 		// Look for 'xmlns:' declarations:
 		if (attr_names != null) {
 			for (int i = 0; i < attr_names.length; ++i) {
@@ -260,11 +269,8 @@ public class XMPPDomBuilderHandler implements SimpleHandler {
 
 				if (attr_names[i].toString().startsWith("xmlns:")) {
 
-					// TODO should use a StringCache instead of intern() to
-					// avoid potential
-					// DOS by exhausting permgen
-					namespaces.put(attr_names[i].substring("xmlns:".length(), attr_names[i].length()).intern(),
-							attr_values[i].toString());
+					namespaces.declare(symbols.get(attr_names[i], "xmlns:".length(), attr_names[i].length()),
+							symbols.get(attr_values[i]));
 
 					if (log.isLoggable(Level.FINEST)) {
 						log.finest("Namespace found: " + attr_values[i].toString());
@@ -273,7 +279,7 @@ public class XMPPDomBuilderHandler implements SimpleHandler {
 			} // end of for (String att_name : attnames)
 		} // end of if (attr_names != null)
 
-		String tmp_name = name.toString();
+		String tmp_name = symbols.get(name);
 
 		if (tmp_name.equals(ELEM_STREAM_STREAM)) {
 			Map<String, String> attribs = new HashMap<String, String>();
@@ -299,7 +305,7 @@ public class XMPPDomBuilderHandler implements SimpleHandler {
 		int idx = tmp_name.indexOf(':');
 
 		if (idx > 0) {
-			tmp_name_prefix = tmp_name.substring(0, idx);
+			tmp_name_prefix = symbols.get(tmp_name, 0, idx);
 
 			if (log.isLoggable(Level.FINEST)) {
 				log.finest("Found prefixed element name, prefix: " + tmp_name_prefix);
@@ -307,17 +313,15 @@ public class XMPPDomBuilderHandler implements SimpleHandler {
 		}
 
 		if (tmp_name_prefix != null) {
-			for (String pref : namespaces.keySet()) {
-				if (tmp_name_prefix.equals(pref)) {
-					new_xmlns = namespaces.get(pref);
-					tmp_name = tmp_name.substring(pref.length() + 1, tmp_name.length());
-					prefix = pref;
+			new_xmlns = namespaces.resolve(tmp_name_prefix);
+			if (new_xmlns != null) {
+				tmp_name = symbols.get(tmp_name, idx + 1, tmp_name.length());
+				prefix = tmp_name_prefix;
 
-					if (log.isLoggable(Level.FINEST)) {
-						log.finest("new_xmlns = " + new_xmlns);
-					}
-				} // end of if (tmp_name.startsWith(xmlns))
-			} // end of for (String xmlns: namespaces.keys())
+				if (log.isLoggable(Level.FINEST)) {
+					log.finest("new_xmlns = " + new_xmlns);
+				}
+			}
 		}
 
 		Element elem = newElement(tmp_name, null, attr_names, attr_values);
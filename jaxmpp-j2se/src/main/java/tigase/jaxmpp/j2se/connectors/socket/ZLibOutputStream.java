@@ -0,0 +1,121 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream compressing data with ZLIB. Unlike
+ * {@link java.util.zip.DeflaterOutputStream} wrapped in
+ * {@link OutputStreamFlushWrap} it doesn't flush compressor on every write.
+ * Compressed data is flushed only when {@link #flush()} is called, which
+ * {@link SocketConnector} does once per batch of stanzas.
+ */
+public class ZLibOutputStream extends OutputStream {
+
+	/**
+	 * <code>false</code> if {@link Deflater#deflate(byte[], int, int, int)} is
+	 * not available (Java 6 and older Android versions).
+	 */
+	private static volatile boolean flushModeSupported = true;
+
+	private final byte[] buffer;
+
+	private final Deflater deflater;
+
+	private final int flushMode;
+
+	private final int level;
+
+	private final OutputStream outputStream;
+
+	/**
+	 * Creates stream.
+	 *
+	 * @param outputStream
+	 *            stream to which compressed data will be written.
+	 * @param deflater
+	 *            compressor.
+	 * @param level
+	 *            compression level set in compressor.
+	 * @param flushMode
+	 *            {@link Deflater#SYNC_FLUSH} or {@link Deflater#FULL_FLUSH}.
+	 */
+	public ZLibOutputStream(OutputStream outputStream, Deflater deflater, int level, int flushMode) {
+		this.outputStream = outputStream;
+		this.deflater = deflater;
+		this.level = level;
+		this.flushMode = flushMode;
+		this.buffer = new byte[SocketConnector.DEFAULT_SOCKET_BUFFER_SIZE];
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		outputStream.close();
+	}
+
+	private void deflate() throws IOException {
+		int n;
+		while ((n = deflater.deflate(buffer, 0, buffer.length)) > 0) {
+			outputStream.write(buffer, 0, n);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (flushModeSupported) {
+			try {
+				int n;
+				do {
+					n = deflater.deflate(buffer, 0, buffer.length, flushMode);
+					outputStream.write(buffer, 0, n);
+				} while (n == buffer.length);
+			} catch (NoSuchMethodError e) {
+				flushModeSupported = false;
+			}
+		}
+		if (!flushModeSupported) {
+			// changing compression level forces compressor to flush pending
+			// data, this worked fine on Java 6
+			deflater.setLevel(Deflater.NO_COMPRESSION);
+			deflate();
+			deflater.setLevel(level);
+			deflate();
+		}
+		outputStream.flush();
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return;
+		deflater.setInput(b, off, len);
+		while (!deflater.needsInput()) {
+			deflate();
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+}
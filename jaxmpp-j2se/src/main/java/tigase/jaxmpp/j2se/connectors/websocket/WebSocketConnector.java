@@ -19,6 +19,7 @@ package tigase.jaxmpp.j2se.connectors.websocket;
 
 import tigase.jaxmpp.core.client.Base64;
 import tigase.jaxmpp.core.client.Connector;
+import tigase.jaxmpp.core.client.Connector.StanzaSendingHandler.StanzaSendingEvent;
 import tigase.jaxmpp.core.client.Context;
 import tigase.jaxmpp.core.client.SessionObject;
 import tigase.jaxmpp.core.client.connector.AbstractBoshConnector;
@@ -28,9 +29,13 @@ import tigase.jaxmpp.core.client.exceptions.JaxmppException;
 import tigase.jaxmpp.core.client.xml.Element;
 import tigase.jaxmpp.core.client.xml.XMLException;
 import tigase.jaxmpp.core.client.xmpp.utils.MutableBoolean;
+import tigase.jaxmpp.j2se.HashedWheelTimer;
+import tigase.jaxmpp.j2se.Jaxmpp;
 import tigase.jaxmpp.j2se.connectors.socket.Reader;
 import tigase.jaxmpp.j2se.connectors.socket.SocketConnector;
+import tigase.jaxmpp.j2se.connectors.socket.WireTap;
 import tigase.jaxmpp.j2se.connectors.socket.Worker;
+import tigase.jaxmpp.j2se.xml.ElementSerializer;
 
 import javax.net.ssl.*;
 import java.io.IOException;
@@ -42,6 +47,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 
 import static tigase.jaxmpp.j2se.connectors.socket.SocketConnector.*;
@@ -64,19 +70,20 @@ public class WebSocketConnector extends AbstractWebSocketConnector {
 	private static final String WEB_SOCKET_TIMEOUT_KEY = "WEB_SOCKET_TIMEOUT_KEY";
 
 	private final Object ioMutex = new Object();
-	private TimerTask pingTask;
+	private HashedWheelTimer.Timeout pingTask;
 	private Reader reader = null;
 	private Socket socket = null;
 
-	private Timer timer = null;
-
 	private Worker worker = null;
 
+	private volatile WireTap wireTap;
+
 	private OutputStream writer = null;
 
 	private Random random = new SecureRandom();
 	private byte[] mask = new byte[4];
-	private Timer closeTimer;
+	private final ElementSerializer serializer = new ElementSerializer();
+	private HashedWheelTimer.Timeout closeTask;
 
 	public WebSocketConnector(Context context) {
 		super(context);
@@ -212,35 +219,10 @@ public class WebSocketConnector extends AbstractWebSocketConnector {
 				try {
 					if (log.isLoggable(Level.FINEST))
 						log.finest("Send: " + new String(buffer));
+					if (wireTap != null)
+						wireTap.onDataSent(buffer, 0, buffer.length);
 
-					// prepare WebSocket header according to Hybi specification
-					int size = buffer.length;
-					random.nextBytes(mask);
-					byte maskedLen = (byte) 0x80;
-					ByteBuffer bbuf = ByteBuffer.allocate(12);
-					bbuf.put((byte) 0x81);
-					if (size <= 125) {
-						maskedLen |= (byte) size;
-						bbuf.put(maskedLen);
-					} else if (size <= 0xFFFF) {
-						maskedLen |= (byte) 0x7E;
-						bbuf.put(maskedLen);
-						bbuf.putShort((short) size);
-					} else {
-						maskedLen |= (byte) 0x7F;
-						bbuf.put(maskedLen);
-						bbuf.putLong(size);
-					}
-					bbuf.flip();
-					writer.write(bbuf.array(), 0, bbuf.remaining());
-					writer.write(mask, 0, 4);
-
-					for (int i = 0; i < buffer.length; i++) {
-						buffer[i] = (byte) (buffer[i] ^ mask[i % 4]);
-					}
-					// send actual data
-					writer.write(buffer);
-					writer.flush();
+					sendFrame(buffer, buffer.length);
 				} catch (IOException e) {
 					throw new JaxmppException(e);
 
@@ -250,12 +232,62 @@ public class WebSocketConnector extends AbstractWebSocketConnector {
 
 	@Override
 	public void send(Element stanza) throws XMLException, JaxmppException {
+		if (stanza == null)
+			return;
 		synchronized (ioMutex) {
 			if (writer != null)
-				super.send(stanza);
+				try {
+					try {
+						context.getEventBus().fire(new StanzaSendingEvent(context.getSessionObject(), stanza));
+					} catch (Exception e) {
+					}
+					serializer.reset();
+					serializer.append(stanza, context.getSessionObject().getProperty(SERIALIZATION_CACHE_KEY) == Boolean.TRUE);
+					if (log.isLoggable(Level.FINEST))
+						log.finest("Send: " + new String(serializer.getBuffer(), 0, serializer.size(), UTF_CHARSET));
+					if (wireTap != null)
+						wireTap.onDataSent(serializer.getBuffer(), 0, serializer.size());
+
+					sendFrame(serializer.getBuffer(), serializer.size());
+				} catch (IOException e) {
+					throw new JaxmppException(e);
+				}
 		}
 	}
 
+	/**
+	 * Sends data as single WebSocket frame. Data in buffer is masked in place.
+	 */
+	private void sendFrame(byte[] buffer, int size) throws IOException {
+		// prepare WebSocket header according to Hybi specification
+		random.nextBytes(mask);
+		byte maskedLen = (byte) 0x80;
+		ByteBuffer bbuf = ByteBuffer.allocate(12);
+		bbuf.put((byte) 0x81);
+		if (size <= 125) {
+			maskedLen |= (byte) size;
+			bbuf.put(maskedLen);
+		} else if (size <= 0xFFFF) {
+			maskedLen |= (byte) 0x7E;
+			bbuf.put(maskedLen);
+			bbuf.putShort((short) size);
+		} else {
+			maskedLen |= (byte) 0x7F;
+			bbuf.put(maskedLen);
+			bbuf.putLong(size);
+		}
+		bbuf.flip();
+		writer.write(bbuf.array(), 0, bbuf.remaining());
+		writer.write(mask, 0, 4);
+
+		for (int i = 0; i < size; i++) {
+			buffer[i] = (byte) (buffer[i] ^ mask[i % 4]);
+		}
+		// send actual data
+		writer.write(buffer, 0, size);
+		writer.flush();
+	}
+
 	@Override
 	public void send(final String data) throws JaxmppException {
 		if (getState() == State.connected || getState() == State.connecting || getState() == State.disconnecting) {
@@ -268,14 +300,8 @@ public class WebSocketConnector extends AbstractWebSocketConnector {
 	@Override
 	public void start() throws XMLException, JaxmppException {
 		log.fine("Start connector.");
+		wireTap = context.getSessionObject().getProperty(SocketConnector.WIRE_TAP_KEY);
 		super.start();
-		if (timer != null) {
-			try {
-				timer.cancel();
-			} catch (Exception e) {
-			}
-		}
-		timer = new Timer(true);
 
 		if (context.getSessionObject().getProperty(HOSTNAME_VERIFIER_DISABLED_KEY) == Boolean.TRUE) {
 			context.getSessionObject().setProperty(HOSTNAME_VERIFIER_KEY, null);
@@ -370,6 +396,11 @@ public class WebSocketConnector extends AbstractWebSocketConnector {
 					return reader;
 				}
 
+				@Override
+				protected WireTap getWireTap() {
+					return wireTap;
+				}
+
 				@Override
 				protected void onErrorInThread(Exception e) throws JaxmppException {
 					WebSocketConnector.this.onErrorInThread(e);
@@ -403,26 +434,21 @@ public class WebSocketConnector extends AbstractWebSocketConnector {
 			//reader = new WebSocketReader(new BufferedInputStream(socket.getInputStream()));
 			reader = new WebSocketReader(socket.getInputStream());
 			log.finest("Starting worker...");
-			worker.start();
+			worker.start((ThreadFactory) context.getSessionObject().getProperty(Jaxmpp.THREAD_FACTORY_KEY));
 
 			restartStream();
 
 			setStage(State.connected);
 
-			this.pingTask = new TimerTask() {
+			final Runnable keepaliveTask = new Runnable() {
 
 				@Override
 				public void run() {
-					new Thread() {
-						@Override
-						public void run() {
-							try {
-								keepalive();
-							} catch (JaxmppException e) {
-								log.log(Level.SEVERE, "Can't ping!", e);
-							}
-						}
-					}.start();
+					try {
+						keepalive();
+					} catch (JaxmppException e) {
+						log.log(Level.SEVERE, "Can't ping!", e);
+					}
 				}
 			};
 			if (context.getSessionObject().getProperty(EXTERNAL_KEEPALIVE_KEY) == null
@@ -436,7 +462,8 @@ public class WebSocketConnector extends AbstractWebSocketConnector {
 					log.config("Whitespace ping period is setted to " + delay + "ms");
 
 				if (delay != null)
-					timer.schedule(pingTask, delay, delay);
+					this.pingTask = HashedWheelTimer.getInstance().schedule(keepaliveTask, delay, delay,
+							(ThreadFactory) context.getSessionObject().getProperty(Jaxmpp.THREAD_FACTORY_KEY));
 			}
 
 			fireOnConnected(context.getSessionObject());
@@ -456,23 +483,21 @@ public class WebSocketConnector extends AbstractWebSocketConnector {
 		}
 //		setStage(State.disconnected);
 		if (socket != null && socket.isConnected()) {
-			if (closeTimer != null) {
-				closeTimer.cancel();
+			if (closeTask != null) {
+				closeTask.cancel();
 			}
-			closeTimer = new Timer();
-			closeTimer.schedule(new TimerTask() {
+			closeTask = HashedWheelTimer.getInstance().schedule(new Runnable() {
 				@Override
 				public void run() {
 					closeSocket();
-					closeTimer.cancel();
 					try {
 						setStage(State.disconnected);
 					} catch (JaxmppException ex) {
 						log.log(Level.FINEST, "Exception while updating connector state during connection close", ex);
 					}
-					closeTimer = null;
+					closeTask = null;
 				}
-			}, 3 * 1000);
+			}, 3 * 1000, 0, (ThreadFactory) context.getSessionObject().getProperty(Jaxmpp.THREAD_FACTORY_KEY));
 			// sending websocket close
 
 			//socket.close();
@@ -487,21 +512,13 @@ public class WebSocketConnector extends AbstractWebSocketConnector {
 //		} catch (Exception e) {
 //			log.log(Level.FINEST, "Problem with interrupting w2", e);
 //		}
-		try {
-			if (timer != null)
-				timer.cancel();
-		} catch (Exception e) {
-			log.log(Level.FINEST, "Problem with canceling timer", e);
-		} finally {
-			timer = null;
-		}
 	}
 
 	private void workerTerminated(final Worker worker) {
 		try {
-			if (closeTimer != null) {
-				closeTimer.cancel();
-				closeTimer = null;
+			if (closeTask != null) {
+				closeTask.cancel();
+				closeTask = null;
 			}
 			setStage(State.disconnected);
 		} catch (JaxmppException e) {
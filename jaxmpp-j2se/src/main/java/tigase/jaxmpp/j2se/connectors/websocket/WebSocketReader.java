@@ -17,6 +17,7 @@
  */
 package tigase.jaxmpp.j2se.connectors.websocket;
 
+import tigase.jaxmpp.j2se.connectors.socket.ReadBufferPool;
 import tigase.jaxmpp.j2se.connectors.socket.Reader;
 
 import java.io.IOException;
@@ -28,8 +29,6 @@ import java.nio.charset.CharsetDecoder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static tigase.jaxmpp.j2se.connectors.socket.SocketConnector.DEFAULT_SOCKET_BUFFER_SIZE;
-
 /**
  *
  * @author andrzej
@@ -38,20 +37,33 @@ public class WebSocketReader implements Reader {
 
 	private static final Logger log = Logger.getLogger(WebSocketReader.class.getCanonicalName());
 	
-	private final ByteBuffer buf = ByteBuffer.allocate(DEFAULT_SOCKET_BUFFER_SIZE);
+	private ByteBuffer buf;
 
 	private final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder();
 
 	private final InputStream inputStream;
 	
+	private final ReadBufferPool pool;
+
 	private long remaining = 0;
 
 	public WebSocketReader(InputStream inputStream) {
+		this(inputStream, ReadBufferPool.getInstance());
+	}
+
+	public WebSocketReader(InputStream inputStream, ReadBufferPool pool) {
 		this.inputStream = inputStream;
+		this.pool = pool;
 	}
-	
+
+	private void releaseBuffer() {
+		pool.release(buf);
+		buf = null;
+	}
+
 	@Override
 	public int read(char[] cbuf) throws IOException {
+		buf = pool.resize(buf, cbuf.length);
 		byte[] arr = buf.array();
 		boolean closed = false;
 		int startBufPos = buf.position();
@@ -60,8 +72,10 @@ public class WebSocketReader implements Reader {
 			return 0;
 		if (read == -1) {
 			closed = true;
-			if (!buf.hasRemaining())
-				return -1;		
+			if (!buf.hasRemaining()) {
+				releaseBuffer();
+				return -1;
+			}
 			else
 				read = 0;
 		}
@@ -92,6 +106,7 @@ public class WebSocketReader implements Reader {
 						}
 
 					}
+					releaseBuffer();
 					return -1;
 				}
 				if (buf.hasRemaining()) {
@@ -131,13 +146,17 @@ public class WebSocketReader implements Reader {
 			}
 		}
 		buf.compact();
-		cb.flip();	
+		cb.flip();
+		if (buf.position() == 0) {
+			releaseBuffer();
+		}
 		if (log.isLoggable(Level.FINEST) && cb.hasRemaining()) {
 			char[] tmp = new char[cb.remaining()];
 			for (int i=0; i<tmp.length; i++) {
 				tmp[i] = cb.get(cb.position() + i);
 			}
-			log.log(Level.FINEST, "read data = " + new String(tmp) + ", still remaining = " + remaining + " and in buffer " + buf.remaining());
+			log.log(Level.FINEST, "read data = " + new String(tmp) + ", still remaining = " + remaining + " and in buffer "
+					+ (buf == null ? 0 : buf.position()));
 		}
 		
 		return cb.remaining();
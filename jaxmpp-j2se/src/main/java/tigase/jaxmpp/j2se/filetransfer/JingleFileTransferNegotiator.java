@@ -25,8 +25,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -47,6 +45,7 @@ import tigase.jaxmpp.core.client.xmpp.modules.jingle.Transport;
 import tigase.jaxmpp.core.client.xmpp.modules.presence.PresenceModule;
 import tigase.jaxmpp.core.client.xmpp.stanzas.Presence;
 import tigase.jaxmpp.core.client.xmpp.utils.DateTimeFormat;
+import tigase.jaxmpp.j2se.HashedWheelTimer;
 import tigase.jaxmpp.j2se.connection.ConnectionManager;
 import tigase.jaxmpp.j2se.connection.ConnectionSessionHandler;
 import tigase.jaxmpp.j2se.connection.socks5bytestream.JingleSocks5BytestreamsConnectionManager;
@@ -69,14 +68,13 @@ public class JingleFileTransferNegotiator extends FileTransferNegotiatorAbstract
 	private final JingleSocks5BytestreamsConnectionManager connectionManager = new JingleSocks5BytestreamsConnectionManager(
 			this);
 	private Map<String, FileTransfer> sessions = Collections.synchronizedMap(new HashMap<String, FileTransfer>());
-	private final Timer timer = new Timer();
 
 	@Override
 	public void acceptFile(JaxmppCore jaxmpp, tigase.jaxmpp.core.client.xmpp.modules.filetransfer.FileTransfer ft)
 			throws JaxmppException {
 		final String sid = ft.getSid();
 		sessions.put(sid, (FileTransfer) ft);
-		timer.schedule(new TimerTask() {
+		HashedWheelTimer.getInstance().schedule(new Runnable() {
 			@Override
 			public void run() {
 				sessions.remove(sid);
@@ -271,7 +269,7 @@ public class JingleFileTransferNegotiator extends FileTransferNegotiatorAbstract
 
 		List<Transport> transports = getTransports(jaxmpp, (FileTransfer) ft);
 		sessions.put(sid, (FileTransfer) ft);
-		timer.schedule(new TimerTask() {
+		HashedWheelTimer.getInstance().schedule(new Runnable() {
 			@Override
 			public void run() {
 				sessions.remove(sid);
@@ -0,0 +1,419 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import tigase.jaxmpp.core.client.xml.CachingElement;
+import tigase.jaxmpp.core.client.xml.CompactElement;
+import tigase.jaxmpp.core.client.xml.DefaultElement;
+import tigase.jaxmpp.core.client.xml.Element;
+import tigase.jaxmpp.core.client.xml.ElementWrapper;
+import tigase.jaxmpp.core.client.xml.XMLException;
+
+/**
+ * Serializes elements directly to UTF-8 encoded bytes. Escaping and encoding
+ * is done in single pass into internal buffer which is reused between
+ * stanzas, so no intermediate {@link String} is created for
+ * {@link DefaultElement} and {@link CompactElement} trees. Output is the same as
+ * {@link Element#getAsString()} encoded in UTF-8.
+ * <p>
+ * Serialized form of top-level {@link CachingElement} may be kept in element
+ * itself (see {@link #append(Element, boolean)}), so element sent more than
+ * once is serialized only once.
+ * </p>
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public class ElementSerializer {
+
+	/**
+	 * Default initial size of buffer.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Buffers bigger than this are not kept after {@link #reset()}.
+	 */
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+	private byte[] buffer;
+
+	private int count;
+
+	private final int initialCapacity;
+
+	public ElementSerializer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public ElementSerializer(int initialCapacity) {
+		this.initialCapacity = initialCapacity;
+		this.buffer = new byte[initialCapacity];
+	}
+
+	/**
+	 * Appends serialized element.
+	 *
+	 * @param element
+	 *            element to serialize.
+	 */
+	public void append(Element element) throws XMLException {
+		final Element parent = element.getParent();
+		append(element, parent == null ? null : parent.getXMLNS());
+	}
+
+	/**
+	 * Appends serialized element, optionally using serialized form cached in
+	 * element. Only elements without parent are cached, because serialized
+	 * form of nested element depends on namespace of its parent.
+	 *
+	 * @param element
+	 *            element to serialize.
+	 * @param useCache
+	 *            <code>true</code> if cached form should be used, or stored in
+	 *            element if it is not cached yet.
+	 */
+	public void append(Element element, boolean useCache) throws XMLException {
+		Element e = element;
+		while (e instanceof ElementWrapper) {
+			e = ((ElementWrapper) e).getWrappedElement();
+		}
+		if (!useCache || !(e instanceof CachingElement) || e.getParent() != null) {
+			append(element);
+			return;
+		}
+		final CachingElement ce = (CachingElement) e;
+		final byte[] cached = ce.getCachedBytes();
+		if (cached != null) {
+			append(cached, 0, cached.length);
+			return;
+		}
+		final int start = count;
+		append(e, null);
+		final byte[] data = new byte[count - start];
+		System.arraycopy(buffer, start, data, 0, data.length);
+		ce.setCachedBytes(data);
+	}
+
+	/**
+	 * Appends already encoded data.
+	 *
+	 * @param data
+	 *            UTF-8 encoded data.
+	 * @param offset
+	 *            offset of first byte.
+	 * @param length
+	 *            number of bytes.
+	 */
+	public void append(byte[] data, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(data, offset, buffer, count, length);
+		count += length;
+	}
+
+	private void append(Element element, String parentXmlns) throws XMLException {
+		while (element instanceof ElementWrapper) {
+			element = ((ElementWrapper) element).getWrappedElement();
+		}
+		if (element instanceof CompactElement) {
+			appendCompact((CompactElement) element, parentXmlns);
+			return;
+		}
+		if (!(element instanceof DefaultElement)) {
+			// other implementations may keep mixed content or already
+			// escaped data, so we rely on their own serialization
+			appendRaw(element.getAsString());
+			return;
+		}
+
+		final String name = element.getName();
+		final String xmlns = element.getXMLNS();
+		final String value = element.getValue();
+
+		appendAscii('<');
+		appendRaw(name);
+		if (xmlns != null && (parentXmlns == null || !parentXmlns.equals(xmlns))) {
+			appendRaw(" xmlns=\"");
+			appendEscaped(xmlns);
+			appendAscii('"');
+		}
+
+		final Map<String, String> attributes = element.getAttributes();
+		synchronized (attributes) {
+			for (Map.Entry<String, String> attr : attributes.entrySet()) {
+				appendAscii(' ');
+				appendRaw(attr.getKey());
+				appendRaw("=\"");
+				appendEscaped(attr.getValue());
+				appendAscii('"');
+			}
+		}
+
+		final List<Element> children = element.getChildren();
+		synchronized (children) {
+			final boolean empty = children.isEmpty() && value == null;
+			if (empty) {
+				appendAscii('/');
+			}
+			appendAscii('>');
+			for (Element child : children) {
+				append(child, xmlns);
+			}
+			if (value != null)
+				appendEscaped(value);
+			if (!empty) {
+				appendRaw("</");
+				appendRaw(name);
+				appendAscii('>');
+			}
+		}
+	}
+
+	private void appendCompact(CompactElement element, String parentXmlns) throws XMLException {
+		final String name = element.getName();
+		final String xmlns = element.getXMLNS();
+		final String value = element.getValue();
+
+		appendAscii('<');
+		appendRaw(name);
+		if (xmlns != null && (parentXmlns == null || !parentXmlns.equals(xmlns))) {
+			appendRaw(" xmlns=\"");
+			appendEscaped(xmlns);
+			appendAscii('"');
+		}
+
+		final int attributesCount = element.getAttributesCount();
+		for (int i = 0; i < attributesCount; i++) {
+			appendAscii(' ');
+			appendRaw(element.getAttributeName(i));
+			appendRaw("=\"");
+			appendEscaped(element.getAttributeValue(i));
+			appendAscii('"');
+		}
+
+		// view of children implements RandomAccess, so no iterator is created
+		final List<Element> children = element.getChildren();
+		final int childrenCount = children.size();
+		final boolean empty = childrenCount == 0 && value == null;
+		if (empty) {
+			appendAscii('/');
+		}
+		appendAscii('>');
+		for (int i = 0; i < childrenCount; i++) {
+			append(children.get(i), xmlns);
+		}
+		if (value != null)
+			appendEscaped(value);
+		if (!empty) {
+			appendRaw("</");
+			appendRaw(name);
+			appendAscii('>');
+		}
+	}
+
+	/**
+	 * Appends text encoded in UTF-8 without escaping. May be used to write
+	 * stream header or already serialized XML.
+	 *
+	 * @param text
+	 *            text to append.
+	 */
+	public void append(String text) {
+		appendRaw(text);
+	}
+
+	private void appendAscii(char c) {
+		ensureCapacity(1);
+		buffer[count++] = (byte) c;
+	}
+
+	private void appendEscaped(String text) {
+		final int len = text.length();
+		// "&quot;" is the longest sequence produced for single character
+		ensureCapacity(len * 6);
+		final byte[] b = buffer;
+		int pos = count;
+		for (int i = 0; i < len; i++) {
+			final char c = text.charAt(i);
+			switch (c) {
+			case '&':
+				b[pos++] = '&';
+				b[pos++] = 'a';
+				b[pos++] = 'm';
+				b[pos++] = 'p';
+				b[pos++] = ';';
+				break;
+			case '<':
+				b[pos++] = '&';
+				b[pos++] = 'l';
+				b[pos++] = 't';
+				b[pos++] = ';';
+				break;
+			case '>':
+				b[pos++] = '&';
+				b[pos++] = 'g';
+				b[pos++] = 't';
+				b[pos++] = ';';
+				break;
+			case '"':
+				b[pos++] = '&';
+				b[pos++] = 'q';
+				b[pos++] = 'u';
+				b[pos++] = 'o';
+				b[pos++] = 't';
+				b[pos++] = ';';
+				break;
+			case '\'':
+				b[pos++] = '&';
+				b[pos++] = 'a';
+				b[pos++] = 'p';
+				b[pos++] = 'o';
+				b[pos++] = 's';
+				b[pos++] = ';';
+				break;
+			default:
+				if (c < 0x80) {
+					b[pos++] = (byte) c;
+				} else {
+					pos = encode(b, pos, text, i, c);
+					if (isPair(text, i))
+						i++;
+				}
+			}
+		}
+		count = pos;
+	}
+
+	private void appendRaw(String text) {
+		final int len = text.length();
+		ensureCapacity(len * 3);
+		final byte[] b = buffer;
+		int pos = count;
+		for (int i = 0; i < len; i++) {
+			final char c = text.charAt(i);
+			if (c < 0x80) {
+				b[pos++] = (byte) c;
+			} else {
+				pos = encode(b, pos, text, i, c);
+				if (isPair(text, i))
+					i++;
+			}
+		}
+		count = pos;
+	}
+
+	private static boolean isPair(String text, int i) {
+		return Character.isHighSurrogate(text.charAt(i)) && i + 1 < text.length()
+				&& Character.isLowSurrogate(text.charAt(i + 1));
+	}
+
+	/**
+	 * Encodes non-ASCII character. Unpaired surrogates are replaced with '?'
+	 * as {@link String#getBytes(java.nio.charset.Charset)} does.
+	 */
+	private static int encode(final byte[] b, int pos, final String text, final int i, final char c) {
+		if (c < 0x800) {
+			b[pos++] = (byte) (0xC0 | (c >> 6));
+			b[pos++] = (byte) (0x80 | (c & 0x3F));
+		} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+			if (isPair(text, i)) {
+				final int cp = Character.toCodePoint(c, text.charAt(i + 1));
+				b[pos++] = (byte) (0xF0 | (cp >> 18));
+				b[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				b[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				b[pos++] = (byte) (0x80 | (cp & 0x3F));
+			} else {
+				b[pos++] = '?';
+			}
+		} else {
+			b[pos++] = (byte) (0xE0 | (c >> 12));
+			b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			b[pos++] = (byte) (0x80 | (c & 0x3F));
+		}
+		return pos;
+	}
+
+	private void ensureCapacity(int additional) {
+		final int required = count + additional;
+		if (required > buffer.length) {
+			byte[] tmp = new byte[Math.max(required, buffer.length * 2)];
+			System.arraycopy(buffer, 0, tmp, 0, count);
+			buffer = tmp;
+		}
+	}
+
+	/**
+	 * Returns internal buffer. Only first {@link #size()} bytes are valid.
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Clears buffer, so serializer may be reused.
+	 */
+	public void reset() {
+		count = 0;
+		if (buffer.length > MAX_RETAINED_CAPACITY)
+			buffer = new byte[initialCapacity];
+	}
+
+	/**
+	 * Returns number of bytes in buffer.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns copy of serialized data.
+	 */
+	public byte[] toByteArray() {
+		byte[] result = new byte[count];
+		System.arraycopy(buffer, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Puts serialized data to given buffer, which may be direct one.
+	 *
+	 * @param out
+	 *            destination buffer with at least {@link #size()} bytes
+	 *            remaining.
+	 */
+	public void writeTo(ByteBuffer out) {
+		out.put(buffer, 0, count);
+	}
+
+	/**
+	 * Writes serialized data to given stream.
+	 *
+	 * @param out
+	 *            destination stream.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buffer, 0, count);
+	}
+
+}
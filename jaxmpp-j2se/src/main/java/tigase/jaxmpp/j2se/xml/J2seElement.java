@@ -24,6 +24,7 @@ import java.util.Map;
 import tigase.jaxmpp.core.client.xml.Element;
 import tigase.jaxmpp.core.client.xml.ElementComparator;
 import tigase.jaxmpp.core.client.xml.XMLException;
+import tigase.jaxmpp.core.client.xmpp.utils.EscapeUtils;
 
 public class J2seElement implements Element {
 
@@ -164,14 +165,18 @@ public class J2seElement implements Element {
 		throw new RuntimeException("Not implemented in J2seElement");
 	}
 
+	/**
+	 * Returns unescaped character data, like other implementations of
+	 * {@link Element} do.
+	 */
 	@Override
 	public String getValue() throws XMLException {
-		return this.xmlElement.getCData();
+		return EscapeUtils.unescape(this.xmlElement.getCData());
 	}
 
 	@Override
 	public void setValue(String value) throws XMLException {
-		this.xmlElement.setCData(value);
+		this.xmlElement.setCData(EscapeUtils.escape(value));
 	}
 
 	@Override
@@ -0,0 +1,137 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.xml;
+
+/**
+ * Bounded table of canonical {@link String} instances of element names,
+ * attribute names and namespaces. Lookup of characters which are already in
+ * table doesn't allocate anything, so names repeated in every stanza are not
+ * created again and again by parser.
+ * <p>
+ * Table is direct-mapped: every slot keeps one symbol and symbol with the same
+ * slot replaces previous one, so size of table never grows. Table is
+ * lock-free and may be shared by many parsers; slots are written without
+ * synchronization, which is safe because {@link String} is immutable, and in
+ * worst case symbol is created again.
+ * </p>
+ * <p>
+ * Table is seeded with names commonly used in XMPP. Because they are string
+ * literals, the same instances are used by code comparing them, so
+ * {@link String#equals(Object)} succeeds on identity check.
+ * </p>
+ */
+public class SymbolTable {
+
+	/**
+	 * Default number of slots.
+	 */
+	public static final int DEFAULT_SIZE = 2048;
+
+	/**
+	 * Longer sequences are not kept in table.
+	 */
+	public static final int MAX_SYMBOL_LENGTH = 64;
+
+	private static final String[] PREDEFINED = { "a", "active", "body", "bind", "c", "composing", "delay", "enabled",
+			"error", "from", "gone", "group", "hash", "id", "inactive", "iq", "item", "jabber:client", "jabber:iq:roster",
+			"jid", "message", "name", "node", "paused", "presence", "priority", "query", "r", "resource", "result", "show",
+			"stamp", "status", "subject", "subscription", "thread", "to", "type", "urn:xmpp:sm:3", "value", "ver", "x",
+			"xml:lang", "xmlns" };
+
+	private static final SymbolTable instance = new SymbolTable(DEFAULT_SIZE);
+
+	/**
+	 * Returns table shared by parsers of all connections.
+	 */
+	public static SymbolTable getInstance() {
+		return instance;
+	}
+
+	private final int mask;
+
+	private final String[] symbols;
+
+	/**
+	 * Creates table.
+	 *
+	 * @param size
+	 *            number of slots, rounded up to power of two.
+	 */
+	public SymbolTable(int size) {
+		int capacity = 1;
+		while (capacity < size)
+			capacity <<= 1;
+		this.symbols = new String[capacity];
+		this.mask = capacity - 1;
+		for (String s : PREDEFINED) {
+			symbols[s.hashCode() & mask] = s;
+		}
+	}
+
+	/**
+	 * Returns canonical instance of given characters.
+	 *
+	 * @param chars
+	 *            characters of symbol.
+	 * @return string equal to given characters.
+	 */
+	public String get(CharSequence chars) {
+		return get(chars, 0, chars.length());
+	}
+
+	/**
+	 * Returns canonical instance of given range of characters.
+	 *
+	 * @param chars
+	 *            characters.
+	 * @param start
+	 *            index of first character of symbol.
+	 * @param end
+	 *            index after last character of symbol.
+	 * @return string equal to given range of characters.
+	 */
+	public String get(CharSequence chars, int start, int end) {
+		final int len = end - start;
+		if (len > MAX_SYMBOL_LENGTH)
+			return chars.subSequence(start, end).toString();
+
+		// the same as String.hashCode(), which is cached in String
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + chars.charAt(i);
+		}
+		final int slot = h & mask;
+		final String s = symbols[slot];
+		if (s != null && s.hashCode() == h && s.length() == len && regionEquals(s, chars, start))
+			return s;
+
+		final String result = chars.subSequence(start, end).toString();
+		symbols[slot] = result;
+		return result;
+	}
+
+	private static boolean regionEquals(final String s, final CharSequence chars, final int start) {
+		final int len = s.length();
+		for (int i = 0; i < len; i++) {
+			if (s.charAt(i) != chars.charAt(start + i))
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tigase.jaxmpp.j2se.CachingDNSResolver.SrvRecord;
+import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.Entry;
+
+public class CachingDNSResolverTest {
+
+	private static class TestResolver extends CachingDNSResolver {
+
+		private final AtomicInteger calls = new AtomicInteger();
+
+		private final List<SrvRecord> directTlsRecords = new ArrayList<SrvRecord>();
+
+		private volatile CountDownLatch release;
+
+		private final List<SrvRecord> records;
+
+		private volatile long time = 1000;
+
+		private volatile Error error;
+
+		TestResolver(SrvRecord... records) {
+			this.records = Arrays.asList(records);
+		}
+
+		@Override
+		protected List<SrvRecord> lookup(String service, String hostname) throws Exception {
+			if (DNSResolver.XMPPS_CLIENT_SERVICE.equals(service))
+				return directTlsRecords;
+			calls.incrementAndGet();
+			if (error != null)
+				throw error;
+			if (release != null)
+				release.await();
+			return records;
+		}
+
+		@Override
+		protected long now() {
+			return time;
+		}
+	}
+
+	@Test
+	public void testDirectTls() {
+		TestResolver resolver = new TestResolver(new SrvRecord(0, 0, 5222, "a", 60));
+		Assert.assertTrue(resolver.resolveDirectTls("example.com").isEmpty());
+
+		resolver.clear();
+		resolver.directTlsRecords.add(new SrvRecord(0, 0, 5223, "b", 60));
+		List<Entry> result = resolver.resolveDirectTls("example.com");
+		Assert.assertEquals(1, result.size());
+		Assert.assertEquals("b", result.get(0).getHostname());
+		Assert.assertTrue(result.get(0).isDirectTls());
+		Assert.assertFalse(resolver.resolve("example.com").get(0).isDirectTls());
+	}
+
+	@Test
+	public void testEmptyResultFallsBackToDomain() {
+		TestResolver resolver = new TestResolver();
+		List<Entry> result = resolver.resolve("example.com");
+		Assert.assertEquals(1, result.size());
+		Assert.assertEquals("example.com", result.get(0).getHostname());
+		Assert.assertEquals(Integer.valueOf(5222), result.get(0).getPort());
+
+		resolver.resolve("example.com");
+		Assert.assertEquals(1, resolver.calls.get());
+		resolver.time += CachingDNSResolver.NEGATIVE_TTL;
+		resolver.resolve("example.com");
+		Assert.assertEquals(2, resolver.calls.get());
+	}
+
+	@Test
+	public void testErrorReleasesLookup() throws Exception {
+		final TestResolver resolver = new TestResolver(new SrvRecord(0, 0, 5222, "a", 60));
+		resolver.error = new NoClassDefFoundError("com/sun/jndi/dns/DnsContextFactory");
+		try {
+			resolver.resolve("example.com");
+			Assert.fail("Error should be thrown");
+		} catch (NoClassDefFoundError e) {
+		}
+
+		resolver.error = null;
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				resolver.resolve("example.com");
+			}
+		};
+		t.start();
+		t.join(5000);
+		Assert.assertFalse(t.isAlive());
+		Assert.assertEquals(2, resolver.calls.get());
+	}
+
+	@Test
+	public void testPriorityOrder() {
+		List<SrvRecord> records = Arrays.asList(new SrvRecord(20, 0, 5222, "c", -1),
+				new SrvRecord(10, 5, 5222, "a", -1), new SrvRecord(10, 5, 5222, "b", -1));
+		Random random = new Random(1);
+		for (int i = 0; i < 20; i++) {
+			List<Entry> result = CachingDNSResolver.order(records, random, false);
+			Assert.assertEquals(3, result.size());
+			Assert.assertEquals("c", result.get(2).getHostname());
+		}
+	}
+
+	@Test
+	public void testServiceNotAvailable() {
+		List<SrvRecord> records = Arrays.asList(new SrvRecord(0, 0, 0, ".", -1), new SrvRecord(0, 0, 0, "", -1));
+		Assert.assertTrue(CachingDNSResolver.order(records, new Random(1), false).isEmpty());
+
+		TestResolver resolver = new TestResolver(new SrvRecord(0, 0, 0, ".", 60));
+		resolver.directTlsRecords.add(new SrvRecord(0, 0, 0, ".", 60));
+		Assert.assertTrue(resolver.resolveDirectTls("example.com").isEmpty());
+		List<Entry> result = resolver.resolve("example.com");
+		Assert.assertEquals(1, result.size());
+		Assert.assertEquals("example.com", result.get(0).getHostname());
+		Assert.assertEquals(Integer.valueOf(5222), result.get(0).getPort());
+	}
+
+	@Test
+	public void testSingleLookupInFlight() throws Exception {
+		final TestResolver resolver = new TestResolver(new SrvRecord(0, 0, 5222, "a", 60));
+		resolver.release = new CountDownLatch(1);
+		final List<Entry> results = new ArrayList<Entry>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					List<Entry> r = resolver.resolve("example.com");
+					synchronized (results) {
+						results.addAll(r);
+					}
+				}
+			};
+			threads.add(t);
+			t.start();
+		}
+		Thread.sleep(100);
+		resolver.release.countDown();
+		for (Thread t : threads) {
+			t.join(5000);
+		}
+		Assert.assertEquals(4, results.size());
+		Assert.assertEquals(1, resolver.calls.get());
+		Assert.assertEquals(1, resolver.getLookupCount());
+		Assert.assertEquals(3, resolver.getHitCount());
+	}
+
+	@Test
+	public void testTtl() {
+		TestResolver resolver = new TestResolver(new SrvRecord(0, 0, 5222, "a", 120),
+				new SrvRecord(0, 0, 5222, "b", 60));
+		resolver.resolve("example.com");
+		resolver.time += 59 * 1000;
+		resolver.resolve("EXAMPLE.com");
+		Assert.assertEquals(1, resolver.calls.get());
+		resolver.time += 1000;
+		resolver.resolve("example.com");
+		Assert.assertEquals(2, resolver.calls.get());
+	}
+
+	@Test
+	public void testWeightedSelection() {
+		List<SrvRecord> records = Arrays.asList(new SrvRecord(0, 90, 5222, "heavy", -1),
+				new SrvRecord(0, 10, 5222, "light", -1));
+		Random random = new Random(7);
+		int heavy = 0;
+		for (int i = 0; i < 1000; i++) {
+			if ("heavy".equals(CachingDNSResolver.order(records, random, false).get(0).getHostname()))
+				heavy++;
+		}
+		Assert.assertTrue("heavy=" + heavy, heavy > 850 && heavy < 950);
+	}
+
+}
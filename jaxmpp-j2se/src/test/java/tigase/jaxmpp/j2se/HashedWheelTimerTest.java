@@ -0,0 +1,173 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashedWheelTimerTest {
+
+	private static final Executor DIRECT = new Executor() {
+
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	private HashedWheelTimer timer;
+
+	@Before
+	public void setUp() {
+		// small wheel, so tasks wrap around it
+		timer = new HashedWheelTimer(10, 8, DIRECT);
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final AtomicInteger counter = new AtomicInteger();
+		HashedWheelTimer.Timeout timeout = timer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				counter.incrementAndGet();
+			}
+		}, 50);
+		Assert.assertTrue(timeout.cancel());
+		Assert.assertFalse(timeout.cancel());
+		Assert.assertTrue(timeout.isCancelled());
+		Thread.sleep(150);
+		Assert.assertEquals(0, counter.get());
+	}
+
+	@Test
+	public void testSharedPoolIsBounded() throws Exception {
+		final int count = HashedWheelTimer.DEFAULT_POOL_SIZE * 4;
+		final CountDownLatch latch = new CountDownLatch(count);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		for (int i = 0; i < count; i++) {
+			HashedWheelTimer.getInstance().schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					int current = running.incrementAndGet();
+					int max;
+					while ((max = maxRunning.get()) < current && !maxRunning.compareAndSet(max, current))
+						;
+					try {
+						Thread.sleep(20);
+					} catch (InterruptedException e) {
+					}
+					running.decrementAndGet();
+					latch.countDown();
+				}
+			}, 10);
+		}
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(maxRunning.get() <= HashedWheelTimer.DEFAULT_POOL_SIZE);
+	}
+
+	@Test
+	public void testPeriodic() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(3);
+		HashedWheelTimer.Timeout timeout = timer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 20, 20);
+		Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+		Assert.assertTrue(timeout.cancel());
+	}
+
+	@Test
+	public void testSingleExecution() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final long start = System.nanoTime();
+		final long[] executedAfter = new long[1];
+		HashedWheelTimer.Timeout timeout = timer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				executedAfter[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				latch.countDown();
+			}
+		}, 200);
+		Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+		Assert.assertTrue("executed after " + executedAfter[0] + "ms", executedAfter[0] >= 200);
+		Assert.assertFalse(timeout.cancel());
+	}
+
+	@Test
+	public void testManyTimeouts() throws Exception {
+		final int count = 10000;
+		final CountDownLatch latch = new CountDownLatch(count / 2);
+		HashedWheelTimer.Timeout[] timeouts = new HashedWheelTimer.Timeout[count];
+		for (int i = 0; i < count; i++) {
+			timeouts[i] = timer.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					latch.countDown();
+				}
+			}, i % 100);
+		}
+		for (int i = 0; i < count; i += 2) {
+			timeouts[i].cancel();
+		}
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		Assert.assertEquals(0, latch.getCount());
+		Assert.assertEquals(0, timer.getPendingCount());
+	}
+
+	@Test
+	public void testThreadFactory() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final Thread[] executedIn = new Thread[1];
+		final Thread[] created = new Thread[1];
+		timer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				executedIn[0] = Thread.currentThread();
+				latch.countDown();
+			}
+		}, 20, 0, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				created[0] = new Thread(r);
+				return created[0];
+			}
+		});
+		Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+		Assert.assertNotNull(created[0]);
+		Assert.assertSame(created[0], executedIn[0]);
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares platform and virtual threads in the way connector uses them: one
+ * thread blocked on socket read per session and one new thread per received
+ * stanza. It is not executed as unit test; run it manually:
+ *
+ * <pre>
+ * java -cp ... tigase.jaxmpp.j2se.ThreadingBenchmark [sessions] [stanzas]
+ * </pre>
+ *
+ * Virtual threads are measured only on Java 21 and newer.
+ */
+public class ThreadingBenchmark {
+
+	private static final ThreadFactory PLATFORM = new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			return new Thread(r);
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		final int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		final int stanzas = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+		run("platform", PLATFORM, sessions, stanzas);
+		ThreadFactory virtual = VirtualThreads.newThreadFactory("bench-");
+		if (virtual != null)
+			run("virtual", virtual, sessions, stanzas);
+		else
+			System.out.println("virtual: not supported by this JVM");
+	}
+
+	private static void run(String name, ThreadFactory factory, int sessions, int stanzas) throws Exception {
+		System.gc();
+		final long rssBefore = rss();
+		final long heapBefore = usedHeap();
+
+		ServerSocket server = new ServerSocket(0, sessions, InetAddress.getByName("127.0.0.1"));
+		List<Socket> sockets = new ArrayList<Socket>();
+		final CountDownLatch readersStarted = new CountDownLatch(sessions);
+		for (int i = 0; i < sessions; i++) {
+			final Socket client = new Socket(server.getInetAddress(), server.getLocalPort());
+			sockets.add(client);
+			sockets.add(server.accept());
+			factory.newThread(new Runnable() {
+
+				@Override
+				public void run() {
+					readersStarted.countDown();
+					try {
+						InputStream in = client.getInputStream();
+						while (in.read() != -1) {
+						}
+					} catch (Exception e) {
+					}
+				}
+			}).start();
+		}
+		readersStarted.await();
+		Thread.sleep(500);
+		final long rssReaders = rss();
+		final long heapReaders = usedHeap();
+
+		final CountDownLatch processed = new CountDownLatch(stanzas);
+		final AtomicLong sink = new AtomicLong();
+		long start = System.nanoTime();
+		for (int i = 0; i < stanzas; i++) {
+			final int n = i;
+			factory.newThread(new Runnable() {
+
+				@Override
+				public void run() {
+					sink.addAndGet(n);
+					processed.countDown();
+				}
+			}).start();
+		}
+		processed.await();
+		long time = System.nanoTime() - start;
+
+		for (Socket s : sockets) {
+			s.close();
+		}
+		server.close();
+
+		System.out.println(name + ": " + sessions + " blocked readers: RSS +" + (rssReaders - rssBefore) / 1024
+				+ " KiB, heap +" + (heapReaders - heapBefore) / 1024 + " KiB; " + stanzas + " stanza tasks: "
+				+ (stanzas * 1000000000L / time) + " tasks/s");
+	}
+
+	private static long rss() {
+		// Linux only, other systems report 0
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.startsWith("VmRSS:"))
+						return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (Exception e) {
+		}
+		return 0;
+	}
+
+	private static long usedHeap() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VirtualThreadsTest {
+
+	@Test
+	public void testFactoryAvailability() {
+		ThreadFactory factory = VirtualThreads.newThreadFactory("test-");
+		Assert.assertEquals(VirtualThreads.isSupported(), factory != null);
+	}
+
+	@Test
+	public void testNewThreadUsesSessionFactory() throws Exception {
+		final AtomicInteger created = new AtomicInteger();
+		J2SESessionObject sessionObject = new J2SESessionObject();
+		Runnable task = new Runnable() {
+
+			@Override
+			public void run() {
+			}
+		};
+
+		Thread t = Jaxmpp.newThread(sessionObject, task);
+		Assert.assertEquals(0, created.get());
+
+		sessionObject.setUserProperty(Jaxmpp.THREAD_FACTORY_KEY, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				created.incrementAndGet();
+				return new Thread(r, "custom");
+			}
+		});
+		t = Jaxmpp.newThread(sessionObject, task);
+		Assert.assertEquals(1, created.get());
+		Assert.assertEquals("custom", t.getName());
+	}
+
+}
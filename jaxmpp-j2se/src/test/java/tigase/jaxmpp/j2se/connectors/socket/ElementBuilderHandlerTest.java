@@ -0,0 +1,382 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tigase.jaxmpp.core.client.xml.CompactElement;
+import tigase.jaxmpp.core.client.xml.Element;
+import tigase.jaxmpp.core.client.xml.StreamingHandler;
+import tigase.jaxmpp.core.client.xml.StreamingHandlers;
+import tigase.jaxmpp.core.client.xml.XMLException;
+import tigase.jaxmpp.core.client.xmpp.forms.JabberDataElement;
+import tigase.jaxmpp.core.client.xmpp.forms.TextSingleField;
+import tigase.jaxmpp.core.client.xmpp.forms.XDataType;
+import tigase.jaxmpp.core.client.xmpp.stanzas.Message;
+import tigase.jaxmpp.core.client.xmpp.stanzas.Stanza;
+
+public class ElementBuilderHandlerTest {
+
+	private final List<Element> elements = new ArrayList<Element>();
+
+	private ElementBuilderHandler handler;
+
+	private Map<String, String> streamAttribs;
+
+	private boolean streamClosed;
+
+	private static StringBuilder[] sb(String... values) {
+		StringBuilder[] result = new StringBuilder[values.length + 1];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = new StringBuilder(values[i]);
+		}
+		return result;
+	}
+
+	private void cdata(String value) {
+		handler.elementCData(new StringBuilder(value));
+	}
+
+	private void end(String name) {
+		handler.endElement(new StringBuilder(name));
+	}
+
+	@Before
+	public void setUp() {
+		handler = new ElementBuilderHandler(new ElementStreamListener() {
+
+			@Override
+			public void nextElement(Element element) {
+				elements.add(element);
+			}
+
+			@Override
+			public void xmppStreamClosed() {
+				streamClosed = true;
+			}
+
+			@Override
+			public void xmppStreamOpened(Map<String, String> attribs) {
+				streamAttribs = attribs;
+			}
+		});
+	}
+
+	private void start(String name, String... attrs) {
+		String[] names = new String[attrs.length / 2];
+		String[] values = new String[attrs.length / 2];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = attrs[2 * i];
+			values[i] = attrs[2 * i + 1];
+		}
+		handler.startElement(new StringBuilder(name), sb(names), sb(values));
+	}
+
+	@Test
+	public void testStanza() throws Exception {
+		start("stream:stream", "xmlns", "jabber:client", "xmlns:stream", "http://etherx.jabber.org/streams", "id", "1");
+		Assert.assertEquals("1", streamAttribs.get("id"));
+
+		start("stream:features");
+		start("bind", "xmlns", "urn:ietf:params:xml:ns:xmpp-bind");
+		end("bind");
+		end("stream:features");
+
+		start("message", "to", "a@b/c", "title", "x &amp; y");
+		cdata("\n ");
+		start("body");
+		cdata("1 &lt; 2");
+		cdata(" &amp; 3");
+		end("body");
+		start("x", "xmlns", "jabber:x:data");
+		start("field");
+		end("field");
+		end("x");
+		end("message");
+
+		end("stream:stream");
+		Assert.assertTrue(streamClosed);
+		Assert.assertFalse(handler.parseError());
+
+		Assert.assertEquals(2, elements.size());
+		Element features = elements.get(0);
+		Assert.assertEquals("features", features.getName());
+		Assert.assertEquals("http://etherx.jabber.org/streams", features.getXMLNS());
+		Assert.assertNull(features.getAttribute("xmlns:stream"));
+		Assert.assertNotNull(features.getChildrenNS("bind", "urn:ietf:params:xml:ns:xmpp-bind"));
+
+		Element message = elements.get(1);
+		Assert.assertEquals("message", message.getName());
+		Assert.assertNull(message.getXMLNS());
+		Assert.assertEquals("x & y", message.getAttribute("title"));
+		Assert.assertNull(message.getValue());
+		Element body = message.getFirstChild("body");
+		Assert.assertEquals("1 < 2 & 3", body.getValue());
+		Assert.assertSame(message, body.getParent());
+		Assert.assertSame(body, message.getFirstChild());
+		Element field = message.getChildrenNS("x", "jabber:x:data").getFirstChild();
+		Assert.assertEquals("jabber:x:data", field.getXMLNS());
+		Assert.assertEquals("<message to=\"a@b/c\" title=\"x &amp; y\"><body>1 &lt; 2 &amp; 3</body>"
+				+ "<x xmlns=\"jabber:x:data\"><field/></x></message>", normalize(message.getAsString()));
+	}
+
+	@Test
+	public void testLazyPayload() throws Exception {
+		handler.setFreeze(true);
+		handler.setLazyPayload(true);
+		start("stream:stream", "xmlns", "jabber:client", "xmlns:stream", "http://etherx.jabber.org/streams");
+		for (int i = 0; i < 2; i++) {
+			start("iq", "type", "result", "id", "1", "xmlns:r", "jabber:iq:roster");
+			start("r:query", "ver", "v&amp;1");
+			start("item", "jid", "a@b");
+			start("group");
+			cdata("A &lt; B");
+			end("group");
+			end("item");
+			start("item", "jid", "c@d");
+			end("item");
+			end("r:query");
+			end("iq");
+			handler.setLazyPayload(false);
+		}
+		start("presence");
+		end("presence");
+
+		Assert.assertEquals(3, elements.size());
+		CompactElement lazy = (CompactElement) elements.get(0);
+		CompactElement eager = (CompactElement) elements.get(1);
+		Assert.assertFalse(lazy.isChildrenLoaded());
+		Assert.assertTrue(eager.isChildrenLoaded());
+		Assert.assertEquals("result", lazy.getAttribute("type"));
+
+		Element query = lazy.getChildrenNS("query", "jabber:iq:roster");
+		Assert.assertTrue(lazy.isChildrenLoaded());
+		Assert.assertTrue(lazy.isFrozen());
+		Assert.assertTrue(((CompactElement) query).isFrozen());
+		Assert.assertSame(lazy, query.getParent());
+		Assert.assertEquals("v&1", query.getAttribute("ver"));
+		Assert.assertEquals("A < B", query.getFirstChild().getFirstChild().getValue());
+		Assert.assertEquals("jabber:iq:roster", query.getFirstChild().getXMLNS());
+		Assert.assertEquals(eager.getAsString(), lazy.getAsString());
+		Assert.assertEquals(eager, lazy);
+
+		Assert.assertTrue(((CompactElement) elements.get(2)).isChildrenLoaded());
+		Assert.assertNull(elements.get(2).getFirstChild());
+	}
+
+	@Test
+	public void testEscapedBodyRoundTrip() throws Exception {
+		start("stream:stream", "xmlns", "jabber:client", "xmlns:stream", "http://etherx.jabber.org/streams");
+		start("message", "to", "a@b/c");
+		start("body");
+		// user typed literal "&lt;" and "<b>"
+		cdata("&amp;lt; &lt;b&gt;");
+		end("body");
+		end("message");
+
+		Message message = (Message) Stanza.create(elements.get(0));
+		Assert.assertEquals("&lt; <b>", message.getBody());
+		Assert.assertEquals("<message to=\"a@b/c\"><body>&amp;lt; &lt;b&gt;</body></message>", message.getAsString());
+
+		Message copy = Message.create();
+		copy.setBody(message.getBody());
+		Assert.assertEquals(message.getBody(), copy.getBody());
+		Assert.assertEquals(message.getFirstChild("body").getAsString(), copy.getFirstChild("body").getAsString());
+	}
+
+	private void receiveForm() {
+		start("stream:stream", "xmlns", "jabber:client", "xmlns:stream", "http://etherx.jabber.org/streams");
+		start("iq", "type", "result", "id", "1");
+		start("query", "xmlns", "http://jabber.org/protocol/muc#owner");
+		start("x", "xmlns", "jabber:x:data", "type", "form");
+		start("field", "var", "muc#roomconfig_roomname", "type", "text-single");
+		start("value");
+		cdata("old");
+		end("value");
+		end("field");
+		end("x");
+		end("query");
+		end("iq");
+	}
+
+	@Test
+	public void testReceivedFormIsMutable() throws Exception {
+		receiveForm();
+		Element x = elements.get(0).getFirstChild("query").getFirstChild("x");
+		Assert.assertFalse(((CompactElement) x).isFrozen());
+		x.setAttribute("type", "submit");
+		Assert.assertEquals("submit", x.getAttribute("type"));
+	}
+
+	@Test
+	public void testFrozenFormRoundTrip() throws Exception {
+		handler.setFreeze(true);
+		receiveForm();
+		Element x = elements.get(0).getFirstChild("query").getFirstChild("x");
+		Assert.assertTrue(((CompactElement) x).isFrozen());
+
+		JabberDataElement form = new JabberDataElement(x);
+		TextSingleField field = form.getField("muc#roomconfig_roomname");
+		field.setFieldValue("NEW");
+		Assert.assertEquals("NEW", field.getFieldValue());
+
+		String submitted = form.createSubmitableElement(XDataType.submit).getAsString();
+		Assert.assertTrue(submitted, submitted.contains("<value>NEW</value>"));
+		Assert.assertFalse(submitted, submitted.contains("old"));
+		// received stanza is not modified
+		Assert.assertEquals("old", x.getFirstChild("field").getFirstChild("value").getValue());
+	}
+
+	@Test
+	public void testPrefixScope() throws Exception {
+		start("stream:stream", "xmlns", "jabber:client", "xmlns:stream", "http://etherx.jabber.org/streams");
+
+		start("message", "xmlns:e", "urn:example");
+		start("e:data", "xmlns:e", "urn:example:inner");
+		end("e:data");
+		start("e:data");
+		end("e:data");
+		end("message");
+
+		start("e:data");
+		end("e:data");
+
+		start("stream:error");
+		end("stream:error");
+
+		Assert.assertEquals(3, elements.size());
+		Element message = elements.get(0);
+		Assert.assertEquals("urn:example:inner", message.getChildren().get(0).getXMLNS());
+		Assert.assertEquals("urn:example", message.getChildren().get(1).getXMLNS());
+		// prefix declared in previous stanza is not visible
+		Assert.assertEquals("e:data", elements.get(1).getName());
+		Assert.assertEquals("error", elements.get(2).getName());
+		Assert.assertEquals("http://etherx.jabber.org/streams", elements.get(2).getXMLNS());
+	}
+
+	@Test
+	public void testStreamingHandlers() throws Exception {
+		final List<Element> streamed = new ArrayList<Element>();
+		StreamingHandlers handlers = new StreamingHandlers();
+		handlers.addHandler("iq/query[jabber:iq:roster]/item", new StreamingHandler() {
+
+			@Override
+			public boolean onElement(Element stanza, Element element) throws XMLException {
+				Assert.assertEquals("1", stanza.getAttribute("id"));
+				Assert.assertTrue(((CompactElement) element).isFrozen());
+				streamed.add(element);
+				return !"keep@b".equals(element.getAttribute("jid"));
+			}
+		});
+		handler.setStreamingHandlers(handlers);
+		handler.setFreeze(true);
+		handler.setLazyPayload(true);
+
+		start("stream:stream", "xmlns", "jabber:client", "xmlns:stream", "http://etherx.jabber.org/streams");
+		start("iq", "type", "result", "id", "1");
+		start("query", "xmlns", "jabber:iq:roster", "ver", "5");
+		start("item", "jid", "a@b");
+		start("group");
+		cdata("A");
+		end("group");
+		end("item");
+		start("item", "jid", "keep@b");
+		end("item");
+		start("item", "jid", "c@d");
+		end("item");
+		end("query");
+		end("iq");
+
+		start("iq", "type", "result", "id", "2");
+		start("query", "xmlns", "jabber:iq:private");
+		start("item", "jid", "a@b");
+		end("item");
+		end("query");
+		end("iq");
+
+		Assert.assertFalse(handler.parseError());
+		Assert.assertEquals(3, streamed.size());
+		Assert.assertEquals("A", streamed.get(0).getFirstChild().getValue());
+		Assert.assertNull(streamed.get(0).getParent());
+
+		Assert.assertEquals(2, elements.size());
+		CompactElement roster = (CompactElement) elements.get(0);
+		Assert.assertTrue(roster.isChildrenLoaded());
+		Element query = roster.getFirstChild();
+		Assert.assertEquals("5", query.getAttribute("ver"));
+		Assert.assertEquals(1, query.getChildren().size());
+		Assert.assertEquals("keep@b", query.getFirstChild().getAttribute("jid"));
+
+		// stanza without streamed paths is still built lazily
+		Assert.assertFalse(((CompactElement) elements.get(1)).isChildrenLoaded());
+		Assert.assertEquals("a@b", elements.get(1).getFirstChild().getFirstChild().getAttribute("jid"));
+	}
+
+	@Test
+	public void testStreamingHandlersSkipOtherPaths() throws Exception {
+		final List<Element> streamed = new ArrayList<Element>();
+		StreamingHandlers handlers = new StreamingHandlers();
+		handlers.addHandler("iq/query[jabber:iq:roster]/item", new StreamingHandler() {
+
+			@Override
+			public boolean onElement(Element stanza, Element element) throws XMLException {
+				streamed.add(element);
+				return true;
+			}
+		});
+		handler.setStreamingHandlers(handlers);
+		handler.setFreeze(true);
+
+		start("stream:stream", "xmlns", "jabber:client", "xmlns:stream", "http://etherx.jabber.org/streams");
+		start("iq", "type", "result", "id", "1");
+		start("query", "xmlns", "http://jabber.org/protocol/disco#info");
+		start("identity", "category", "server", "type", "im");
+		end("identity");
+		start("feature", "var", "jabber:iq:roster");
+		end("feature");
+		end("query");
+		end("iq");
+
+		Assert.assertTrue(streamed.isEmpty());
+		Assert.assertEquals(1, elements.size());
+		CompactElement iq = (CompactElement) elements.get(0);
+		Assert.assertTrue(iq.isFrozen());
+		Element query = iq.getFirstChild();
+		Assert.assertTrue(query instanceof CompactElement);
+		Assert.assertSame(iq, query.getParent());
+		for (Element child : query.getChildren()) {
+			// children are not copied when they are added to parent
+			Assert.assertTrue(child instanceof CompactElement);
+			Assert.assertTrue(((CompactElement) child).isFrozen());
+			Assert.assertSame(query, child.getParent());
+		}
+		Assert.assertEquals(2, query.getChildren().size());
+	}
+
+	private static String normalize(String xml) {
+		// attributes order of default element depends on hash map
+		return xml.replace("title=\"x &amp; y\" to=\"a@b/c\"", "to=\"a@b/c\" title=\"x &amp; y\"");
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.Entry;
+
+public class HappyEyeballsTest {
+
+	/**
+	 * Creates sockets which never connect to {@link #blackhole} address, as if
+	 * SYN was dropped by network.
+	 */
+	private class Factory implements HappyEyeballs.SocketFactory {
+
+		private final List<Socket> sockets = new ArrayList<Socket>();
+
+		@Override
+		public Socket createSocket() throws IOException {
+			Socket s = new Socket() {
+
+				private final CountDownLatch closed = new CountDownLatch(1);
+
+				@Override
+				public synchronized void close() throws IOException {
+					closed.countDown();
+					super.close();
+				}
+
+				@Override
+				public void connect(SocketAddress endpoint, int timeout) throws IOException {
+					if (endpoint.equals(blackhole)) {
+						try {
+							closed.await();
+						} catch (InterruptedException e) {
+						}
+						throw new IOException("Cancelled");
+					}
+					super.connect(endpoint, timeout);
+				}
+			};
+			sockets.add(s);
+			return s;
+		}
+	}
+
+	private InetSocketAddress blackhole;
+
+	private ServerSocket listener;
+
+	private InetSocketAddress refused;
+
+	@After
+	public void tearDown() throws Exception {
+		listener.close();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		InetAddress localhost = InetAddress.getByName("127.0.0.1");
+		listener = new ServerSocket(0, 50, localhost);
+
+		ServerSocket closed = new ServerSocket(0, 50, localhost);
+		refused = new InetSocketAddress(localhost, closed.getLocalPort());
+		closed.close();
+
+		blackhole = new InetSocketAddress(localhost, 1);
+	}
+
+	@Test
+	public void testAllAttemptsFailed() throws Exception {
+		HappyEyeballs he = new HappyEyeballs(10000, 1000);
+		try {
+			he.connect(Arrays.asList(refused, refused), new Factory());
+			Assert.fail("Connection should fail");
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testFailedAttemptStartsNextImmediately() throws Exception {
+		HappyEyeballs he = new HappyEyeballs(10000, 1000);
+		long start = System.currentTimeMillis();
+		Socket s = he.connect(Arrays.asList(refused, (InetSocketAddress) listener.getLocalSocketAddress()),
+				new Factory());
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+		Assert.assertEquals(listener.getLocalPort(), s.getPort());
+		s.close();
+	}
+
+	@Test
+	public void testResolveKeepsServerOrder() throws Exception {
+		List<InetSocketAddress> addresses = HappyEyeballs.resolve(Arrays.asList(new Entry("127.0.0.2", 5222),
+				new Entry("127.0.0.1", 5223), new Entry("127.0.0.2", 5222)));
+		Assert.assertEquals(2, addresses.size());
+		Assert.assertEquals(new InetSocketAddress("127.0.0.2", 5222), addresses.get(0));
+		Assert.assertEquals(new InetSocketAddress("127.0.0.1", 5223), addresses.get(1));
+	}
+
+	@Test
+	public void testThreadFactory() throws Exception {
+		final AtomicInteger created = new AtomicInteger();
+		HappyEyeballs he = new HappyEyeballs(10000, 1000, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				created.incrementAndGet();
+				return new Thread(r);
+			}
+		});
+		Socket s = he.connect(Arrays.asList(refused, (InetSocketAddress) listener.getLocalSocketAddress()),
+				new Factory());
+		Assert.assertEquals(2, created.get());
+		s.close();
+	}
+
+	@Test
+	public void testSortByFamily() throws Exception {
+		InetAddress v6a = InetAddress.getByName("::1");
+		InetAddress v6b = InetAddress.getByName("::2");
+		InetAddress v4a = InetAddress.getByName("127.0.0.1");
+		InetAddress v4b = InetAddress.getByName("127.0.0.2");
+		Assert.assertEquals(Arrays.asList(v6a, v4a, v6b, v4b),
+				HappyEyeballs.sortByFamily(new InetAddress[] { v6a, v6b, v4a, v4b }));
+		Assert.assertEquals(Arrays.asList(v4a, v6a, v4b),
+				HappyEyeballs.sortByFamily(new InetAddress[] { v4a, v4b, v6a }));
+	}
+
+	@Test
+	public void testStalledAttemptIsCancelled() throws Exception {
+		HappyEyeballs he = new HappyEyeballs(50, 0);
+		Factory factory = new Factory();
+		long start = System.currentTimeMillis();
+		Socket s = he.connect(Arrays.asList(blackhole, (InetSocketAddress) listener.getLocalSocketAddress()),
+				factory);
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+		Assert.assertTrue(s.isConnected());
+		Assert.assertEquals(listener.getLocalPort(), s.getPort());
+
+		Assert.assertEquals(2, factory.sockets.size());
+		Assert.assertTrue(factory.sockets.get(0).isClosed());
+		Assert.assertFalse(s.isClosed());
+		s.close();
+	}
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NioSelectorPoolTest {
+
+	@Test
+	public void testShutdownOfDefaultPool() throws Exception {
+		NioSelectorPool pool = NioSelectorPool.getInstance();
+		Assert.assertSame(pool, NioSelectorPool.getInstance());
+
+		pool.shutdown();
+		NioSelectorPool next = NioSelectorPool.getInstance();
+		Assert.assertNotSame(pool, next);
+		Assert.assertTrue(next.next().isAlive());
+
+		// shutting down custom pool doesn't change default one
+		new NioSelectorPool(1).shutdown();
+		Assert.assertSame(next, NioSelectorPool.getInstance());
+	}
+
+}
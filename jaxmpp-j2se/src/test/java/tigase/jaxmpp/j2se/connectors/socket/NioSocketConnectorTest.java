@@ -0,0 +1,444 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tigase.jaxmpp.core.client.Connector;
+import tigase.jaxmpp.core.client.Connector.DisconnectedHandler;
+import tigase.jaxmpp.core.client.Connector.DisconnectedHandler.DisconnectedEvent;
+import tigase.jaxmpp.core.client.Connector.EncryptionEstablishedHandler;
+import tigase.jaxmpp.core.client.Connector.EncryptionEstablishedHandler.EncryptionEstablishedEvent;
+import tigase.jaxmpp.core.client.Connector.StanzaReceivedHandler;
+import tigase.jaxmpp.core.client.Connector.StanzaReceivedHandler.StanzaReceivedEvent;
+import tigase.jaxmpp.core.client.Connector.State;
+import tigase.jaxmpp.core.client.Connector.WritabilityChangedHandler;
+import tigase.jaxmpp.core.client.Connector.WritabilityChangedHandler.WritabilityChangedEvent;
+import tigase.jaxmpp.core.client.Context;
+import tigase.jaxmpp.core.client.PacketWriter;
+import tigase.jaxmpp.core.client.SessionObject;
+import tigase.jaxmpp.core.client.eventbus.DefaultEventBus;
+import tigase.jaxmpp.core.client.eventbus.EventBus;
+import tigase.jaxmpp.core.client.exceptions.JaxmppException;
+import tigase.jaxmpp.core.client.xml.Element;
+import tigase.jaxmpp.core.client.xml.ElementFactory;
+import tigase.jaxmpp.core.client.xmpp.modules.ModuleProvider;
+import tigase.jaxmpp.core.client.xmpp.stanzas.StreamPacket;
+import tigase.jaxmpp.core.client.xmpp.stream.XmppStreamsManager;
+import tigase.jaxmpp.j2se.J2SESessionObject;
+import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.HostChangedHandler;
+import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.HostChangedHandler.HostChangedEvent;
+
+/**
+ * Tests of {@link NioSocketConnector} talking to server on loopback interface.
+ */
+public class NioSocketConnectorTest {
+
+	/**
+	 * Server side of accepted connection.
+	 */
+	private static class Peer {
+
+		private final SocketChannel channel;
+
+		private InputStream in;
+
+		private OutputStream out;
+
+		Peer(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			channel.socket().setSoTimeout(5000);
+			this.in = new BufferedInputStream(channel.socket().getInputStream());
+			this.out = channel.socket().getOutputStream();
+		}
+
+		void close() throws IOException {
+			channel.close();
+		}
+
+		/**
+		 * Reads received data until given text.
+		 */
+		String readUntil(String token) throws IOException {
+			StringBuilder sb = new StringBuilder();
+			while (sb.length() < token.length() || sb.indexOf(token, sb.length() - token.length()) < 0) {
+				int b = in.read();
+				if (b == -1)
+					throw new IOException("Connection closed, received: " + sb);
+				sb.append((char) b);
+			}
+			return sb.toString();
+		}
+
+		void write(String data) throws IOException {
+			out.write(data.getBytes(UTF_CHARSET));
+			out.flush();
+		}
+	}
+
+	private static final String FEATURES = "<stream:features><starttls xmlns='urn:ietf:params:xml:ns:xmpp-tls'/>"
+			+ "<compression xmlns='http://jabber.org/features/compress'><method>zlib</method></compression>"
+			+ "</stream:features>";
+
+	private static final String STREAM_HEADER = "<stream:stream xmlns='jabber:client' "
+			+ "xmlns:stream='http://etherx.jabber.org/streams' from='example.com' version='1.0'>";
+
+	private static final Charset UTF_CHARSET = Charset.forName("UTF-8");
+
+	private NioSocketConnector connector;
+
+	private final CountDownLatch disconnected = new CountDownLatch(1);
+
+	private EventBus eventBus;
+
+	private final List<Peer> peers = new ArrayList<Peer>();
+
+	private NioSelectorPool pool;
+
+	private final BlockingQueue<Element> received = new LinkedBlockingQueue<Element>();
+
+	private volatile Integer sendBufferSize;
+
+	private ServerSocketChannel server;
+
+	private SessionObject sessionObject;
+
+	private static Element message(String id, int bodyLength) throws JaxmppException {
+		Element message = ElementFactory.create("message");
+		message.setAttribute("id", id);
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < bodyLength; i++) {
+			body.append('x');
+		}
+		message.addChild(ElementFactory.create("body", body.toString(), null));
+		return message;
+	}
+
+	private Peer accept() throws IOException {
+		Peer peer = new Peer(server.accept());
+		peers.add(peer);
+		return peer;
+	}
+
+	/**
+	 * Connects to server and opens stream.
+	 */
+	private Peer connect() throws Exception {
+		connector.start();
+		Peer peer = accept();
+		String header = peer.readUntil("version='1.0'>");
+		Assert.assertTrue(header, header.startsWith("<stream:stream "));
+		Assert.assertTrue(header, header.contains("to='example.com'"));
+		peer.write(STREAM_HEADER + FEATURES);
+		Element features = received.poll(5, TimeUnit.SECONDS);
+		Assert.assertNotNull(features);
+		Assert.assertNotNull(features.getChildrenNS("starttls", "urn:ietf:params:xml:ns:xmpp-tls"));
+		return peer;
+	}
+
+	private SSLContext createServerContext() throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("JKS");
+		InputStream in = getClass().getResourceAsStream("server.jks");
+		try {
+			keyStore.load(in, "password".toCharArray());
+		} finally {
+			in.close();
+		}
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(keyStore, "password".toCharArray());
+		SSLContext ctx = SSLContext.getInstance("TLS");
+		ctx.init(kmf.getKeyManagers(), null, null);
+		return ctx;
+	}
+
+	private void waitForState(State state) throws InterruptedException {
+		for (int i = 0; i < 50 && connector.getState() != state; i++) {
+			Thread.sleep(100);
+		}
+		Assert.assertEquals(state, connector.getState());
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		server = ServerSocketChannel.open();
+		server.socket().setReceiveBufferSize(4096);
+		server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+		pool = new NioSelectorPool(1);
+
+		eventBus = new DefaultEventBus();
+		sessionObject = new J2SESessionObject();
+		sessionObject.setUserProperty(SocketConnector.SERVER_HOST, "127.0.0.1");
+		sessionObject.setUserProperty(SocketConnector.SERVER_PORT, server.socket().getLocalPort());
+		sessionObject.setUserProperty(SessionObject.DOMAIN_NAME, "example.com");
+		sessionObject.setUserProperty(Connector.EXTERNAL_KEEPALIVE_KEY, Boolean.TRUE);
+		sessionObject.setUserProperty(NioSocketConnector.SELECTOR_POOL_KEY, pool);
+
+		final XmppStreamsManager streamsManager = new XmppStreamsManager();
+		final Context context = new Context() {
+
+			@Override
+			public EventBus getEventBus() {
+				return eventBus;
+			}
+
+			@Override
+			public ModuleProvider getModuleProvider() {
+				return null;
+			}
+
+			@Override
+			public SessionObject getSessionObject() {
+				return sessionObject;
+			}
+
+			@Override
+			public XmppStreamsManager getStreamsManager() {
+				return streamsManager;
+			}
+
+			@Override
+			public PacketWriter getWriter() {
+				return null;
+			}
+		};
+		streamsManager.setContext(context);
+
+		eventBus.addHandler(StanzaReceivedEvent.class, new StanzaReceivedHandler() {
+
+			@Override
+			public void onStanzaReceived(SessionObject sessionObject, StreamPacket stanza) {
+				received.offer(stanza);
+			}
+		});
+		eventBus.addHandler(DisconnectedEvent.class, new DisconnectedHandler() {
+
+			@Override
+			public void onDisconnected(SessionObject sessionObject) {
+				disconnected.countDown();
+			}
+		});
+
+		connector = new NioSocketConnector(context) {
+
+			@Override
+			protected Socket createSocket() throws IOException {
+				Socket s = super.createSocket();
+				if (sendBufferSize != null)
+					s.setSendBufferSize(sendBufferSize);
+				return s;
+			}
+		};
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		connector.closeSocket();
+		for (Peer peer : peers) {
+			peer.close();
+		}
+		disconnected.await(5, TimeUnit.SECONDS);
+		pool.shutdown();
+		server.close();
+	}
+
+	@Test
+	public void testCloseAndReconnect() throws Exception {
+		final CountDownLatch hostChanged = new CountDownLatch(1);
+		eventBus.addHandler(HostChangedEvent.class, new HostChangedHandler() {
+
+			@Override
+			public void onHostChanged(SessionObject sessionObject) {
+				hostChanged.countDown();
+			}
+		});
+
+		Peer first = connect();
+		first.write("<stream:error><see-other-host xmlns='urn:ietf:params:xml:ns:xmpp-streams'>127.0.0.1"
+				+ "</see-other-host></stream:error>");
+		first.close();
+		Assert.assertTrue(hostChanged.await(5, TimeUnit.SECONDS));
+
+		// connector opens new connection from another thread
+		Peer second = accept();
+		Assert.assertTrue(second.readUntil("version='1.0'>").startsWith("<stream:stream "));
+		second.write(STREAM_HEADER + FEATURES);
+		Assert.assertNotNull(received.poll(5, TimeUnit.SECONDS));
+		// state is changed by reconnecting thread after stream is opened
+		waitForState(State.connected);
+		Assert.assertEquals(1, disconnected.getCount());
+
+		second.write("</stream:stream>");
+		second.close();
+		Assert.assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(State.disconnected, connector.getState());
+		try {
+			connector.writer.write(new byte[] { 32 });
+			Assert.fail("Data written to closed channel");
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testPartialWrite() throws Exception {
+		sendBufferSize = 4096;
+		sessionObject.setUserProperty(SocketConnector.OUTBOUND_HIGH_WATERMARK_KEY, 1024);
+		sessionObject.setUserProperty(SocketConnector.OUTBOUND_LOW_WATERMARK_KEY, 512);
+		final BlockingQueue<Boolean> events = new LinkedBlockingQueue<Boolean>();
+		eventBus.addHandler(WritabilityChangedEvent.class, new WritabilityChangedHandler() {
+
+			@Override
+			public void onWritabilityChanged(SessionObject sessionObject, boolean writable) {
+				events.offer(writable);
+			}
+		});
+
+		Peer peer = connect();
+		// server doesn't read, so channel accepts only part of data and
+		// the rest waits for OP_WRITE
+		connector.send(message("1", 1024 * 1024));
+		connector.send(message("2", 1));
+		Assert.assertEquals(Boolean.FALSE, events.poll(5, TimeUnit.SECONDS));
+		Assert.assertFalse(connector.isWritable());
+
+		String data = peer.readUntil("id=\"2\"");
+		Assert.assertTrue(data.length() > 1024 * 1024);
+		peer.readUntil("</message>");
+		Assert.assertEquals(Boolean.TRUE, events.poll(5, TimeUnit.SECONDS));
+		Assert.assertTrue(connector.isWritable());
+	}
+
+	@Test
+	public void testStartTLS() throws Exception {
+		sessionObject.setUserProperty(SocketConnector.HOSTNAME_VERIFIER_DISABLED_KEY, Boolean.TRUE);
+		sessionObject.setUserProperty(Connector.TRUST_MANAGERS_KEY, new TrustManager[] { new X509TrustManager() {
+
+			@Override
+			public void checkClientTrusted(X509Certificate[] chain, String authType) {
+			}
+
+			@Override
+			public void checkServerTrusted(X509Certificate[] chain, String authType) {
+			}
+
+			@Override
+			public X509Certificate[] getAcceptedIssuers() {
+				return new X509Certificate[0];
+			}
+		} });
+		final CountDownLatch encrypted = new CountDownLatch(1);
+		eventBus.addHandler(EncryptionEstablishedEvent.class, new EncryptionEstablishedHandler() {
+
+			@Override
+			public void onEncryptionEstablished(SessionObject sessionObject) {
+				encrypted.countDown();
+			}
+		});
+		final SSLContext serverContext = createServerContext();
+
+		Peer peer = connect();
+		connector.startTLS();
+		peer.readUntil("<starttls xmlns=\"urn:ietf:params:xml:ns:xmpp-tls\"/>");
+		peer.write("<proceed xmlns='urn:ietf:params:xml:ns:xmpp-tls'/>");
+
+		SSLSocket ssl = (SSLSocket) serverContext.getSocketFactory().createSocket(peer.channel.socket(), null,
+				peer.channel.socket().getPort(), false);
+		ssl.setUseClientMode(false);
+		ssl.startHandshake();
+		peer.in = new BufferedInputStream(ssl.getInputStream());
+		peer.out = ssl.getOutputStream();
+
+		Assert.assertTrue(peer.readUntil("version='1.0'>").startsWith("<stream:stream "));
+		Assert.assertTrue(encrypted.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(connector.isSecure());
+		peer.write(STREAM_HEADER + "<stream:features/>");
+		Assert.assertEquals("features", received.poll(5, TimeUnit.SECONDS).getName().replace("stream:", ""));
+
+		connector.send(message("1", 10));
+		Assert.assertTrue(peer.readUntil("</message>").contains("id=\"1\""));
+		peer.write("<message id='2'><body>encrypted</body></message>");
+		Assert.assertEquals("encrypted", received.poll(5, TimeUnit.SECONDS).getChildren("body").get(0).getValue());
+	}
+
+	@Test
+	public void testStreamOpen() throws Exception {
+		Peer peer = connect();
+		Assert.assertEquals(State.connected, connector.getState());
+		Assert.assertFalse(connector.isSecure());
+		Assert.assertFalse(connector.isCompressed());
+
+		connector.send(message("1", 10));
+		Assert.assertTrue(peer.readUntil("</message>").contains("id=\"1\""));
+		peer.write("<message id='2'><body>plain</body></message>");
+		Element message = received.poll(5, TimeUnit.SECONDS);
+		Assert.assertEquals("message", message.getName());
+		Assert.assertEquals("2", message.getAttribute("id"));
+	}
+
+	@Test
+	public void testZLib() throws Exception {
+		Peer peer = connect();
+		connector.startZLib();
+		peer.readUntil("</compress>");
+		peer.write("<compressed xmlns='http://jabber.org/protocol/compress'/>");
+
+		peer.in = new InflaterInputStream(peer.in);
+		peer.out = new DeflaterOutputStream(peer.out, true);
+
+		Assert.assertTrue(peer.readUntil("version='1.0'>").startsWith("<stream:stream "));
+		Assert.assertTrue(connector.isCompressed());
+		peer.write(STREAM_HEADER + "<stream:features/>");
+		Assert.assertEquals("features", received.poll(5, TimeUnit.SECONDS).getName().replace("stream:", ""));
+
+		connector.send(message("1", 1000));
+		Assert.assertTrue(peer.readUntil("</message>").contains("id=\"1\""));
+		peer.write("<message id='2'><body>compressed</body></message>");
+		Assert.assertEquals("compressed", received.poll(5, TimeUnit.SECONDS).getChildren("body").get(0).getValue());
+		Assert.assertTrue(connector.getCompressionStatistics().getRawBytesSent() > 1000);
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReadBufferPoolTest {
+
+	@Test
+	public void testNextSize() {
+		int size = ReadBufferPool.MIN_BUFFER_SIZE;
+		size = ReadBufferPool.nextSize(size, size);
+		Assert.assertEquals(ReadBufferPool.MIN_BUFFER_SIZE * 2, size);
+		size = ReadBufferPool.nextSize(size, size);
+		Assert.assertEquals(ReadBufferPool.MIN_BUFFER_SIZE * 4, size);
+		Assert.assertEquals(ReadBufferPool.MAX_BUFFER_SIZE,
+				ReadBufferPool.nextSize(ReadBufferPool.MAX_BUFFER_SIZE, ReadBufferPool.MAX_BUFFER_SIZE));
+		Assert.assertEquals(ReadBufferPool.MIN_BUFFER_SIZE, ReadBufferPool.nextSize(size, 10));
+	}
+
+	@Test
+	public void testPooling() {
+		ReadBufferPool pool = new ReadBufferPool();
+		char[] c1 = pool.acquireChars(ReadBufferPool.MIN_BUFFER_SIZE * 2);
+		Assert.assertEquals(ReadBufferPool.MIN_BUFFER_SIZE * 2, c1.length);
+		pool.release(c1);
+		Assert.assertSame(c1, pool.acquireChars(ReadBufferPool.MIN_BUFFER_SIZE + 1));
+
+		ByteBuffer b1 = pool.acquireBytes(10);
+		Assert.assertEquals(ReadBufferPool.MIN_BUFFER_SIZE, b1.capacity());
+		pool.release(b1);
+		Assert.assertSame(b1, pool.acquireBytes(10));
+
+		Assert.assertEquals(4, pool.getAcquiredCount());
+		Assert.assertEquals(2, pool.getHitCount());
+		Assert.assertEquals(0.5, pool.getHitRate(), 0.001);
+		Assert.assertEquals(0, pool.getPooledCount());
+	}
+
+	private static int read(ReadBufferPool pool, byte[] data) throws Exception {
+		TextStreamReader reader = new TextStreamReader(new ByteArrayInputStream(data), pool);
+		char[] cbuf = pool.acquireChars(ReadBufferPool.MIN_BUFFER_SIZE);
+		int total = 0;
+		int r;
+		while ((r = reader.read(cbuf)) > 0) {
+			total += r;
+			int size = ReadBufferPool.nextSize(cbuf.length, r);
+			if (size != cbuf.length) {
+				pool.release(cbuf);
+				cbuf = pool.acquireChars(size);
+			}
+		}
+		pool.release(cbuf);
+		return total;
+	}
+
+	@Test
+	public void testResizeKeepsData() {
+		ReadBufferPool pool = new ReadBufferPool();
+		ByteBuffer b = pool.acquireBytes(10);
+		b.put(new byte[] { 1, 2, 3 });
+		ByteBuffer r = pool.resize(b, ReadBufferPool.MIN_BUFFER_SIZE * 4);
+		Assert.assertEquals(ReadBufferPool.MIN_BUFFER_SIZE * 4, r.capacity());
+		Assert.assertEquals(3, r.position());
+		Assert.assertEquals(3, r.get(2));
+		Assert.assertEquals(1, pool.getPooledCount());
+	}
+
+	@Test
+	public void testReaderReturnsBuffers() throws Exception {
+		ReadBufferPool pool = new ReadBufferPool();
+		byte[] data = new byte[ReadBufferPool.MIN_BUFFER_SIZE * 3];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ('a' + i % 26);
+		}
+		Assert.assertEquals(data.length, read(pool, data));
+		Assert.assertEquals(0, pool.getHitCount());
+		Assert.assertTrue(pool.getPooledCount() > 0);
+
+		// second connection uses buffers returned by first one
+		Assert.assertEquals(data.length, read(pool, data));
+		Assert.assertTrue(pool.getHitRate() > 0);
+	}
+
+}
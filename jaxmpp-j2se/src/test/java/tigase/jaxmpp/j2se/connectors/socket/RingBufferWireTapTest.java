@@ -0,0 +1,67 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.nio.charset.Charset;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RingBufferWireTapTest {
+
+	private static final Charset UTF_CHARSET = Charset.forName("UTF-8");
+
+	private static void sent(WireTap tap, String data) {
+		byte[] b = data.getBytes(UTF_CHARSET);
+		tap.onDataSent(b, 0, b.length);
+	}
+
+	private static void received(WireTap tap, String data) {
+		char[] c = data.toCharArray();
+		tap.onDataReceived(c, 0, c.length);
+	}
+
+	@Test
+	public void testDirections() {
+		RingBufferWireTap tap = new RingBufferWireTap(1024);
+		sent(tap, "<presence/>");
+		sent(tap, "<iq/>");
+		received(tap, "<message><body>zażółć 😀</body></message>");
+		Assert.assertEquals("\n>> <presence/><iq/>\n<< <message><body>zażółć 😀</body></message>",
+				tap.dump());
+	}
+
+	@Test
+	public void testOverwrite() {
+		RingBufferWireTap tap = new RingBufferWireTap(16);
+		sent(tap, "0123456789");
+		sent(tap, "abcdefghij");
+		Assert.assertEquals(16, tap.size());
+		Assert.assertEquals("456789abcdefghij", tap.dump());
+
+		sent(tap, "0123456789abcdefghijklmnopqrstuvwxyz");
+		Assert.assertEquals("klmnopqrstuvwxyz", tap.dump());
+
+		received(tap, "XY");
+		Assert.assertEquals("qrstuvwxyz\n<< XY", tap.dump());
+
+		tap.clear();
+		Assert.assertEquals("", tap.dump());
+	}
+
+}
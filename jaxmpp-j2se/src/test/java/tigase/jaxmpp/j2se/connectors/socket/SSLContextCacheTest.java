@@ -0,0 +1,63 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SSLContextCacheTest {
+
+	private static TrustManager[] createTrustManagers() {
+		return new TrustManager[] { new X509TrustManager() {
+
+			@Override
+			public void checkClientTrusted(X509Certificate[] chain, String authType) {
+			}
+
+			@Override
+			public void checkServerTrusted(X509Certificate[] chain, String authType) {
+			}
+
+			@Override
+			public X509Certificate[] getAcceptedIssuers() {
+				return new X509Certificate[0];
+			}
+		} };
+	}
+
+	@Test
+	public void testContextIsShared() throws Exception {
+		SSLContextCache cache = new SSLContextCache();
+		TrustManager[] tm1 = createTrustManagers();
+		TrustManager[] tm2 = createTrustManagers();
+
+		SSLContext c1 = cache.getContext(new KeyManager[0], tm1);
+		// the same managers in a different array
+		Assert.assertSame(c1, cache.getContext(new KeyManager[0], tm1.clone()));
+		Assert.assertNotSame(c1, cache.getContext(new KeyManager[0], tm2));
+		Assert.assertEquals(SSLContextCache.SESSION_CACHE_SIZE, c1.getClientSessionContext().getSessionCacheSize());
+	}
+
+}
@@ -0,0 +1,445 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tigase.jaxmpp.core.client.Connector.State;
+import tigase.jaxmpp.core.client.Connector.WritabilityChangedHandler;
+import tigase.jaxmpp.core.client.Connector.WritabilityChangedHandler.WritabilityChangedEvent;
+import tigase.jaxmpp.core.client.Context;
+import tigase.jaxmpp.core.client.PacketWriter;
+import tigase.jaxmpp.core.client.SessionObject;
+import tigase.jaxmpp.core.client.eventbus.DefaultEventBus;
+import tigase.jaxmpp.core.client.eventbus.EventBus;
+import tigase.jaxmpp.core.client.factory.UniversalFactory;
+import tigase.jaxmpp.core.client.factory.UniversalFactory.FactorySpi;
+import tigase.jaxmpp.core.client.exceptions.JaxmppException;
+import tigase.jaxmpp.core.client.xml.Element;
+import tigase.jaxmpp.core.client.xml.ElementFactory;
+import tigase.jaxmpp.core.client.xmpp.modules.ModuleProvider;
+import tigase.jaxmpp.core.client.xmpp.stream.XmppStreamsManager;
+import tigase.jaxmpp.j2se.CachingDNSResolver;
+import tigase.jaxmpp.j2se.J2SESessionObject;
+import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.DirectTlsDnsResolver;
+import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.DnsResolver;
+import tigase.jaxmpp.j2se.connectors.socket.SocketConnector.Entry;
+
+public class SocketConnectorTest {
+
+	/**
+	 * Stream of socket, which may block writing thread until it is released
+	 * and fail on flush.
+	 */
+	private static class SocketOutputStream extends ByteArrayOutputStream {
+
+		private volatile boolean block;
+
+		private final CountDownLatch blocked = new CountDownLatch(1);
+
+		private volatile boolean fail;
+
+		private final AtomicInteger flushes = new AtomicInteger();
+
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		@Override
+		public void flush() throws IOException {
+			if (fail)
+				throw new IOException("Connection reset");
+			flushes.incrementAndGet();
+		}
+
+		String getText() {
+			return new String(toByteArray(), UTF_CHARSET);
+		}
+
+		void release() {
+			block = false;
+			released.countDown();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			if (block) {
+				blocked.countDown();
+				try {
+					released.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+				}
+			}
+			super.write(b, off, len);
+		}
+	}
+
+	private static final Charset UTF_CHARSET = Charset.forName("UTF-8");
+
+	private SocketConnector connector;
+
+	private EventBus eventBus;
+
+	private SocketOutputStream out;
+
+	private volatile JaxmppException sendError;
+
+	private SessionObject sessionObject;
+
+	private static Element message(String id, int bodyLength) throws JaxmppException {
+		Element message = ElementFactory.create("message");
+		message.setAttribute("id", id);
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < bodyLength; i++) {
+			body.append('x');
+		}
+		message.addChild(ElementFactory.create("body", body.toString(), null));
+		return message;
+	}
+
+	@Before
+	public void setUp() {
+		eventBus = new DefaultEventBus();
+		sessionObject = new J2SESessionObject();
+		connector = new SocketConnector(new Context() {
+
+			@Override
+			public EventBus getEventBus() {
+				return eventBus;
+			}
+
+			@Override
+			public ModuleProvider getModuleProvider() {
+				return null;
+			}
+
+			@Override
+			public SessionObject getSessionObject() {
+				return sessionObject;
+			}
+
+			@Override
+			public XmppStreamsManager getStreamsManager() {
+				return null;
+			}
+
+			@Override
+			public PacketWriter getWriter() {
+				return null;
+			}
+		});
+		out = new SocketOutputStream();
+		connector.writer = out;
+	}
+
+	/**
+	 * Starts thread sending stanza and waits until it is blocked in writing
+	 * to socket.
+	 */
+	private Thread sendBlocked(final Element stanza) throws Exception {
+		out.block = true;
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					connector.send(stanza);
+				} catch (JaxmppException e) {
+					sendError = e;
+				}
+			}
+		};
+		t.start();
+		Assert.assertTrue(out.blocked.await(5, TimeUnit.SECONDS));
+		return t;
+	}
+
+	@Test
+	public void testSendAsync() throws Exception {
+		Element stanza = message("1", 1);
+		SendFuture future = connector.sendAsync(stanza);
+		future.get(5, TimeUnit.SECONDS);
+		Assert.assertTrue(future.isSuccess());
+		Assert.assertSame(stanza, future.getStanza());
+		Assert.assertEquals(stanza.getAsString(), out.getText());
+
+		connector.writer = null;
+		future = connector.sendAsync(message("2", 1));
+		Assert.assertTrue(future.isDone());
+		Assert.assertFalse(future.isSuccess());
+	}
+
+	@Test
+	public void testSendAsyncWithoutWriter() throws Exception {
+		Thread sender = sendBlocked(message("1", 1));
+		SendFuture future = connector.sendAsync(message("2", 1));
+		Assert.assertFalse(future.isDone());
+
+		// stream is being replaced, for example after STARTTLS
+		connector.writer = null;
+		out.release();
+		sender.join(5000);
+
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			Assert.fail("Stanza which wasn't written reported as sent");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IOException);
+		}
+		Assert.assertFalse(out.getText().contains("id=\"2\""));
+	}
+
+	@Test
+	public void testOutboundQueueLimit() throws Exception {
+		sessionObject.setUserProperty(SocketConnector.OUTBOUND_QUEUE_LIMIT_KEY, 1);
+		Thread sender = sendBlocked(message("1", 1));
+
+		SendFuture queued = connector.sendAsync(message("2", 1));
+		SendFuture rejected = connector.sendAsync(message("3", 1));
+		Assert.assertTrue(rejected.isDone());
+		Assert.assertFalse(rejected.isSuccess());
+		Assert.assertFalse(queued.isDone());
+
+		out.release();
+		sender.join(5000);
+		queued.get(5, TimeUnit.SECONDS);
+		Assert.assertTrue(queued.isSuccess());
+		Assert.assertFalse(out.getText().contains("id=\"3\""));
+	}
+
+	@Test
+	public void testWritabilityWatermarks() throws Exception {
+		sessionObject.setUserProperty(SocketConnector.OUTBOUND_HIGH_WATERMARK_KEY, 100);
+		sessionObject.setUserProperty(SocketConnector.OUTBOUND_LOW_WATERMARK_KEY, 50);
+		final List<Boolean> events = Collections.synchronizedList(new ArrayList<Boolean>());
+		eventBus.addHandler(WritabilityChangedEvent.class, new WritabilityChangedHandler() {
+
+			@Override
+			public void onWritabilityChanged(SessionObject sessionObject, boolean writable) {
+				events.add(writable);
+			}
+		});
+
+		Thread sender = sendBlocked(message("1", 10));
+		Assert.assertTrue(connector.isWritable());
+		connector.sendAsync(message("2", 200));
+		Assert.assertFalse(connector.isWritable());
+		Assert.assertEquals(Collections.singletonList(Boolean.FALSE), events);
+
+		out.release();
+		sender.join(5000);
+		Assert.assertTrue(connector.isWritable());
+		Assert.assertEquals(2, events.size());
+		Assert.assertEquals(Boolean.TRUE, events.get(1));
+	}
+
+	@Test
+	public void testConcurrentSendersKeepOrder() throws Exception {
+		final int threads = 4;
+		final int stanzas = 50;
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> senders = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			final int thread = i;
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int j = 0; j < stanzas; j++) {
+							connector.send(message(thread + "-" + j, 10));
+						}
+					} catch (Exception e) {
+						sendError = new JaxmppException(e);
+					}
+				}
+			};
+			t.start();
+			senders.add(t);
+		}
+		start.countDown();
+		for (Thread t : senders) {
+			t.join(5000);
+		}
+		Assert.assertNull(sendError);
+
+		String text = out.getText();
+		for (int i = 0; i < threads; i++) {
+			int position = -1;
+			for (int j = 0; j < stanzas; j++) {
+				int next = text.indexOf("id=\"" + i + "-" + j + "\"");
+				Assert.assertTrue("Stanza " + i + "-" + j + " sent out of order", next > position);
+				position = next;
+			}
+		}
+	}
+
+	@Test
+	public void testQueuedStanzasFlushedInOneBatch() throws Exception {
+		Thread sender = sendBlocked(message("1", 1));
+		// writing thread is busy, so these calls only queue stanzas
+		connector.send(message("2", 1));
+		connector.send(message("3", 1));
+		connector.send(message("4", 1));
+		Assert.assertEquals(0, out.flushes.get());
+		Assert.assertFalse(out.getText().contains("id=\"2\""));
+
+		out.release();
+		sender.join(5000);
+		Assert.assertEquals(2, out.flushes.get());
+		String text = out.getText();
+		Assert.assertTrue(text.indexOf("id=\"2\"") < text.indexOf("id=\"3\""));
+		Assert.assertTrue(text.indexOf("id=\"3\"") < text.indexOf("id=\"4\""));
+	}
+
+	@Test
+	public void testWriteErrorThrownToWritingThread() throws Exception {
+		Thread sender = sendBlocked(message("1", 1));
+		SendFuture future = connector.sendAsync(message("2", 1));
+		// error of writing is not reported to thread which only queued stanza
+		connector.send(message("3", 1));
+
+		out.fail = true;
+		out.release();
+		sender.join(5000);
+		Assert.assertNotNull(sendError);
+		Assert.assertTrue(sendError.getCause() instanceof IOException);
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			Assert.fail("Stanza which wasn't written reported as sent");
+		} catch (ExecutionException e) {
+			Assert.assertSame(sendError.getCause(), e.getCause());
+		}
+		Assert.assertEquals(State.disconnected, connector.getState());
+	}
+
+	@Test
+	public void testDirectTlsOptOutNotTried() throws Exception {
+		final DirectTlsDnsResolver resolver = new DirectTlsDnsResolver() {
+
+			@Override
+			public List<Entry> resolve(String hostname) {
+				return Collections.singletonList(new Entry("xmpp." + hostname, 5222));
+			}
+
+			@Override
+			public List<Entry> resolveDirectTls(String hostname) {
+				return Arrays.asList(new Entry(".", 0, true), new Entry("", 0, true));
+			}
+		};
+		UniversalFactory.setSpi(DnsResolver.class.getName(), new FactorySpi<DnsResolver>() {
+
+			@Override
+			public DnsResolver create() {
+				return resolver;
+			}
+		}, true);
+		try {
+			sessionObject.setUserProperty(SessionObject.DOMAIN_NAME, "example.com");
+			List<Entry> hosts = connector.resolveServerHosts();
+			Assert.assertEquals(1, hosts.size());
+			Assert.assertEquals("xmpp.example.com", hosts.get(0).getHostname());
+			Assert.assertFalse(hosts.get(0).isDirectTls());
+		} finally {
+			UniversalFactory.setSpi(DnsResolver.class.getName(), new FactorySpi<DnsResolver>() {
+
+				@Override
+				public DnsResolver create() {
+					return CachingDNSResolver.getInstance();
+				}
+			}, true);
+		}
+	}
+
+	@Test
+	public void testWorkerThreadMethods() throws Exception {
+		final CountDownLatch released = new CountDownLatch(1);
+		final CountDownLatch terminated = new CountDownLatch(1);
+		Worker worker = new Worker(connector) {
+
+			@Override
+			protected Reader getReader() {
+				return new Reader() {
+
+					@Override
+					public int read(char[] cbuf) throws IOException {
+						try {
+							released.await(5, TimeUnit.SECONDS);
+						} catch (InterruptedException e) {
+						}
+						return -1;
+					}
+				};
+			}
+
+			@Override
+			protected void onErrorInThread(Exception e) throws JaxmppException {
+			}
+
+			@Override
+			protected void onStreamStart(Map<String, String> attribs) {
+			}
+
+			@Override
+			protected void onStreamTerminate() throws JaxmppException {
+			}
+
+			@Override
+			protected void processElement(Element elem) throws JaxmppException {
+			}
+
+			@Override
+			protected void workerTerminated() {
+				terminated.countDown();
+			}
+		};
+		Assert.assertNull(worker.getThread());
+		Assert.assertFalse(worker.isAlive());
+		worker.join();
+
+		worker.setName("worker-test");
+		worker.start(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "factory-thread");
+			}
+		});
+		Assert.assertEquals("worker-test", worker.getThread().getName());
+		Assert.assertEquals("worker-test", worker.getName());
+		Assert.assertTrue(worker.isAlive());
+
+		released.countDown();
+		worker.join(5000);
+		Assert.assertFalse(worker.isAlive());
+		Assert.assertEquals(0, terminated.getCount());
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.connectors.socket;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZLibOutputStreamTest {
+
+	private static String inflate(Inflater inflater, byte[] data) throws Exception {
+		inflater.setInput(data);
+		byte[] out = new byte[64 * 1024];
+		int n = inflater.inflate(out);
+		return new String(out, 0, n, "UTF-8");
+	}
+
+	@Test
+	public void testFlushOnlyOnBatchBoundary() throws Exception {
+		ByteArrayOutputStream socket = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, false);
+		ZLibOutputStream out = new ZLibOutputStream(socket, deflater, Deflater.DEFAULT_COMPRESSION, Deflater.SYNC_FLUSH);
+		Inflater inflater = new Inflater(false);
+
+		String first = "<message to='a@b'><body>first</body></message>";
+		String second = "<message to='a@b'><body>second</body></message>";
+		out.write(first.getBytes("UTF-8"));
+		out.write(second.getBytes("UTF-8"));
+		out.flush();
+		Assert.assertEquals(first + second, inflate(inflater, socket.toByteArray()));
+
+		socket.reset();
+		out.write(first.getBytes("UTF-8"));
+		out.flush();
+		// whole data is available after flush
+		Assert.assertEquals(first, inflate(inflater, socket.toByteArray()));
+		Assert.assertEquals(deflater.getBytesRead(), inflater.getBytesWritten());
+	}
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.xml;
+
+import java.util.Map;
+
+import tigase.jaxmpp.core.client.xml.Element;
+import tigase.jaxmpp.core.client.xml.XMLException;
+import tigase.jaxmpp.j2se.connectors.socket.ElementBuilderHandler;
+import tigase.jaxmpp.j2se.connectors.socket.ElementStreamListener;
+import tigase.jaxmpp.j2se.connectors.socket.StreamListener;
+import tigase.jaxmpp.j2se.connectors.socket.XMPPDomBuilderHandler;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+
+/**
+ * Compares parsing of received data into <code>J2seElement</code> wrappers
+ * and into native elements built by {@link ElementBuilderHandler}, including
+ * typical navigation done by modules. It is not executed as unit test; run it
+ * manually:
+ *
+ * <pre>
+ * java -cp ... tigase.jaxmpp.j2se.xml.ElementParsingBenchmark [iterations]
+ * </pre>
+ */
+public class ElementParsingBenchmark {
+
+	private static final String STANZAS = "<message to='a@example.com/r' from='b@example.com/r' type='chat' id='m1'>"
+			+ "<body>Hello &amp; welcome</body><active xmlns='http://jabber.org/protocol/chatstates'/></message>"
+			+ "<presence from='c@example.com/r'><show>away</show><status>Busy</status>"
+			+ "<c xmlns='http://jabber.org/protocol/caps' hash='sha-1' node='n' ver='v'/></presence>"
+			+ "<iq type='result' id='r1'><query xmlns='jabber:iq:roster'>"
+			+ "<item jid='d@example.com' name='D' subscription='both'><group>Friends</group></item>"
+			+ "<item jid='e@example.com' name='E' subscription='to'><group>Work</group></item>"
+			+ "</query></iq>";
+
+	private static long checksum;
+
+	public static void main(String[] args) throws Exception {
+		final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		final char[] data = STANZAS.toCharArray();
+
+		for (int round = 0; round < 3; round++) {
+			run("J2seElement", data, iterations, true);
+			run("ElementBuilderHandler", data, iterations, false);
+		}
+		System.out.println("checksum: " + checksum);
+	}
+
+	/**
+	 * Navigation similar to what modules do: criteria matching of children,
+	 * reading attributes and values, walking to parent.
+	 */
+	private static void navigate(Element element) throws XMLException {
+		for (int i = 0; i < 4; i++) {
+			for (Element child : element.getChildren()) {
+				checksum += child.getName().length();
+				if (child.getParent() != null)
+					checksum++;
+				Element first = child.getFirstChild();
+				if (first != null && first.getAttribute("jid") != null)
+					checksum++;
+				for (Element cc : child.getChildren()) {
+					if (cc.getValue() != null)
+						checksum += cc.getValue().length();
+				}
+			}
+		}
+	}
+
+	private static void run(String name, char[] data, int iterations, boolean wrapped) throws Exception {
+		final SimpleParser parser = SingletonFactory.getParserInstance();
+		final XMPPDomBuilderHandler wrappingHandler = new XMPPDomBuilderHandler(new StreamListener() {
+
+			@Override
+			public void nextElement(tigase.xml.Element element) {
+				try {
+					navigate(new J2seElement(element));
+				} catch (XMLException e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+			@Override
+			public void xmppStreamClosed() {
+			}
+
+			@Override
+			public void xmppStreamOpened(Map<String, String> attribs) {
+			}
+		});
+		final ElementBuilderHandler nativeHandler = new ElementBuilderHandler(new ElementStreamListener() {
+
+			@Override
+			public void nextElement(Element element) {
+				try {
+					navigate(element);
+				} catch (XMLException e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+			@Override
+			public void xmppStreamClosed() {
+			}
+
+			@Override
+			public void xmppStreamOpened(Map<String, String> attribs) {
+			}
+		});
+
+		System.gc();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			if (wrapped)
+				parser.parse(wrappingHandler, data, 0, data.length);
+			else
+				parser.parse(nativeHandler, data, 0, data.length);
+		}
+		long time = System.nanoTime() - start;
+		System.out.printf("%-22s %8.0f ns/batch%n", name, (double) time / iterations);
+	}
+
+}
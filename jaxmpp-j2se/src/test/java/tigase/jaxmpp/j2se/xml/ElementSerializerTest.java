@@ -0,0 +1,138 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import tigase.jaxmpp.core.client.xml.CachingElement;
+import tigase.jaxmpp.core.client.xml.Element;
+import tigase.jaxmpp.core.client.xml.ElementFactory;
+import tigase.jaxmpp.core.client.xmpp.stanzas.Message;
+import tigase.jaxmpp.core.client.xmpp.stanzas.Stanza;
+
+public class ElementSerializerTest extends TestCase {
+
+	private static final Charset UTF_CHARSET = Charset.forName("UTF-8");
+
+	private static void assertSerialized(Element element) throws Exception {
+		ElementSerializer serializer = new ElementSerializer(8);
+		serializer.append(element);
+		assertTrue(Arrays.equals(element.getAsString().getBytes(UTF_CHARSET), serializer.toByteArray()));
+	}
+
+	public void testCache() throws Exception {
+		Message m = Message.create();
+		m.setBody("test");
+		CachingElement e = (CachingElement) m.getWrappedElement();
+
+		ElementSerializer serializer = new ElementSerializer();
+		serializer.append(m, true);
+		byte[] cached = e.getCachedBytes();
+		assertTrue(Arrays.equals(m.getAsString().getBytes(UTF_CHARSET), cached));
+		assertTrue(Arrays.equals(cached, serializer.toByteArray()));
+
+		serializer.reset();
+		serializer.append(m, true);
+		assertSame(cached, e.getCachedBytes());
+		assertTrue(Arrays.equals(cached, serializer.toByteArray()));
+
+		m.getFirstChild("body").setValue("changed");
+		assertNull(e.getCachedBytes());
+		serializer.reset();
+		serializer.append(m, true);
+		assertEquals(m.getAsString(), new String(serializer.toByteArray(), UTF_CHARSET));
+
+		CachingElement body = (CachingElement) m.getFirstChild("body");
+		serializer.reset();
+		serializer.append(body, true);
+		assertNull(body.getCachedBytes());
+	}
+
+	public void testCompact() throws Exception {
+		Element iq = ElementFactory.createCompact("iq", null, "jabber:client");
+		iq.setAttribute("to", "a&b<c>\"d'@example.com");
+		iq.setAttribute("id", "1");
+		Element query = ElementFactory.createCompact("query", null, "jabber:iq:roster");
+		iq.addChild(query);
+		Element item = ElementFactory.createCompact("item", null, "jabber:iq:roster");
+		item.setAttribute("jid", "romeo@example.net");
+		item.setAttribute("name", "zażółć 中文 😀");
+		query.addChild(item);
+		item.addChild(ElementFactory.createCompact("group", "1 < 2 && 'x' > \"y\"", null));
+		item.addChild(ElementFactory.create("group", "Friends", null));
+		query.addChild(ElementFactory.createCompact("item", null, null));
+		assertSerialized(iq);
+		assertSerialized(query);
+		assertSerialized(item);
+	}
+
+	public void testEscaping() throws Exception {
+		Element e = ElementFactory.create("message");
+		e.setAttribute("to", "a&b<c>\"d'@example.com");
+		e.addChild(ElementFactory.create("body", "1 < 2 && 'x' > \"y\"", null));
+		assertSerialized(e);
+	}
+
+	public void testNamespaces() throws Exception {
+		Element iq = ElementFactory.create("iq", null, "jabber:client");
+		Element query = ElementFactory.create("query", null, "jabber:iq:roster");
+		iq.addChild(query);
+		Element item = ElementFactory.create("item", null, "jabber:iq:roster");
+		item.setAttribute("jid", "romeo@example.net");
+		query.addChild(item);
+		item.addChild(ElementFactory.create("group", "Friends", null));
+		assertSerialized(iq);
+		assertSerialized(query);
+	}
+
+	public void testNonAscii() throws Exception {
+		Element e = ElementFactory.create("body", "zażółć 中文 😀 \ud800", null);
+		assertSerialized(e);
+	}
+
+	public void testReuse() throws Exception {
+		ElementSerializer serializer = new ElementSerializer();
+		serializer.append("<stream:stream>");
+		serializer.reset();
+		Message m = Message.create();
+		m.setBody("test");
+		serializer.append(m);
+		assertEquals(m.getAsString(), new String(serializer.getBuffer(), 0, serializer.size(), UTF_CHARSET));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serializer.writeTo(out);
+		assertEquals(m.getAsString(), new String(out.toByteArray(), UTF_CHARSET));
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(serializer.size());
+		serializer.writeTo(direct);
+		direct.flip();
+		assertEquals(m.getAsString(), UTF_CHARSET.decode(direct).toString());
+	}
+
+	public void testWrapper() throws Exception {
+		Stanza s = Stanza.createIQ();
+		s.setAttribute("id", "1");
+		s.addChild(ElementFactory.create("ping", null, "urn:xmpp:ping"));
+		assertSerialized(s);
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Tigase XMPP Client Library
+ * Copyright (C) 2006-2014 Tigase, Inc. <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.jaxmpp.j2se.xml;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SymbolTableTest {
+
+	@Test
+	public void testCanonicalInstance() {
+		SymbolTable table = new SymbolTable(64);
+		String s1 = table.get(new StringBuilder("urn:example"));
+		String s2 = table.get(new StringBuilder("urn:example"));
+		Assert.assertEquals("urn:example", s1);
+		Assert.assertSame(s1, s2);
+		Assert.assertSame(s1, table.get(new StringBuilder("xmlns:urn:example"), 6, 17));
+	}
+
+	@Test
+	public void testCollisions() {
+		SymbolTable table = new SymbolTable(1);
+		Assert.assertEquals("a", table.get("a"));
+		Assert.assertEquals("b", table.get("b"));
+		Assert.assertEquals("a", table.get(new StringBuilder("a")));
+		// "Aa" and "BB" have the same hash code
+		Assert.assertEquals("Aa", table.get(new StringBuilder("Aa")));
+		Assert.assertEquals("BB", table.get(new StringBuilder("BB")));
+	}
+
+	@Test
+	public void testLongSymbol() {
+		SymbolTable table = new SymbolTable(64);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i <= SymbolTable.MAX_SYMBOL_LENGTH; i++) {
+			sb.append('x');
+		}
+		String s = table.get(sb);
+		Assert.assertEquals(sb.toString(), s);
+		Assert.assertNotSame(s, table.get(sb));
+	}
+
+	@Test
+	public void testPredefined() {
+		SymbolTable table = new SymbolTable(SymbolTable.DEFAULT_SIZE);
+		Assert.assertSame("message", table.get(new StringBuilder("message")));
+		Assert.assertSame("jabber:client", table.get(new StringBuilder("jabber:client")));
+	}
+
+}
@@ -4,6 +4,11 @@ import java.util.*;
 
 import tigase.jaxmpp.core.client.BareJID;
 
+/**
+ * Roster store keeping items in memory. Store is thread safe, as roster items
+ * may be processed by thread reading from connection while other threads use
+ * roster.
+ */
 public class DefaultRosterStore extends RosterStore {
 
 	protected final Set<String> groups = new HashSet<String>();
@@ -34,18 +39,20 @@ public class DefaultRosterStore extends RosterStore {
 		reloadGroups();
 		HashSet<String> modifiedGroups = new HashSet<String>();
 
-		Iterator<String> e = groupsOld.iterator();
-		while (e.hasNext()) {
-			String gg = e.next();
-			if (!groups.contains(gg)) {
-				modifiedGroups.add(gg);
+		synchronized (this.groups) {
+			Iterator<String> e = groupsOld.iterator();
+			while (e.hasNext()) {
+				String gg = e.next();
+				if (!groups.contains(gg)) {
+					modifiedGroups.add(gg);
+				}
 			}
-		}
-		e = groups.iterator();
-		while (e.hasNext()) {
-			String gg = e.next();
-			if (!groupsOld.contains(gg)) {
-				modifiedGroups.add(gg);
+			e = groups.iterator();
+			while (e.hasNext()) {
+				String gg = e.next();
+				if (!groupsOld.contains(gg)) {
+					modifiedGroups.add(gg);
+				}
 			}
 		}
 
@@ -100,24 +107,30 @@ public class DefaultRosterStore extends RosterStore {
 	 */
 	@Override
 	public int getCount() {
-		return roster.size();
+		synchronized (this.roster) {
+			return roster.size();
+		}
 	}
 
 	/**
 	 * Get all known groups of buddies.
 	 * 
-	 * @return collection of group names.
+	 * @return copy of collection of group names.
 	 */
 	@Override
 	public Collection<? extends String> getGroups() {
-		return Collections.unmodifiableCollection(this.groups);
+		synchronized (this.groups) {
+			return Collections.unmodifiableCollection(new HashSet<String>(this.groups));
+		}
 	}
 
 	void reloadGroups() {
-		synchronized (groups) {
-			groups.clear();
-			for (RosterItem i : this.roster.values()) {
-				groups.addAll(i.getGroups());
+		synchronized (this.roster) {
+			synchronized (this.groups) {
+				groups.clear();
+				for (RosterItem i : this.roster.values()) {
+					groups.addAll(i.getGroups());
+				}
 			}
 		}
 	}
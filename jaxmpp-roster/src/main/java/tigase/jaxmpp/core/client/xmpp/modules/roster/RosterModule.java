@@ -31,6 +31,8 @@ import tigase.jaxmpp.core.client.exceptions.JaxmppException;
 import tigase.jaxmpp.core.client.factory.UniversalFactory;
 import tigase.jaxmpp.core.client.xml.Element;
 import tigase.jaxmpp.core.client.xml.ElementFactory;
+import tigase.jaxmpp.core.client.xml.StreamingHandler;
+import tigase.jaxmpp.core.client.xml.StreamingHandlers;
 import tigase.jaxmpp.core.client.xml.XMLException;
 import tigase.jaxmpp.core.client.xmpp.modules.*;
 import tigase.jaxmpp.core.client.xmpp.modules.roster.RosterItem.Subscription;
@@ -49,6 +51,31 @@ public class RosterModule extends AbstractIQModule implements ContextAware, Init
 	public static final Criteria CRIT = ElementCriteria.name("iq").add(
 			ElementCriteria.name("query", new String[] { "xmlns" }, new String[] { "jabber:iq:roster" }));
 	public static final String ROSTER_STORE_KEY = "RosterModule#ROSTER_STORE";
+
+	/**
+	 * Path of roster items streamed by connector.
+	 */
+	public static final String ROSTER_ITEM_PATH = "iq/query[jabber:iq:roster]/item";
+
+	/**
+	 * Id of sent roster request, which items may be streamed.
+	 */
+	private volatile String rosterRequestId;
+
+	/**
+	 * <code>true</code> if items of response to current roster request were
+	 * already processed while response was parsed.
+	 */
+	private volatile boolean rosterItemsStreamed;
+
+	private final StreamingHandler rosterItemHandler = new StreamingHandler() {
+
+		@Override
+		public boolean onElement(Element stanza, Element element) throws JaxmppException {
+			return processStreamedRosterItem(stanza, element);
+		}
+	};
+
 	private RosterCacheProvider versionProvider;
 
 	public RosterModule() {
@@ -177,12 +204,12 @@ public class RosterModule extends AbstractIQModule implements ContextAware, Init
 		if (this.versionProvider == null)
 			this.versionProvider = UniversalFactory.createInstance(RosterCacheProvider.class.getName());
 		context.getEventBus().addHandler(XmppSessionEstablishedHandler.XmppSessionEstablishedEvent.class, this);
+		StreamingHandlers.get(context.getSessionObject()).addHandler(ROSTER_ITEM_PATH, rosterItemHandler);
 	}
 
 	@Override
 	public void beforeUnregister() {
-		// TODO Auto-generated method stub
-
+		StreamingHandlers.get(context.getSessionObject()).removeHandler(rosterItemHandler);
 	}
 
 	@Override
@@ -316,6 +343,34 @@ public class RosterModule extends AbstractIQModule implements ContextAware, Init
 		}
 	}
 
+	/**
+	 * Processes roster item of response to roster request while response is
+	 * still being received. Roster is cleared before first item, like it is
+	 * done for complete response. Events of roster store are fired in thread
+	 * reading from connection, before response is passed to executor, so
+	 * roster store has to be thread safe like {@link DefaultRosterStore}.
+	 *
+	 * @return <code>true</code> if item is processed and may be dropped from
+	 *         response.
+	 */
+	private boolean processStreamedRosterItem(final Element stanza, final Element item) throws JaxmppException {
+		final String id = rosterRequestId;
+		if (id == null || !id.equals(stanza.getAttribute("id")) || !"result".equals(stanza.getAttribute("type")))
+			return false;
+		final String from = stanza.getAttribute("from");
+		if (from != null) {
+			final JID bindedJid = context.getSessionObject().getProperty(ResourceBinderModule.BINDED_RESOURCE_JID);
+			if (bindedJid == null || !BareJID.bareJIDInstance(from).equals(bindedJid.getBareJid()))
+				return false;
+		}
+		if (!rosterItemsStreamed) {
+			rosterItemsStreamed = true;
+			getRosterStore().removeAll();
+		}
+		processRosterItem(item);
+		return true;
+	}
+
 	@Override
 	protected void processSet(final IQ stanza) throws JaxmppException {
 		final JID bindedJid = context.getSessionObject().getProperty(ResourceBinderModule.BINDED_RESOURCE_JID);
@@ -371,26 +426,32 @@ public class RosterModule extends AbstractIQModule implements ContextAware, Init
 				query.setAttribute("ver", x);
 		}
 		iq.addChild(query);
+		iq.setId(UIDGenerator.next());
+		rosterItemsStreamed = false;
+		rosterRequestId = iq.getId();
 
 		write(iq, new AsyncCallback() {
 
 			@Override
 			public void onError(Stanza responseStanza, ErrorCondition error) throws XMLException {
-				// TODO Auto-generated method stub
-
+				rosterRequestId = null;
 			}
 
 			@Override
 			public void onSuccess(Stanza responseStanza) throws JaxmppException {
 				Element query = ((IQ) responseStanza).getQuery();
+				// streamed items are already processed and removed from
+				// response, so roster must not be cleared again
+				final boolean streamed = rosterItemsStreamed;
+				rosterRequestId = null;
+				rosterItemsStreamed = false;
 
-				processRosterQuery(query, true);
+				processRosterQuery(query, !streamed);
 			}
 
 			@Override
 			public void onTimeout() throws XMLException {
-				// TODO Auto-generated method stub
-
+				rosterRequestId = null;
 			}
 		});
 	}